@@ -0,0 +1,174 @@
+package com.anton111111.player;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP server of one media file with support of Range requests,
+ * it stands in for CDN and counts bytes it sends. Every connection may be throttled
+ * like TCP connection over link with high latency.
+ */
+public class LocalMediaServer {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final int WRITE_SIZE = 16 * 1024;
+
+    private final byte[] media;
+    private final ServerSocket serverSocket;
+    private final AtomicLong servedBytes = new AtomicLong();
+    private final AtomicInteger connectionsCount = new AtomicInteger();
+    private final AtomicInteger maxConnectionsCount = new AtomicInteger();
+    private volatile long bytesPerSecond = 0;
+    private volatile boolean isRangeSupported = true;
+    private final Thread thread;
+
+    public LocalMediaServer(byte[] media) throws IOException {
+        this.media = media;
+        serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    serve(socket);
+                                } catch (IOException e) {
+                                    // Client went away
+                                }
+                            }
+                        }, "LocalMediaServerConnection").start();
+                    } catch (IOException e) {
+                        // Closed
+                    }
+                }
+            }
+        }, "LocalMediaServer");
+        thread.start();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + path;
+    }
+
+    public long getServedBytes() {
+        return servedBytes.get();
+    }
+
+    /**
+     * @param bytesPerSecond limit of every connection, 0 is no limit
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param isRangeSupported false to answer the whole media to every request
+     */
+    public void setRangeSupported(boolean isRangeSupported) {
+        this.isRangeSupported = isRangeSupported;
+    }
+
+    /**
+     * @return the most connections which were served at once
+     */
+    public int getMaxConnectionsCount() {
+        return maxConnectionsCount.get();
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        int connections = connectionsCount.incrementAndGet();
+        while (true) {
+            int max = maxConnectionsCount.get();
+            if (connections <= max || maxConnectionsCount.compareAndSet(max, connections)) {
+                break;
+            }
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            long start = 0;
+            long end = media.length - 1;
+            boolean isRange = false;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                if (isRangeSupported && line.toLowerCase().startsWith("range:")) {
+                    Matcher matcher = RANGE.matcher(line.substring(6).trim());
+                    if (matcher.matches()) {
+                        isRange = true;
+                        start = Long.parseLong(matcher.group(1));
+                        if (!matcher.group(2).isEmpty()) {
+                            end = Math.min(end, Long.parseLong(matcher.group(2)));
+                        }
+                    }
+                }
+            }
+            OutputStream out = socket.getOutputStream();
+            if (start > end) {
+                out.write(("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Length: 0\r\n" +
+                        "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+                out.flush();
+                return;
+            }
+            long length = end - start + 1;
+            StringBuilder headers = new StringBuilder();
+            headers.append(isRange ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n")
+                    .append("Content-Type: video/mp4\r\n")
+                    .append(isRangeSupported ? "Accept-Ranges: bytes\r\n" : "")
+                    .append("Content-Length: ").append(length).append("\r\n");
+            if (isRange) {
+                headers.append("Content-Range: bytes ").append(start).append('-').append(end)
+                        .append('/').append(media.length).append("\r\n");
+            }
+            headers.append("Connection: close\r\n\r\n");
+            out.write(headers.toString().getBytes("US-ASCII"));
+            long startTime = System.nanoTime();
+            for (long written = 0; written < length; ) {
+                int count = (int) Math.min(WRITE_SIZE, length - written);
+                out.write(media, (int) (start + written), count);
+                written += count;
+                servedBytes.addAndGet(count);
+                throttle(written, startTime);
+            }
+            out.flush();
+        } finally {
+            connectionsCount.decrementAndGet();
+            socket.close();
+        }
+    }
+
+    private void throttle(long written, long startTime) throws IOException {
+        long limit = bytesPerSecond;
+        if (limit <= 0) {
+            return;
+        }
+        long sleepNanos = written * 1000000000L / limit - (System.nanoTime() - startTime);
+        if (sleepNanos > 0) {
+            try {
+                Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.anton111111.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class MediaCacheInstrumentedTest {
+
+    private static final int MEDIA_SIZE = 3 * 1024 * 1024;
+    private static final long CACHE_SIZE = 64L * 1024 * 1024;
+
+    private LocalMediaServer server;
+    private MediaCache mediaCache;
+    private byte[] media;
+
+    @Before
+    public void setUp() throws IOException {
+        media = new byte[MEDIA_SIZE];
+        new Random(42).nextBytes(media);
+        server = new LocalMediaServer(media);
+        Context context = InstrumentationRegistry.getTargetContext();
+        mediaCache = MediaCache.getInstance(new File(context.getCacheDir(), "media_test"), CACHE_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private static byte[] read(DataSource dataSource, Uri uri, long position) throws IOException {
+        byte[] result;
+        try {
+            long length = dataSource.open(new DataSpec(uri, position, C.LENGTH_UNSET, null));
+            result = new byte[(int) length];
+            int offset = 0;
+            while (offset < result.length) {
+                int read = dataSource.read(result, offset, result.length - offset);
+                if (read == C.RESULT_END_OF_INPUT) {
+                    break;
+                }
+                offset += read;
+            }
+            assertEquals(result.length, offset);
+        } finally {
+            dataSource.close();
+        }
+        return result;
+    }
+
+    @Test
+    public void secondReadIsServedFromDisk() throws IOException {
+        // Unique path, cache is shared with previous runs
+        Uri uri = Uri.parse(server.getUrl("video" + System.nanoTime() + ".mp4"));
+        assertTrue(MediaCache.isCacheable(uri));
+        DataSource.Factory factory = mediaCache.createDataSourceFactory(
+                new DefaultHttpDataSourceFactory("test"));
+        MediaCacheStats stats = mediaCache.getStats();
+        stats.reset();
+
+        assertArrayEquals(media, read(factory.createDataSource(), uri, 0));
+        assertEquals(MEDIA_SIZE, server.getServedBytes());
+        assertEquals(MEDIA_SIZE, stats.getDownloadedBytes());
+        assertArrayEquals(new float[]{0.0f, 100.0f}, mediaCache.getCachedRanges(uri), 0.001f);
+
+        // Watch again and seek back, nothing is downloaded
+        assertArrayEquals(media, read(factory.createDataSource(), uri, 0));
+        byte[] tail = read(factory.createDataSource(), uri, MEDIA_SIZE / 2);
+        assertEquals(MEDIA_SIZE - MEDIA_SIZE / 2, tail.length);
+        assertEquals(media[MEDIA_SIZE / 2], tail[0]);
+        assertEquals(MEDIA_SIZE, server.getServedBytes());
+        assertEquals(MEDIA_SIZE, stats.getDownloadedBytes());
+        assertTrue(stats.getSavedBytes() >= MEDIA_SIZE);
+        assertTrue(stats.getHitRatio() > 0.5f);
+    }
+
+    @Test
+    public void reportsPartlyCachedRanges() throws IOException {
+        Uri uri = Uri.parse(server.getUrl("partial" + System.nanoTime() + ".mp4"));
+        DataSource.Factory factory = mediaCache.createDataSourceFactory(
+                new DefaultHttpDataSourceFactory("test"));
+        // Length is not known until media is opened from start
+        assertEquals(0, mediaCache.getCachedRanges(uri).length);
+
+        DataSource dataSource = factory.createDataSource();
+        byte[] head = new byte[MEDIA_SIZE / 4];
+        try {
+            dataSource.open(new DataSpec(uri, 0, C.LENGTH_UNSET, null));
+            int offset = 0;
+            while (offset < head.length) {
+                offset += dataSource.read(head, offset, head.length - offset);
+            }
+        } finally {
+            dataSource.close();
+        }
+        float[] ranges = mediaCache.getCachedRanges(uri);
+        assertEquals(2, ranges.length);
+        assertEquals(0.0f, ranges[0], 0.001f);
+        assertTrue(ranges[1] >= 24.9f && ranges[1] < 100.0f);
+    }
+}
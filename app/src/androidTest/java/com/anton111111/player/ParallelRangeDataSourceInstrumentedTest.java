@@ -0,0 +1,120 @@
+package com.anton111111.player;
+
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class ParallelRangeDataSourceInstrumentedTest {
+
+    private static final int MEDIA_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_CHUNKS = 8;
+    // Every connection is slow, like one TCP connection over link with high latency
+    private static final long BYTES_PER_SECOND = 1024 * 1024;
+
+    private LocalMediaServer server;
+    private byte[] media;
+
+    @Before
+    public void setUp() throws IOException {
+        media = new byte[MEDIA_SIZE];
+        new Random(42).nextBytes(media);
+        server = new LocalMediaServer(media);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private static ParallelRangeDataSourceFactory createFactory(int connections) {
+        return new ParallelRangeDataSourceFactory(new DefaultHttpDataSourceFactory("test"), CHUNK_SIZE, MAX_CHUNKS,
+                new ConnectionCountController(connections, connections, connections,
+                        ConnectionCountController.DEFAULT_WINDOW_NANOS));
+    }
+
+    private static byte[] read(DataSource dataSource, DataSpec dataSpec) throws IOException {
+        byte[] result;
+        try {
+            long length = dataSource.open(dataSpec);
+            assertTrue(length != C.LENGTH_UNSET);
+            result = new byte[(int) length];
+            int offset = 0;
+            while (true) {
+                int read = dataSource.read(result, offset, Math.max(1, Math.min(32 * 1024, result.length - offset)));
+                if (read == C.RESULT_END_OF_INPUT) {
+                    break;
+                }
+                offset += read;
+            }
+            assertEquals(result.length, offset);
+        } finally {
+            dataSource.close();
+        }
+        return result;
+    }
+
+    @Test
+    public void loadsThrottledMediaByParallelConnections() throws IOException {
+        server.setBytesPerSecond(BYTES_PER_SECOND);
+        Uri uri = Uri.parse(server.getUrl("video.mp4"));
+        long start = System.nanoTime();
+        assertArrayEquals(media, read(createFactory(4).createDataSource(), new DataSpec(uri)));
+        long time = System.nanoTime() - start;
+
+        assertEquals(4, server.getMaxConnectionsCount());
+        // One connection needs MEDIA_SIZE / BYTES_PER_SECOND = 4 s
+        assertTrue("Load took " + time / 1000000 + " ms",
+                time < MEDIA_SIZE * 1000000000L / BYTES_PER_SECOND / 2);
+    }
+
+    @Test
+    public void readsRangeFromPosition() throws IOException {
+        Uri uri = Uri.parse(server.getUrl("video.mp4"));
+        DataSource dataSource = createFactory(3).createDataSource();
+        int position = CHUNK_SIZE * 3 + 100;
+
+        byte[] tail = read(dataSource, new DataSpec(uri, position, C.LENGTH_UNSET, null));
+        assertArrayEquals(Arrays.copyOfRange(media, position, MEDIA_SIZE), tail);
+
+        // Range which is set by cache, source is reused after close
+        byte[] part = read(dataSource, new DataSpec(uri, position, CHUNK_SIZE * 2, null));
+        assertArrayEquals(Arrays.copyOfRange(media, position, position + CHUNK_SIZE * 2), part);
+    }
+
+    @Test
+    public void readsByOneConnectionWithoutRanges() throws IOException {
+        server.setRangeSupported(false);
+        Uri uri = Uri.parse(server.getUrl("video.mp4"));
+        // Probe response has no Content-Range, media is read again by one connection
+        assertArrayEquals(media, read(createFactory(4).createDataSource(), new DataSpec(uri)));
+    }
+
+    @Test
+    public void adaptsConnectionsToThroughput() throws IOException {
+        server.setBytesPerSecond(BYTES_PER_SECOND);
+        ConnectionCountController controller = new ConnectionCountController(1, 4, 1, 200000000L);
+        ParallelRangeDataSourceFactory factory = new ParallelRangeDataSourceFactory(
+                new DefaultHttpDataSourceFactory("test"), CHUNK_SIZE, MAX_CHUNKS, controller);
+        Uri uri = Uri.parse(server.getUrl("video.mp4"));
+        assertArrayEquals(media, read(factory.createDataSource(), new DataSpec(uri)));
+        assertTrue(controller.getConnections() > 1);
+        assertTrue(server.getMaxConnectionsCount() > 1);
+    }
+}
@@ -0,0 +1,64 @@
+package com.anton111111.vr.program;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares lookups of one draw of VideoRenderer: lookup by index against
+ * the former containsKey() + get() on HashMap<String, Integer>.
+ */
+public class ShaderAttributesLocationsBenchmark {
+
+    private static final List<String> ATTRS = VideoProgramCache.ATTRS;
+    private static final List<String> UNIFORMS = VideoProgramCache.UNIFORMS;
+    private static final int ITERATIONS = 2000000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void indexLookupAgainstHashMap() {
+        HashMap<String, Integer> legacyUniforms = new HashMap<>();
+        for (int i = 0; i < UNIFORMS.size(); i++) {
+            legacyUniforms.put(UNIFORMS.get(i), i + 1);
+        }
+        ShaderAttributesLocations locations = new ShaderAttributesLocations(
+                ATTRS, new int[]{0, 1}, UNIFORMS, new int[]{1, 2, 3, 4});
+
+        long legacySum = 0;
+        long indexSum = 0;
+        long legacyTime = 0;
+        long indexTime = 0;
+        // Several rounds, the first ones are JIT warm up
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            legacySum = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (int u = 0; u < UNIFORMS.size(); u++) {
+                    String name = UNIFORMS.get(u);
+                    if (legacyUniforms.containsKey(name)) {
+                        legacySum += legacyUniforms.get(name);
+                    }
+                }
+            }
+            legacyTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            indexSum = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                indexSum += locations.getUniform(VideoProgramCache.UNIFORM_MVP_INDEX);
+                indexSum += locations.getUniform(VideoProgramCache.UNIFORM_TTM_INDEX);
+                indexSum += locations.getUniform(VideoProgramCache.UNIFORM_TEXTURE_INDEX);
+                indexSum += locations.getUniform(VideoProgramCache.UNIFORM_TEXTURE_CORD_OFFSET_INDEX);
+            }
+            indexTime = System.nanoTime() - start;
+        }
+
+        // Sums are used, so JIT doesn't remove loops
+        assertEquals(legacySum, indexSum);
+        System.out.println("Lookups of " + UNIFORMS.size() + " uniforms x " + ITERATIONS + ": HashMap " +
+                legacyTime / 1000000 + " ms, index " + indexTime / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,86 @@
+package com.anton111111.vr.raypicking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pick time of {@link PickBvh} against linear scan of all targets, from 10 to 10000 tiles
+ * of gallery grid in front of eye.
+ */
+public class PickBvhBenchmark {
+
+    private static final short[] QUAD_INDEXES = new short[]{0, 1, 2, 0, 2, 3};
+    private static final float TILE_SIZE = 0.9f;
+    private static final float PANEL_Z = -3.0f;
+    private static final int RAYS_COUNT = 1000;
+    private static final int ROUNDS = 4;
+
+    private static float[] quad(float left, float bottom, float size, float z) {
+        return new float[]{
+                left, bottom, z,
+                left + size, bottom, z,
+                left + size, bottom + size, z,
+                left, bottom + size, z
+        };
+    }
+
+    private static PickRay rayTo(float x, float y) {
+        PickRay ray = new PickRay();
+        ray.set(0.0f, 0.0f, 0.0f, x * 10.0f, y * 10.0f, PANEL_Z * 10.0f);
+        return ray;
+    }
+
+    @Test
+    public void bvhAgainstLinearScan() {
+        PickRay[] rays = new PickRay[RAYS_COUNT];
+        Random random = new Random(7);
+        for (int count = 10; count <= 10000; count *= 10) {
+            int columns = (int) Math.ceil(Math.sqrt(count));
+            // Panel of tiles in front of eye, whole grid is in view
+            float cell = 8.0f / columns;
+            for (int r = 0; r < rays.length; r++) {
+                rays[r] = rayTo(random.nextFloat() * 8.0f - 4.0f, random.nextFloat() * 8.0f - 4.0f);
+            }
+            PickBvh<Integer> bvh = new PickBvh<>();
+            TriangleSet[] areas = new TriangleSet[count];
+            for (int i = 0; i < count; i++) {
+                float[] coords = quad(-4.0f + (i % columns) * cell, -4.0f + (i / columns) * cell,
+                        cell * TILE_SIZE, PANEL_Z);
+                bvh.insert(i, coords, QUAD_INDEXES);
+                areas[i] = new TriangleSet(coords, QUAD_INDEXES);
+            }
+
+            long linearTime = 0;
+            long bvhTime = 0;
+            // The first rounds warm up JIT
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                int linearHits = 0;
+                for (PickRay ray : rays) {
+                    for (TriangleSet area : areas) {
+                        if (ray.intersect(area) != TriangleSet.NO_HIT) {
+                            linearHits++;
+                            break;
+                        }
+                    }
+                }
+                linearTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int bvhHits = 0;
+                for (PickRay ray : rays) {
+                    if (bvh.pick(ray) != null) {
+                        bvhHits++;
+                    }
+                }
+                bvhTime = System.nanoTime() - start;
+                assertEquals(linearHits, bvhHits);
+            }
+            System.out.println("Pick of " + count + " targets: linear " + (linearTime / rays.length) +
+                    " ns, bvh " + (bvhTime / rays.length) + " ns, height " + bvh.getHeight());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.anton111111.vr.raypicking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares ray/triangle test of {@link Triangle} (array per vertex, allocations per call)
+ * with {@link TriangleSet} kernel over packed precomputed triangles on the same data.
+ */
+@SuppressWarnings("deprecation")
+public class TriangleSetBenchmark {
+
+    private static final int TRIANGLES_COUNT = 1024;
+    private static final int RAYS_COUNT = 256;
+    private static final int ROUNDS = 6;
+
+    @Test
+    public void triangleAgainstTriangleSet() {
+        Random random = new Random(7);
+        float[] coords = new float[TRIANGLES_COUNT * 9];
+        short[] indexes = new short[TRIANGLES_COUNT * 3];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = random.nextFloat() * 4.0f - 2.0f;
+        }
+        for (short i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        Triangle[] oldTriangles = new Triangle[TRIANGLES_COUNT];
+        for (int i = 0; i < TRIANGLES_COUNT; i++) {
+            int p = i * 9;
+            oldTriangles[i] = new Triangle(
+                    new float[]{coords[p], coords[p + 1], coords[p + 2]},
+                    new float[]{coords[p + 3], coords[p + 4], coords[p + 5]},
+                    new float[]{coords[p + 6], coords[p + 7], coords[p + 8]});
+        }
+        TriangleSet set = new TriangleSet(coords, indexes);
+        float[][] nears = new float[RAYS_COUNT][];
+        float[][] fars = new float[RAYS_COUNT][];
+        for (int i = 0; i < RAYS_COUNT; i++) {
+            nears[i] = randomPoint(random, 1.0f);
+            fars[i] = randomPoint(random, 10.0f);
+        }
+
+        long oldHits = 0;
+        long newHits = 0;
+        long oldTime = 0;
+        long newTime = 0;
+        float[] point = new float[3];
+        // The first rounds warm up JIT
+        for (int round = 0; round < ROUNDS; round++) {
+            oldHits = 0;
+            newHits = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < RAYS_COUNT; r++) {
+                for (Triangle t : oldTriangles) {
+                    int result = Triangle.intersectRayAndTriangle(nears[r], fars[r], t, point);
+                    if (result == 1 || result == 2) {
+                        oldHits++;
+                    }
+                }
+            }
+            oldTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            float[] triangles = set.getTriangles();
+            for (int r = 0; r < RAYS_COUNT; r++) {
+                float[] near = nears[r];
+                float[] far = fars[r];
+                float dx = near[0] - far[0];
+                float dy = near[1] - far[1];
+                float dz = near[2] - far[2];
+                for (int t = 0; t < TRIANGLES_COUNT; t++) {
+                    if (TriangleSet.intersect(triangles, t * TriangleSet.STRIDE,
+                            far[0], far[1], far[2], dx, dy, dz) != TriangleSet.NO_HIT) {
+                        newHits++;
+                    }
+                }
+            }
+            newTime = System.nanoTime() - start;
+        }
+
+        long tests = (long) TRIANGLES_COUNT * RAYS_COUNT;
+        // Random rays may touch borders, counts are close but not always equal
+        assertEquals(oldHits, newHits, tests / 1000);
+        System.out.println("Ray-triangle test: Triangle " + (oldTime / tests) + " ns, TriangleSet " +
+                (newTime / tests) + " ns");
+    }
+
+    private static float[] randomPoint(Random random, float scale) {
+        return new float[]{
+                (random.nextFloat() * 2.0f - 1.0f) * scale,
+                (random.nextFloat() * 2.0f - 1.0f) * scale,
+                (random.nextFloat() * 2.0f - 1.0f) * scale
+        };
+    }
+}
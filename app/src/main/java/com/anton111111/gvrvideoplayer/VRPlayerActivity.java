@@ -1,14 +1,17 @@
 package com.anton111111.gvrvideoplayer;
 
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ConfigurationInfo;
 import android.graphics.SurfaceTexture;
 import android.media.AudioManager;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -20,13 +23,32 @@ import com.google.vr.sdk.base.GvrActivity;
 import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
+import com.anton111111.player.ConnectionCountController;
 import com.anton111111.player.ExoPlayer2Impl;
+import com.anton111111.player.MediaCache;
+import com.anton111111.player.MediaCacheStats;
+import com.anton111111.player.ParallelRangeStats;
+import com.anton111111.player.PlayerCommandQueue;
+import com.anton111111.player.SeekPrefetchStats;
 import com.anton111111.player.VideoPlayer;
-import com.anton111111.vr.Quaternion;
+import com.anton111111.vr.pose.PoseFilter;
+import com.anton111111.vr.pose.PosePredictor;
+import com.anton111111.vr.pose.RecenterCorrection;
+import com.anton111111.vr.GLHelper;
+import com.anton111111.vr.GLStateCache;
 import com.anton111111.vr.VideoFormatsSettings;
+import com.anton111111.vr.buffer.GLBufferArena;
+import com.anton111111.vr.text.BitmapGlyphRasterizer;
+import com.anton111111.vr.program.FileProgramBinaryStorage;
+import com.anton111111.vr.program.ProgramBinaryCache;
 import com.anton111111.vr.program.ProgramHelper;
 import com.anton111111.vr.renderer.VideoControllerRenderer;
 import com.anton111111.vr.renderer.VideoRenderer;
+import com.anton111111.vr.widgets.Cursor;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
@@ -46,6 +68,19 @@ public class VRPlayerActivity extends GvrActivity
 
 
     private static final long VIBRATE_MILLISECONDS = 100;
+    private static final long PROGRAM_BINARY_CACHE_SIZE = 2 * 1024 * 1024;
+    private static final String PROGRAM_BINARY_CACHE_DIR = "program_binaries";
+    // ConfigurationInfo.reqGlEsVersion of ES 3.0
+    private static final int GL_ES_VERSION_3 = 0x30000;
+    private static final long MEDIA_CACHE_SIZE = 1024L * 1024 * 1024;
+    private static final String MEDIA_CACHE_DIR = "media";
+    private static final int STATS_LOG_INTERVAL_FRAMES = 600;
+    // Head pose is sampled when frame starts, frame is on display about a frame later
+    private static final long POSE_PREDICTION_NANOS = 16000000L;
+    private static final long GAZE_FILTER_TIME_CONSTANT_NANOS = 40000000L;
+    // Gaze ray and cursor drawn along head differ by selection hysteresis at most
+    private static final float GAZE_FILTER_MAX_DEVIATION =
+            (float) Math.toRadians(Cursor.DEFAULT_SELECTION_HYSTERESIS_DEGREES);
     public static final float Z_NEAR = 0.1f;
     public static final float Z_FAR = 100.0f;
 
@@ -59,10 +94,20 @@ public class VRPlayerActivity extends GvrActivity
     Handler handler = new Handler();
     private boolean isStereoModeEnabled = true;
     private float[] headTransformQuaternion = new float[]{0.0f, 0.0f, 0.0f, 1.0f};
-    private float eulerPitchCorrection = 0.0f;
+    private final PosePredictor posePredictor = new PosePredictor();
+    private final PoseFilter gazeFilter = new PoseFilter(GAZE_FILTER_TIME_CONSTANT_NANOS,
+            GAZE_FILTER_MAX_DEVIATION);
+    private final float[] gazeQuaternion = new float[]{0.0f, 0.0f, 0.0f, 1.0f};
+    private final RecenterCorrection recenterCorrection = new RecenterCorrection();
     private boolean isNeedPitchCorrection = false;
     private Vibrator vibrator;
     private AudioManager audioManager;
+    private long frameCounter = 0;
+    // Media cache reads its index from disk, so it is created on background thread and
+    // player is started on main thread when cache and player are both created
+    private MediaCache mediaCache;
+    private boolean isMediaCacheCreated = false;
+    private ExoPlayer2Impl playerWaitingForMediaCache;
 
 
     @Override
@@ -71,6 +116,11 @@ public class VRPlayerActivity extends GvrActivity
 
         setContentView(R.layout.vr_player_activity);
 
+        // glGetError after every call can stall GL pipeline, so release builds check errors once per frame
+        GLHelper.setGLErrorCheckPolicy(BuildConfig.DEBUG ?
+                GLHelper.GL_ERROR_CHECK_PER_CALL :
+                GLHelper.GL_ERROR_CHECK_PER_FRAME);
+
         url = getIntent().getStringExtra(INTENT_EXTRA_URL_KEY);
         videoFormat = getIntent().getStringExtra(INTENT_EXTRA_VIDEO_FORMAT_KEY);
         boolean isStereoModeEnabled = getIntent().getBooleanExtra(INTENT_EXTRA_STEREO_MODE_ENABLED, true);
@@ -81,11 +131,15 @@ public class VRPlayerActivity extends GvrActivity
             return;
         }
 
+        createMediaCache();
+
         vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
         audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
         GvrView gvrView = findViewById(R.id.vr_player_activity_gvr_view);
         gvrView.setStereoModeEnabled(isStereoModeEnabled);
+        // Program binary cache needs ES 3 context, devices without ES 3 get ES 2 one
+        gvrView.setEGLContextClientVersion(getSupportedEGLContextClientVersion());
         gvrView.setRenderer(this);
         gvrView.setTransitionViewEnabled(true);
 
@@ -110,35 +164,42 @@ public class VRPlayerActivity extends GvrActivity
 
     @Override
     public void onNewFrame(HeadTransform headTransform) {
+        // GVR changes GL state after eyes are rendered
+        GLStateCache.getInstance().beginFrame();
+        long now = System.nanoTime();
         headTransform.getQuaternion(headTransformQuaternion, 0);
 
         if (isNeedPitchCorrection) {
-            float[] eulerAngles = new float[3];
-            Quaternion.toEulerAngle(headTransformQuaternion, eulerAngles);
-            eulerPitchCorrection = eulerAngles[0];
-            isNeedPitchCorrection = false;
+            // Head tracker is recentered, pose jumps
+            posePredictor.reset();
+            gazeFilter.reset();
         }
+        posePredictor.addSample(headTransformQuaternion, now);
+        posePredictor.predict(headTransformQuaternion, now + POSE_PREDICTION_NANOS);
 
-        if (eulerPitchCorrection != 0) {
-            float[] eulerAngles = new float[3];
-            Quaternion.toEulerAngle(headTransformQuaternion, eulerAngles);
-            eulerAngles[0] = eulerAngles[0] - eulerPitchCorrection;
-            Quaternion.fromEulerAngles(headTransformQuaternion, eulerAngles[0], eulerAngles[1], eulerAngles[2]);
+        if (isNeedPitchCorrection) {
+            // Tracker recenters yaw only
+            recenterCorrection.recenterPitch(headTransformQuaternion);
+            isNeedPitchCorrection = false;
         }
+        recenterCorrection.apply(headTransformQuaternion, headTransformQuaternion);
 
         if (videoRenderer != null) {
             videoRenderer.onNewFrame(headTransformQuaternion);
         }
         if (videoControllerRenderer != null) {
             videoControllerRenderer.setHeadTransformQuaternion(headTransformQuaternion);
+            gazeFilter.filter(gazeQuaternion, headTransformQuaternion, now);
+            videoControllerRenderer.setGazeQuaternion(gazeQuaternion);
         }
     }
 
     @Override
     public void onDrawEye(Eye eye) {
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLStateCache stateCache = GLStateCache.getInstance();
+        stateCache.setDepthTest(true);
+        stateCache.setBlend(true);
+        stateCache.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
         videoRenderer.render(eye);
@@ -218,7 +279,46 @@ public class VRPlayerActivity extends GvrActivity
 
     @Override
     public void onFinishFrame(Viewport viewport) {
-
+        GLStateCache stateCache = GLStateCache.getInstance();
+        // Don't leave arrays with client side pointers enabled for GVR
+        stateCache.setEnabledVertexAttribArrays(0);
+        GLHelper.checkFrameGLError("VRPlayerActivity frame");
+
+        frameCounter++;
+        if (BuildConfig.DEBUG && frameCounter % STATS_LOG_INTERVAL_FRAMES == 0) {
+            Log.d(TAG, "GL state cache: saved calls " + stateCache.getSavedCalls() +
+                    ", issued calls " + stateCache.getIssuedCalls() + " per frame");
+            if (exoPlayerImpl != null) {
+                PlayerCommandQueue commandQueue = exoPlayerImpl.getCommandQueue();
+                Log.d(TAG, "Player commands: executed " + commandQueue.getExecutedCount() +
+                        ", coalesced " + commandQueue.getCoalescedCount() +
+                        ", latency last " + commandQueue.getLastLatencyNanos() / 1000 +
+                        " us, max " + commandQueue.getMaxLatencyNanos() / 1000 + " us");
+                SeekPrefetchStats prefetchStats = exoPlayerImpl.getSeekPrefetchStats();
+                Log.d(TAG, "Seek prefetch: requested " + prefetchStats.getRequestedCount() +
+                        ", completed " + prefetchStats.getCompletedCount() +
+                        ", cancelled " + prefetchStats.getCancelledCount() +
+                        ", seeks " + prefetchStats.getSeeksCount() +
+                        ", used complete " + prefetchStats.getCompleteHitsCount() +
+                        ", used partial " + prefetchStats.getPartialHitsCount());
+                ConnectionCountController connections = exoPlayerImpl.getConnectionCountController();
+                ParallelRangeStats loadingStats = exoPlayerImpl.getParallelRangeStats();
+                if (connections != null && loadingStats != null) {
+                    Log.d(TAG, "Media loading: connections " + connections.getConnections() +
+                            ", throughput " + (long) (connections.getThroughput() * 8 / 1000000) + " Mbps" +
+                            ", stalls " + loadingStats.getStallsCount() +
+                            ", retries " + loadingStats.getRetriesCount());
+                }
+                MediaCache mediaCache = exoPlayerImpl.getMediaCache();
+                if (mediaCache != null) {
+                    MediaCacheStats cacheStats = mediaCache.getStats();
+                    Log.d(TAG, "Media cache: hit ratio " + cacheStats.getHitRatio() +
+                            ", saved " + cacheStats.getSavedBytes() / 1024 + " KB" +
+                            ", prefetched " + cacheStats.getPrefetchDownloadedBytes() / 1024 + " KB" +
+                            ", used " + mediaCache.getCacheSpace() / 1024 + " KB");
+                }
+            }
+        }
     }
 
     @Override
@@ -228,6 +328,13 @@ public class VRPlayerActivity extends GvrActivity
 
     @Override
     public void onSurfaceCreated(EGLConfig eglConfig) {
+        long startTime = SystemClock.elapsedRealtime();
+        GLStateCache.getInstance().invalidate();
+        // Buffers of previous context are gone, widgets allocate new regions
+        GLBufferArena.clean();
+        BitmapGlyphRasterizer.clean();
+        initProgramBinaryCache();
+
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.5f);
         Matrix.setLookAtM(viewMatrix, 0,
                 0.0f, 0.0f, eyeZ,
@@ -239,8 +346,14 @@ public class VRPlayerActivity extends GvrActivity
         exoPlayerImpl = new ExoPlayer2Impl(this, TAG, new Surface(videoRenderer.getVideoTextureSurface()));
         exoPlayerImpl.setEventListener(this);
         if (url != null && !url.isEmpty()) {
-            Log.e(TAG, "Start play: " + url);
-            exoPlayerImpl.setUri(url);
+            final ExoPlayer2Impl player = exoPlayerImpl;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    playerWaitingForMediaCache = player;
+                    startPlaybackIfReady();
+                }
+            });
         } else {
             Log.e(TAG, "Video url is not inited!",
                     new VRPlayerActivityException("Video url is not inited!"));
@@ -258,6 +371,73 @@ public class VRPlayerActivity extends GvrActivity
         });
         videoControllerRenderer.setViewMatrix(viewMatrix);
         videoRenderer.setViewMatrix(viewMatrix);
+
+        ProgramBinaryCache programBinaryCache = GLHelper.getProgramBinaryCache();
+        Log.i(TAG, "Renderers are created in " + (SystemClock.elapsedRealtime() - startTime) + " ms" +
+                ((programBinaryCache != null) ?
+                        " (program binary cache hits: " + programBinaryCache.getHits() +
+                                ", misses: " + programBinaryCache.getMisses() +
+                                ", saved: " + programBinaryCache.getSaves() + ")" :
+                        " (program binary cache is not supported)"));
+    }
+
+    private void createMediaCache() {
+        final File dir = new File(getCacheDir(), MEDIA_CACHE_DIR);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                MediaCache cache = null;
+                try {
+                    cache = MediaCache.getInstance(dir, MEDIA_CACHE_SIZE);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Media cache is not created, media is read from network", e);
+                }
+                final MediaCache createdCache = cache;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mediaCache = createdCache;
+                        isMediaCacheCreated = true;
+                        startPlaybackIfReady();
+                    }
+                });
+            }
+        });
+        // Thread stops after cache is created
+        executor.shutdown();
+    }
+
+    /**
+     * Called on main thread
+     */
+    private void startPlaybackIfReady() {
+        if (!isMediaCacheCreated || playerWaitingForMediaCache == null) {
+            return;
+        }
+        ExoPlayer2Impl player = playerWaitingForMediaCache;
+        playerWaitingForMediaCache = null;
+        player.setMediaCache(mediaCache);
+        Log.e(TAG, "Start play: " + url);
+        player.setUri(url);
+    }
+
+    private int getSupportedEGLContextClientVersion() {
+        ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        ConfigurationInfo configurationInfo = activityManager.getDeviceConfigurationInfo();
+        return (configurationInfo.reqGlEsVersion >= GL_ES_VERSION_3) ? 3 : 2;
+    }
+
+    private void initProgramBinaryCache() {
+        if (!GLHelper.isProgramBinarySupported()) {
+            GLHelper.setProgramBinaryCache(null);
+            return;
+        }
+        GLHelper.setProgramBinaryCache(new ProgramBinaryCache(
+                new FileProgramBinaryStorage(new File(getCacheDir(), PROGRAM_BINARY_CACHE_DIR)),
+                PROGRAM_BINARY_CACHE_SIZE,
+                GLHelper.getDriverString(),
+                BuildConfig.VERSION_CODE));
     }
 
     @Override
@@ -309,6 +489,10 @@ public class VRPlayerActivity extends GvrActivity
     public void onDestroy() {
         super.onDestroy();
 
+        if (exoPlayerImpl != null) {
+            exoPlayerImpl.release();
+        }
+
         if (videoRenderer != null) {
             videoRenderer.onDestroy();
         }
@@ -318,6 +502,8 @@ public class VRPlayerActivity extends GvrActivity
         }
 
         ProgramHelper.getInstance().clean();
+        GLBufferArena.clean();
+        BitmapGlyphRasterizer.clean();
     }
 
     @Override
@@ -0,0 +1,68 @@
+package com.anton111111.player;
+
+import java.util.Arrays;
+
+/**
+ * Converts cached byte spans of media into ranges of seek bar progress
+ */
+public class CachedRanges {
+
+    public static final float[] EMPTY = new float[0];
+
+    private CachedRanges() {
+    }
+
+    /**
+     * Merge spans and convert them to percents of content length
+     *
+     * @param spans         {position, length} of every span in bytes, it is sorted in place
+     * @param count         count of spans
+     * @param contentLength bytes of media
+     * @return {start, end} of every range in percents, ranges are sorted and don't touch each other
+     */
+    public static float[] toPercents(long[] spans, int count, long contentLength) {
+        if (count <= 0 || contentLength <= 0) {
+            return EMPTY;
+        }
+        sortByPosition(spans, count);
+        float[] ranges = new float[count * 2];
+        int size = 0;
+        long start = spans[0];
+        long end = spans[0] + spans[1];
+        for (int i = 1; i <= count; i++) {
+            if (i < count && spans[i * 2] <= end) {
+                end = Math.max(end, spans[i * 2] + spans[i * 2 + 1]);
+                continue;
+            }
+            ranges[size++] = toPercent(start, contentLength);
+            ranges[size++] = toPercent(end, contentLength);
+            if (i < count) {
+                start = spans[i * 2];
+                end = start + spans[i * 2 + 1];
+            }
+        }
+        return Arrays.copyOf(ranges, size);
+    }
+
+    private static float toPercent(long position, long contentLength) {
+        return Math.min(100.0f, 100.0f * position / contentLength);
+    }
+
+    /**
+     * Insertion sort of pairs, cache returns spans sorted already
+     */
+    private static void sortByPosition(long[] spans, int count) {
+        for (int i = 1; i < count; i++) {
+            long position = spans[i * 2];
+            long length = spans[i * 2 + 1];
+            int j = i - 1;
+            while (j >= 0 && spans[j * 2] > position) {
+                spans[(j + 1) * 2] = spans[j * 2];
+                spans[(j + 1) * 2 + 1] = spans[j * 2 + 1];
+                j--;
+            }
+            spans[(j + 1) * 2] = position;
+            spans[(j + 1) * 2 + 1] = length;
+        }
+    }
+}
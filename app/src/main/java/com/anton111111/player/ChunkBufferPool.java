@@ -0,0 +1,58 @@
+package com.anton111111.player;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of chunk buffers of {@link ParallelRangeLoader}. Loaders of one factory share it,
+ * so source opened after seek reuses buffers of closed one instead of allocating
+ * megabytes again. At most maxBuffers free buffers are kept.
+ * Pool is used from any thread.
+ */
+public class ChunkBufferPool {
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    private long allocatedCount = 0;
+
+    /**
+     * @param bufferSize bytes of one buffer
+     * @param maxBuffers count of free buffers pool keeps
+     */
+    public ChunkBufferPool(int bufferSize, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return free buffer or new one if pool is empty
+     */
+    public synchronized byte[] acquire() {
+        byte[] buffer = freeBuffers.pollFirst();
+        if (buffer == null) {
+            allocatedCount++;
+            buffer = new byte[bufferSize];
+        }
+        return buffer;
+    }
+
+    /**
+     * @param buffer buffer which nobody writes into any more
+     */
+    public synchronized void release(byte[] buffer) {
+        if (freeBuffers.size() < maxBuffers) {
+            freeBuffers.addLast(buffer);
+        }
+    }
+
+    /**
+     * @return count of buffers allocated by pool
+     */
+    public synchronized long getAllocatedCount() {
+        return allocatedCount;
+    }
+}
@@ -0,0 +1,122 @@
+package com.anton111111.player;
+
+/**
+ * Count of parallel connections of {@link ParallelRangeLoader} adapted to measured throughput.
+ * <p>
+ * Throughput is measured in windows of loading. Connection is added while it raises
+ * throughput by more than {@link #GAIN}, otherwise the last added one is removed (hill climbing).
+ * Stable count is probed again after a while, link may change. Windows when loader waits
+ * for player (ring buffer is full) are dropped, more connections are not needed then
+ * and throughput is not limited by network.
+ * <p>
+ * Controller may be shared by loaders of different threads.
+ */
+public class ConnectionCountController {
+
+    public static final long DEFAULT_WINDOW_NANOS = 500000000L;
+    private static final float GAIN = 0.1f;
+    private static final int PROBE_INTERVAL_WINDOWS = 20;
+
+    private final int minConnections;
+    private final int maxConnections;
+    private final long windowNanos;
+    private int connections;
+    private boolean isProbing = true;
+    private int stableWindowsCount = 0;
+    // Throughput of current count in bytes per second
+    private float baseline = 0.0f;
+    private float lastThroughput = 0.0f;
+    private long windowStart = -1;
+    private long windowBytes = 0;
+    private int windowsCount = 0;
+
+    /**
+     * @param minConnections
+     * @param maxConnections
+     * @param initialConnections count before anything is measured
+     * @param windowNanos        duration of measurement
+     */
+    public ConnectionCountController(int minConnections, int maxConnections, int initialConnections,
+                                     long windowNanos) {
+        if (minConnections < 1 || maxConnections < minConnections) {
+            throw new IllegalArgumentException("Wrong connections range " + minConnections + "-" + maxConnections);
+        }
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+        this.connections = Math.max(minConnections, Math.min(maxConnections, initialConnections));
+        this.windowNanos = windowNanos;
+    }
+
+    public synchronized int getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return throughput of the last window in bytes per second, 0 if nothing is measured
+     */
+    public synchronized float getThroughput() {
+        return lastThroughput;
+    }
+
+    /**
+     * @return count of measured windows
+     */
+    public synchronized int getWindowsCount() {
+        return windowsCount;
+    }
+
+    /**
+     * Bytes are loaded by one of connections
+     *
+     * @param bytes
+     * @param nowNanos {@link System#nanoTime()}
+     */
+    public synchronized void onBytesLoaded(long bytes, long nowNanos) {
+        if (windowStart < 0) {
+            // Bytes were loaded before window, they are not counted
+            windowStart = nowNanos;
+            windowBytes = 0;
+            return;
+        }
+        windowBytes += bytes;
+        long elapsed = nowNanos - windowStart;
+        if (elapsed >= windowNanos) {
+            onWindow(windowBytes * 1000000000.0f / elapsed);
+            windowStart = -1;
+        }
+    }
+
+    /**
+     * Loader doesn't load because ring buffer is full, current window is dropped
+     */
+    public synchronized void onBufferFull() {
+        windowStart = -1;
+    }
+
+    private void onWindow(float throughput) {
+        windowsCount++;
+        lastThroughput = throughput;
+        if (isProbing) {
+            stableWindowsCount = 0;
+            if (throughput > baseline * (1.0f + GAIN)) {
+                baseline = throughput;
+                if (connections < maxConnections) {
+                    connections++;
+                } else {
+                    isProbing = false;
+                }
+            } else {
+                // Added connection doesn't help, baseline is of previous count
+                connections = Math.max(minConnections, connections - 1);
+                isProbing = false;
+            }
+            return;
+        }
+        baseline = throughput;
+        if (++stableWindowsCount >= PROBE_INTERVAL_WINDOWS && connections < maxConnections) {
+            stableWindowsCount = 0;
+            connections++;
+            isProbing = true;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.anton111111.player;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content-Range header of partial HTTP response
+ */
+public final class ContentRange {
+
+    public static final String HEADER = "Content-Range";
+    public static final long UNKNOWN_LENGTH = -1;
+
+    private ContentRange() {
+    }
+
+    /**
+     * Get length of the whole media from header "bytes 0-1023/4096"
+     *
+     * @param value header value or null
+     * @return length or {@link #UNKNOWN_LENGTH} if there is no header or length is "*"
+     */
+    public static long parseTotalLength(String value) {
+        if (value == null) {
+            return UNKNOWN_LENGTH;
+        }
+        value = value.trim();
+        int slash = value.lastIndexOf('/');
+        if (!value.startsWith("bytes ") || slash < 0) {
+            return UNKNOWN_LENGTH;
+        }
+        try {
+            long length = Long.parseLong(value.substring(slash + 1).trim());
+            return length >= 0 ? length : UNKNOWN_LENGTH;
+        } catch (NumberFormatException e) {
+            return UNKNOWN_LENGTH;
+        }
+    }
+
+    /**
+     * Find header, names of headers are case insensitive
+     *
+     * @param headers
+     * @return value of Content-Range or null
+     */
+    public static String find(Map<String, List<String>> headers) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (HEADER.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package com.anton111111.player;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+
+/**
+ * Data source which counts bytes read from wrapped source
+ */
+public class CountingDataSource implements DataSource {
+
+    public interface Listener {
+        /**
+         * Source is opened, it is called on loader thread
+         *
+         * @param dataSpec
+         * @param length   bytes to read or {@link C#LENGTH_UNSET}
+         */
+        void onOpened(DataSpec dataSpec, long length);
+
+        /**
+         * Bytes are read, it is called on loader thread
+         *
+         * @param bytes
+         */
+        void onRead(int bytes);
+    }
+
+    private final DataSource source;
+    private final Listener listener;
+
+    public CountingDataSource(DataSource source, Listener listener) {
+        this.source = source;
+        this.listener = listener;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        long length = source.open(dataSpec);
+        listener.onOpened(dataSpec, length);
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        int read = source.read(buffer, offset, readLength);
+        if (read > 0) {
+            listener.onRead(read);
+        }
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return source.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
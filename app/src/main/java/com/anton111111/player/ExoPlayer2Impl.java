@@ -2,6 +2,9 @@ package com.anton111111.player;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.Surface;
 import android.view.View;
 
@@ -21,8 +24,10 @@ import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.ui.PlayerView;
+import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
 import com.google.android.exoplayer2.util.Util;
 
 /**
@@ -31,15 +36,38 @@ import com.google.android.exoplayer2.util.Util;
 
 public class ExoPlayer2Impl extends VideoPlayer implements Player.EventListener {
 
+    // Snapshot is refreshed while playing, position drifts and buffer grows between events
+    private static final long PLAYBACK_STATE_UPDATE_INTERVAL_MS = 500;
 
     private final String userAgent;
     private final Context context;
     private SimpleExoPlayer exoPlayer;
     private boolean isNewSource = false;
-    private DefaultDataSourceFactory dataSourceFactory;
+    private DataSource.Factory dataSourceFactory;
+    // Reads of prefetch are not counted as reads of player
+    private DataSource.Factory prefetchDataSourceFactory;
     private long playerPositionAfterPause;
     private boolean shouldRestoreAfterPause = false;
     private ExtractorMediaSource videoSource;
+    private final SeekPrefetchStats seekPrefetchStats = new SeekPrefetchStats();
+    private SeekPrefetcher seekPrefetcher;
+    private MediaCache mediaCache;
+    private ParallelRangeDataSourceFactory parallelDataSourceFactory;
+    private Uri uri;
+    // Player calls listener on thread it is created on, or on main thread if there is no looper
+    private final Handler handler = new Handler(Looper.myLooper() != null ? Looper.myLooper() : Looper.getMainLooper());
+    private final Runnable updatePlaybackStateAction = new Runnable() {
+        @Override
+        public void run() {
+            updatePlaybackState();
+        }
+    };
+    private final Runnable executeCommandsAction = new Runnable() {
+        @Override
+        public void run() {
+            executeCommands();
+        }
+    };
 
 
     public ExoPlayer2Impl(Context context, String userAgent) {
@@ -87,13 +115,43 @@ public class ExoPlayer2Impl extends VideoPlayer implements Player.EventListener
         return playerView;
     }
 
+    @Override
+    protected void scheduleCommands() {
+        handler.post(executeCommandsAction);
+    }
+
+    /**
+     * Set disk cache of downloaded media, it is used by sources set after
+     *
+     * @param mediaCache cache or null to read from network every time
+     */
+    public void setMediaCache(MediaCache mediaCache) {
+        this.mediaCache = mediaCache;
+    }
+
+    public MediaCache getMediaCache() {
+        return mediaCache;
+    }
+
     @Override
     public void setUri(String uri) {
-        dataSourceFactory = new DefaultDataSourceFactory(context,
-                userAgent, null);
+        this.uri = Uri.parse(uri);
+        if (parallelDataSourceFactory == null) {
+            parallelDataSourceFactory = new ParallelRangeDataSourceFactory(
+                    new DefaultHttpDataSourceFactory(userAgent));
+        }
+        // http(s) media is loaded by several connections, other schemes as usual
+        DefaultDataSourceFactory upstreamFactory = new DefaultDataSourceFactory(context,
+                null, parallelDataSourceFactory);
+        boolean isCached = mediaCache != null && MediaCache.isCacheable(this.uri);
+        dataSourceFactory = isCached ? mediaCache.createDataSourceFactory(upstreamFactory) : upstreamFactory;
+        prefetchDataSourceFactory = isCached ?
+                mediaCache.createPrefetchDataSourceFactory(upstreamFactory) :
+                upstreamFactory;
 
         videoSource = new ExtractorMediaSource.Factory(dataSourceFactory)
-                .createMediaSource(Uri.parse(uri));
+                .createMediaSource(this.uri);
+        createSeekPrefetcher(this.uri);
 
         // Prepare the player with the source.
         if (exoPlayer != null) {
@@ -104,8 +162,10 @@ public class ExoPlayer2Impl extends VideoPlayer implements Player.EventListener
 
     @Override
     public void changeQualityUri(String uri) {
+        this.uri = Uri.parse(uri);
         videoSource = new ExtractorMediaSource.Factory(dataSourceFactory)
-                .createMediaSource(Uri.parse(uri));
+                .createMediaSource(this.uri);
+        createSeekPrefetcher(this.uri);
 
         // Prepare the player with the source.
         if (exoPlayer != null) {
@@ -119,6 +179,35 @@ public class ExoPlayer2Impl extends VideoPlayer implements Player.EventListener
         return getPlayer().getBufferPercentage();
     }
 
+    /**
+     * @return count of connections media is loaded by or null if nothing is loaded yet
+     */
+    public ConnectionCountController getConnectionCountController() {
+        return parallelDataSourceFactory != null ?
+                parallelDataSourceFactory.getConnectionCountController() :
+                null;
+    }
+
+    /**
+     * @return stalls and retries of media loading or null if nothing is loaded yet
+     */
+    public ParallelRangeStats getParallelRangeStats() {
+        return parallelDataSourceFactory != null ? parallelDataSourceFactory.getStats() : null;
+    }
+
+    public SeekPrefetchStats getSeekPrefetchStats() {
+        return seekPrefetchStats;
+    }
+
+    private void createSeekPrefetcher(Uri uri) {
+        if (seekPrefetcher != null) {
+            seekPrefetcher.release();
+        }
+        MediaCache prefetchCache = mediaCache != null && MediaCache.isCacheable(uri) ? mediaCache : null;
+        seekPrefetcher = new SeekPrefetcher(prefetchDataSourceFactory, uri, prefetchCache, handler,
+                seekPrefetchStats);
+    }
+
     @Override
     public void onResume() {
         if ((Util.SDK_INT <= 23 && shouldRestoreAfterPause)) {
@@ -165,17 +254,71 @@ public class ExoPlayer2Impl extends VideoPlayer implements Player.EventListener
         if (timeline != null) {
             playerPositionAfterPause = exoPlayer.getCurrentPosition();
         }
+        if (seekPrefetcher != null) {
+            seekPrefetcher.cancel();
+        }
         exoPlayer.removeListener(this);
         exoPlayer.release();
         exoPlayer = null;
+        updatePlaybackState();
+    }
+
+    /**
+     * Release player and thread of seek prefetcher, player is not restored after it.
+     * Call it when activity is destroyed.
+     */
+    public void release() {
+        releasePlayer();
+        shouldRestoreAfterPause = false;
+        if (seekPrefetcher != null) {
+            seekPrefetcher.release();
+            seekPrefetcher = null;
+        }
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Publish state of player, it is called on player thread
+     */
+    private void updatePlaybackState() {
+        handler.removeCallbacks(updatePlaybackStateAction);
+        long now = SystemClock.elapsedRealtime();
+        if (exoPlayer == null) {
+            // Player is released on pause, it is restored and plays on resume
+            PlaybackState last = getPlaybackState();
+            publishPlaybackState(new PlaybackState(last.getPosition(now), last.getBufferedPosition(),
+                    last.getDuration(), shouldRestoreAfterPause, false, last.isEnded(), last.getSpeed(), now,
+                    last.getCachedRanges()));
+            return;
+        }
+        long position = exoPlayer.getCurrentPosition();
+        long duration = exoPlayer.getDuration();
+        if (duration == C.TIME_UNSET) {
+            duration = 0;
+        }
+        int state = exoPlayer.getPlaybackState();
+        boolean isPlaying = exoPlayer.getPlayWhenReady();
+        boolean isEnded = state == Player.STATE_ENDED ||
+                (position > 0 && duration > 0 && position >= duration);
+        float[] cachedRanges = mediaCache != null && uri != null ?
+                mediaCache.getCachedRanges(uri) :
+                CachedRanges.EMPTY;
+        publishPlaybackState(new PlaybackState(position, exoPlayer.getBufferedPosition(), duration,
+                isPlaying, isPlaying && state == Player.STATE_READY, isEnded,
+                exoPlayer.getPlaybackParameters().speed, now, cachedRanges));
+        if (state != Player.STATE_IDLE && state != Player.STATE_ENDED) {
+            handler.postDelayed(updatePlaybackStateAction, PLAYBACK_STATE_UPDATE_INTERVAL_MS);
+        }
     }
 
     @Override
     public void onLoadingChanged(boolean isLoading) {
+        updatePlaybackState();
     }
 
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        updatePlaybackState();
         if (playbackState == Player.STATE_BUFFERING) {
             if (eventListener != null) {
                 this.isLoading = true;
@@ -224,7 +367,7 @@ public class ExoPlayer2Impl extends VideoPlayer implements Player.EventListener
 
     @Override
     public void onTimelineChanged(Timeline timeline, Object manifest, int reason) {
-
+        updatePlaybackState();
     }
 
     @Override
@@ -241,17 +384,17 @@ public class ExoPlayer2Impl extends VideoPlayer implements Player.EventListener
 
     @Override
     public void onPositionDiscontinuity(int reason) {
-
+        updatePlaybackState();
     }
 
     @Override
     public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
-
+        updatePlaybackState();
     }
 
     @Override
     public void onSeekProcessed() {
-
+        updatePlaybackState();
     }
 
 
@@ -300,9 +443,27 @@ public class ExoPlayer2Impl extends VideoPlayer implements Player.EventListener
             if (exoPlayer == null) {
                 return;
             }
+            if (seekPrefetcher != null) {
+                seekPrefetcher.onSeek(pos);
+            }
             exoPlayer.seekTo(Math.min(Math.max(0, pos), getDuration()));
         }
 
+        @Override
+        public void prefetch(long pos) {
+            if (exoPlayer == null || seekPrefetcher == null) {
+                return;
+            }
+            seekPrefetcher.prefetch(pos, getDuration());
+        }
+
+        @Override
+        public void cancelPrefetch() {
+            if (seekPrefetcher != null) {
+                seekPrefetcher.cancel();
+            }
+        }
+
         @Override
         public boolean isPlaying() {
             if (exoPlayer == null) {
@@ -0,0 +1,205 @@
+package com.anton111111.player;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disk cache of progressive media, so watching again, seeking back and resuming after
+ * player is released read bytes from disk instead of network.
+ * <p>
+ * Cache keeps spans of media files and evicts the least recently used spans when
+ * size is over budget. Only one cache may use the directory, so it is a singleton.
+ * Bytes read by player and bytes downloaded for them are counted in {@link MediaCacheStats},
+ * bytes prefetch downloads are counted apart and its reads are not counted.
+ */
+public class MediaCache {
+
+    private static MediaCache instance;
+
+    private final File dir;
+    private final long maxSizeBytes;
+    private final SimpleCache cache;
+    private final MediaCacheStats stats = new MediaCacheStats();
+    // Content length by cache key, it is known when player opens media from start
+    private final ConcurrentHashMap<String, Long> contentLengths = new ConcurrentHashMap<>();
+
+    private final CountingDataSource.Listener readListener = new CountingDataSource.Listener() {
+        @Override
+        public void onOpened(DataSpec dataSpec, long length) {
+            putContentLength(dataSpec, length);
+        }
+
+        @Override
+        public void onRead(int bytes) {
+            stats.onRead(bytes);
+        }
+    };
+
+    private final CountingDataSource.Listener prefetchListener = new CountingDataSource.Listener() {
+        @Override
+        public void onOpened(DataSpec dataSpec, long length) {
+            putContentLength(dataSpec, length);
+        }
+
+        @Override
+        public void onRead(int bytes) {
+        }
+    };
+
+    private final CountingDataSource.Listener downloadListener = new CountingDataSource.Listener() {
+        @Override
+        public void onOpened(DataSpec dataSpec, long length) {
+        }
+
+        @Override
+        public void onRead(int bytes) {
+            stats.onDownloaded(bytes);
+        }
+    };
+
+    private final CountingDataSource.Listener prefetchDownloadListener = new CountingDataSource.Listener() {
+        @Override
+        public void onOpened(DataSpec dataSpec, long length) {
+        }
+
+        @Override
+        public void onRead(int bytes) {
+            stats.onPrefetchDownloaded(bytes);
+        }
+    };
+
+    /**
+     * Get cache, it is created on the first call. Later calls must pass the same directory
+     * and budget, cache can't be reconfigured.
+     *
+     * @param dir          directory of cache
+     * @param maxSizeBytes disk budget
+     * @return
+     * @throws IllegalArgumentException cache is created with other directory or budget
+     */
+    public static synchronized MediaCache getInstance(File dir, long maxSizeBytes) {
+        if (instance == null) {
+            instance = new MediaCache(dir.getAbsoluteFile(), maxSizeBytes);
+        } else if (!instance.dir.equals(dir.getAbsoluteFile()) || instance.maxSizeBytes != maxSizeBytes) {
+            throw new IllegalArgumentException("Media cache is created in " + instance.dir + " with " +
+                    instance.maxSizeBytes + " bytes already, it can't be used for " + dir + " with " +
+                    maxSizeBytes + " bytes");
+        }
+        return instance;
+    }
+
+    private MediaCache(File dir, long maxSizeBytes) {
+        this.dir = dir;
+        this.maxSizeBytes = maxSizeBytes;
+        cache = new SimpleCache(dir, new LeastRecentlyUsedCacheEvictor(maxSizeBytes));
+    }
+
+    /**
+     * @param uri
+     * @return true if media is worth caching (it is downloaded)
+     */
+    public static boolean isCacheable(Uri uri) {
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    /**
+     * Create factory of sources which read from cache and download missed bytes by upstream
+     *
+     * @param upstreamFactory
+     * @return
+     */
+    public DataSource.Factory createDataSourceFactory(DataSource.Factory upstreamFactory) {
+        return createDataSourceFactory(upstreamFactory, readListener, downloadListener);
+    }
+
+    /**
+     * Create factory of sources for prefetch: they fill cache as player sources do,
+     * but their reads and downloads are not counted as ones of player
+     *
+     * @param upstreamFactory
+     * @return
+     */
+    public DataSource.Factory createPrefetchDataSourceFactory(DataSource.Factory upstreamFactory) {
+        return createDataSourceFactory(upstreamFactory, prefetchListener, prefetchDownloadListener);
+    }
+
+    private DataSource.Factory createDataSourceFactory(final DataSource.Factory upstreamFactory,
+                                                       final CountingDataSource.Listener listener,
+                                                       final CountingDataSource.Listener upstreamListener) {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                DataSource upstream = new CountingDataSource(upstreamFactory.createDataSource(), upstreamListener);
+                return new CountingDataSource(
+                        new CacheDataSource(cache, upstream, CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR),
+                        listener);
+            }
+        };
+    }
+
+    /**
+     * Get cached parts of media for seek bar
+     *
+     * @param uri
+     * @return {start, end} of every range in percents, empty if content length is not known yet
+     */
+    public float[] getCachedRanges(Uri uri) {
+        long contentLength = getContentLength(uri);
+        if (contentLength == C.LENGTH_UNSET) {
+            return CachedRanges.EMPTY;
+        }
+        NavigableSet<CacheSpan> spans = cache.getCachedSpans(uri.toString());
+        long[] positions = new long[spans.size() * 2];
+        int count = 0;
+        for (CacheSpan span : spans) {
+            if (span.isCached) {
+                positions[count * 2] = span.position;
+                positions[count * 2 + 1] = span.length;
+                count++;
+            }
+        }
+        return CachedRanges.toPercents(positions, count, contentLength);
+    }
+
+    /**
+     * @param uri
+     * @return length of media in bytes or {@link C#LENGTH_UNSET} if it was not opened yet
+     */
+    public long getContentLength(Uri uri) {
+        Long contentLength = contentLengths.get(uri.toString());
+        return contentLength != null ? contentLength : C.LENGTH_UNSET;
+    }
+
+    public MediaCacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return bytes on disk
+     */
+    public long getCacheSpace() {
+        return cache.getCacheSpace();
+    }
+
+    private void putContentLength(DataSpec dataSpec, long length) {
+        if (dataSpec.length == C.LENGTH_UNSET && length != C.LENGTH_UNSET) {
+            contentLengths.put(getKey(dataSpec), dataSpec.absoluteStreamPosition + length);
+        }
+    }
+
+    private static String getKey(DataSpec dataSpec) {
+        return dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+    }
+}
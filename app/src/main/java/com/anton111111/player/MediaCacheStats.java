@@ -0,0 +1,73 @@
+package com.anton111111.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of media cache: bytes player reads and bytes which are downloaded for them.
+ * Bytes read but not downloaded come from cache. Prefetch is counted apart, so bytes it
+ * downloaded and player reads later are hits of cache.
+ * Counters are updated by loader threads and may be read from any thread.
+ */
+public class MediaCacheStats {
+
+    private final AtomicLong readBytes = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong prefetchDownloadedBytes = new AtomicLong();
+
+    /**
+     * @param bytes read by player from cache layer
+     */
+    public void onRead(long bytes) {
+        readBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @param bytes read by cache layer from network
+     */
+    public void onDownloaded(long bytes) {
+        downloadedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @param bytes read by cache layer from network for prefetch
+     */
+    public void onPrefetchDownloaded(long bytes) {
+        prefetchDownloadedBytes.addAndGet(bytes);
+    }
+
+    public long getReadBytes() {
+        return readBytes.get();
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    public long getPrefetchDownloadedBytes() {
+        return prefetchDownloadedBytes.get();
+    }
+
+    /**
+     * @return bytes player read from cache instead of network
+     */
+    public long getSavedBytes() {
+        return Math.max(0, readBytes.get() - downloadedBytes.get());
+    }
+
+    /**
+     * @return part of read bytes which come from cache, 0 if nothing is read
+     */
+    public float getHitRatio() {
+        long read = readBytes.get();
+        if (read <= 0) {
+            return 0.0f;
+        }
+        return (float) getSavedBytes() / read;
+    }
+
+    public void reset() {
+        readBytes.set(0);
+        downloadedBytes.set(0);
+        prefetchDownloadedBytes.set(0);
+    }
+}
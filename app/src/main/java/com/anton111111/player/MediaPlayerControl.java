@@ -16,6 +16,16 @@ public interface MediaPlayerControl {
 
     void seekTo(long pos);
 
+    /**
+     * Start loading media at position in background, so seek to it starts quicker.
+     * Previous prefetch is cancelled.
+     *
+     * @param pos in milliseconds
+     */
+    void prefetch(long pos);
+
+    void cancelPrefetch();
+
     boolean isPlaying();
 
     boolean isEnded();
@@ -0,0 +1,159 @@
+package com.anton111111.player;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * HTTP data source which loads adjacent ranges of media by several connections,
+ * see {@link ParallelRangeLoader}.
+ * <p>
+ * The first chunk is requested by one connection, its Content-Range tells length of media,
+ * this connection loads the first chunk then. If server doesn't support ranges media is
+ * read by one connection as usual.
+ */
+public class ParallelRangeDataSource implements DataSource {
+
+    private final HttpDataSource.Factory upstreamFactory;
+    private final ParallelRangeLoader loader;
+    private HttpDataSource directDataSource;
+    private Uri uri;
+    private boolean isLoading = false;
+
+    /**
+     * @param upstreamFactory factory of connections
+     * @param executor        executor of chunk loads
+     * @param controller      count of connections
+     * @param stats           counters of stalls and retries
+     * @param bufferPool      pool of chunk buffers, its buffer size is bytes of one request
+     * @param maxChunks       count of chunk buffers
+     */
+    public ParallelRangeDataSource(HttpDataSource.Factory upstreamFactory, Executor executor,
+                                   ConnectionCountController controller, ParallelRangeStats stats,
+                                   ChunkBufferPool bufferPool, int maxChunks) {
+        this.upstreamFactory = upstreamFactory;
+        this.loader = new ParallelRangeLoader(executor, controller, stats, bufferPool, maxChunks);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        uri = dataSpec.uri;
+        long position = dataSpec.absoluteStreamPosition;
+        long probeLength = dataSpec.length == C.LENGTH_UNSET ?
+                loader.getChunkSize() :
+                Math.min(loader.getChunkSize(), dataSpec.length);
+        HttpDataSource probe = upstreamFactory.createDataSource();
+        long contentLength;
+        try {
+            long openedLength = probe.open(new DataSpec(uri, position, probeLength, dataSpec.key, dataSpec.flags));
+            contentLength = ContentRange.parseTotalLength(ContentRange.find(probe.getResponseHeaders()));
+            if (contentLength != ContentRange.UNKNOWN_LENGTH) {
+                long endPosition = dataSpec.length == C.LENGTH_UNSET ?
+                        contentLength :
+                        Math.min(contentLength, position + dataSpec.length);
+                loader.start(new HttpRangeSourceFactory(dataSpec), position, endPosition,
+                        new HttpRangeSource(dataSpec, probe, openedLength));
+                isLoading = true;
+                return endPosition - position;
+            }
+        } catch (IOException e) {
+            Util.closeQuietly(probe);
+            throw e;
+        }
+        // Server ignores ranges or doesn't tell length
+        Util.closeQuietly(probe);
+        directDataSource = upstreamFactory.createDataSource();
+        return directDataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (directDataSource != null) {
+            return directDataSource.read(buffer, offset, readLength);
+        }
+        int read = loader.read(buffer, offset, readLength);
+        return read < 0 ? C.RESULT_END_OF_INPUT : read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        uri = null;
+        if (isLoading) {
+            isLoading = false;
+            loader.close();
+        }
+        if (directDataSource != null) {
+            try {
+                directDataSource.close();
+            } finally {
+                directDataSource = null;
+            }
+        }
+    }
+
+
+    private class HttpRangeSourceFactory implements ParallelRangeLoader.RangeSourceFactory {
+
+        private final DataSpec dataSpec;
+
+        HttpRangeSourceFactory(DataSpec dataSpec) {
+            this.dataSpec = dataSpec;
+        }
+
+        @Override
+        public ParallelRangeLoader.RangeSource createRangeSource() {
+            return new HttpRangeSource(dataSpec, null, C.LENGTH_UNSET);
+        }
+    }
+
+    private class HttpRangeSource implements ParallelRangeLoader.RangeSource {
+
+        private final DataSpec dataSpec;
+        private HttpDataSource dataSource;
+        // Length of range source was opened for before loader got it
+        private long openedLength;
+
+        HttpRangeSource(DataSpec dataSpec, HttpDataSource openedDataSource, long openedLength) {
+            this.dataSpec = dataSpec;
+            this.dataSource = openedDataSource;
+            this.openedLength = openedLength;
+        }
+
+        @Override
+        public long open(long position, long length) throws IOException {
+            if (dataSource != null && openedLength != C.LENGTH_UNSET) {
+                long result = openedLength;
+                openedLength = C.LENGTH_UNSET;
+                return result;
+            }
+            dataSource = upstreamFactory.createDataSource();
+            return dataSource.open(new DataSpec(dataSpec.uri, position, length, dataSpec.key, dataSpec.flags));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = dataSource.read(buffer, offset, length);
+            return read == C.RESULT_END_OF_INPUT ? -1 : read;
+        }
+
+        @Override
+        public void close() {
+            if (dataSource != null) {
+                Util.closeQuietly(dataSource);
+                dataSource = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.anton111111.player;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory of {@link ParallelRangeDataSource}. Sources share threads, count of connections,
+ * stats and chunk buffers, so count measured by one source is used after seek by the next one
+ * and buffers of closed source are not allocated again.
+ */
+public class ParallelRangeDataSourceFactory implements DataSource.Factory {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_CHUNKS = 16;
+    public static final int DEFAULT_MIN_CONNECTIONS = 1;
+    public static final int DEFAULT_MAX_CONNECTIONS = 6;
+    public static final int DEFAULT_INITIAL_CONNECTIONS = 2;
+
+    private final HttpDataSource.Factory upstreamFactory;
+    // Idle threads are stopped by pool, so it is not shut down
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConnectionCountController controller;
+    private final ParallelRangeStats stats = new ParallelRangeStats();
+    private final ChunkBufferPool bufferPool;
+    private final int maxChunks;
+
+    public ParallelRangeDataSourceFactory(HttpDataSource.Factory upstreamFactory) {
+        this(upstreamFactory, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_CHUNKS,
+                new ConnectionCountController(DEFAULT_MIN_CONNECTIONS, DEFAULT_MAX_CONNECTIONS,
+                        DEFAULT_INITIAL_CONNECTIONS, ConnectionCountController.DEFAULT_WINDOW_NANOS));
+    }
+
+    /**
+     * @param upstreamFactory factory of connections
+     * @param chunkSize       bytes of one request
+     * @param maxChunks       count of chunk buffers of one source
+     * @param controller
+     */
+    public ParallelRangeDataSourceFactory(HttpDataSource.Factory upstreamFactory, int chunkSize, int maxChunks,
+                                          ConnectionCountController controller) {
+        this.upstreamFactory = upstreamFactory;
+        this.bufferPool = new ChunkBufferPool(chunkSize, maxChunks);
+        this.maxChunks = maxChunks;
+        this.controller = controller;
+    }
+
+    @Override
+    public ParallelRangeDataSource createDataSource() {
+        return new ParallelRangeDataSource(upstreamFactory, executor, controller, stats, bufferPool, maxChunks);
+    }
+
+    public ConnectionCountController getConnectionCountController() {
+        return controller;
+    }
+
+    public ParallelRangeStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,358 @@
+package com.anton111111.player;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Loader of byte range by several connections at once, one connection often can't load
+ * high bitrate media fast enough over link with high latency.
+ * <p>
+ * Range is split into chunks, adjacent chunks are loaded in parallel and read in order.
+ * Chunks are in ring of at most maxChunks buffers, so memory is bounded and loading
+ * doesn't run far ahead of reader. Buffers are taken from {@link ChunkBufferPool}. Reader gets bytes of chunk as they arrive, it doesn't
+ * wait for the whole chunk. Count of connections is taken from {@link ConnectionCountController}
+ * when chunk is scheduled, so it changes as throughput is measured.
+ * <p>
+ * Failed chunk is loaded again from the first missed byte, error is thrown by {@link #read}
+ * when retries are over. Loader is started and read on one thread, chunks are loaded by executor.
+ */
+public class ParallelRangeLoader {
+
+    public interface RangeSource {
+        /**
+         * Open range of media
+         *
+         * @param position
+         * @param length
+         * @return length of range
+         * @throws IOException
+         */
+        long open(long position, long length) throws IOException;
+
+        /**
+         * @return count of read bytes or -1 at end of range
+         * @throws IOException
+         */
+        int read(byte[] buffer, int offset, int length) throws IOException;
+
+        void close();
+    }
+
+    public interface RangeSourceFactory {
+        RangeSource createRangeSource();
+    }
+
+    private static final int MAX_RETRIES = 2;
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final Executor executor;
+    private final ConnectionCountController controller;
+    private final ParallelRangeStats stats;
+    private final ChunkBufferPool bufferPool;
+    private final int chunkSize;
+    private final int maxChunks;
+    private final Object lock = new Object();
+    // Chunks in order of media, the first one is read
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private int heldBuffersCount = 0;
+    private RangeSourceFactory sourceFactory;
+    private RangeSource openedSource;
+    private long nextChunkPosition;
+    private long endPosition;
+    private long readPosition;
+    private int readOffset;
+    private int activeLoadsCount;
+    private boolean isOpened = false;
+
+    /**
+     * @param executor   executor of chunk loads, it must have a thread per connection
+     * @param controller
+     * @param stats      counters of stalls and retries
+     * @param chunkSize  bytes of one request
+     * @param maxChunks  size of ring, memory is maxChunks * chunkSize
+     */
+    public ParallelRangeLoader(Executor executor, ConnectionCountController controller, ParallelRangeStats stats,
+                               int chunkSize, int maxChunks) {
+        this(executor, controller, stats, new ChunkBufferPool(chunkSize, maxChunks), maxChunks);
+    }
+
+    /**
+     * @param executor   executor of chunk loads, it must have a thread per connection
+     * @param controller
+     * @param stats      counters of stalls and retries
+     * @param bufferPool pool of buffers, its buffer size is bytes of one request
+     * @param maxChunks  size of ring
+     */
+    public ParallelRangeLoader(Executor executor, ConnectionCountController controller, ParallelRangeStats stats,
+                               ChunkBufferPool bufferPool, int maxChunks) {
+        this.executor = executor;
+        this.controller = controller;
+        this.stats = stats;
+        this.bufferPool = bufferPool;
+        this.chunkSize = bufferPool.getBufferSize();
+        this.maxChunks = maxChunks;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Start loading, previous range is closed
+     *
+     * @param sourceFactory factory of connections
+     * @param position      the first byte
+     * @param endPosition   byte after range
+     * @param openedSource  source which is opened for the first chunk already or null,
+     *                      its {@link RangeSource#open} is called as usual
+     */
+    public void start(RangeSourceFactory sourceFactory, long position, long endPosition,
+                      RangeSource openedSource) {
+        synchronized (lock) {
+            closeLocked();
+            this.sourceFactory = sourceFactory;
+            this.openedSource = openedSource;
+            this.nextChunkPosition = position;
+            this.endPosition = endPosition;
+            this.readPosition = position;
+            this.readOffset = 0;
+            this.isOpened = true;
+            scheduleLoads();
+            if (this.openedSource != null) {
+                // Range is empty, first chunk is not loaded
+                this.openedSource.close();
+                this.openedSource = null;
+            }
+        }
+    }
+
+    /**
+     * Read bytes in order, it waits until they are loaded
+     *
+     * @return count of read bytes or -1 at end of range
+     * @throws IOException load of chunk failed
+     */
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        synchronized (lock) {
+            if (!isOpened) {
+                throw new IllegalStateException("Loader is not started");
+            }
+            if (readPosition >= endPosition) {
+                return -1;
+            }
+            Chunk chunk = chunks.getFirst();
+            if (chunk.loadedLength <= readOffset && chunk.error == null) {
+                stats.onStall();
+                do {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                } while (chunk.loadedLength <= readOffset && chunk.error == null);
+            }
+            if (chunk.loadedLength <= readOffset) {
+                throw new IOException("Load of range " + chunk.position + "+" + chunk.length + " failed",
+                        chunk.error);
+            }
+            int count = Math.min(length, chunk.loadedLength - readOffset);
+            System.arraycopy(chunk.buffer, readOffset, buffer, offset, count);
+            readOffset += count;
+            readPosition += count;
+            if (readOffset == chunk.length) {
+                chunks.removeFirst();
+                releaseBuffer(chunk.buffer);
+                readOffset = 0;
+                scheduleLoads();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Stop loading, loads in progress are cancelled
+     */
+    public void close() {
+        synchronized (lock) {
+            closeLocked();
+        }
+    }
+
+    /**
+     * @return bytes of buffers in ring
+     */
+    public long getAllocatedBytes() {
+        synchronized (lock) {
+            return (long) heldBuffersCount * chunkSize;
+        }
+    }
+
+    private void closeLocked() {
+        for (Chunk chunk : chunks) {
+            if (chunk.isLoaded) {
+                releaseBuffer(chunk.buffer);
+            } else {
+                // Load may write into buffer until it sees cancel, load task returns buffer to pool
+                chunk.isCancelled = true;
+                heldBuffersCount--;
+            }
+        }
+        chunks.clear();
+        activeLoadsCount = 0;
+        isOpened = false;
+        sourceFactory = null;
+        if (openedSource != null) {
+            openedSource.close();
+            openedSource = null;
+        }
+        lock.notifyAll();
+    }
+
+    private void scheduleLoads() {
+        while (nextChunkPosition < endPosition && activeLoadsCount < controller.getConnections()) {
+            if (chunks.size() >= maxChunks) {
+                controller.onBufferFull();
+                return;
+            }
+            int length = (int) Math.min(chunkSize, endPosition - nextChunkPosition);
+            Chunk chunk = new Chunk(nextChunkPosition, length, takeBuffer());
+            chunks.addLast(chunk);
+            nextChunkPosition += length;
+            activeLoadsCount++;
+            executor.execute(new LoadTask(chunk, sourceFactory, openedSource));
+            openedSource = null;
+        }
+    }
+
+    private byte[] takeBuffer() {
+        heldBuffersCount++;
+        return bufferPool.acquire();
+    }
+
+    private void releaseBuffer(byte[] buffer) {
+        heldBuffersCount--;
+        bufferPool.release(buffer);
+    }
+
+    private void onLoaded(Chunk chunk, int count) {
+        synchronized (lock) {
+            if (chunk.isCancelled) {
+                return;
+            }
+            chunk.loadedLength += count;
+            controller.onBytesLoaded(count, System.nanoTime());
+            if (chunk == chunks.peekFirst()) {
+                lock.notifyAll();
+            }
+            if (chunk.loadedLength == chunk.length) {
+                // Next chunk is scheduled now, reader may finish this one before load task ends
+                chunk.isLoaded = true;
+                activeLoadsCount--;
+                scheduleLoads();
+            }
+        }
+    }
+
+    private void onFailed(Chunk chunk, IOException error) {
+        synchronized (lock) {
+            if (chunk.isCancelled) {
+                return;
+            }
+            chunk.error = error;
+            activeLoadsCount--;
+            lock.notifyAll();
+            scheduleLoads();
+        }
+    }
+
+
+    private static class Chunk {
+        final long position;
+        final int length;
+        final byte[] buffer;
+        // Fields below are guarded by lock, buffer is written by load before loadedLength is changed
+        int loadedLength = 0;
+        boolean isLoaded = false;
+        IOException error;
+        volatile boolean isCancelled = false;
+
+        Chunk(long position, int length, byte[] buffer) {
+            this.position = position;
+            this.length = length;
+            this.buffer = buffer;
+        }
+    }
+
+    private class LoadTask implements Runnable {
+
+        private final Chunk chunk;
+        private final RangeSourceFactory sourceFactory;
+        private RangeSource source;
+        // It is written by this task only
+        private int loadedLength = 0;
+
+        LoadTask(Chunk chunk, RangeSourceFactory sourceFactory, RangeSource openedSource) {
+            this.chunk = chunk;
+            this.sourceFactory = sourceFactory;
+            this.source = openedSource;
+        }
+
+        @Override
+        public void run() {
+            IOException error = null;
+            for (int attempt = 0; attempt <= MAX_RETRIES && !chunk.isCancelled; attempt++) {
+                if (attempt > 0) {
+                    stats.onRetry();
+                }
+                try {
+                    load();
+                    error = null;
+                    break;
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    if (source != null) {
+                        source.close();
+                        source = null;
+                    }
+                }
+            }
+            if (source != null) {
+                // Cancelled before the first attempt
+                source.close();
+            }
+            if (chunk.isCancelled) {
+                // Loader dropped chunk, nothing writes into buffer now
+                bufferPool.release(chunk.buffer);
+            } else if (error != null) {
+                onFailed(chunk, error);
+            }
+        }
+
+        private void load() throws IOException {
+            if (source == null) {
+                source = sourceFactory.createRangeSource();
+            }
+            source.open(chunk.position + loadedLength, chunk.length - loadedLength);
+            while (loadedLength < chunk.length) {
+                if (chunk.isCancelled) {
+                    return;
+                }
+                int read = source.read(chunk.buffer, loadedLength,
+                        Math.min(READ_SIZE, chunk.length - loadedLength));
+                if (read < 0) {
+                    throw new EOFException("Range ended at " + (chunk.position + loadedLength));
+                }
+                loadedLength += read;
+                onLoaded(chunk, read);
+            }
+        }
+    }
+}
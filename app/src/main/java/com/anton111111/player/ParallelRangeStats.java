@@ -0,0 +1,42 @@
+package com.anton111111.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of {@link ParallelRangeLoader}, they are shared by loaders of one factory
+ * and show how often player waited for network and chunks were loaded again.
+ * Counters are updated and read from any thread.
+ */
+public class ParallelRangeStats {
+
+    private final AtomicLong stallsCount = new AtomicLong();
+    private final AtomicLong retriesCount = new AtomicLong();
+
+    /**
+     * Read waits for bytes of chunk
+     */
+    public void onStall() {
+        stallsCount.incrementAndGet();
+    }
+
+    /**
+     * Load of chunk is started again after error
+     */
+    public void onRetry() {
+        retriesCount.incrementAndGet();
+    }
+
+    /**
+     * @return count of reads which waited for network
+     */
+    public long getStallsCount() {
+        return stallsCount.get();
+    }
+
+    /**
+     * @return count of chunk loads which were started again after error
+     */
+    public long getRetriesCount() {
+        return retriesCount.get();
+    }
+}
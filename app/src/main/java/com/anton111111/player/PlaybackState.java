@@ -0,0 +1,129 @@
+package com.anton111111.player;
+
+/**
+ * Immutable snapshot of player state.
+ * <p>
+ * Player publishes new snapshot from its thread when state changes and periodically
+ * while it plays (see {@link VideoPlayer#getPlaybackState}), so other threads
+ * (GL thread draws progress every frame) read consistent values without calls into player.
+ * Position between snapshots is extrapolated by {@link #getPosition(long)}.
+ */
+public final class PlaybackState {
+
+    public static final PlaybackState EMPTY = new PlaybackState(0, 0, 0, false, false, false, 1.0f, 0);
+
+    private final long position;
+    private final long bufferedPosition;
+    private final long duration;
+    private final boolean isPlaying;
+    private final boolean isAdvancing;
+    private final boolean isEnded;
+    private final float speed;
+    private final long timestamp;
+    private final float[] cachedRanges;
+
+    /**
+     * @param position         position in milliseconds
+     * @param bufferedPosition position in milliseconds media is buffered up to
+     * @param duration         duration in milliseconds, 0 if it is unknown
+     * @param isPlaying        player plays when it is ready (not paused)
+     * @param isAdvancing      position advances: player plays and it is not buffering
+     * @param isEnded
+     * @param speed            playback speed
+     * @param timestamp        {@link android.os.SystemClock#elapsedRealtime} when state is taken
+     */
+    public PlaybackState(long position, long bufferedPosition, long duration, boolean isPlaying,
+                         boolean isAdvancing, boolean isEnded, float speed, long timestamp) {
+        this(position, bufferedPosition, duration, isPlaying, isAdvancing, isEnded, speed, timestamp,
+                CachedRanges.EMPTY);
+    }
+
+    /**
+     * @param cachedRanges {start, end} in percents of every range of media which is cached on disk,
+     *                     it must not be changed after
+     */
+    public PlaybackState(long position, long bufferedPosition, long duration, boolean isPlaying,
+                         boolean isAdvancing, boolean isEnded, float speed, long timestamp,
+                         float[] cachedRanges) {
+        this.cachedRanges = cachedRanges;
+        this.position = position;
+        this.bufferedPosition = bufferedPosition;
+        this.duration = duration;
+        this.isPlaying = isPlaying;
+        this.isAdvancing = isAdvancing;
+        this.isEnded = isEnded;
+        this.speed = speed;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return position when snapshot is taken
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Get position extrapolated to time. It doesn't go beyond buffered position and duration,
+     * player stalls there.
+     *
+     * @param now {@link android.os.SystemClock#elapsedRealtime}
+     * @return position in milliseconds
+     */
+    public long getPosition(long now) {
+        if (!isAdvancing || now <= timestamp) {
+            return position;
+        }
+        long extrapolated = position + (long) ((now - timestamp) * speed);
+        long limit = Math.max(position, bufferedPosition);
+        if (duration > 0) {
+            limit = Math.min(limit, duration);
+        }
+        return Math.max(position, Math.min(extrapolated, limit));
+    }
+
+    public long getBufferedPosition() {
+        return bufferedPosition;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return buffered part of media in percents
+     */
+    public int getBufferPercentage() {
+        if (duration <= 0) {
+            return 0;
+        }
+        return (int) Math.max(0, Math.min(100, bufferedPosition * 100 / duration));
+    }
+
+    public boolean isPlaying() {
+        return isPlaying;
+    }
+
+    public boolean isAdvancing() {
+        return isAdvancing;
+    }
+
+    public boolean isEnded() {
+        return isEnded;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return {start, end} in percents of every cached range, array must not be changed
+     */
+    public float[] getCachedRanges() {
+        return cachedRanges;
+    }
+}
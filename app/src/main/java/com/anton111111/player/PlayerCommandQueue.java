@@ -0,0 +1,272 @@
+package com.anton111111.player;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free queue of player commands from one producer thread (GL thread) to player thread.
+ * <p>
+ * Start and pause go through ring: producer writes command into ring slot and publishes it
+ * by moving tail, consumer executes commands and frees slots by moving head, so neither thread
+ * waits for the other. If ring is full start or pause is dropped, producer is never blocked.
+ * Seek and prefetch (or prefetch cancel) are kept in latest-value slots instead, new command
+ * replaces pending one, so the latest seek and prefetch are never dropped.
+ * Commands are coalesced when they are executed: of all pending commands only the last prefetch
+ * or prefetch cancel and the last seek (in order they were offered) and then the last start
+ * or pause are executed, dragging over seek bar doesn't queue up seeks and prefetches.
+ * Order of seek and prefetch matters, seek uses prefetch started before it, and cancel offered
+ * after seek doesn't cancel prefetch which seek has used.
+ * <p>
+ * Every command is timestamped by {@link System#nanoTime} when it is offered, latency from offer
+ * to execution is measured.
+ */
+public class PlayerCommandQueue {
+
+    public static final int COMMAND_START = 1;
+    public static final int COMMAND_PAUSE = 2;
+    public static final int COMMAND_SEEK = 3;
+    public static final int COMMAND_PREFETCH = 4;
+    public static final int COMMAND_CANCEL_PREFETCH = 5;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] types;
+    private final long[] positions;
+    private final long[] timestamps;
+    private final LatestCommand seek = new LatestCommand();
+    private final LatestCommand prefetch = new LatestCommand();
+    // Written by producer only
+    private final AtomicLong tail = new AtomicLong();
+    // Order of seek and prefetch commands, written by producer only
+    private long latestCommandsOrder = 0;
+    // Written by consumer only
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean();
+    private volatile long droppedCount = 0;
+    private volatile long executedCount = 0;
+    private volatile long coalescedCount = 0;
+    private volatile long lastLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+
+    /**
+     * @param capacity count of pending start and pause commands, power of two
+     */
+    public PlayerCommandQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be power of two");
+        }
+        this.capacity = capacity;
+        mask = capacity - 1;
+        types = new int[capacity];
+        positions = new long[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Add command, it is called on producer thread
+     *
+     * @param type     one of COMMAND_* constants
+     * @param position seek or prefetch position in milliseconds, it is ignored by other commands
+     * @return false if ring is full, start or pause is dropped then
+     */
+    public boolean offer(int type, long position) {
+        if (type < COMMAND_START || type > COMMAND_CANCEL_PREFETCH) {
+            throw new IllegalArgumentException("Unknown command " + type);
+        }
+        if (type == COMMAND_SEEK) {
+            seek.set(type, position, System.nanoTime(), ++latestCommandsOrder);
+            return true;
+        }
+        if (type == COMMAND_PREFETCH || type == COMMAND_CANCEL_PREFETCH) {
+            prefetch.set(type, position, System.nanoTime(), ++latestCommandsOrder);
+            return true;
+        }
+        long t = tail.get();
+        if (t - head.get() >= capacity) {
+            droppedCount++;
+            return false;
+        }
+        int i = (int) (t & mask);
+        types[i] = type;
+        positions[i] = position;
+        timestamps[i] = System.nanoTime();
+        // Slot is written before it is published
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Mark that drain is scheduled on consumer thread, so producer posts one drain
+     * for many commands
+     *
+     * @return false if drain is already scheduled and not started yet
+     */
+    public boolean scheduleDrain() {
+        return isDrainScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Execute pending commands, it is called on consumer thread
+     *
+     * @param player
+     * @return count of executed commands
+     */
+    public int drain(MediaPlayerControl player) {
+        // Commands offered after this are drained by next scheduled drain
+        isDrainScheduled.set(false);
+        long h = head.get();
+        long t = tail.get();
+        long drained = t - h;
+        int executed = 0;
+        boolean isPrefetchTaken = prefetch.take();
+        boolean isSeekTaken = seek.take();
+        if (isPrefetchTaken) {
+            drained += prefetch.takenCount;
+            executed++;
+        }
+        if (isSeekTaken) {
+            drained += seek.takenCount;
+            executed++;
+        }
+        if (isPrefetchTaken && (!isSeekTaken || prefetch.takenOrder < seek.takenOrder)) {
+            executePrefetch(player);
+            isPrefetchTaken = false;
+        }
+        if (isSeekTaken) {
+            player.seekTo(seek.takenPosition);
+            measureLatency(seek.takenTimestamp);
+        }
+        if (isPrefetchTaken) {
+            // Prefetch or cancel is offered after seek
+            executePrefetch(player);
+        }
+        if (h != t) {
+            int playback = (int) ((t - 1) & mask);
+            if (types[playback] == COMMAND_START) {
+                player.start();
+            } else {
+                player.pause();
+            }
+            measureLatency(timestamps[playback]);
+            executed++;
+            // Slots are read before they are freed
+            head.lazySet(t);
+        }
+        executedCount += executed;
+        coalescedCount += drained - executed;
+        return executed;
+    }
+
+    private void executePrefetch(MediaPlayerControl player) {
+        if (prefetch.takenType == COMMAND_PREFETCH) {
+            player.prefetch(prefetch.takenPosition);
+        } else {
+            player.cancelPrefetch();
+        }
+        measureLatency(prefetch.takenTimestamp);
+    }
+
+    private void measureLatency(long timestamp) {
+        long latency = System.nanoTime() - timestamp;
+        lastLatencyNanos = latency;
+        if (latency > maxLatencyNanos) {
+            maxLatencyNanos = latency;
+        }
+    }
+
+    /**
+     * @return count of commands offered but not drained yet
+     */
+    public int size() {
+        return (int) (tail.get() - head.get() + seek.getPendingCount() + prefetch.getPendingCount());
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     * @return count of commands which are not executed because later command of the same kind
+     * is drained with them
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return time from offer to execution of the last executed command
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+
+    /**
+     * Slot of the latest command of one kind. Producer publishes command by sequence lock:
+     * sequence is odd while fields are written, consumer reads fields again if sequence changed.
+     */
+    private static class LatestCommand {
+        // Written by producer only, two per command
+        private final AtomicLong sequence = new AtomicLong();
+        private volatile int type;
+        private volatile long position;
+        private volatile long timestamp;
+        private volatile long order;
+        // Written by consumer only
+        private volatile long takenSequence = 0;
+        int takenType;
+        long takenPosition;
+        long takenTimestamp;
+        long takenOrder;
+        long takenCount;
+
+        void set(int type, long position, long timestamp, long order) {
+            long s = sequence.get();
+            // Volatile writes are not reordered, consumer sees odd sequence before new fields
+            sequence.set(s + 1);
+            this.type = type;
+            this.position = position;
+            this.timestamp = timestamp;
+            this.order = order;
+            sequence.set(s + 2);
+        }
+
+        /**
+         * Take pending command into taken* fields
+         *
+         * @return false if there is no new command since the last take
+         */
+        boolean take() {
+            long s;
+            do {
+                s = sequence.get();
+                if ((s & 1) != 0) {
+                    // Producer is writing, it doesn't wait for anything
+                    continue;
+                }
+                takenType = type;
+                takenPosition = position;
+                takenTimestamp = timestamp;
+                takenOrder = order;
+            } while ((s & 1) != 0 || sequence.get() != s);
+            if (s == takenSequence) {
+                return false;
+            }
+            takenCount = (s - takenSequence) / 2;
+            takenSequence = s;
+            return true;
+        }
+
+        long getPendingCount() {
+            return (sequence.get() - takenSequence) / 2;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.anton111111.player;
+
+/**
+ * Counters of speculative prefetch of seek bar position, they show how often prefetch
+ * was used by seek.
+ * <p>
+ * Seek uses prefetch if it goes to prefetched position (within {@link #HIT_TOLERANCE_MS}).
+ * Used prefetch is complete if all its bytes were loaded before seek, partial otherwise.
+ * Stats are updated on player thread, counters may be read from any thread.
+ */
+public class SeekPrefetchStats {
+
+    public static final long HIT_TOLERANCE_MS = 1000;
+
+    private static final long NO_POSITION = -1;
+
+    private long prefetchPosition = NO_POSITION;
+    private boolean isPrefetchCompleted = false;
+    private volatile long requestedCount = 0;
+    private volatile long cancelledCount = 0;
+    private volatile long completedCount = 0;
+    private volatile long seeksCount = 0;
+    private volatile long completeHitsCount = 0;
+    private volatile long partialHitsCount = 0;
+
+    /**
+     * Prefetch of position is started, previous one is replaced
+     *
+     * @param position in milliseconds
+     */
+    public void onPrefetchStarted(long position) {
+        requestedCount++;
+        prefetchPosition = position;
+        isPrefetchCompleted = false;
+    }
+
+    /**
+     * Prefetch is cancelled before it is completed
+     */
+    public void onPrefetchCancelled() {
+        if (prefetchPosition != NO_POSITION && !isPrefetchCompleted) {
+            cancelledCount++;
+        }
+        prefetchPosition = NO_POSITION;
+    }
+
+    /**
+     * @param position of completed prefetch, it is ignored if other prefetch is started after it
+     */
+    public void onPrefetchCompleted(long position) {
+        if (position == prefetchPosition && !isPrefetchCompleted) {
+            isPrefetchCompleted = true;
+            completedCount++;
+        }
+    }
+
+    /**
+     * Player seeks, prefetch is done then
+     *
+     * @param position in milliseconds
+     * @return true if seek goes to prefetched position
+     */
+    public boolean onSeek(long position) {
+        seeksCount++;
+        boolean isHit = prefetchPosition != NO_POSITION &&
+                Math.abs(position - prefetchPosition) <= HIT_TOLERANCE_MS;
+        if (isHit) {
+            if (isPrefetchCompleted) {
+                completeHitsCount++;
+            } else {
+                partialHitsCount++;
+            }
+        }
+        prefetchPosition = NO_POSITION;
+        return isHit;
+    }
+
+    public long getRequestedCount() {
+        return requestedCount;
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    public long getSeeksCount() {
+        return seeksCount;
+    }
+
+    /**
+     * @return count of seeks to position which was prefetched completely
+     */
+    public long getCompleteHitsCount() {
+        return completeHitsCount;
+    }
+
+    /**
+     * @return count of seeks to position which was still prefetched
+     */
+    public long getPartialHitsCount() {
+        return partialHitsCount;
+    }
+}
@@ -0,0 +1,170 @@
+package com.anton111111.player;
+
+import android.net.Uri;
+import android.os.Handler;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Speculative loading of media at seek bar position user dwells on.
+ * <p>
+ * Progressive media has no index of positions before extractor reads it, so byte offset
+ * is estimated by position part of duration (bitrate is taken as constant) and a window
+ * around it is read on background thread. Window starts a bit before the offset,
+ * key frame of position is earlier than its bytes.
+ * Length of media is taken from {@link MediaCache}, it is known after player opened media.
+ * Media isn't opened to probe length, unbounded open would start loads of the whole media
+ * by {@link ParallelRangeDataSource}, so nothing is prefetched while length is unknown.
+ * New prefetch cancels previous one, there is one load at a time.
+ * <p>
+ * Prefetcher is controlled on player thread.
+ */
+public class SeekPrefetcher {
+
+    static final long PREFETCH_BYTES = 4 * 1024 * 1024;
+    static final long PREFETCH_BYTES_BEFORE = 512 * 1024;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final DataSource.Factory dataSourceFactory;
+    private final Uri uri;
+    private final MediaCache mediaCache;
+    private final Handler handler;
+    private final SeekPrefetchStats stats;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private PrefetchTask task;
+
+    /**
+     * @param dataSourceFactory factory of data sources player loads media by
+     * @param uri               media
+     * @param mediaCache        cache which knows length of media, nothing is prefetched if it is null
+     * @param handler           handler of player thread
+     * @param stats
+     */
+    public SeekPrefetcher(DataSource.Factory dataSourceFactory, Uri uri, MediaCache mediaCache,
+                          Handler handler, SeekPrefetchStats stats) {
+        this.dataSourceFactory = dataSourceFactory;
+        this.uri = uri;
+        this.mediaCache = mediaCache;
+        this.handler = handler;
+        this.stats = stats;
+    }
+
+    /**
+     * Start loading media at position, previous prefetch is cancelled
+     *
+     * @param position in milliseconds
+     * @param duration of media in milliseconds, nothing is loaded if it is unknown
+     */
+    public void prefetch(long position, long duration) {
+        cancel();
+        if (duration <= 0 || position < 0 || position > duration) {
+            return;
+        }
+        stats.onPrefetchStarted(position);
+        task = new PrefetchTask(position, duration);
+        executor.execute(task);
+    }
+
+    public void cancel() {
+        if (task == null) {
+            return;
+        }
+        task.isCancelled = true;
+        task = null;
+        stats.onPrefetchCancelled();
+    }
+
+    /**
+     * Player seeks, prefetch is not needed any more
+     *
+     * @param position in milliseconds
+     */
+    public void onSeek(long position) {
+        stats.onSeek(position);
+        if (task != null) {
+            task.isCancelled = true;
+            task = null;
+        }
+    }
+
+    public void release() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Window of media which is prefetched for position
+     *
+     * @param contentLength length of media in bytes
+     * @param position      in milliseconds
+     * @param duration      of media in milliseconds
+     * @return {start, length} in bytes
+     */
+    static long[] getWindow(long contentLength, long position, long duration) {
+        long offset = (long) ((double) contentLength * position / duration);
+        long start = Math.max(0, offset - PREFETCH_BYTES_BEFORE);
+        long length = Math.min(PREFETCH_BYTES, contentLength - start);
+        return new long[]{start, length};
+    }
+
+    private class PrefetchTask implements Runnable {
+
+        private final long position;
+        private final long duration;
+        private volatile boolean isCancelled = false;
+
+        PrefetchTask(long position, long duration) {
+            this.position = position;
+            this.duration = duration;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long contentLength = mediaCache != null ?
+                        mediaCache.getContentLength(uri) :
+                        C.LENGTH_UNSET;
+                if (isCancelled || contentLength == C.LENGTH_UNSET) {
+                    return;
+                }
+                long[] window = getWindow(contentLength, position, duration);
+                if (window[1] > 0 && read(new DataSpec(uri, window[0], window[1], null)) && !isCancelled) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            stats.onPrefetchCompleted(position);
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                // Prefetch is speculative, player loads media itself anyway
+            }
+        }
+
+        /**
+         * @return false if read is cancelled
+         */
+        private boolean read(DataSpec dataSpec) throws IOException {
+            DataSource dataSource = dataSourceFactory.createDataSource();
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            try {
+                dataSource.open(dataSpec);
+                while (!isCancelled) {
+                    if (dataSource.read(buffer, 0, buffer.length) == C.RESULT_END_OF_INPUT) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                Util.closeQuietly(dataSource);
+            }
+        }
+    }
+}
@@ -5,17 +5,23 @@ import android.view.Surface;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Created by Anton Potekhin (Anton.Potekhin@gmail.com) on 13.12.16.
  */
 public abstract class VideoPlayer {
 
+    private static final int COMMAND_QUEUE_CAPACITY = 16;
+
     protected Surface surface;
     protected View view;
     protected ViewGroup anchorView;
     protected MediaPlayerControl player;
     protected EventListener eventListener;
     protected boolean isLoading = false;
+    private final AtomicReference<PlaybackState> playbackState = new AtomicReference<>(PlaybackState.EMPTY);
+    private final PlayerCommandQueue commandQueue = new PlayerCommandQueue(COMMAND_QUEUE_CAPACITY);
 
     public boolean isLoading() {
         return isLoading;
@@ -59,6 +65,11 @@ public abstract class VideoPlayer {
 
     abstract protected View createView(Context context);
 
+    /**
+     * Post {@link #executeCommands} to player thread
+     */
+    abstract protected void scheduleCommands();
+
     public MediaPlayerControl getPlayer() {
         return player;
     }
@@ -67,6 +78,75 @@ public abstract class VideoPlayer {
         return view;
     }
 
+    /**
+     * Get the last state published by player, it can be called from any thread
+     * and doesn't call player.
+     *
+     * @return state, {@link PlaybackState#EMPTY} before player publishes the first one
+     */
+    public PlaybackState getPlaybackState() {
+        return playbackState.get();
+    }
+
+    /**
+     * Seek on player thread, it doesn't wait for player.
+     * Post methods are called from one thread (GL thread).
+     *
+     * @param position in milliseconds
+     */
+    public void postSeekTo(long position) {
+        postCommand(PlayerCommandQueue.COMMAND_SEEK, position);
+    }
+
+    public void postStart() {
+        postCommand(PlayerCommandQueue.COMMAND_START, 0);
+    }
+
+    public void postPause() {
+        postCommand(PlayerCommandQueue.COMMAND_PAUSE, 0);
+    }
+
+    /**
+     * Start loading media at position in background while user dwells on it
+     *
+     * @param position in milliseconds
+     */
+    public void postPrefetch(long position) {
+        postCommand(PlayerCommandQueue.COMMAND_PREFETCH, position);
+    }
+
+    public void postCancelPrefetch() {
+        postCommand(PlayerCommandQueue.COMMAND_CANCEL_PREFETCH, 0);
+    }
+
+    public PlayerCommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    private void postCommand(int type, long position) {
+        if (commandQueue.offer(type, position) && commandQueue.scheduleDrain()) {
+            scheduleCommands();
+        }
+    }
+
+    /**
+     * Execute posted commands, it is called on player thread
+     */
+    protected void executeCommands() {
+        if (player != null) {
+            commandQueue.drain(player);
+        }
+    }
+
+    /**
+     * Publish state, it is called on player thread
+     *
+     * @param state
+     */
+    protected void publishPlaybackState(PlaybackState state) {
+        playbackState.set(state);
+    }
+
     abstract public void setUri(String uri);
 
     abstract public void changeQualityUri(String uri);
@@ -25,6 +25,32 @@ public class StringUtil {
         }
     }
 
+    /**
+     * Append time as {@link #millisecondsToString} does, without formatter and temporary strings.
+     * Digits are always ASCII.
+     *
+     * @param sb
+     * @param timeMs
+     * @return sb
+     */
+    public static StringBuilder appendTime(StringBuilder sb, long timeMs) {
+        long totalSeconds = Math.max(0, timeMs / 1000);
+
+        int seconds = (int) (totalSeconds % 60);
+        int minutes = (int) ((totalSeconds / 60) % 60);
+        long hours = totalSeconds / 3600;
+
+        if (hours > 0) {
+            sb.append(hours).append(':');
+        }
+        appendTwoDigits(sb, minutes).append(':');
+        return appendTwoDigits(sb, seconds);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
     /**
      * Convert seconds to string
      *
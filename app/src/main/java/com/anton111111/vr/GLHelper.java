@@ -9,19 +9,23 @@ import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
 import android.opengl.EGLSurface;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLUtils;
 import android.util.Log;
 
 
 import com.anton111111.vr.program.Program;
+import com.anton111111.vr.program.ProgramBinaryCache;
+import com.anton111111.vr.program.ShaderAttributesLocations;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Created by Anton Potekhin on 23.11.2017.
@@ -30,6 +34,79 @@ public class GLHelper {
 
     private static final String TAG = "GLHelper";
 
+    /**
+     * Don't call glGetError
+     */
+    public static final int GL_ERROR_CHECK_NONE = 0;
+    /**
+     * Call glGetError once at the end of frame, errors are logged
+     */
+    public static final int GL_ERROR_CHECK_PER_FRAME = 1;
+    /**
+     * Call glGetError after every labeled call, error throws exception
+     */
+    public static final int GL_ERROR_CHECK_PER_CALL = 2;
+
+    private static ProgramBinaryCache programBinaryCache;
+    private static int glErrorCheckPolicy = GL_ERROR_CHECK_PER_FRAME;
+    private static ErrorBackend errorBackend = new GLES20ErrorBackend();
+    private static final HashMap<Integer, String> rawTextFiles = new HashMap<>();
+
+    /**
+     * Set cache of program binaries. Use null to disable cache.
+     * Set it only if {@link #isProgramBinarySupported()} returns true.
+     *
+     * @param cache
+     */
+    public static void setProgramBinaryCache(ProgramBinaryCache cache) {
+        programBinaryCache = cache;
+    }
+
+    public static ProgramBinaryCache getProgramBinaryCache() {
+        return programBinaryCache;
+    }
+
+    /**
+     * Check is current GL context able to save and load program binaries.
+     * Binaries are loaded by GLES30 calls, they are defined only for context of client
+     * version 3, even if driver supports ES 3 or GL_OES_get_program_binary in ES 2 context.
+     * So view must request ES 3 context where device supports it.
+     *
+     * @return
+     */
+    public static boolean isProgramBinarySupported() {
+        return getContextClientVersion() >= 3;
+    }
+
+    /**
+     * Get client version of current EGL context
+     *
+     * @return version or 0 if there is no current context
+     */
+    public static int getContextClientVersion() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        if (context == null || context.equals(EGL14.EGL_NO_CONTEXT)) {
+            return 0;
+        }
+        EGLDisplay display = EGL14.eglGetCurrentDisplay();
+        final int[] version = new int[1];
+        if (!EGL14.eglQueryContext(display, context, EGL14.EGL_CONTEXT_CLIENT_VERSION, version, 0)) {
+            return 0;
+        }
+        return version[0];
+    }
+
+    /**
+     * Get string which identifies GL driver
+     *
+     * @return
+     */
+    public static String getDriverString() {
+        return GLES20.glGetString(GLES20.GL_VENDOR) + "|" +
+                GLES20.glGetString(GLES20.GL_RENDERER) + "|" +
+                GLES20.glGetString(GLES20.GL_VERSION);
+    }
+
     /**
      * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
      *
@@ -38,7 +115,31 @@ public class GLHelper {
      * @return The shader object handler.
      */
     public static int loadGLShader(Context context, int type, int resId) {
-        String code = readRawTextFile(context, resId);
+        return loadGLShader(context, type, resId, null);
+    }
+
+    /**
+     * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
+     *
+     * @param type    The type of shader we will be creating.
+     * @param resId   The resource ID of the raw text file about to be turned into a shader.
+     * @param defines Preprocessor lines (#define ...) to insert into shader source. Can be null.
+     * @return The shader object handler.
+     */
+    public static int loadGLShader(Context context, int type, int resId, String defines) {
+        return loadGLShader(type, insertDefines(readRawTextFile(context, resId), defines),
+                String.valueOf(resId));
+    }
+
+    /**
+     * Converts a shader source into an OpenGL ES shader.
+     *
+     * @param type  The type of shader we will be creating.
+     * @param code  Shader source
+     * @param label Label to report in case of error.
+     * @return The shader object handler.
+     */
+    public static int loadGLShader(int type, String code, String label) {
         int shader = GLES20.glCreateShader(type);
         GLES20.glShaderSource(shader, code);
         GLES20.glCompileShader(shader);
@@ -56,12 +157,36 @@ public class GLHelper {
         }
 
         if (shader == 0) {
-            throw new RuntimeException("Error creating shader. (" + resId + ":+" + type + ")");
+            throw new RuntimeException("Error creating shader. (" + label + ":+" + type + ")");
         }
 
         return shader;
     }
 
+    /**
+     * Insert preprocessor lines into shader source after #extension directives
+     * (they must be first in shader)
+     *
+     * @param code    shader source
+     * @param defines lines to insert. Can be null.
+     * @return
+     */
+    public static String insertDefines(String code, String defines) {
+        if (defines == null || defines.isEmpty()) {
+            return code;
+        }
+        if (!defines.endsWith("\n")) {
+            defines += "\n";
+        }
+        int insertPosition = 0;
+        int extensionPosition = code.lastIndexOf("#extension");
+        if (extensionPosition >= 0) {
+            int lineEnd = code.indexOf('\n', extensionPosition);
+            insertPosition = (lineEnd < 0) ? code.length() : lineEnd + 1;
+        }
+        return code.substring(0, insertPosition) + defines + code.substring(insertPosition);
+    }
+
     /**
      * Load texture from Resource
      *
@@ -112,6 +237,9 @@ public class GLHelper {
 
             // Load the bitmap into the bound texture.
             GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+
+            // Texture is bound to unknown unit
+            GLStateCache.getInstance().invalidateTextures();
         }
 
         if (textureHandle[0] == 0) {
@@ -130,8 +258,8 @@ public class GLHelper {
      * @return
      */
     public static int createProgram(Context context, int vertexShaderResourceId, int fragmentShaderResourceId) {
-        int program = createProgram(loadGLShader(context, GLES20.GL_VERTEX_SHADER, vertexShaderResourceId),
-                loadGLShader(context, GLES20.GL_FRAGMENT_SHADER, fragmentShaderResourceId));
+        int program = createProgram(readRawTextFile(context, vertexShaderResourceId),
+                readRawTextFile(context, fragmentShaderResourceId));
         checkGLError("GLHelper createProgram");
         return program;
     }
@@ -149,13 +277,139 @@ public class GLHelper {
      */
     public static Program createProgram(Context context, int vertexShaderResourceId, int fragmentShaderResourceId,
                                         List<String> _attrs, List<String> _uniforms) {
-        int program = createProgram(loadGLShader(context, GLES20.GL_VERTEX_SHADER, vertexShaderResourceId),
-                loadGLShader(context, GLES20.GL_FRAGMENT_SHADER, fragmentShaderResourceId));
+        return createProgram(context, vertexShaderResourceId, fragmentShaderResourceId, null, _attrs, _uniforms);
+    }
+
+    /**
+     * Create Program from vr_video_vertex and vr_video_fragment shader resource id and attrs lists
+     *
+     * @param context
+     * @param vertexShaderResourceId   The vr_video_vertex resource ID of the raw text file about to be turned into a shader.
+     * @param fragmentShaderResourceId The vr_video_fragment resource ID of the raw text file about to be turned into a shader.
+     * @param defines                  Preprocessor lines inserted into both shaders. Can be null.
+     * @param _attrs                   Attributes
+     * @param _uniforms                Uniforms
+     * @return
+     */
+    public static Program createProgram(Context context, int vertexShaderResourceId, int fragmentShaderResourceId,
+                                        String defines, List<String> _attrs, List<String> _uniforms) {
+        int program = createProgram(insertDefines(readRawTextFile(context, vertexShaderResourceId), defines),
+                insertDefines(readRawTextFile(context, fragmentShaderResourceId), defines));
         ShaderAttributesLocations shaderAttributeLocations = getShaderAttributeLocations(program, _attrs, _uniforms);
         checkGLError("GLHelper createProgram");
         return new Program(program, shaderAttributeLocations);
     }
 
+    /**
+     * Create program from vertex and fragment shader sources.
+     * Program is loaded from program binary cache if it is set and has valid entry.
+     *
+     * @param vertexSource
+     * @param fragmentSource
+     * @return
+     */
+    public static int createProgram(String vertexSource, String fragmentSource) {
+        long startTime = System.nanoTime();
+        String key = null;
+        if (programBinaryCache != null) {
+            key = ProgramBinaryCache.getKey(vertexSource, fragmentSource);
+            int program = loadProgramBinary(key);
+            if (program != 0) {
+                Log.d(TAG, "Program " + key + " is loaded from cache in " +
+                        ((System.nanoTime() - startTime) / 1000000.0d) + " ms");
+                return program;
+            }
+        }
+
+        int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, vertexSource, "vertex");
+        int fragmentShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource, "fragment");
+        int program = createProgram(vertexShader, fragmentShader, key != null);
+        // Shaders are not needed after link, they are deleted together with program
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        if (program != 0 && key != null) {
+            saveProgramBinary(key, program);
+        }
+        Log.d(TAG, "Program " + ((key != null) ? key + " " : "") + "is compiled in " +
+                ((System.nanoTime() - startTime) / 1000000.0d) + " ms");
+        return program;
+    }
+
+    private static int loadProgramBinary(String key) {
+        ProgramBinaryCache.ProgramBinary binary = programBinaryCache.get(key);
+        if (binary == null) {
+            return 0;
+        }
+        logGLErrors("before program binary load");
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            return 0;
+        }
+        byte[] data = binary.getBinary();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+        buffer.put(data);
+        buffer.position(0);
+        GLES30.glProgramBinary(program, binary.getFormat(), buffer, data.length);
+
+        final int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] == 0 || clearGLErrors()) {
+            // Driver rejected binary (e.g. after driver update), compile program again
+            Log.w(TAG, "Program binary " + key + " is rejected by driver");
+            GLES20.glDeleteProgram(program);
+            programBinaryCache.onBinaryRejected(key);
+            return 0;
+        }
+        programBinaryCache.onBinaryAccepted();
+        return program;
+    }
+
+    private static void saveProgramBinary(String key, int program) {
+        logGLErrors("before program binary save");
+        final int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (clearGLErrors() || length[0] <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        final int[] written = new int[1];
+        final int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], written, 0, format, 0, buffer);
+        if (clearGLErrors() || written[0] <= 0) {
+            return;
+        }
+        byte[] data = new byte[written[0]];
+        buffer.position(0);
+        buffer.get(data);
+        programBinaryCache.put(key, format[0], data);
+    }
+
+    /**
+     * Log and clear errors of previous calls, so they are not taken for errors of next call
+     *
+     * @param label
+     */
+    private static void logGLErrors(String label) {
+        int error;
+        while ((error = errorBackend.getError()) != GLES20.GL_NO_ERROR) {
+            errorBackend.logError(label + ": pending glError " + error);
+        }
+    }
+
+    /**
+     * Clear GL errors
+     *
+     * @return true if there were errors
+     */
+    private static boolean clearGLErrors() {
+        boolean hasErrors = false;
+        while (errorBackend.getError() != GLES20.GL_NO_ERROR) {
+            hasErrors = true;
+        }
+        return hasErrors;
+    }
+
     /**
      * Create program from vr_video_vertex and vr_video_fragment shader ids
      *
@@ -164,12 +418,25 @@ public class GLHelper {
      * @return
      */
     public static int createProgram(int vertexShaderId, int fragmentShaderId) {
+        return createProgram(vertexShaderId, fragmentShaderId, false);
+    }
+
+    /**
+     * @param vertexShaderId
+     * @param fragmentShaderId
+     * @param isBinaryRetrievable true if binary of program is saved, driver is hinted before link
+     * @return
+     */
+    private static int createProgram(int vertexShaderId, int fragmentShaderId, boolean isBinaryRetrievable) {
         final int programId = GLES20.glCreateProgram();
         if (programId == 0) {
             return 0;
         }
         GLES20.glAttachShader(programId, vertexShaderId);
         GLES20.glAttachShader(programId, fragmentShaderId);
+        if (isBinaryRetrievable) {
+            GLES30.glProgramParameteri(programId, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
         GLES20.glLinkProgram(programId);
         final int[] linkStatus = new int[1];
         GLES20.glGetProgramiv(programId, GLES20.GL_LINK_STATUS, linkStatus, 0);
@@ -181,31 +448,130 @@ public class GLHelper {
     }
 
 
+    /**
+     * Resolve attribute and uniform locations of linked program
+     *
+     * @param programm
+     * @param _attrs    Attributes
+     * @param _uniforms Uniforms
+     * @return
+     */
     public static ShaderAttributesLocations getShaderAttributeLocations(int programm, List<String> _attrs, List<String> _uniforms) {
-        return new ShaderAttributesLocations(programm, _attrs, _uniforms);
+        int[] attrLocations = new int[_attrs.size()];
+        for (int i = 0; i < attrLocations.length; i++) {
+            attrLocations[i] = GLES20.glGetAttribLocation(programm, _attrs.get(i));
+        }
+        int[] uniformLocations = new int[_uniforms.size()];
+        for (int i = 0; i < uniformLocations.length; i++) {
+            uniformLocations[i] = GLES20.glGetUniformLocation(programm, _uniforms.get(i));
+        }
+        return new ShaderAttributesLocations(_attrs, attrLocations, _uniforms, uniformLocations);
+    }
+
+    /**
+     * Set when glGetError is called
+     *
+     * @param glErrorCheckPolicy GL_ERROR_CHECK_NONE, GL_ERROR_CHECK_PER_FRAME or GL_ERROR_CHECK_PER_CALL
+     */
+    public static void setGLErrorCheckPolicy(int glErrorCheckPolicy) {
+        GLHelper.glErrorCheckPolicy = glErrorCheckPolicy;
+    }
+
+    public static int getGLErrorCheckPolicy() {
+        return glErrorCheckPolicy;
+    }
+
+    /**
+     * Set source of GL errors, it is replaced in tests
+     *
+     * @param backend backend or null for GLES20 one
+     */
+    static void setErrorBackend(ErrorBackend backend) {
+        errorBackend = (backend != null) ? backend : new GLES20ErrorBackend();
     }
 
     /**
      * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
+     * It is always called, use it after one-time setup (compile, upload, init).
      *
      * @param label Label to report in case of error.
      */
     public static void checkGLError(String label) {
         int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-            Log.e(TAG, label + ": glError " + error);
+        while ((error = errorBackend.getError()) != GLES20.GL_NO_ERROR) {
+            errorBackend.logError(label + ": glError " + error);
             throw new RuntimeException(label + ": glError " + error);
         }
     }
 
+    /**
+     * Checks errors of draw calls which run every frame. It does nothing unless
+     * policy is GL_ERROR_CHECK_PER_CALL, because glGetError can stall GL pipeline.
+     *
+     * @param label Label to report in case of error.
+     */
+    public static void checkDrawGLError(String label) {
+        if (isDrawGLErrorChecked()) {
+            checkGLError(label);
+        }
+    }
 
     /**
-     * Converts a raw text file into a string.
+     * Checks errors of the whole frame. Call it once at the end of frame.
+     * With GL_ERROR_CHECK_PER_FRAME policy errors are logged, GL error flags are cleared.
+     * With GL_ERROR_CHECK_PER_CALL policy it works as {@link #checkGLError}.
+     *
+     * @param label Label to report in case of error.
+     */
+    public static void checkFrameGLError(String label) {
+        if (!isFrameGLErrorChecked()) {
+            return;
+        }
+        if (glErrorCheckPolicy == GL_ERROR_CHECK_PER_CALL) {
+            checkGLError(label);
+            return;
+        }
+        int error;
+        while ((error = errorBackend.getError()) != GLES20.GL_NO_ERROR) {
+            errorBackend.logError(label + ": glError " + error);
+        }
+    }
+
+    /**
+     * @return true if {@link #checkDrawGLError} calls glGetError with current policy
+     */
+    public static boolean isDrawGLErrorChecked() {
+        return glErrorCheckPolicy == GL_ERROR_CHECK_PER_CALL;
+    }
+
+    /**
+     * @return true if {@link #checkFrameGLError} calls glGetError with current policy
+     */
+    public static boolean isFrameGLErrorChecked() {
+        return glErrorCheckPolicy != GL_ERROR_CHECK_NONE;
+    }
+
+
+    /**
+     * Converts a raw text file into a string. Files are read once and kept in memory.
      *
      * @param resId The resource ID of the raw text file about to be turned into a shader.
      * @return The context of the text file, or null in case of error.
      */
     public static String readRawTextFile(Context context, int resId) {
+        synchronized (rawTextFiles) {
+            String text = rawTextFiles.get(resId);
+            if (text == null) {
+                text = readRawTextFileFromResources(context, resId);
+                if (text != null) {
+                    rawTextFiles.put(resId, text);
+                }
+            }
+            return text;
+        }
+    }
+
+    private static String readRawTextFileFromResources(Context context, int resId) {
         InputStream inputStream = context.getResources().openRawResource(resId);
         try {
             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
@@ -283,37 +649,28 @@ public class GLHelper {
     }
 
 
-    public static class ShaderAttributesLocations {
-        private HashMap<String, Integer> attrs = new HashMap<>();
-        private HashMap<String, Integer> uniforms = new HashMap<>();
+    /**
+     * GL calls used by error checks
+     */
+    interface ErrorBackend {
+        /**
+         * @return glGetError
+         */
+        int getError();
 
-        public Set<String> getAttrs() {
-            return attrs.keySet();
-        }
+        void logError(String message);
+    }
 
-        public ShaderAttributesLocations(int programm, List<String> _attrs, List<String> _uniforms) {
-            for (String attr : _attrs) {
-                attrs.put(attr, GLES20.glGetAttribLocation(programm, attr));
-            }
-            for (String uniform : _uniforms) {
-                uniforms.put(uniform, GLES20.glGetUniformLocation(programm, uniform));
-            }
-        }
+    private static class GLES20ErrorBackend implements ErrorBackend {
 
-        public int getAttr(String name) {
-            if (attrs.containsKey(name)) {
-                return attrs.get(name);
-            }
-            throw new IllegalArgumentException("Location for attribute `" + name + "` is not found!");
+        @Override
+        public int getError() {
+            return GLES20.glGetError();
         }
 
-        public int getUniform(String name) {
-            if (uniforms.containsKey(name)) {
-                return uniforms.get(name);
-            }
-            throw new IllegalArgumentException("Location for uniform `" + name + "` is not found!");
+        @Override
+        public void logError(String message) {
+            Log.e(TAG, message);
         }
     }
-
-
 }
@@ -0,0 +1,461 @@
+package com.anton111111.vr;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+/**
+ * Shadow copy of GL state that is changed by renderers: current program, bound buffers,
+ * textures bound to texture units, enabled vertex attribute arrays, blend and depth state.
+ * <p>
+ * Calls that don't change the state are skipped, so there are no glGet* round trips to driver
+ * and no redundant binds. Count of skipped calls is kept for every frame.
+ * <p>
+ * Cache is confined to GL thread and must be the only way to change tracked state. If state
+ * is changed in other way (GVR distortion pass, SurfaceTexture.updateTexImage, texture upload)
+ * call {@link #invalidate} or {@link #invalidateTextures}, unknown state is always set.
+ */
+public class GLStateCache {
+
+    public static final int MAX_TEXTURE_UNITS = 8;
+    // Enabled arrays are tracked by bits of int, GL may have more attributes than it
+    public static final int MAX_TRACKED_VERTEX_ATTRIBS = 32;
+
+    private static final int UNKNOWN = -1;
+    private static final int TARGET_2D = 0;
+    private static final int TARGET_EXTERNAL = 1;
+
+    private static GLStateCache instance;
+
+    private final Backend gl;
+
+    private int program;
+    private int arrayBuffer;
+    private int elementArrayBuffer;
+    private int activeTextureUnit;
+    private final int[][] textures = new int[2][MAX_TEXTURE_UNITS];
+    // Count of vertex attributes of GL, it is queried at the first use
+    private int maxVertexAttribs = 0;
+    // Enabled vertex attribute arrays, bit per location
+    private int enabledVertexAttribArrays;
+    private boolean isVertexAttribArraysKnown;
+    private int blend;
+    private int blendSrc;
+    private int blendDst;
+    private int depthTest;
+    private int depthFunc;
+    private int depthMask;
+
+    private int savedCalls = 0;
+    private int issuedCalls = 0;
+    private int lastFrameSavedCalls = 0;
+    private int lastFrameIssuedCalls = 0;
+
+    public static GLStateCache getInstance() {
+        if (instance == null) {
+            instance = new GLStateCache(new GLES20Backend());
+        }
+        return instance;
+    }
+
+    public GLStateCache(Backend gl) {
+        this.gl = gl;
+        invalidate();
+    }
+
+    /**
+     * Count of calls skipped in current frame
+     *
+     * @return
+     */
+    public int getSavedCalls() {
+        return savedCalls;
+    }
+
+    /**
+     * Count of calls passed to GL in current frame
+     *
+     * @return
+     */
+    public int getIssuedCalls() {
+        return issuedCalls;
+    }
+
+    public int getLastFrameSavedCalls() {
+        return lastFrameSavedCalls;
+    }
+
+    public int getLastFrameIssuedCalls() {
+        return lastFrameIssuedCalls;
+    }
+
+    public int getProgram() {
+        return program;
+    }
+
+    /**
+     * Start new frame: save counters of previous frame and forget state which GVR distortion
+     * pass changes after eyes are rendered. It is program, bound buffers, texture of unit 0
+     * and blend and depth state. Other state (enabled vertex attribute arrays, textures of
+     * other units) is kept.
+     */
+    public void beginFrame() {
+        lastFrameSavedCalls = savedCalls;
+        lastFrameIssuedCalls = issuedCalls;
+        savedCalls = 0;
+        issuedCalls = 0;
+        invalidateDistortionState();
+    }
+
+    /**
+     * Forget all state. Next call of every setter goes to GL.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        enabledVertexAttribArrays = 0;
+        isVertexAttribArraysKnown = false;
+        blend = UNKNOWN;
+        blendSrc = UNKNOWN;
+        blendDst = UNKNOWN;
+        depthTest = UNKNOWN;
+        depthFunc = UNKNOWN;
+        depthMask = UNKNOWN;
+        invalidateTextures();
+    }
+
+    private void invalidateDistortionState() {
+        program = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        blend = UNKNOWN;
+        blendSrc = UNKNOWN;
+        blendDst = UNKNOWN;
+        depthTest = UNKNOWN;
+        depthFunc = UNKNOWN;
+        depthMask = UNKNOWN;
+        activeTextureUnit = UNKNOWN;
+        for (int[] unitTextures : textures) {
+            unitTextures[0] = UNKNOWN;
+        }
+    }
+
+    /**
+     * Forget active texture unit and bound textures
+     */
+    public void invalidateTextures() {
+        activeTextureUnit = UNKNOWN;
+        for (int[] unitTextures : textures) {
+            for (int i = 0; i < unitTextures.length; i++) {
+                unitTextures[i] = UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * Forget texture that is deleted, so the same name generated later is bound again
+     *
+     * @param texture
+     */
+    public void onTextureDeleted(int texture) {
+        for (int[] unitTextures : textures) {
+            for (int i = 0; i < unitTextures.length; i++) {
+                if (unitTextures[i] == texture) {
+                    unitTextures[i] = UNKNOWN;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget buffer that is deleted (GL binds 0 instead of it)
+     *
+     * @param buffer
+     */
+    public void onBufferDeleted(int buffer) {
+        if (arrayBuffer == buffer) {
+            arrayBuffer = UNKNOWN;
+        }
+        if (elementArrayBuffer == buffer) {
+            elementArrayBuffer = UNKNOWN;
+        }
+    }
+
+    /**
+     * Bind buffer. Client side arrays need buffer 0 to be bound.
+     *
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+     * @param buffer
+     */
+    public void bindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            if (arrayBuffer == buffer) {
+                savedCalls++;
+                return;
+            }
+            arrayBuffer = buffer;
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if (elementArrayBuffer == buffer) {
+                savedCalls++;
+                return;
+            }
+            elementArrayBuffer = buffer;
+        }
+        gl.bindBuffer(target, buffer);
+        issuedCalls++;
+    }
+
+    public void useProgram(int programId) {
+        if (program == programId) {
+            savedCalls++;
+            return;
+        }
+        gl.useProgram(programId);
+        program = programId;
+        issuedCalls++;
+    }
+
+    /**
+     * Bind texture to texture unit. Active texture unit is changed only if it is needed.
+     *
+     * @param unit    texture unit index (0 for GL_TEXTURE0)
+     * @param target  GL_TEXTURE_2D or GL_TEXTURE_EXTERNAL_OES
+     * @param texture
+     */
+    public void bindTexture(int unit, int target, int texture) {
+        int targetIndex = getTargetIndex(target);
+        if (targetIndex == UNKNOWN || unit < 0 || unit >= MAX_TEXTURE_UNITS) {
+            // Not tracked
+            activeTexture(unit);
+            gl.bindTexture(target, texture);
+            issuedCalls++;
+            return;
+        }
+        if (textures[targetIndex][unit] == texture) {
+            savedCalls++;
+            return;
+        }
+        activeTexture(unit);
+        gl.bindTexture(target, texture);
+        textures[targetIndex][unit] = texture;
+        issuedCalls++;
+    }
+
+    /**
+     * Count of vertex attribute locations which are tracked:
+     * GL_MAX_VERTEX_ATTRIBS but not more than {@link #MAX_TRACKED_VERTEX_ATTRIBS}
+     *
+     * @return
+     */
+    public int getMaxVertexAttribs() {
+        if (maxVertexAttribs == 0) {
+            maxVertexAttribs = Math.min(gl.getMaxVertexAttribs(), MAX_TRACKED_VERTEX_ATTRIBS);
+        }
+        return maxVertexAttribs;
+    }
+
+    /**
+     * Enable vertex attribute arrays of mask and disable all other arrays
+     *
+     * @param mask bit per attribute location, locations less than {@link #getMaxVertexAttribs}
+     */
+    public void setEnabledVertexAttribArrays(int mask) {
+        int count = getMaxVertexAttribs();
+        if (count < MAX_TRACKED_VERTEX_ATTRIBS && (mask >>> count) != 0) {
+            throw new IllegalArgumentException("Vertex attribute location is out of range: " +
+                    Integer.toBinaryString(mask));
+        }
+        for (int location = 0; location < count; location++) {
+            int bit = 1 << location;
+            boolean isNeeded = (mask & bit) != 0;
+            if (isVertexAttribArraysKnown && isNeeded == ((enabledVertexAttribArrays & bit) != 0)) {
+                if (isNeeded) {
+                    savedCalls++;
+                }
+                continue;
+            }
+            if (isNeeded) {
+                gl.enableVertexAttribArray(location);
+            } else {
+                gl.disableVertexAttribArray(location);
+            }
+            issuedCalls++;
+        }
+        enabledVertexAttribArrays = mask;
+        isVertexAttribArraysKnown = true;
+    }
+
+    public void setBlend(boolean isEnabled) {
+        blend = setCapability(GLES20.GL_BLEND, blend, isEnabled);
+    }
+
+    public void setDepthTest(boolean isEnabled) {
+        depthTest = setCapability(GLES20.GL_DEPTH_TEST, depthTest, isEnabled);
+    }
+
+    public void blendFunc(int src, int dst) {
+        if (blendSrc == src && blendDst == dst) {
+            savedCalls++;
+            return;
+        }
+        gl.blendFunc(src, dst);
+        blendSrc = src;
+        blendDst = dst;
+        issuedCalls++;
+    }
+
+    public void depthFunc(int func) {
+        if (depthFunc == func) {
+            savedCalls++;
+            return;
+        }
+        gl.depthFunc(func);
+        depthFunc = func;
+        issuedCalls++;
+    }
+
+    public void depthMask(boolean isEnabled) {
+        int value = isEnabled ? 1 : 0;
+        if (depthMask == value) {
+            savedCalls++;
+            return;
+        }
+        gl.depthMask(isEnabled);
+        depthMask = value;
+        issuedCalls++;
+    }
+
+    private void activeTexture(int unit) {
+        if (activeTextureUnit == unit) {
+            savedCalls++;
+            return;
+        }
+        gl.activeTexture(GLES20.GL_TEXTURE0 + unit);
+        activeTextureUnit = unit;
+        issuedCalls++;
+    }
+
+    private int setCapability(int cap, int state, boolean isEnabled) {
+        int value = isEnabled ? 1 : 0;
+        if (state == value) {
+            savedCalls++;
+            return state;
+        }
+        if (isEnabled) {
+            gl.enable(cap);
+        } else {
+            gl.disable(cap);
+        }
+        issuedCalls++;
+        return value;
+    }
+
+    private static int getTargetIndex(int target) {
+        if (target == GLES20.GL_TEXTURE_2D) {
+            return TARGET_2D;
+        }
+        if (target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES) {
+            return TARGET_EXTERNAL;
+        }
+        return UNKNOWN;
+    }
+
+
+    /**
+     * GL calls used by cache
+     */
+    public interface Backend {
+        void useProgram(int program);
+
+        void activeTexture(int texture);
+
+        void bindTexture(int target, int texture);
+
+        void bindBuffer(int target, int buffer);
+
+        void enableVertexAttribArray(int index);
+
+        void disableVertexAttribArray(int index);
+
+        void enable(int cap);
+
+        void disable(int cap);
+
+        void blendFunc(int src, int dst);
+
+        void depthFunc(int func);
+
+        void depthMask(boolean flag);
+
+        /**
+         * @return GL_MAX_VERTEX_ATTRIBS
+         */
+        int getMaxVertexAttribs();
+    }
+
+    public static class GLES20Backend implements Backend {
+
+        @Override
+        public void useProgram(int program) {
+            GLES20.glUseProgram(program);
+        }
+
+        @Override
+        public void activeTexture(int texture) {
+            GLES20.glActiveTexture(texture);
+        }
+
+        @Override
+        public void bindTexture(int target, int texture) {
+            GLES20.glBindTexture(target, texture);
+        }
+
+        @Override
+        public void bindBuffer(int target, int buffer) {
+            GLES20.glBindBuffer(target, buffer);
+        }
+
+        @Override
+        public void enableVertexAttribArray(int index) {
+            GLES20.glEnableVertexAttribArray(index);
+        }
+
+        @Override
+        public void disableVertexAttribArray(int index) {
+            GLES20.glDisableVertexAttribArray(index);
+        }
+
+        @Override
+        public void enable(int cap) {
+            GLES20.glEnable(cap);
+        }
+
+        @Override
+        public void disable(int cap) {
+            GLES20.glDisable(cap);
+        }
+
+        @Override
+        public void blendFunc(int src, int dst) {
+            GLES20.glBlendFunc(src, dst);
+        }
+
+        @Override
+        public void depthFunc(int func) {
+            GLES20.glDepthFunc(func);
+        }
+
+        @Override
+        public void depthMask(boolean flag) {
+            GLES20.glDepthMask(flag);
+        }
+
+        @Override
+        public int getMaxVertexAttribs() {
+            int[] count = new int[1];
+            GLES20.glGetIntegerv(GLES20.GL_MAX_VERTEX_ATTRIBS, count, 0);
+            // GLES 2.0 guarantees at least 8 vertex attributes
+            return Math.max(count[0], 8);
+        }
+    }
+}
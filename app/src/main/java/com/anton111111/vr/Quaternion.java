@@ -1,21 +1,43 @@
 package com.anton111111.vr;
 
-import android.opengl.Matrix;
-
 public class Quaternion {
 
+    private static final float SLERP_NLERP_THRESHOLD = 0.9995f;
+
     /**
-     * Rotates matrix m to quaternion
+     * Rotates matrix m to quaternion, m = m * rotation.
+     * Product is computed row by row in place, so nothing is allocated.
      *
      * @param m          source matrix
      * @param mOffset    index into m where the matrix starts
      * @param quaternion Quaternion
      */
     public static void rotateM(float[] m, int mOffset, float[] quaternion) {
-        float[] sTemp = new float[32];
-        toMatrix(sTemp, quaternion);
-        Matrix.multiplyMM(sTemp, 16, m, mOffset, sTemp, 0);
-        System.arraycopy(sTemp, 16, m, mOffset, 16);
+        if (quaternion.length != 4) {
+            throw new IllegalArgumentException("Wrong length of quaternion");
+        }
+        float x = quaternion[0];
+        float y = quaternion[1];
+        float z = quaternion[2];
+        float w = quaternion[3];
+        // Rotation matrix like toMatrix, the last row and column are identity
+        float r0 = 1.0f - 2.0f * (y * y + z * z);
+        float r1 = 2.0f * (x * y - z * w);
+        float r2 = 2.0f * (x * z + y * w);
+        float r4 = 2.0f * (x * y + z * w);
+        float r5 = 1.0f - 2.0f * (x * x + z * z);
+        float r6 = 2.0f * (y * z - x * w);
+        float r8 = 2.0f * (x * z - y * w);
+        float r9 = 2.0f * (y * z + x * w);
+        float r10 = 1.0f - 2.0f * (x * x + y * y);
+        for (int i = 0; i < 4; i++) {
+            float m0 = m[mOffset + i];
+            float m1 = m[mOffset + 4 + i];
+            float m2 = m[mOffset + 8 + i];
+            m[mOffset + i] = m0 * r0 + m1 * r1 + m2 * r2;
+            m[mOffset + 4 + i] = m0 * r4 + m1 * r5 + m2 * r6;
+            m[mOffset + 8 + i] = m0 * r8 + m1 * r9 + m2 * r10;
+        }
     }
 
 
@@ -73,13 +95,144 @@ public class Quaternion {
             throw new IllegalArgumentException("Not enough space to write the result");
         }
 
-        float nw = lhs[0] * rhs[3] - lhs[0] * rhs[0] - lhs[1] * rhs[1] - lhs[2] * rhs[2];
+        float nw = lhs[3] * rhs[3] - lhs[0] * rhs[0] - lhs[1] * rhs[1] - lhs[2] * rhs[2];
         float nx = lhs[3] * rhs[0] + lhs[0] * rhs[3] + lhs[1] * rhs[2] - lhs[2] * rhs[1];
         float ny = lhs[3] * rhs[1] + lhs[1] * rhs[3] + lhs[2] * rhs[0] - lhs[0] * rhs[2];
-        quaternion[2] = lhs[3] * rhs[2] + lhs[0] * rhs[3] + lhs[0] * rhs[1] - lhs[1] * rhs[0];
-        quaternion[3] = nw;
+        float nz = lhs[3] * rhs[2] + lhs[2] * rhs[3] + lhs[0] * rhs[1] - lhs[1] * rhs[0];
         quaternion[0] = nx;
         quaternion[1] = ny;
+        quaternion[2] = nz;
+        quaternion[3] = nw;
+    }
+
+
+    /**
+     * Spherical linear interpolation by the shortest arc, rotation speed is constant along arc.
+     * t out of [0, 1] extrapolates.
+     *
+     * @param quaternion The float array that holds the result, may be from or to.
+     * @param from       Quaternion (normalized) at t = 0
+     * @param to         Quaternion (normalized) at t = 1
+     * @param t
+     */
+    public static void slerp(float[] quaternion, float[] from, float[] to, float t) {
+        if (from.length != 4 || to.length != 4) {
+            throw new IllegalArgumentException("Wrong length of quaternion");
+        }
+        if (quaternion.length < 4) {
+            throw new IllegalArgumentException("Not enough space to write the result");
+        }
+        float cos = dot(from, to);
+        // q and -q are the same rotation, go the shortest way
+        float sign = cos < 0.0f ? -1.0f : 1.0f;
+        cos *= sign;
+        if (cos > SLERP_NLERP_THRESHOLD) {
+            // Arc is almost straight, sin of angle is too small to divide by
+            nlerp(quaternion, from, to, t);
+            return;
+        }
+        double angle = Math.acos(cos);
+        double invSin = 1.0 / Math.sin(angle);
+        float fromScale = (float) (Math.sin((1.0 - t) * angle) * invSin);
+        float toScale = sign * (float) (Math.sin(t * angle) * invSin);
+        quaternion[0] = fromScale * from[0] + toScale * to[0];
+        quaternion[1] = fromScale * from[1] + toScale * to[1];
+        quaternion[2] = fromScale * from[2] + toScale * to[2];
+        quaternion[3] = fromScale * from[3] + toScale * to[3];
+    }
+
+    /**
+     * Normalized linear interpolation by the shortest arc. It is cheaper than {@link #slerp},
+     * but rotation speed is not constant, it is fine for small angles and filters.
+     *
+     * @param quaternion The float array that holds the result, may be from or to.
+     * @param from       Quaternion (normalized) at t = 0
+     * @param to         Quaternion (normalized) at t = 1
+     * @param t
+     */
+    public static void nlerp(float[] quaternion, float[] from, float[] to, float t) {
+        if (from.length != 4 || to.length != 4) {
+            throw new IllegalArgumentException("Wrong length of quaternion");
+        }
+        if (quaternion.length < 4) {
+            throw new IllegalArgumentException("Not enough space to write the result");
+        }
+        float fromScale = 1.0f - t;
+        float toScale = dot(from, to) < 0.0f ? -t : t;
+        quaternion[0] = fromScale * from[0] + toScale * to[0];
+        quaternion[1] = fromScale * from[1] + toScale * to[1];
+        quaternion[2] = fromScale * from[2] + toScale * to[2];
+        quaternion[3] = fromScale * from[3] + toScale * to[3];
+        normalizeLocal(quaternion);
+    }
+
+    /**
+     * Set quaternion to rotation made by angular velocity in time
+     *
+     * @param quaternion The float array that holds the result.
+     * @param wx         x of angular velocity (radians per second), axis is its direction
+     * @param wy         y of angular velocity
+     * @param wz         z of angular velocity
+     * @param seconds    time of rotation
+     */
+    public static void fromAngularVelocity(float[] quaternion, float wx, float wy, float wz, float seconds) {
+        if (quaternion.length != 4) {
+            throw new IllegalArgumentException("Wrong length of quaternion");
+        }
+        float speed = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+        float halfAngle = 0.5f * speed * seconds;
+        if (speed == 0.0f || halfAngle == 0.0f) {
+            quaternion[0] = 0.0f;
+            quaternion[1] = 0.0f;
+            quaternion[2] = 0.0f;
+            quaternion[3] = 1.0f;
+            return;
+        }
+        float scale = (float) Math.sin(halfAngle) / speed;
+        quaternion[0] = wx * scale;
+        quaternion[1] = wy * scale;
+        quaternion[2] = wz * scale;
+        quaternion[3] = (float) Math.cos(halfAngle);
+    }
+
+    /**
+     * Get angular velocity which makes rotation in time, inverse of {@link #fromAngularVelocity}.
+     * Rotation is taken by the shortest arc.
+     *
+     * @param velocity   The float array that holds the result {x,y,z} (radians per second).
+     * @param quaternion Quaternion (normalized) of rotation
+     * @param seconds    time of rotation
+     */
+    public static void toAngularVelocity(float[] velocity, float[] quaternion, float seconds) {
+        if (quaternion.length != 4) {
+            throw new IllegalArgumentException("Wrong length of quaternion");
+        }
+        if (velocity.length < 3) {
+            throw new IllegalArgumentException("Not enough space to write the result");
+        }
+        float sign = quaternion[3] < 0.0f ? -1.0f : 1.0f;
+        float x = sign * quaternion[0];
+        float y = sign * quaternion[1];
+        float z = sign * quaternion[2];
+        float sin = (float) Math.sqrt(x * x + y * y + z * z);
+        float scale;
+        if (sin < 1e-6f) {
+            // angle = 2 * sin for small angles
+            scale = 2.0f / seconds;
+        } else {
+            float angle = 2.0f * (float) Math.atan2(sin, sign * quaternion[3]);
+            scale = angle / (sin * seconds);
+        }
+        velocity[0] = x * scale;
+        velocity[1] = y * scale;
+        velocity[2] = z * scale;
+    }
+
+    /**
+     * @return dot product of quaternions, cos of half angle between them if they are normalized
+     */
+    public static float dot(float[] lhs, float[] rhs) {
+        return lhs[0] * rhs[0] + lhs[1] * rhs[1] + lhs[2] * rhs[2] + lhs[3] * rhs[3];
     }
 
 
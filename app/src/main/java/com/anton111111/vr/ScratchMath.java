@@ -0,0 +1,110 @@
+package com.anton111111.vr;
+
+/**
+ * Pool of scratch matrices, quaternions and vectors for per-frame math.
+ * <p>
+ * Arrays are taken in a scope between {@link #begin} and {@link #end} and are returned to pool
+ * by {@link #end}, scopes may be nested (controller renderer renders cursor in own scope).
+ * Pool grows while the first frames are rendered, after that frame loop doesn't allocate.
+ * Arrays are not cleared, every taken array must be written before it is read.
+ * <p>
+ * Pool is confined to GL thread like {@link GLStateCache}.
+ */
+public class ScratchMath {
+
+    public static final int MATRIX_SIZE = 16;
+    public static final int QUATERNION_SIZE = 4;
+    public static final int VECTOR_SIZE = 3;
+    public static final int MAX_SCOPES_DEPTH = 16;
+
+    private static final int MATRICES = 0;
+    private static final int QUATERNIONS = 1;
+    private static final int VECTORS = 2;
+    private static final int KINDS_COUNT = 3;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static ScratchMath instance;
+
+    private final float[][][] pools = new float[KINDS_COUNT][][];
+    private final int[] tops = new int[KINDS_COUNT];
+    private final int[] scopes = new int[MAX_SCOPES_DEPTH * KINDS_COUNT];
+    private int scopesDepth = 0;
+
+    public static ScratchMath getInstance() {
+        if (instance == null) {
+            instance = new ScratchMath();
+        }
+        return instance;
+    }
+
+    public ScratchMath() {
+        pools[MATRICES] = new float[INITIAL_CAPACITY][];
+        pools[QUATERNIONS] = new float[INITIAL_CAPACITY][];
+        pools[VECTORS] = new float[INITIAL_CAPACITY][];
+    }
+
+    /**
+     * Open scope, arrays taken after it are returned by {@link #end}
+     */
+    public void begin() {
+        if (scopesDepth == MAX_SCOPES_DEPTH) {
+            throw new IllegalStateException("Too deep scratch scopes, is end() missed?");
+        }
+        System.arraycopy(tops, 0, scopes, scopesDepth * KINDS_COUNT, KINDS_COUNT);
+        scopesDepth++;
+    }
+
+    /**
+     * Close scope, arrays taken in it may be reused
+     */
+    public void end() {
+        if (scopesDepth == 0) {
+            throw new IllegalStateException("end() without begin()");
+        }
+        scopesDepth--;
+        System.arraycopy(scopes, scopesDepth * KINDS_COUNT, tops, 0, KINDS_COUNT);
+    }
+
+    public int getScopesDepth() {
+        return scopesDepth;
+    }
+
+    /**
+     * @return scratch 4x4 matrix
+     */
+    public float[] matrix() {
+        return take(MATRICES, MATRIX_SIZE);
+    }
+
+    /**
+     * @return scratch quaternion {x, y, z, w}
+     */
+    public float[] quaternion() {
+        return take(QUATERNIONS, QUATERNION_SIZE);
+    }
+
+    /**
+     * @return scratch 3D vector
+     */
+    public float[] vector() {
+        return take(VECTORS, VECTOR_SIZE);
+    }
+
+    private float[] take(int kind, int size) {
+        if (scopesDepth == 0) {
+            throw new IllegalStateException("Scratch array is taken out of scope");
+        }
+        float[][] pool = pools[kind];
+        int top = tops[kind];
+        if (top == pool.length) {
+            float[][] grown = new float[pool.length * 2][];
+            System.arraycopy(pool, 0, grown, 0, pool.length);
+            pools[kind] = pool = grown;
+        }
+        if (pool[top] == null) {
+            pool[top] = new float[size];
+        }
+        tops[kind] = top + 1;
+        return pool[top];
+    }
+}
@@ -24,6 +24,36 @@ public class VectorUtil {
         return new float[]{(u[Y] * v[Z]) - (u[Z] * v[Y]), (u[Z] * v[X]) - (u[X] * v[Z]), (u[X] * v[Y]) - (u[Y] * v[X])};
     }
 
+    // Variants with result, for code that must not allocate (frame loop)
+
+    public static void minus(float[] result, float[] u, float[] v) {
+        result[X] = u[X] - v[X];
+        result[Y] = u[Y] - v[Y];
+        result[Z] = u[Z] - v[Z];
+    }
+
+    public static void addition(float[] result, float[] u, float[] v) {
+        result[X] = u[X] + v[X];
+        result[Y] = u[Y] + v[Y];
+        result[Z] = u[Z] + v[Z];
+    }
+
+    public static void scalarProduct(float[] result, float r, float[] u) {
+        result[X] = u[X] * r;
+        result[Y] = u[Y] * r;
+        result[Z] = u[Z] * r;
+    }
+
+    // result may be u or v
+    public static void crossProduct(float[] result, float[] u, float[] v) {
+        float x = (u[Y] * v[Z]) - (u[Z] * v[Y]);
+        float y = (u[Z] * v[X]) - (u[X] * v[Z]);
+        float z = (u[X] * v[Y]) - (u[Y] * v[X]);
+        result[X] = x;
+        result[Y] = y;
+        result[Z] = z;
+    }
+
     //magnitude or length
     public static float length(float[] u) {
         return (float) Math.abs(Math.sqrt((u[X] * u[X]) + (u[Y] * u[Y]) + (u[Z] * u[Z])));
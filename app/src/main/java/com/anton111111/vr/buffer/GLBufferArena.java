@@ -0,0 +1,354 @@
+package com.anton111111.vr.buffer;
+
+import android.opengl.GLES20;
+
+import com.anton111111.vr.GLStateCache;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * One VBO for geometry of all widgets and one IBO with indexes of quad.
+ * <p>
+ * Widget allocates {@link Region} and gets offset of its vertices in VBO. Data is written
+ * to CPU copy of VBO and only changed range is uploaded on next {@link #bind}, so static
+ * geometry is uploaded once instead of every draw of every eye.
+ * <p>
+ * Every quad is drawn with the same 6 indexes: vertex attribute pointer starts at the
+ * region offset, so indexes are always 0..3.
+ * <p>
+ * Arena is used on GL thread only.
+ */
+public class GLBufferArena {
+
+    public static final int FLOAT_SIZE = 4;
+    public static final int SHORT_SIZE = 2;
+    public static final int QUAD_VERTEX_COUNT = 4;
+    public static final short[] QUAD_INDEXES = new short[]{
+            0, 1, 2, 0, 2, 3
+    };
+    public static final float[] QUAD_TEXTURE_COORDS = new float[]{
+            0.0f, 1.0f,
+            1.0f, 1.0f,
+            1.0f, 0.0f,
+            0.0f, 0.0f
+    };
+
+    private static final int DEFAULT_CAPACITY = 1024; // floats
+
+    private static GLBufferArena instance;
+
+    private final Backend gl;
+    private final GLStateCache stateCache;
+    private FloatBuffer data;
+    private int size = 0;
+    private int vertexBuffer = 0;
+    private int indexBuffer = 0;
+    private int vertexBufferCapacity = 0;
+    private int dirtyStart = Integer.MAX_VALUE;
+    private int dirtyEnd = 0;
+    private int uploadedBytes = 0;
+    private Region quadTextureCoords;
+
+    public static GLBufferArena getInstance() {
+        if (instance == null) {
+            instance = new GLBufferArena(new GLES20Backend(), GLStateCache.getInstance(), DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * Forget arena. Use it when GL context is lost, buffers are gone with context.
+     */
+    public static void clean() {
+        instance = null;
+    }
+
+    /**
+     * @param gl
+     * @param stateCache
+     * @param capacity   initial capacity in floats
+     */
+    public GLBufferArena(Backend gl, GLStateCache stateCache, int capacity) {
+        this.gl = gl;
+        this.stateCache = stateCache;
+        this.data = allocateFloatBuffer(Math.max(capacity, 1));
+    }
+
+    /**
+     * Size of allocated regions in floats
+     *
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Bytes uploaded to GL since arena is created
+     *
+     * @return
+     */
+    public int getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    public boolean isDirty() {
+        return dirtyStart < dirtyEnd;
+    }
+
+    /**
+     * Allocate region for vertex data
+     *
+     * @param floatsCount
+     * @return
+     */
+    public Region allocate(int floatsCount) {
+        if (size + floatsCount > data.capacity()) {
+            grow(size + floatsCount);
+        }
+        Region region = new Region(size, floatsCount);
+        size += floatsCount;
+        markDirty(region.offset, region.offset + floatsCount);
+        return region;
+    }
+
+    /**
+     * Allocate region and put data into it
+     *
+     * @param values
+     * @return
+     */
+    public Region allocate(float[] values) {
+        Region region = allocate(values.length);
+        region.set(values);
+        return region;
+    }
+
+    /**
+     * Get region with {@link #QUAD_TEXTURE_COORDS}, it is shared by all textured quads
+     *
+     * @return
+     */
+    public Region getQuadTextureCoords() {
+        if (quadTextureCoords == null) {
+            quadTextureCoords = allocate(QUAD_TEXTURE_COORDS);
+        }
+        return quadTextureCoords;
+    }
+
+    /**
+     * Bind VBO and quad IBO. Changed data is uploaded before bind.
+     */
+    public void bind() {
+        bindVertexBuffer();
+        bindQuadIndexBuffer();
+    }
+
+    public void bindVertexBuffer() {
+        if (vertexBuffer == 0) {
+            vertexBuffer = gl.genBuffer();
+        }
+        stateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer);
+        if (vertexBufferCapacity != data.capacity()) {
+            // New or grown buffer, upload everything
+            data.position(0);
+            gl.bufferData(GLES20.GL_ARRAY_BUFFER, data.capacity() * FLOAT_SIZE, data, GLES20.GL_DYNAMIC_DRAW);
+            uploadedBytes += data.capacity() * FLOAT_SIZE;
+            vertexBufferCapacity = data.capacity();
+        } else if (isDirty()) {
+            data.position(dirtyStart);
+            gl.bufferSubData(GLES20.GL_ARRAY_BUFFER, dirtyStart * FLOAT_SIZE,
+                    (dirtyEnd - dirtyStart) * FLOAT_SIZE, data);
+            uploadedBytes += (dirtyEnd - dirtyStart) * FLOAT_SIZE;
+        }
+        data.position(0);
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = 0;
+    }
+
+    public void bindQuadIndexBuffer() {
+        if (indexBuffer == 0) {
+            indexBuffer = gl.genBuffer();
+            stateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+            ShortBuffer indexes = ByteBuffer.allocateDirect(QUAD_INDEXES.length * SHORT_SIZE)
+                    .order(ByteOrder.nativeOrder())
+                    .asShortBuffer();
+            indexes.put(QUAD_INDEXES);
+            indexes.position(0);
+            gl.bufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, QUAD_INDEXES.length * SHORT_SIZE,
+                    indexes, GLES20.GL_STATIC_DRAW);
+            uploadedBytes += QUAD_INDEXES.length * SHORT_SIZE;
+            return;
+        }
+        stateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+    }
+
+    /**
+     * Delete GL buffers. Data is kept, buffers are created again on next bind.
+     */
+    public void release() {
+        if (vertexBuffer != 0) {
+            gl.deleteBuffer(vertexBuffer);
+            stateCache.onBufferDeleted(vertexBuffer);
+        }
+        if (indexBuffer != 0) {
+            gl.deleteBuffer(indexBuffer);
+            stateCache.onBufferDeleted(indexBuffer);
+        }
+        vertexBuffer = 0;
+        indexBuffer = 0;
+        vertexBufferCapacity = 0;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = data.capacity();
+        while (capacity < minCapacity) {
+            capacity *= 2;
+        }
+        FloatBuffer grown = allocateFloatBuffer(capacity);
+        data.position(0);
+        data.limit(size);
+        grown.put(data);
+        grown.position(0);
+        data = grown;
+    }
+
+    private void markDirty(int start, int end) {
+        dirtyStart = Math.min(dirtyStart, start);
+        dirtyEnd = Math.max(dirtyEnd, end);
+    }
+
+    private static FloatBuffer allocateFloatBuffer(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * FLOAT_SIZE)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+
+    /**
+     * Part of VBO that belongs to widget
+     */
+    public class Region {
+        private final int offset;
+        private final int size;
+
+        /**
+         * Offset in floats
+         *
+         * @return
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Size in floats
+         *
+         * @return
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Offset in bytes for glVertexAttribPointer
+         *
+         * @return
+         */
+        public int getByteOffset() {
+            return offset * FLOAT_SIZE;
+        }
+
+        private Region(int offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * Set data of region. Nothing is uploaded if data is not changed.
+         *
+         * @param values exactly {@link #getSize()} floats
+         */
+        public void set(float[] values) {
+            if (values.length != size) {
+                throw new IllegalArgumentException("Region size is " + size + ", got " + values.length);
+            }
+            int changedStart = -1;
+            int changedEnd = -1;
+            for (int i = 0; i < size; i++) {
+                if (data.get(offset + i) != values[i]) {
+                    if (changedStart < 0) {
+                        changedStart = i;
+                    }
+                    changedEnd = i + 1;
+                    data.put(offset + i, values[i]);
+                }
+            }
+            if (changedStart >= 0) {
+                markDirty(offset + changedStart, offset + changedEnd);
+            }
+        }
+
+        /**
+         * Set one value of region
+         *
+         * @param index index in region
+         * @param value
+         */
+        public void set(int index, float value) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " of region with size " + size);
+            }
+            if (data.get(offset + index) != value) {
+                data.put(offset + index, value);
+                markDirty(offset + index, offset + index + 1);
+            }
+        }
+
+        public float get(int index) {
+            return data.get(offset + index);
+        }
+    }
+
+    /**
+     * GL calls used by arena
+     */
+    public interface Backend {
+        int genBuffer();
+
+        void deleteBuffer(int buffer);
+
+        void bufferData(int target, int size, Buffer data, int usage);
+
+        void bufferSubData(int target, int offset, int size, Buffer data);
+    }
+
+    public static class GLES20Backend implements Backend {
+
+        @Override
+        public int genBuffer() {
+            int[] buffers = new int[1];
+            GLES20.glGenBuffers(1, buffers, 0);
+            return buffers[0];
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            GLES20.glDeleteBuffers(1, new int[]{buffer}, 0);
+        }
+
+        @Override
+        public void bufferData(int target, int size, Buffer data, int usage) {
+            GLES20.glBufferData(target, size, data, usage);
+        }
+
+        @Override
+        public void bufferSubData(int target, int offset, int size, Buffer data) {
+            GLES20.glBufferSubData(target, offset, size, data);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.anton111111.vr.mesh;
+
+import com.anton111111.vr.VideoFormatsSettings;
+
+/**
+ * Tessellated UV sphere with equirectangular texture coordinates baked into vertex data.
+ * <p>
+ * Every vertex stores {x, y, z, u, v, u, v}: position, texture coords for the left (or mono)
+ * eye and texture coords for the right eye. Stereo offset is already applied, so the
+ * fragment shader only has to sample the texture.
+ * <p>
+ * For formats with horizontal FOV less than 360 degrees only the visible part of sphere is
+ * generated, so there are no fragments outside of video to discard.
+ */
+public class SphereMesh {
+
+    public static final int COORDS_PER_VERTEX = 3;
+    public static final int TEXTURE_COORDS_PER_VERTEX = 2;
+    public static final int VERTEX_SIZE = COORDS_PER_VERTEX + TEXTURE_COORDS_PER_VERTEX * 2;
+    public static final int VERTEX_STRIDE = VERTEX_SIZE * 4;
+    public static final int POSITION_OFFSET = 0;
+    public static final int LEFT_EYE_TEXTURE_COORDS_OFFSET = COORDS_PER_VERTEX;
+    public static final int RIGHT_EYE_TEXTURE_COORDS_OFFSET = COORDS_PER_VERTEX + TEXTURE_COORDS_PER_VERTEX;
+
+    public static final float DEFAULT_RADIUS = 1.0f;
+    public static final int DEFAULT_RINGS = 64;
+    public static final int DEFAULT_SECTORS = 128;
+
+    private final float[] vertices;
+    private final short[] vertexIndexes;
+    private final int vertexCount;
+
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public short[] getVertexIndexes() {
+        return vertexIndexes;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    private SphereMesh(float[] vertices, short[] vertexIndexes) {
+        this.vertices = vertices;
+        this.vertexIndexes = vertexIndexes;
+        this.vertexCount = vertices.length / VERTEX_SIZE;
+    }
+
+    /**
+     * Create sphere with default radius and tessellation
+     *
+     * @param fov        horizontal field of view of video (radians)
+     * @param stereoType one of VideoFormatsSettings.STEREO_TYPE_*
+     * @return
+     */
+    public static SphereMesh create(float fov, int stereoType) {
+        return create(DEFAULT_RADIUS, DEFAULT_RINGS, DEFAULT_SECTORS, fov, stereoType);
+    }
+
+    /**
+     * Create sphere (or part of sphere for fov less than 360 degrees)
+     *
+     * @param radius
+     * @param rings      number of horizontal bands (from bottom pole to top pole)
+     * @param sectors    number of vertical bands (around Y axis)
+     * @param fov        horizontal field of view of video (radians)
+     * @param stereoType one of VideoFormatsSettings.STEREO_TYPE_*
+     * @return
+     */
+    public static SphereMesh create(float radius, int rings, int sectors, float fov, int stereoType) {
+        if (rings < 2 || sectors < 3) {
+            throw new IllegalArgumentException("Sphere needs at least 2 rings and 3 sectors");
+        }
+        if ((rings + 1) * (sectors + 1) > 0xFFFF) {
+            throw new IllegalArgumentException("Too many vertices for short indexes: " + rings + "x" + sectors);
+        }
+
+        double hSpan = Math.min(fov, Math.PI * 2.0d);
+        float[] vertices = new float[(rings + 1) * (sectors + 1) * VERTEX_SIZE];
+        float[] uv = new float[2];
+        int v = 0;
+        for (int r = 0; r <= rings; r++) {
+            // Angle from the bottom pole, this is `vAngle` of vr_video_fragment
+            double vAngle = Math.PI * r / rings;
+            double sinTheta = Math.sin(vAngle);
+            double y = -Math.cos(vAngle);
+            for (int s = 0; s <= sectors; s++) {
+                // Angle around Y axis from -Z direction, this is `hAngle` of vr_video_fragment
+                double hAngle = -hSpan / 2.0d + hSpan * s / sectors;
+
+                vertices[v] = (float) (radius * sinTheta * Math.sin(hAngle));
+                vertices[v + 1] = (float) (radius * y);
+                vertices[v + 2] = (float) (-radius * sinTheta * Math.cos(hAngle));
+
+                float x = (float) ((fov / 2.0d + hAngle) / fov);
+                float yTex = (float) (vAngle / Math.PI);
+                stereoTextureCoords(x, yTex, stereoType, 0.0f, uv);
+                vertices[v + LEFT_EYE_TEXTURE_COORDS_OFFSET] = uv[0];
+                vertices[v + LEFT_EYE_TEXTURE_COORDS_OFFSET + 1] = uv[1];
+                stereoTextureCoords(x, yTex, stereoType, 0.5f, uv);
+                vertices[v + RIGHT_EYE_TEXTURE_COORDS_OFFSET] = uv[0];
+                vertices[v + RIGHT_EYE_TEXTURE_COORDS_OFFSET + 1] = uv[1];
+
+                v += VERTEX_SIZE;
+            }
+        }
+
+        short[] indexes = new short[rings * sectors * 6];
+        int i = 0;
+        for (int r = 0; r < rings; r++) {
+            for (int s = 0; s < sectors; s++) {
+                int first = r * (sectors + 1) + s;
+                int second = first + sectors + 1;
+                indexes[i++] = (short) first;
+                indexes[i++] = (short) second;
+                indexes[i++] = (short) (first + 1);
+                indexes[i++] = (short) second;
+                indexes[i++] = (short) (second + 1);
+                indexes[i++] = (short) (first + 1);
+            }
+        }
+
+        return new SphereMesh(vertices, indexes);
+    }
+
+    /**
+     * Get horizontal angle of position (`hAngle` of vr_video_fragment)
+     *
+     * @param x position X
+     * @param z position Z
+     * @return angle around Y axis from -Z direction in radians
+     */
+    public static double horizontalAngle(float x, float z) {
+        return Math.atan2(x, -z);
+    }
+
+    /**
+     * CPU version of texture coords calculation from vr_video_fragment (without u_TTM).
+     * It is the reference for coords baked into the mesh.
+     *
+     * @param x                 position X
+     * @param y                 position Y
+     * @param z                 position Z
+     * @param fov               horizontal field of view of video (radians)
+     * @param stereoType        one of VideoFormatsSettings.STEREO_TYPE_*
+     * @param textureCordOffset 0.0 for left (or mono) eye and 0.5 for right eye
+     * @param uv                The float array that holds the result {u,v}.
+     * @return false if position is outside of fov (shader discards such fragment)
+     */
+    public static boolean referenceTextureCoords(float x, float y, float z, float fov, int stereoType,
+                                                 float textureCordOffset, float[] uv) {
+        double length = Math.sqrt(x * x + y * y + z * z);
+        double vAngle = Math.PI - Math.acos(y / length);
+        double hAngle = horizontalAngle(x, z);
+        double maxRotateAngle = fov / 2.0d;
+        if (Math.abs(hAngle) > maxRotateAngle) {
+            return false;
+        }
+        stereoTextureCoords((float) ((maxRotateAngle + hAngle) / fov), (float) (vAngle / Math.PI),
+                stereoType, textureCordOffset, uv);
+        return true;
+    }
+
+    private static void stereoTextureCoords(float x, float y, int stereoType, float textureCordOffset, float[] uv) {
+        if (stereoType == VideoFormatsSettings.STEREO_TYPE_SIDE_BY_SIDE) {
+            x = (x / 2.0f) + textureCordOffset;
+        } else if (stereoType == VideoFormatsSettings.STEREO_TYPE_OVER_UNDER) {
+            y = (y / 2.0f) + textureCordOffset;
+        }
+        uv[0] = x;
+        uv[1] = y;
+    }
+}
@@ -0,0 +1,99 @@
+package com.anton111111.vr.pose;
+
+import com.anton111111.vr.Quaternion;
+
+/**
+ * Low-pass filter of head rotation for gaze cursor, it removes small head tremor
+ * so cursor doesn't jitter over widgets.
+ * <p>
+ * Filtered rotation follows samples by {@link Quaternion#slerp} with factor from time between samples,
+ * so filtering doesn't depend on frame rate. Filtered rotation lags for about time constant,
+ * so it is used for gaze only, image must follow head without lag.
+ * <p>
+ * Filtered rotation is kept within max deviation of head rotation: only jitter smaller than it
+ * is filtered, larger motion is followed at once. So gaze ray and cursor drawn along head
+ * differ by max deviation at most.
+ * <p>
+ * Filter is used on GL thread only.
+ */
+public class PoseFilter {
+
+    private static final int QUATERNION_SIZE = 4;
+
+    private long timeConstantNanos;
+    private final float maxDeviation;
+    private final float[] filtered = new float[]{0.0f, 0.0f, 0.0f, 1.0f};
+    private long lastTimestampNanos;
+    private boolean isEmpty = true;
+
+    /**
+     * @param timeConstantNanos time filtered rotation needs to pass 63% of the way to new rotation,
+     *                          0 disables filtering
+     */
+    public PoseFilter(long timeConstantNanos) {
+        this(timeConstantNanos, (float) Math.PI);
+    }
+
+    /**
+     * @param timeConstantNanos time filtered rotation needs to pass 63% of the way to new rotation,
+     *                          0 disables filtering
+     * @param maxDeviation      max angle between filtered and head rotation in radians
+     */
+    public PoseFilter(long timeConstantNanos, float maxDeviation) {
+        if (maxDeviation < 0.0f) {
+            throw new IllegalArgumentException("Max deviation must not be negative");
+        }
+        setTimeConstant(timeConstantNanos);
+        this.maxDeviation = maxDeviation;
+    }
+
+    public void setTimeConstant(long timeConstantNanos) {
+        if (timeConstantNanos < 0) {
+            throw new IllegalArgumentException("Time constant must not be negative");
+        }
+        this.timeConstantNanos = timeConstantNanos;
+    }
+
+    public long getTimeConstant() {
+        return timeConstantNanos;
+    }
+
+    /**
+     * Add sample and get filtered rotation
+     *
+     * @param result         The float array that holds the result, may be quaternion.
+     * @param quaternion     head rotation
+     * @param timestampNanos time of sample, {@link System#nanoTime} clock
+     */
+    public void filter(float[] result, float[] quaternion, long timestampNanos) {
+        if (quaternion.length != QUATERNION_SIZE) {
+            throw new IllegalArgumentException("Wrong length of quaternion");
+        }
+        if (isEmpty || timeConstantNanos == 0) {
+            System.arraycopy(quaternion, 0, filtered, 0, QUATERNION_SIZE);
+            lastTimestampNanos = timestampNanos;
+            isEmpty = false;
+        } else if (timestampNanos > lastTimestampNanos) {
+            float alpha = 1.0f - (float) Math.exp(-(double) (timestampNanos - lastTimestampNanos) / timeConstantNanos);
+            Quaternion.slerp(filtered, filtered, quaternion, alpha);
+            Quaternion.normalizeLocal(filtered);
+            lastTimestampNanos = timestampNanos;
+        }
+        limitDeviation(quaternion);
+        System.arraycopy(filtered, 0, result, 0, QUATERNION_SIZE);
+    }
+
+    public void reset() {
+        isEmpty = true;
+    }
+
+    private void limitDeviation(float[] quaternion) {
+        float cos = Math.min(1.0f, Math.abs(Quaternion.dot(filtered, quaternion)));
+        float deviation = 2.0f * (float) Math.acos(cos);
+        if (deviation > maxDeviation) {
+            // It is motion, not jitter: filtered rotation is pulled to the border of allowed deviation
+            Quaternion.slerp(filtered, quaternion, filtered, maxDeviation / deviation);
+            Quaternion.normalizeLocal(filtered);
+        }
+    }
+}
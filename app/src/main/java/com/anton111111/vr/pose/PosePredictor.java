@@ -0,0 +1,134 @@
+package com.anton111111.vr.pose;
+
+import com.anton111111.vr.Quaternion;
+
+/**
+ * Predicts head rotation to the time the frame is shown.
+ * <p>
+ * Head pose is sampled when frame starts, but frame is on display a frame or two later,
+ * so fast head turns make image lag. Predictor keeps the last timestamped samples,
+ * estimates angular velocity from rotation between the oldest and the newest of them
+ * and rotates the newest sample further by this velocity.
+ * Velocity is measured in world space: newest = delta * oldest.
+ * <p>
+ * Predictor is used on GL thread only, nothing is allocated after it is created.
+ */
+public class PosePredictor {
+
+    public static final int DEFAULT_SAMPLES_COUNT = 3;
+    /**
+     * Longer prediction overshoots when head stops
+     */
+    public static final long MAX_PREDICTION_NANOS = 50000000L;
+
+    private static final int QUATERNION_SIZE = 4;
+    private static final float NANOS_PER_SECOND = 1e9f;
+
+    private final float[] quaternions;
+    private final long[] timestamps;
+    private final int capacity;
+    // Index of the newest sample
+    private int head = -1;
+    private int count = 0;
+    private final float[] velocity = new float[3];
+    private final float[] inverse = new float[QUATERNION_SIZE];
+    private final float[] newest = new float[QUATERNION_SIZE];
+    private final float[] delta = new float[QUATERNION_SIZE];
+
+    public PosePredictor() {
+        this(DEFAULT_SAMPLES_COUNT);
+    }
+
+    /**
+     * @param samplesCount samples velocity is estimated from, more samples give smoother
+     *                     but later velocity
+     */
+    public PosePredictor(int samplesCount) {
+        if (samplesCount < 2) {
+            throw new IllegalArgumentException("At least two samples are needed to estimate velocity");
+        }
+        capacity = samplesCount;
+        quaternions = new float[samplesCount * QUATERNION_SIZE];
+        timestamps = new long[samplesCount];
+    }
+
+    /**
+     * Add pose sample. Sample which is not newer than the previous one replaces it.
+     *
+     * @param quaternion     head rotation
+     * @param timestampNanos time of sample, {@link System#nanoTime} clock
+     */
+    public void addSample(float[] quaternion, long timestampNanos) {
+        if (quaternion.length != QUATERNION_SIZE) {
+            throw new IllegalArgumentException("Wrong length of quaternion");
+        }
+        if (count == 0 || timestampNanos > timestamps[head]) {
+            head = (head + 1) % capacity;
+            count = Math.min(count + 1, capacity);
+        }
+        System.arraycopy(quaternion, 0, quaternions, head * QUATERNION_SIZE, QUATERNION_SIZE);
+        timestamps[head] = timestampNanos;
+        updateVelocity();
+    }
+
+    public void reset() {
+        head = -1;
+        count = 0;
+        velocity[0] = 0.0f;
+        velocity[1] = 0.0f;
+        velocity[2] = 0.0f;
+    }
+
+    public int getSamplesCount() {
+        return count;
+    }
+
+    /**
+     * @param velocity The float array that holds the result {x,y,z} (radians per second).
+     */
+    public void getAngularVelocity(float[] velocity) {
+        velocity[0] = this.velocity[0];
+        velocity[1] = this.velocity[1];
+        velocity[2] = this.velocity[2];
+    }
+
+    /**
+     * Predict head rotation
+     *
+     * @param quaternion      The float array that holds the result.
+     * @param targetTimeNanos time the frame is shown, prediction is limited by {@link #MAX_PREDICTION_NANOS}
+     * @return false if there are no samples, result is not written then
+     */
+    public boolean predict(float[] quaternion, long targetTimeNanos) {
+        if (count == 0) {
+            return false;
+        }
+        long ahead = Math.max(0L, Math.min(targetTimeNanos - timestamps[head], MAX_PREDICTION_NANOS));
+        Quaternion.fromAngularVelocity(delta, velocity[0], velocity[1], velocity[2],
+                ahead / NANOS_PER_SECOND);
+        System.arraycopy(quaternions, head * QUATERNION_SIZE, newest, 0, QUATERNION_SIZE);
+        Quaternion.multiplyQQ(quaternion, delta, newest);
+        Quaternion.normalizeLocal(quaternion);
+        return true;
+    }
+
+    private void updateVelocity() {
+        if (count < 2) {
+            velocity[0] = 0.0f;
+            velocity[1] = 0.0f;
+            velocity[2] = 0.0f;
+            return;
+        }
+        int oldest = (head - count + 1 + capacity) % capacity;
+        float seconds = (timestamps[head] - timestamps[oldest]) / NANOS_PER_SECOND;
+        // delta = newest * inverse(oldest)
+        inverse[0] = -quaternions[oldest * QUATERNION_SIZE];
+        inverse[1] = -quaternions[oldest * QUATERNION_SIZE + 1];
+        inverse[2] = -quaternions[oldest * QUATERNION_SIZE + 2];
+        inverse[3] = quaternions[oldest * QUATERNION_SIZE + 3];
+        System.arraycopy(quaternions, head * QUATERNION_SIZE, delta, 0, QUATERNION_SIZE);
+        Quaternion.multiplyQQ(delta, delta, inverse);
+        Quaternion.normalizeLocal(delta);
+        Quaternion.toAngularVelocity(velocity, delta, seconds);
+    }
+}
@@ -0,0 +1,74 @@
+package com.anton111111.vr.pose;
+
+import com.anton111111.vr.Quaternion;
+
+/**
+ * Correction of head rotation after recenter.
+ * <p>
+ * Rotation decomposes into Euler angles as yaw * roll * pitch (see {@link Quaternion#fromEulerAngles}).
+ * Removing pitch measured at recenter time is multiplying by inverse pitch on the right,
+ * removing yaw is multiplying by inverse yaw on the left. So angles are computed once at recenter
+ * and every frame takes two quaternion multiplies at most, without trig and Euler singularities.
+ * <p>
+ * Correction is used on GL thread only.
+ */
+public class RecenterCorrection {
+
+    private static final float[] AXIS_X = new float[]{1.0f, 0.0f, 0.0f};
+    private static final float[] AXIS_Y = new float[]{0.0f, 1.0f, 0.0f};
+
+    private final float[] left = new float[]{0.0f, 0.0f, 0.0f, 1.0f};
+    private final float[] right = new float[]{0.0f, 0.0f, 0.0f, 1.0f};
+    private final float[] eulerAngles = new float[3];
+    private boolean hasLeft = false;
+    private boolean hasRight = false;
+
+    /**
+     * Remove pitch of rotation from this and next rotations
+     *
+     * @param quaternion head rotation at recenter time
+     */
+    public void recenterPitch(float[] quaternion) {
+        Quaternion.toEulerAngle(quaternion, eulerAngles);
+        Quaternion.fromNormalAxisRadianAngle(right, -eulerAngles[0], AXIS_X);
+        hasRight = eulerAngles[0] != 0.0f;
+    }
+
+    /**
+     * Remove yaw of rotation from this and next rotations, pitch and roll are kept
+     *
+     * @param quaternion head rotation at recenter time
+     */
+    public void recenterYaw(float[] quaternion) {
+        Quaternion.toEulerAngle(quaternion, eulerAngles);
+        Quaternion.fromNormalAxisRadianAngle(left, -eulerAngles[1], AXIS_Y);
+        hasLeft = eulerAngles[1] != 0.0f;
+    }
+
+    public void reset() {
+        hasLeft = false;
+        hasRight = false;
+    }
+
+    public boolean isIdentity() {
+        return !hasLeft && !hasRight;
+    }
+
+    /**
+     * Correct head rotation
+     *
+     * @param result     The float array that holds the result, may be quaternion.
+     * @param quaternion head rotation
+     */
+    public void apply(float[] result, float[] quaternion) {
+        if (result != quaternion) {
+            System.arraycopy(quaternion, 0, result, 0, 4);
+        }
+        if (hasLeft) {
+            Quaternion.multiplyQQ(result, left, result);
+        }
+        if (hasRight) {
+            Quaternion.multiplyQQ(result, result, right);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.anton111111.vr.program;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores program binaries as files in a directory. Last access time is file modification time.
+ */
+public class FileProgramBinaryStorage implements ProgramBinaryCache.Storage {
+
+    private static final String SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File dir;
+
+    public FileProgramBinaryStorage(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public byte[] read(String name) throws IOException {
+        File file = getFile(name);
+        if (!file.isFile()) {
+            return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        // Write to temp file and rename it, so crash never leaves half written entry
+        File temp = new File(dir, name + TEMP_SUFFIX);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        File file = getFile(name);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+    }
+
+    @Override
+    public void delete(String name) {
+        getFile(name).delete();
+    }
+
+    @Override
+    public List<String> list() {
+        List<String> names = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return names;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(SUFFIX)) {
+                names.add(fileName.substring(0, fileName.length() - SUFFIX.length()));
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public long getSize(String name) {
+        return getFile(name).length();
+    }
+
+    @Override
+    public long getLastAccessTime(String name) {
+        return getFile(name).lastModified();
+    }
+
+    @Override
+    public void setLastAccessTime(String name, long time) {
+        getFile(name).setLastModified(time);
+    }
+
+    private File getFile(String name) {
+        return new File(dir, name + SUFFIX);
+    }
+}
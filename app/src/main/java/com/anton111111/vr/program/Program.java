@@ -1,25 +1,43 @@
 package com.anton111111.vr.program;
 
-import com.anton111111.vr.GLHelper;
-
 public class Program {
 
     private int programId;
-    private GLHelper.ShaderAttributesLocations shaderAttributeLocations;
+    private ShaderAttributesLocations shaderAttributeLocations;
 
     public int getProgramId() {
         return programId;
     }
 
-    public GLHelper.ShaderAttributesLocations getShaderAttributeLocations() {
+    public ShaderAttributesLocations getShaderAttributeLocations() {
         return shaderAttributeLocations;
     }
 
-    public Program(int programId, GLHelper.ShaderAttributesLocations shaderAttributeLocations) {
+    public Program(int programId, ShaderAttributesLocations shaderAttributeLocations) {
         this.programId = programId;
         this.shaderAttributeLocations = shaderAttributeLocations;
     }
 
+    /**
+     * Get attribute location
+     *
+     * @param index index of attribute in list passed to program
+     * @return
+     */
+    public int getAttr(int index) {
+        return shaderAttributeLocations.getAttr(index);
+    }
+
+    /**
+     * Get uniform location
+     *
+     * @param index index of uniform in list passed to program
+     * @return
+     */
+    public int getUniform(int index) {
+        return shaderAttributeLocations.getUniform(index);
+    }
+
     public int getAttr(String name) {
         return shaderAttributeLocations.getAttr(name);
     }
@@ -0,0 +1,318 @@
+package com.anton111111.vr.program;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Cache of linked program binaries (ES 3 glProgramBinary).
+ * <p>
+ * Entry is stored under hash of shader sources. Every entry has header with driver string
+ * and app version, entry is stale (and removed) if any of them doesn't match current values.
+ * Total size of entries is limited, least recently used entries are evicted first.
+ * <p>
+ * This class doesn't call GL, so it works with any {@link Storage}.
+ */
+public class ProgramBinaryCache {
+
+    private static final int MAGIC = 0x47564250; // "GVBP"
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Storage storage;
+    private final long maxSizeBytes;
+    private final String driver;
+    private final int appVersion;
+    private int hits = 0;
+    private int misses = 0;
+    private int saves = 0;
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return count of binaries written to storage
+     */
+    public int getSaves() {
+        return saves;
+    }
+
+    /**
+     * @param storage
+     * @param maxSizeBytes max size of all entries
+     * @param driver       GL vendor, renderer and version of current driver
+     * @param appVersion   app version code
+     */
+    public ProgramBinaryCache(Storage storage, long maxSizeBytes, String driver, int appVersion) {
+        this.storage = storage;
+        this.maxSizeBytes = maxSizeBytes;
+        this.driver = (driver == null) ? "" : driver;
+        this.appVersion = appVersion;
+    }
+
+    /**
+     * Get key of program
+     *
+     * @param vertexSource   final vertex shader source
+     * @param fragmentSource final fragment shader source
+     * @return
+     */
+    public static String getKey(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexSource.getBytes(UTF_8));
+            // Separator, so moving text between shaders changes key
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes(UTF_8));
+            byte[] hash = digest.digest();
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Get program binary
+     *
+     * @param key key from {@link #getKey}
+     * @return binary or null if there is no valid entry
+     */
+    public ProgramBinary get(String key) {
+        byte[] data;
+        try {
+            data = storage.read(key);
+        } catch (IOException e) {
+            data = null;
+        }
+        if (data == null) {
+            misses++;
+            return null;
+        }
+
+        ProgramBinary binary = decode(key, data);
+        if (binary == null) {
+            // Stale or broken entry
+            storage.delete(key);
+            misses++;
+            return null;
+        }
+        storage.setLastAccessTime(key, now());
+        return binary;
+    }
+
+    /**
+     * Driver linked program from binary returned by {@link #get}, it is counted as hit
+     */
+    public void onBinaryAccepted() {
+        hits++;
+    }
+
+    /**
+     * Driver rejected binary returned by {@link #get} (e.g. after driver update), entry is removed
+     * and program is compiled, so it is counted as miss
+     *
+     * @param key
+     */
+    public void onBinaryRejected(String key) {
+        storage.delete(key);
+        misses++;
+    }
+
+    /**
+     * Put program binary and evict old entries if cache is too big
+     *
+     * @param key    key from {@link #getKey}
+     * @param format binary format returned by driver
+     * @param binary
+     */
+    public void put(String key, int format, byte[] binary) {
+        byte[] data = encode(key, format, binary);
+        if (data.length > maxSizeBytes) {
+            return;
+        }
+        try {
+            storage.write(key, data);
+            storage.setLastAccessTime(key, now());
+        } catch (IOException e) {
+            storage.delete(key);
+            return;
+        }
+        saves++;
+        evict(key);
+    }
+
+    /**
+     * Remove entry. Use it if driver rejects binary from cache.
+     *
+     * @param key
+     */
+    public void remove(String key) {
+        storage.delete(key);
+    }
+
+    /**
+     * Get size of all entries in bytes
+     *
+     * @return
+     */
+    public long getSize() {
+        long size = 0;
+        for (String name : storage.list()) {
+            size += storage.getSize(name);
+        }
+        return size;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private void evict(String keep) {
+        List<String> names = new ArrayList<>(storage.list());
+        long size = 0;
+        for (String name : names) {
+            size += storage.getSize(name);
+        }
+        if (size <= maxSizeBytes) {
+            return;
+        }
+
+        final Storage s = storage;
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long ta = s.getLastAccessTime(a);
+                long tb = s.getLastAccessTime(b);
+                return (ta < tb) ? -1 : ((ta == tb) ? 0 : 1);
+            }
+        });
+        for (String name : names) {
+            if (size <= maxSizeBytes) {
+                break;
+            }
+            if (name.equals(keep)) {
+                continue;
+            }
+            size -= storage.getSize(name);
+            storage.delete(name);
+        }
+    }
+
+    private byte[] encode(String key, int format, byte[] binary) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(binary.length + 256);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+            out.writeUTF(driver);
+            out.writeInt(appVersion);
+            out.writeInt(format);
+            out.writeLong(checksum(binary));
+            out.writeInt(binary.length);
+            out.write(binary);
+            out.close();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ProgramBinary decode(String key, byte[] data) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            if (!key.equals(in.readUTF()) ||
+                    !driver.equals(in.readUTF()) ||
+                    appVersion != in.readInt()) {
+                return null;
+            }
+            int format = in.readInt();
+            long checksum = in.readLong();
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                return null;
+            }
+            byte[] binary = new byte[length];
+            in.readFully(binary);
+            if (checksum(binary) != checksum) {
+                return null;
+            }
+            return new ProgramBinary(format, binary);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+
+    public static class ProgramBinary {
+        private final int format;
+        private final byte[] binary;
+
+        public int getFormat() {
+            return format;
+        }
+
+        public byte[] getBinary() {
+            return binary;
+        }
+
+        public ProgramBinary(int format, byte[] binary) {
+            this.format = format;
+            this.binary = binary;
+        }
+    }
+
+    /**
+     * Storage of cache entries
+     */
+    public interface Storage {
+
+        /**
+         * @param name
+         * @return data or null if there is no entry
+         * @throws IOException
+         */
+        byte[] read(String name) throws IOException;
+
+        void write(String name, byte[] data) throws IOException;
+
+        void delete(String name);
+
+        List<String> list();
+
+        long getSize(String name);
+
+        long getLastAccessTime(String name);
+
+        void setLastAccessTime(String name, long time);
+    }
+}
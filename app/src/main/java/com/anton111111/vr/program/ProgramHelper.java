@@ -1,15 +1,15 @@
 package com.anton111111.vr.program;
 
 import android.content.Context;
-import android.opengl.GLES20;
 
 import com.anton111111.gvrvideoplayer.R;
 import com.anton111111.vr.GLHelper;
+import com.anton111111.vr.GLStateCache;
+import com.anton111111.vr.renderer.QuadBatch;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -21,10 +21,25 @@ public class ProgramHelper {
     public static final String PROGRAM_SHAPE_COLORED = "PROGRAM_SHAPE_COLORED";
     public static final String PROGRAM_CIRCLE_COLORED = "PROGRAM_CIRCLE_COLORED";
     public static final String PROGRAM_PROGRESS_CIRCLE = "PROGRAM_PROGRESS_CIRCLE";
+    public static final String PROGRAM_QUAD_BATCH = "PROGRAM_QUAD_BATCH";
 
+    /*
+     * *_INDEX constants are indexes of names in *_ATTRS and *_UNIFORMS lists passed to createProgram.
+     * Use them with Program.getAttr(int) and Program.getUniform(int) in draw code.
+     */
     public static final String SHAPE_COLORED_ATTR_POSITION = "a_Position";
     public static final String SHAPE_COLORED_UNIFORM_MVP = "u_MVP";
     public static final String SHAPE_COLORED_UNIFORM_COLOR = "u_Color";
+    public static final int SHAPE_COLORED_ATTR_POSITION_INDEX = 0;
+    public static final int SHAPE_COLORED_UNIFORM_MVP_INDEX = 0;
+    public static final int SHAPE_COLORED_UNIFORM_COLOR_INDEX = 1;
+    public static final List<String> SHAPE_COLORED_ATTRS = Arrays.asList(
+            SHAPE_COLORED_ATTR_POSITION
+    );
+    public static final List<String> SHAPE_COLORED_UNIFORMS = Arrays.asList(
+            SHAPE_COLORED_UNIFORM_MVP,
+            SHAPE_COLORED_UNIFORM_COLOR
+    );
 
     public static final String CIRCLE_COLORED_ATTR_POSITION = "a_Position";
     public static final String CIRCLE_COLORED_UNIFORM_MVP = "u_MVP";
@@ -32,12 +47,40 @@ public class ProgramHelper {
     public static final String CIRCLE_COLORED_UNIFORM_RADIUS = "u_Radius";
     public static final String CIRCLE_COLORED_UNIFORM_THICKNESS = "u_Thickness";
     public static final String CIRCLE_COLORED_UNIFORM_CENTER = "u_Center";
+    public static final int CIRCLE_COLORED_ATTR_POSITION_INDEX = 0;
+    public static final int CIRCLE_COLORED_UNIFORM_MVP_INDEX = 0;
+    public static final int CIRCLE_COLORED_UNIFORM_COLOR_INDEX = 1;
+    public static final int CIRCLE_COLORED_UNIFORM_RADIUS_INDEX = 2;
+    public static final int CIRCLE_COLORED_UNIFORM_THICKNESS_INDEX = 3;
+    public static final int CIRCLE_COLORED_UNIFORM_CENTER_INDEX = 4;
+    public static final List<String> CIRCLE_COLORED_ATTRS = Arrays.asList(
+            CIRCLE_COLORED_ATTR_POSITION
+    );
+    public static final List<String> CIRCLE_COLORED_UNIFORMS = Arrays.asList(
+            CIRCLE_COLORED_UNIFORM_MVP,
+            CIRCLE_COLORED_UNIFORM_COLOR,
+            CIRCLE_COLORED_UNIFORM_RADIUS,
+            CIRCLE_COLORED_UNIFORM_THICKNESS,
+            CIRCLE_COLORED_UNIFORM_CENTER
+    );
 
 
     public static final String SHAPE_TEXTURED_ATTR_POSITION = "a_Position";
     public static final String SHAPE_TEXTURED_ATTR_TEXTURE_COORDS = "a_TexCoordinate";
     public static final String SHAPE_TEXTURED_UNIFORM_MVP = "u_MVP";
     public static final String SHAPE_TEXTURED_UNIFORM_TEXTURE = "u_Texture";
+    public static final int SHAPE_TEXTURED_ATTR_POSITION_INDEX = 0;
+    public static final int SHAPE_TEXTURED_ATTR_TEXTURE_COORDS_INDEX = 1;
+    public static final int SHAPE_TEXTURED_UNIFORM_MVP_INDEX = 0;
+    public static final int SHAPE_TEXTURED_UNIFORM_TEXTURE_INDEX = 1;
+    public static final List<String> SHAPE_TEXTURED_ATTRS = Arrays.asList(
+            SHAPE_TEXTURED_ATTR_POSITION,
+            SHAPE_TEXTURED_ATTR_TEXTURE_COORDS
+    );
+    public static final List<String> SHAPE_TEXTURED_UNIFORMS = Arrays.asList(
+            SHAPE_TEXTURED_UNIFORM_MVP,
+            SHAPE_TEXTURED_UNIFORM_TEXTURE
+    );
 
     public static final String PROGRESS_CIRCLE_ATTR_POSITION = "a_Position";
     public static final String PROGRESS_CIRCLE_UNIFORM_MVP = "u_MVP";
@@ -46,6 +89,24 @@ public class ProgramHelper {
     public static final String PROGRESS_CIRCLE_UNIFORM_THICKNESS = "u_Thickness";
     public static final String PROGRESS_CIRCLE_UNIFORM_PERCENT = "u_Percent";
     public static final String PROGRESS_CIRCLE_UNIFORM_CENTER = "u_Center";
+    public static final int PROGRESS_CIRCLE_ATTR_POSITION_INDEX = 0;
+    public static final int PROGRESS_CIRCLE_UNIFORM_MVP_INDEX = 0;
+    public static final int PROGRESS_CIRCLE_UNIFORM_COLOR_INDEX = 1;
+    public static final int PROGRESS_CIRCLE_UNIFORM_RADIUS_INDEX = 2;
+    public static final int PROGRESS_CIRCLE_UNIFORM_THICKNESS_INDEX = 3;
+    public static final int PROGRESS_CIRCLE_UNIFORM_PERCENT_INDEX = 4;
+    public static final int PROGRESS_CIRCLE_UNIFORM_CENTER_INDEX = 5;
+    public static final List<String> PROGRESS_CIRCLE_ATTRS = Arrays.asList(
+            PROGRESS_CIRCLE_ATTR_POSITION
+    );
+    public static final List<String> PROGRESS_CIRCLE_UNIFORMS = Arrays.asList(
+            PROGRESS_CIRCLE_UNIFORM_MVP,
+            PROGRESS_CIRCLE_UNIFORM_COLOR,
+            PROGRESS_CIRCLE_UNIFORM_RADIUS,
+            PROGRESS_CIRCLE_UNIFORM_THICKNESS,
+            PROGRESS_CIRCLE_UNIFORM_PERCENT,
+            PROGRESS_CIRCLE_UNIFORM_CENTER
+    );
 
 
     private static ProgramHelper instance;
@@ -103,45 +164,31 @@ public class ProgramHelper {
     }
 
 
+    /**
+     * Get current program id known by {@link GLStateCache}
+     *
+     * @return program id or -1 if it is unknown
+     */
     public int getCurrentProgramId() {
-        int[] cp = new int[1];
-        GLES20.glGetIntegerv(GLES20.GL_CURRENT_PROGRAM, cp, 0);
-        return cp[0];
+        return GLStateCache.getInstance().getProgram();
     }
 
+    /**
+     * Use program and enable its vertex attribute arrays.
+     * Must be called on GL thread, state is changed through {@link GLStateCache}.
+     *
+     * @param key
+     * @return
+     */
     public Program useProgram(String key) {
-        try {
-            programLock.lock();
-
-            if (!programs.containsKey(key)) {
-                throw new IllegalArgumentException("Program `" + key + "` is not created.");
-            }
-            Program p = programs.get(key);
-            int currentProgramId = getCurrentProgramId();
-            if (currentProgramId != p.getProgramId()) {
-                Program oldP = getProgram(currentProgramId);
-                if (oldP != null) {
-                    GLHelper.ShaderAttributesLocations sAL = oldP.getShaderAttributeLocations();
-                    Set<String> attrs = sAL.getAttrs();
-                    for (String attr : attrs) {
-                        GLES20.glDisableVertexAttribArray(sAL.getAttr(attr));
-                    }
-                    GLHelper.checkGLError("useProgram disable old attrs");
-                }
-
-                GLES20.glUseProgram(p.getProgramId());
-                GLHelper.checkGLError("useProgram use program");
-                GLHelper.ShaderAttributesLocations shaderAttributeLocations = p.getShaderAttributeLocations();
-                Set<String> attrs = shaderAttributeLocations.getAttrs();
-                for (String attr : attrs) {
-                    GLES20.glEnableVertexAttribArray(shaderAttributeLocations.getAttr(attr));
-                }
-                GLHelper.checkGLError("useProgram enable new attrs");
-            }
-            return p;
-        } finally {
-            programLock.unlock();
+        Program p = programs.get(key);
+        if (p == null) {
+            throw new IllegalArgumentException("Program `" + key + "` is not created.");
         }
+        GLStateCache stateCache = GLStateCache.getInstance();
+        stateCache.useProgram(p.getProgramId());
+        stateCache.setEnabledVertexAttribArrays(p.getShaderAttributeLocations().getAttrsMask());
+        return p;
     }
 
     public Program getProgram(String key) {
@@ -165,13 +212,8 @@ public class ProgramHelper {
         ProgramHelper.getInstance().createProgram(context, ProgramHelper.PROGRAM_SHAPE_COLORED,
                 R.raw.shape_colored_vertex,
                 R.raw.shape_colored_fragment,
-                new ArrayList<String>() {{
-                    add(SHAPE_COLORED_ATTR_POSITION);
-                }},
-                new ArrayList<String>() {{
-                    add(SHAPE_COLORED_UNIFORM_MVP);
-                    add(SHAPE_COLORED_UNIFORM_COLOR);
-                }}
+                SHAPE_COLORED_ATTRS,
+                SHAPE_COLORED_UNIFORMS
         );
     }
 
@@ -179,14 +221,8 @@ public class ProgramHelper {
         ProgramHelper.getInstance().createProgram(context, ProgramHelper.PROGRAM_SHAPE_TEXTURED,
                 R.raw.shape_textured_vertex,
                 R.raw.shape_textured_fragment,
-                new ArrayList<String>() {{
-                    add(SHAPE_TEXTURED_ATTR_POSITION);
-                    add(SHAPE_TEXTURED_ATTR_TEXTURE_COORDS);
-                }},
-                new ArrayList<String>() {{
-                    add(SHAPE_TEXTURED_UNIFORM_MVP);
-                    add(SHAPE_TEXTURED_UNIFORM_TEXTURE);
-                }}
+                SHAPE_TEXTURED_ATTRS,
+                SHAPE_TEXTURED_UNIFORMS
         );
     }
 
@@ -194,16 +230,8 @@ public class ProgramHelper {
         ProgramHelper.getInstance().createProgram(context, ProgramHelper.PROGRAM_CIRCLE_COLORED,
                 R.raw.circle_colored_vertex,
                 R.raw.circle_colored_fragment,
-                new ArrayList<String>() {{
-                    add(CIRCLE_COLORED_ATTR_POSITION);
-                }},
-                new ArrayList<String>() {{
-                    add(CIRCLE_COLORED_UNIFORM_MVP);
-                    add(CIRCLE_COLORED_UNIFORM_COLOR);
-                    add(CIRCLE_COLORED_UNIFORM_RADIUS);
-                    add(CIRCLE_COLORED_UNIFORM_THICKNESS);
-                    add(CIRCLE_COLORED_UNIFORM_CENTER);
-                }}
+                CIRCLE_COLORED_ATTRS,
+                CIRCLE_COLORED_UNIFORMS
         );
     }
 
@@ -212,17 +240,24 @@ public class ProgramHelper {
         ProgramHelper.getInstance().createProgram(context, ProgramHelper.PROGRAM_PROGRESS_CIRCLE,
                 R.raw.progress_circle_vertex,
                 R.raw.progress_circle_fragment,
-                new ArrayList<String>() {{
-                    add(PROGRESS_CIRCLE_ATTR_POSITION);
-                }},
-                new ArrayList<String>() {{
-                    add(PROGRESS_CIRCLE_UNIFORM_MVP);
-                    add(PROGRESS_CIRCLE_UNIFORM_COLOR);
-                    add(PROGRESS_CIRCLE_UNIFORM_RADIUS);
-                    add(PROGRESS_CIRCLE_UNIFORM_THICKNESS);
-                    add(PROGRESS_CIRCLE_UNIFORM_PERCENT);
-                    add(PROGRESS_CIRCLE_UNIFORM_CENTER);
-                }}
+                PROGRESS_CIRCLE_ATTRS,
+                PROGRESS_CIRCLE_UNIFORMS
+        );
+    }
+
+    /**
+     * Program of {@link QuadBatch}, attributes and uniforms are in {@link QuadBatch#ATTRS}
+     * and {@link QuadBatch#UNIFORMS}
+     *
+     * @param context
+     * @return
+     */
+    public static Program initQuadBatchProgram(Context context) {
+        return ProgramHelper.getInstance().createProgram(context, ProgramHelper.PROGRAM_QUAD_BATCH,
+                R.raw.quad_batch_vertex,
+                R.raw.quad_batch_fragment,
+                QuadBatch.ATTRS,
+                QuadBatch.UNIFORMS
         );
     }
 
@@ -0,0 +1,129 @@
+package com.anton111111.vr.program;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Attribute and uniform locations of program.
+ * <p>
+ * Locations are resolved once, when program is created, and are stored in int arrays
+ * in the order of names passed to program. Draw code should use {@link #getAttr(int)} and
+ * {@link #getUniform(int)} with index constants (see {@link ProgramHelper} and
+ * {@link VideoProgramCache}), they are plain array reads without string hashing or boxing.
+ * Lookup by name is kept for setup code.
+ */
+public class ShaderAttributesLocations {
+
+    private final int[] attrs;
+    private final int[] uniforms;
+    private final int attrsMask;
+    private final HashMap<String, Integer> attrIndexes = new HashMap<>();
+    private final HashMap<String, Integer> uniformIndexes = new HashMap<>();
+
+    /**
+     * @param attrNames        attribute names
+     * @param attrLocations    attribute locations in the same order as names
+     * @param uniformNames     uniform names
+     * @param uniformLocations uniform locations in the same order as names
+     */
+    public ShaderAttributesLocations(List<String> attrNames, int[] attrLocations,
+                                     List<String> uniformNames, int[] uniformLocations) {
+        if (attrNames.size() != attrLocations.length || uniformNames.size() != uniformLocations.length) {
+            throw new IllegalArgumentException("Count of names and locations must be the same");
+        }
+        this.attrs = Arrays.copyOf(attrLocations, attrLocations.length);
+        this.uniforms = Arrays.copyOf(uniformLocations, uniformLocations.length);
+        int mask = 0;
+        for (int location : attrLocations) {
+            if (location >= 0 && location < 32) {
+                mask |= 1 << location;
+            }
+        }
+        this.attrsMask = mask;
+        for (int i = 0; i < attrNames.size(); i++) {
+            attrIndexes.put(attrNames.get(i), i);
+        }
+        for (int i = 0; i < uniformNames.size(); i++) {
+            uniformIndexes.put(uniformNames.get(i), i);
+        }
+    }
+
+    public Set<String> getAttrs() {
+        return attrIndexes.keySet();
+    }
+
+    /**
+     * Get mask of active attribute locations, bit per location
+     *
+     * @return
+     */
+    public int getAttrsMask() {
+        return attrsMask;
+    }
+
+    public int getAttrsCount() {
+        return attrs.length;
+    }
+
+    public int getUniformsCount() {
+        return uniforms.length;
+    }
+
+    /**
+     * Get attribute location
+     *
+     * @param index index of attribute in list passed to program
+     * @return location or -1 if attribute is not active
+     */
+    public int getAttr(int index) {
+        return attrs[index];
+    }
+
+    /**
+     * Get uniform location
+     *
+     * @param index index of uniform in list passed to program
+     * @return location or -1 if uniform is not active
+     */
+    public int getUniform(int index) {
+        return uniforms[index];
+    }
+
+    /**
+     * Get attribute location by name. Use {@link #getAttr(int)} in draw code.
+     *
+     * @param name
+     * @return
+     */
+    public int getAttr(String name) {
+        return attrs[getAttrIndex(name)];
+    }
+
+    /**
+     * Get uniform location by name. Use {@link #getUniform(int)} in draw code.
+     *
+     * @param name
+     * @return
+     */
+    public int getUniform(String name) {
+        return uniforms[getUniformIndex(name)];
+    }
+
+    public int getAttrIndex(String name) {
+        Integer index = attrIndexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Location for attribute `" + name + "` is not found!");
+        }
+        return index;
+    }
+
+    public int getUniformIndex(String name) {
+        Integer index = uniformIndexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Location for uniform `" + name + "` is not found!");
+        }
+        return index;
+    }
+}
@@ -0,0 +1,151 @@
+package com.anton111111.vr.program;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import com.anton111111.gvrvideoplayer.R;
+import com.anton111111.vr.GLHelper;
+import com.anton111111.vr.VideoFormatsSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Cache of video programs specialized for video format.
+ * <p>
+ * Stereo type and FOV are compiled into shader with #define instead of uniforms,
+ * so shader has no branches on them. Formats with the same specialization share one program.
+ * Programs are compiled with {@link #precompile} (or on first request) and are kept
+ * until {@link #release}, so switching format doesn't compile anything.
+ */
+public class VideoProgramCache {
+
+    public static final String ATTR_POSITION = "a_Position";
+    public static final String ATTR_TEXTURE_COORDS = "a_TexCoordinate";
+    public static final String UNIFORM_MVP = "u_MVP";
+    public static final String UNIFORM_TTM = "u_TTM";
+    public static final String UNIFORM_TEXTURE = "u_Texture";
+    public static final String UNIFORM_TEXTURE_CORD_OFFSET = "u_TextureCordOffset";
+    public static final int ATTR_POSITION_INDEX = 0;
+    public static final int ATTR_TEXTURE_COORDS_INDEX = 1;
+    public static final int UNIFORM_MVP_INDEX = 0;
+    public static final int UNIFORM_TTM_INDEX = 1;
+    public static final int UNIFORM_TEXTURE_INDEX = 2;
+    public static final int UNIFORM_TEXTURE_CORD_OFFSET_INDEX = 3;
+
+    static final List<String> ATTRS = Arrays.asList(
+            ATTR_POSITION,
+            ATTR_TEXTURE_COORDS
+    );
+    static final List<String> UNIFORMS = Arrays.asList(
+            UNIFORM_MVP,
+            UNIFORM_TTM,
+            UNIFORM_TEXTURE,
+            UNIFORM_TEXTURE_CORD_OFFSET
+    );
+
+    private static final String MESH_VARIANT_KEY = "MESH";
+
+    private static final String[] VIDEO_FORMATS = new String[]{
+            VideoFormatsSettings.VIDEO_FORMAT_3D_180_SIDE_BY_SIDE,
+            VideoFormatsSettings.VIDEO_FORMAT_3D_270_SIDE_BY_SIDE,
+            VideoFormatsSettings.VIDEO_FORMAT_3D_180_OVER_BY_UNDER,
+            VideoFormatsSettings.VIDEO_FORMAT_3D_360_SIDE_BY_SIDE,
+            VideoFormatsSettings.VIDEO_FORMAT_3D_360_OVER_UNDER,
+            VideoFormatsSettings.VIDEO_FORMAT_2D_360,
+            VideoFormatsSettings.VIDEO_FORMAT_2D_180
+    };
+
+    private HashMap<String, Program> variants = new HashMap<>();
+
+    /**
+     * Compile programs for all video formats
+     *
+     * @param context
+     * @param isMesh  is mesh projection used
+     */
+    public void precompile(Context context, boolean isMesh) {
+        for (String videoFormat : VIDEO_FORMATS) {
+            get(context, videoFormat, isMesh);
+        }
+    }
+
+    /**
+     * Get program for video format. Program is compiled if it is not in cache yet.
+     *
+     * @param context
+     * @param videoFormat
+     * @param isMesh      is mesh projection used
+     * @return
+     */
+    public Program get(Context context, String videoFormat, boolean isMesh) {
+        String key = getVariantKey(videoFormat, isMesh);
+        Program program = variants.get(key);
+        if (program != null) {
+            return program;
+        }
+
+        // Both variants use the same names, so index constants are valid for any of them.
+        // Location of name that is not used by variant is -1.
+        if (isMesh) {
+            program = GLHelper.createProgram(context, R.raw.vr_video_mesh_vertex,
+                    R.raw.vr_video_mesh_fragment, ATTRS, UNIFORMS);
+        } else {
+            program = GLHelper.createProgram(context, R.raw.vr_video_vertex,
+                    VideoFormatsSettings.getFragmentId(videoFormat),
+                    getDefines(videoFormat), ATTRS, UNIFORMS);
+        }
+        variants.put(key, program);
+        GLHelper.checkGLError("VideoProgramCache create program " + key);
+        return program;
+    }
+
+    /**
+     * Delete all programs
+     */
+    public void release() {
+        for (Program program : variants.values()) {
+            GLES20.glDeleteProgram(program.getProgramId());
+        }
+        variants.clear();
+    }
+
+    /**
+     * Get key of shader specialization. Formats with the same key use the same program.
+     *
+     * @param videoFormat
+     * @param isMesh
+     * @return
+     */
+    public static String getVariantKey(String videoFormat, boolean isMesh) {
+        if (isMesh) {
+            // Stereo type and fov are baked into mesh so all formats share one program
+            return MESH_VARIANT_KEY;
+        }
+        return getDefines(videoFormat);
+    }
+
+    /**
+     * Get #define lines for shader projection of video format
+     *
+     * @param videoFormat
+     * @return
+     */
+    public static String getDefines(String videoFormat) {
+        float fov = VideoFormatsSettings.getFov(videoFormat);
+        List<String> defines = new ArrayList<>();
+        defines.add("#define STEREO_TYPE " + VideoFormatsSettings.getStereoType(videoFormat));
+        defines.add(String.format(Locale.US, "#define FOV %.8f", fov));
+        if (fov < (float) (Math.PI * 2.0d)) {
+            defines.add("#define PARTIAL_FOV");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String define : defines) {
+            sb.append(define).append("\n");
+        }
+        return sb.toString();
+    }
+}
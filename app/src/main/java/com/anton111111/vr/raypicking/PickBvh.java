@@ -0,0 +1,419 @@
+package com.anton111111.vr.raypicking;
+
+import java.util.HashMap;
+
+/**
+ * Bounding volume hierarchy of pick targets, so picking doesn't test every target.
+ * <p>
+ * Every target is a leaf with triangles of its area and axis aligned bounds of them.
+ * Leaf is inserted next to the node whose bounds grow the least (surface area heuristic),
+ * removing of leaf replaces its parent with sibling. Nodes are rotated like in AVL tree,
+ * so the tree stays balanced when targets are added in order (rows of gallery).
+ * When target moves {@link #update} refits bounds from leaf to root.
+ * {@link #pick} returns the target hit the closest to eye, subtrees farther than
+ * the current hit are skipped.
+ * <p>
+ * Tree is used on GL thread only, picking allocates nothing.
+ *
+ * @param <T> target
+ */
+public class PickBvh<T> {
+
+    private static final int BOUNDS_SIZE = 6;
+    private static final int INITIAL_STACK_SIZE = 64;
+
+    private final HashMap<T, Node<T>> leaves = new HashMap<>();
+    private Node<T> root;
+    // Nodes to visit and distances where ray enters them
+    private Node<T>[] stack = createStack(INITIAL_STACK_SIZE);
+    private float[] stackDistances = new float[INITIAL_STACK_SIZE];
+    private float lastDistance = TriangleSet.NO_HIT;
+    private int lastTestedLeavesCount = 0;
+
+    public int size() {
+        return leaves.size();
+    }
+
+    public boolean contains(T target) {
+        return leaves.containsKey(target);
+    }
+
+    /**
+     * Add target, it is replaced if it is added already
+     *
+     * @param target
+     * @param coords  {x, y, z} of area vertices
+     * @param indexes three indexes of vertices per triangle
+     */
+    public void insert(T target, float[] coords, short[] indexes) {
+        remove(target);
+        Node<T> leaf = new Node<>();
+        leaf.target = target;
+        leaf.triangles = new TriangleSet(coords, indexes);
+        computeBounds(leaf);
+        leaves.put(target, leaf);
+        insertLeaf(leaf);
+    }
+
+    /**
+     * Remove target
+     *
+     * @param target
+     * @return false if there is no such target
+     */
+    public boolean remove(T target) {
+        Node<T> leaf = leaves.remove(target);
+        if (leaf == null) {
+            return false;
+        }
+        removeLeaf(leaf);
+        return true;
+    }
+
+    /**
+     * Set new area of target and refit bounds of its ancestors
+     *
+     * @param target
+     * @param coords
+     * @param indexes
+     * @return false if there is no such target
+     */
+    public boolean update(T target, float[] coords, short[] indexes) {
+        Node<T> leaf = leaves.get(target);
+        if (leaf == null) {
+            return false;
+        }
+        leaf.triangles.set(coords, indexes);
+        computeBounds(leaf);
+        refit(leaf.parent);
+        return true;
+    }
+
+    public void clear() {
+        leaves.clear();
+        root = null;
+    }
+
+    /**
+     * Find target hit the closest to ray origin
+     *
+     * @param ray
+     * @return target or null if nothing is hit
+     */
+    public T pick(PickRay ray) {
+        lastDistance = TriangleSet.NO_HIT;
+        lastTestedLeavesCount = 0;
+        if (root == null || !ray.isValid()) {
+            return null;
+        }
+        float rootDistance = ray.intersectBounds(root.bounds, Float.MAX_VALUE);
+        if (rootDistance == TriangleSet.NO_HIT) {
+            return null;
+        }
+        T found = null;
+        float best = Float.MAX_VALUE;
+        int top = 0;
+        stack[top] = root;
+        stackDistances[top++] = rootDistance;
+        while (top > 0) {
+            top--;
+            if (stackDistances[top] > best) {
+                // Hit closer than this subtree is found after it was pushed
+                continue;
+            }
+            Node<T> node = stack[top];
+            if (node.isLeaf()) {
+                lastTestedLeavesCount++;
+                float distance = ray.intersect(node.triangles);
+                if (distance != TriangleSet.NO_HIT && distance < best) {
+                    best = distance;
+                    found = node.target;
+                }
+                continue;
+            }
+            if (top + 2 > stack.length) {
+                growStack();
+            }
+            float leftDistance = ray.intersectBounds(node.left.bounds, best);
+            float rightDistance = ray.intersectBounds(node.right.bounds, best);
+            // Closer child is popped first, so farther one is skipped more often
+            boolean isLeftFirst = leftDistance <= rightDistance;
+            top = push(isLeftFirst ? node.right : node.left,
+                    isLeftFirst ? rightDistance : leftDistance, top);
+            top = push(isLeftFirst ? node.left : node.right,
+                    isLeftFirst ? leftDistance : rightDistance, top);
+        }
+        if (found != null) {
+            lastDistance = best;
+        }
+        return found;
+    }
+
+    /**
+     * Test one target only
+     *
+     * @param target
+     * @param ray
+     * @return distance of hit or {@link TriangleSet#NO_HIT} if target is missed or there is no such
+     */
+    public float intersect(T target, PickRay ray) {
+        Node<T> leaf = leaves.get(target);
+        if (leaf == null) {
+            lastTestedLeavesCount = 0;
+            lastDistance = TriangleSet.NO_HIT;
+            return lastDistance;
+        }
+        lastTestedLeavesCount = 1;
+        lastDistance = ray.intersect(leaf.triangles);
+        return lastDistance;
+    }
+
+    private int push(Node<T> node, float distance, int top) {
+        if (distance == TriangleSet.NO_HIT) {
+            return top;
+        }
+        stack[top] = node;
+        stackDistances[top] = distance;
+        return top + 1;
+    }
+
+    private void growStack() {
+        Node<T>[] grownStack = createStack(stack.length * 2);
+        System.arraycopy(stack, 0, grownStack, 0, stack.length);
+        stack = grownStack;
+        float[] grownDistances = new float[stack.length];
+        System.arraycopy(stackDistances, 0, grownDistances, 0, stackDistances.length);
+        stackDistances = grownDistances;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] createStack(int size) {
+        // Array of generic type can't be created, stack holds nodes of one tree only
+        return (Node<T>[]) new Node<?>[size];
+    }
+
+    /**
+     * @return distance of the last {@link #pick} hit or {@link TriangleSet#NO_HIT}
+     */
+    public float getLastDistance() {
+        return lastDistance;
+    }
+
+    /**
+     * @return count of targets whose triangles were tested by the last {@link #pick}
+     */
+    public int getLastTestedLeavesCount() {
+        return lastTestedLeavesCount;
+    }
+
+    /**
+     * @return count of nodes on the longest path from root to leaf, 0 for empty tree
+     */
+    public int getHeight() {
+        return root == null ? 0 : root.height + 1;
+    }
+
+    private void insertLeaf(Node<T> leaf) {
+        if (root == null) {
+            root = leaf;
+            leaf.parent = null;
+            return;
+        }
+        // Find sibling, go down to child which bounds grow less
+        Node<T> sibling = root;
+        while (!sibling.isLeaf()) {
+            float area = area(sibling.bounds);
+            float combinedArea = unionArea(sibling.bounds, leaf.bounds);
+            // Cost of new parent for leaf and this node
+            float cost = 2.0f * combinedArea;
+            // Cost of pushing leaf further down
+            float inheritanceCost = 2.0f * (combinedArea - area);
+            float leftCost = descendCost(sibling.left, leaf, inheritanceCost);
+            float rightCost = descendCost(sibling.right, leaf, inheritanceCost);
+            if (cost < leftCost && cost < rightCost) {
+                break;
+            }
+            sibling = leftCost < rightCost ? sibling.left : sibling.right;
+        }
+
+        Node<T> oldParent = sibling.parent;
+        Node<T> parent = new Node<>();
+        parent.parent = oldParent;
+        parent.left = sibling;
+        parent.right = leaf;
+        sibling.parent = parent;
+        leaf.parent = parent;
+        if (oldParent == null) {
+            root = parent;
+        } else if (oldParent.left == sibling) {
+            oldParent.left = parent;
+        } else {
+            oldParent.right = parent;
+        }
+        refit(parent);
+    }
+
+    private float descendCost(Node<T> child, Node<T> leaf, float inheritanceCost) {
+        float combinedArea = unionArea(child.bounds, leaf.bounds);
+        if (child.isLeaf()) {
+            return combinedArea + inheritanceCost;
+        }
+        return combinedArea - area(child.bounds) + inheritanceCost;
+    }
+
+    private void removeLeaf(Node<T> leaf) {
+        if (leaf == root) {
+            root = null;
+            return;
+        }
+        Node<T> parent = leaf.parent;
+        Node<T> grandParent = parent.parent;
+        Node<T> sibling = parent.left == leaf ? parent.right : parent.left;
+        sibling.parent = grandParent;
+        if (grandParent == null) {
+            root = sibling;
+            return;
+        }
+        if (grandParent.left == parent) {
+            grandParent.left = sibling;
+        } else {
+            grandParent.right = sibling;
+        }
+        refit(grandParent);
+    }
+
+    /**
+     * Update bounds and heights from node to root, rotate unbalanced nodes on the way
+     */
+    private void refit(Node<T> node) {
+        while (node != null) {
+            node = balance(node);
+            node.update();
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Rotate the higher child up if heights of children differ by more than one (like AVL tree)
+     *
+     * @param a
+     * @return node that is on place of a now
+     */
+    private Node<T> balance(Node<T> a) {
+        if (a.isLeaf() || a.height < 2) {
+            return a;
+        }
+        Node<T> b = a.left;
+        Node<T> c = a.right;
+        int balance = c.height - b.height;
+        if (balance > 1) {
+            // c goes up, a gets the lower child of c
+            Node<T> f = c.left;
+            Node<T> g = c.right;
+            replaceChild(a, c);
+            c.left = a;
+            a.parent = c;
+            Node<T> lower = f.height > g.height ? g : f;
+            c.right = f.height > g.height ? f : g;
+            a.right = lower;
+            lower.parent = a;
+            a.update();
+            c.update();
+            return c;
+        }
+        if (balance < -1) {
+            // b goes up, a gets the lower child of b
+            Node<T> d = b.left;
+            Node<T> e = b.right;
+            replaceChild(a, b);
+            b.left = a;
+            a.parent = b;
+            Node<T> lower = d.height > e.height ? e : d;
+            b.right = d.height > e.height ? d : e;
+            a.left = lower;
+            lower.parent = a;
+            a.update();
+            b.update();
+            return b;
+        }
+        return a;
+    }
+
+    /**
+     * Put node on place of old child in parent of old child
+     */
+    private void replaceChild(Node<T> oldChild, Node<T> node) {
+        Node<T> parent = oldChild.parent;
+        node.parent = parent;
+        if (parent == null) {
+            root = node;
+        } else if (parent.left == oldChild) {
+            parent.left = node;
+        } else {
+            parent.right = node;
+        }
+    }
+
+    private static void computeBounds(Node<?> leaf) {
+        float[] b = leaf.bounds;
+        for (int i = 0; i < 3; i++) {
+            b[i] = Float.MAX_VALUE;
+            b[i + 3] = -Float.MAX_VALUE;
+        }
+        float[] triangles = leaf.triangles.getTriangles();
+        for (int t = 0; t < leaf.triangles.getCount(); t++) {
+            int offset = t * TriangleSet.STRIDE;
+            for (int i = 0; i < 3; i++) {
+                float v0 = triangles[offset + TriangleSet.V0_OFFSET + i];
+                float v1 = v0 + triangles[offset + TriangleSet.EDGE1_OFFSET + i];
+                float v2 = v0 + triangles[offset + TriangleSet.EDGE2_OFFSET + i];
+                b[i] = Math.min(b[i], Math.min(v0, Math.min(v1, v2)));
+                b[i + 3] = Math.max(b[i + 3], Math.max(v0, Math.max(v1, v2)));
+            }
+        }
+    }
+
+    private static float area(float[] b) {
+        float dx = b[3] - b[0];
+        float dy = b[4] - b[1];
+        float dz = b[5] - b[2];
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private static float unionArea(float[] a, float[] b) {
+        float dx = Math.max(a[3], b[3]) - Math.min(a[0], b[0]);
+        float dy = Math.max(a[4], b[4]) - Math.min(a[1], b[1]);
+        float dz = Math.max(a[5], b[5]) - Math.min(a[2], b[2]);
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+
+    private static class Node<T> {
+        // {minX, minY, minZ, maxX, maxY, maxZ}
+        final float[] bounds = new float[BOUNDS_SIZE];
+        Node<T> parent;
+        Node<T> left;
+        Node<T> right;
+        T target;
+        TriangleSet triangles;
+        // Leaf is 0
+        int height;
+
+        boolean isLeaf() {
+            return left == null;
+        }
+
+        /**
+         * Set bounds and height of inner node by children
+         */
+        void update() {
+            float[] l = left.bounds;
+            float[] r = right.bounds;
+            for (int i = 0; i < 3; i++) {
+                bounds[i] = Math.min(l[i], r[i]);
+                bounds[i + 3] = Math.max(l[i + 3], r[i + 3]);
+            }
+            height = 1 + Math.max(left.height, right.height);
+        }
+    }
+}
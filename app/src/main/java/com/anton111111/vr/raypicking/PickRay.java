@@ -0,0 +1,128 @@
+package com.anton111111.vr.raypicking;
+
+/**
+ * Cursor ray in model space of pick targets.
+ * <p>
+ * Ray is computed once per frame (see {@link RayPicking#unProject}) and all targets are
+ * tested against it. Ray starts at the near plane point and goes through the far plane point,
+ * distance of hit is measured in lengths of that segment, so smaller distance is closer to eye.
+ */
+public class PickRay {
+
+    private float originX;
+    private float originY;
+    private float originZ;
+    private float directionX;
+    private float directionY;
+    private float directionZ;
+    private boolean isValid = false;
+
+    /**
+     * Set ray by cursor points on near and far planes
+     */
+    public void set(float nearX, float nearY, float nearZ, float farX, float farY, float farZ) {
+        originX = nearX;
+        originY = nearY;
+        originZ = nearZ;
+        directionX = farX - nearX;
+        directionY = farY - nearY;
+        directionZ = farZ - nearZ;
+        isValid = true;
+    }
+
+    /**
+     * Forget ray, nothing is hit until it is set again (cursor position is unknown)
+     */
+    public void reset() {
+        isValid = false;
+    }
+
+    public boolean isValid() {
+        return isValid;
+    }
+
+    /**
+     * @param triangles
+     * @return distance to the nearest hit or {@link TriangleSet#NO_HIT}
+     */
+    public float intersect(TriangleSet triangles) {
+        if (!isValid) {
+            return TriangleSet.NO_HIT;
+        }
+        return triangles.intersect(originX, originY, originZ, directionX, directionY, directionZ);
+    }
+
+    /**
+     * Intersect ray with axis aligned box (slab test)
+     *
+     * @param bounds      {minX, minY, minZ, maxX, maxY, maxZ}
+     * @param maxDistance boxes farther than it are skipped
+     * @return distance where ray enters box (0 if origin is inside) or {@link TriangleSet#NO_HIT}
+     */
+    public float intersectBounds(float[] bounds, float maxDistance) {
+        if (!isValid) {
+            return TriangleSet.NO_HIT;
+        }
+        float enter = 0.0f;
+        float exit = maxDistance;
+        for (int axis = 0; axis < 3; axis++) {
+            float origin = axis == 0 ? originX : (axis == 1 ? originY : originZ);
+            float direction = axis == 0 ? directionX : (axis == 1 ? directionY : directionZ);
+            float min = bounds[axis];
+            float max = bounds[axis + 3];
+            if (direction == 0.0f) {
+                if (origin < min || origin > max) {
+                    return TriangleSet.NO_HIT;
+                }
+                continue;
+            }
+            float t1 = (min - origin) / direction;
+            float t2 = (max - origin) / direction;
+            if (t1 > t2) {
+                float t = t1;
+                t1 = t2;
+                t2 = t;
+            }
+            enter = Math.max(enter, t1);
+            exit = Math.min(exit, t2);
+            if (enter > exit) {
+                return TriangleSet.NO_HIT;
+            }
+        }
+        return enter;
+    }
+
+    /**
+     * @return length of direction, distance 1 is this far from origin
+     */
+    public float getDirectionLength() {
+        return (float) Math.sqrt(directionX * directionX + directionY * directionY +
+                directionZ * directionZ);
+    }
+
+    /**
+     * Intersect ray with plane z = const
+     *
+     * @param z
+     * @return distance or {@link TriangleSet#NO_HIT} if ray is parallel to plane or goes away
+     */
+    public float intersectPlaneZ(float z) {
+        if (!isValid || directionZ == 0.0f) {
+            return TriangleSet.NO_HIT;
+        }
+        float distance = (z - originZ) / directionZ;
+        return distance < 0.0f ? TriangleSet.NO_HIT : distance;
+    }
+
+    /**
+     * Get point of ray
+     *
+     * @param distance distance returned by {@link #intersect}
+     * @param point    The float array that holds the result {x,y,z}.
+     */
+    public void getPoint(float distance, float[] point) {
+        point[0] = originX + distance * directionX;
+        point[1] = originY + distance * directionY;
+        point[2] = originZ + distance * directionZ;
+    }
+}
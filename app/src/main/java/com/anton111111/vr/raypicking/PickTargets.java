@@ -0,0 +1,156 @@
+package com.anton111111.vr.raypicking;
+
+/**
+ * Pick targets of cursor: rectangles on pick plane are in {@link PlanarPicker}, other targets
+ * are in {@link PickBvh}.
+ * <p>
+ * Gaze moves a little between frames, so planar target selected in previous frame is tested first
+ * and if it is still under ray the other planar targets are not tested: they are on the same plane
+ * and don't hide each other. Targets in BVH may be in front of plane, so BVH is always picked and
+ * its front-most hit wins over selected target behind it. Selected planar target also keeps
+ * selection while ray is within hysteresis angle outside of it, so selection doesn't flicker on
+ * widget edges (it would restart click timer). Other targets keep selection while they are
+ * the front-most hit.
+ * <p>
+ * Targets are used on GL thread only, picking allocates nothing.
+ *
+ * @param <T> target
+ */
+public class PickTargets<T> {
+
+    private final PickBvh<T> bvh = new PickBvh<>();
+    private PlanarPicker<T> planar;
+    private float hysteresis = 0.0f;
+    private int lastSkippedHitTestsCount = 0;
+    private long skippedHitTestsCount = 0;
+
+    /**
+     * Set plane z = const, targets added after it that are axis aligned rectangles on it
+     * are picked in 2D
+     *
+     * @param z
+     */
+    public void setPlaneZ(float z) {
+        planar = new PlanarPicker<>(z);
+    }
+
+    /**
+     * @param radians angle outside of selected target where it is still selected
+     */
+    public void setHysteresis(float radians) {
+        hysteresis = radians;
+    }
+
+    public float getHysteresis() {
+        return hysteresis;
+    }
+
+    public int size() {
+        return bvh.size() + (planar != null ? planar.size() : 0);
+    }
+
+    public boolean contains(T target) {
+        return bvh.contains(target) || (planar != null && planar.contains(target));
+    }
+
+    /**
+     * Add target, it is replaced if it is added already
+     *
+     * @param target
+     * @param coords  {x, y, z} of area vertices
+     * @param indexes three indexes of vertices per triangle
+     */
+    public void add(T target, float[] coords, short[] indexes) {
+        remove(target);
+        if (planar == null || !planar.add(target, coords, indexes)) {
+            bvh.insert(target, coords, indexes);
+        }
+    }
+
+    public boolean remove(T target) {
+        return (planar != null && planar.remove(target)) || bvh.remove(target);
+    }
+
+    /**
+     * Set new area of target
+     *
+     * @return false if there is no such target
+     */
+    public boolean update(T target, float[] coords, short[] indexes) {
+        if (planar != null && planar.update(target, coords, indexes)) {
+            return true;
+        }
+        boolean isPlanar = planar != null && PlanarPicker.isRect(coords, indexes, planar.getZ());
+        if (bvh.contains(target) && !isPlanar) {
+            // Refit without rebuilding tree
+            return bvh.update(target, coords, indexes);
+        }
+        if (!contains(target)) {
+            return false;
+        }
+        // Target moves between planar and other targets
+        add(target, coords, indexes);
+        return true;
+    }
+
+    /**
+     * Find target under ray, the closest to eye one if targets overlap
+     *
+     * @param ray
+     * @param selected target selected in previous frame or null, planar one is tested first
+     * @param hitPoint The float array that holds the result {x,y,z}.
+     * @return target or null
+     */
+    public T pick(PickRay ray, T selected, float[] hitPoint) {
+        lastSkippedHitTestsCount = 0;
+        if (!ray.isValid()) {
+            return null;
+        }
+        T found = bvh.pick(ray);
+        float distance = bvh.getLastDistance();
+        if (found != null) {
+            ray.getPoint(distance, hitPoint);
+        }
+        if (planar == null) {
+            return found;
+        }
+        if (selected != null && isStillSelected(ray, selected)) {
+            // Hit of BVH in front of plane hides all planar targets
+            lastSkippedHitTestsCount = planar.size() - 1;
+            skippedHitTestsCount += lastSkippedHitTestsCount;
+            if (found != null && distance < planar.getLastDistance()) {
+                return found;
+            }
+            planar.getLastPoint(hitPoint);
+            return selected;
+        }
+        T planarFound = planar.pick(ray);
+        if (planarFound != null && (found == null || planar.getLastDistance() <= distance)) {
+            found = planarFound;
+            planar.getLastPoint(hitPoint);
+        }
+        return found;
+    }
+
+    private boolean isStillSelected(PickRay ray, T selected) {
+        if (!planar.contains(selected)) {
+            return false;
+        }
+        float angle = planar.angleTo(selected, ray);
+        return angle != TriangleSet.NO_HIT && angle <= hysteresis;
+    }
+
+    /**
+     * @return count of planar targets not tested by the last {@link #pick} because selected target is hit
+     */
+    public int getLastSkippedHitTestsCount() {
+        return lastSkippedHitTestsCount;
+    }
+
+    /**
+     * @return count of skipped tests since targets are created
+     */
+    public long getSkippedHitTestsCount() {
+        return skippedHitTestsCount;
+    }
+}
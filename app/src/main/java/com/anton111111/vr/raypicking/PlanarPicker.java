@@ -0,0 +1,254 @@
+package com.anton111111.vr.raypicking;
+
+import java.util.ArrayList;
+
+/**
+ * Pick targets that are axis aligned rectangles on one plane z = const (widgets of panel).
+ * <p>
+ * Ray is intersected with the plane once, then hit is resolved in 2D by rectangle
+ * containment, so there are no triangle tests. Hit point is computed on the plane exactly.
+ * If rectangles overlap the last added one wins, it is drawn atop.
+ * <p>
+ * Picker is used on GL thread only, picking allocates nothing.
+ *
+ * @param <T> target
+ */
+public class PlanarPicker<T> {
+
+    private static final int RECT_SIZE = 4;
+
+    private final float z;
+    private final ArrayList<T> targets = new ArrayList<>();
+    // {left, bottom, right, top} of every target
+    private float[] rects = new float[RECT_SIZE * 8];
+    private float lastDistance = TriangleSet.NO_HIT;
+    private final float[] lastPoint = new float[3];
+
+    /**
+     * @param z plane of targets
+     */
+    public PlanarPicker(float z) {
+        this.z = z;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    public int size() {
+        return targets.size();
+    }
+
+    public boolean contains(T target) {
+        return targets.indexOf(target) >= 0;
+    }
+
+    /**
+     * Check if area is axis aligned rectangle on plane: two triangles of four vertices
+     * with two different x and two different y
+     *
+     * @param coords  {x, y, z} of vertices
+     * @param indexes three indexes of vertices per triangle
+     * @param z       plane
+     * @return
+     */
+    public static boolean isRect(float[] coords, short[] indexes, float z) {
+        if (coords.length != 12 || indexes.length != 6) {
+            return false;
+        }
+        float x0 = coords[0];
+        float y0 = coords[1];
+        float x1 = x0;
+        float y1 = y0;
+        int xCount = 0;
+        int yCount = 0;
+        for (int i = 0; i < coords.length; i += 3) {
+            if (coords[i + 2] != z) {
+                return false;
+            }
+            if (coords[i] == x0) {
+                xCount++;
+            } else {
+                x1 = coords[i];
+            }
+            if (coords[i + 1] == y0) {
+                yCount++;
+            } else {
+                y1 = coords[i + 1];
+            }
+        }
+        if (xCount != 2 || yCount != 2 || x0 == x1 || y0 == y1) {
+            return false;
+        }
+        // Every corner is present once
+        for (int i = 0; i < coords.length; i += 3) {
+            if ((coords[i] != x0 && coords[i] != x1) || (coords[i + 1] != y0 && coords[i + 1] != y1)) {
+                return false;
+            }
+            for (int j = i + 3; j < coords.length; j += 3) {
+                if (coords[i] == coords[j] && coords[i + 1] == coords[j + 1]) {
+                    return false;
+                }
+            }
+        }
+        // Triangles share diagonal, so they cover rectangle
+        int shared = 0;
+        int a = -1;
+        int b = -1;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 3; j < 6; j++) {
+                if (indexes[i] < 0 || indexes[i] > 3 || indexes[j] < 0 || indexes[j] > 3) {
+                    return false;
+                }
+                if (indexes[i] == indexes[j]) {
+                    shared++;
+                    b = a;
+                    a = indexes[i] * 3;
+                }
+            }
+        }
+        return shared == 2 && coords[a] != coords[b] && coords[a + 1] != coords[b + 1];
+    }
+
+    /**
+     * Add target, it is replaced if it is added already
+     *
+     * @param target
+     * @param coords  {x, y, z} of area vertices
+     * @param indexes three indexes of vertices per triangle
+     * @return false if area is not rectangle on plane, target is not added then
+     */
+    public boolean add(T target, float[] coords, short[] indexes) {
+        if (!isRect(coords, indexes, z)) {
+            return false;
+        }
+        remove(target);
+        int i = targets.size();
+        targets.add(target);
+        if (rects.length < targets.size() * RECT_SIZE) {
+            float[] grown = new float[rects.length * 2];
+            System.arraycopy(rects, 0, grown, 0, rects.length);
+            rects = grown;
+        }
+        setRect(i, coords);
+        return true;
+    }
+
+    public boolean remove(T target) {
+        int i = targets.indexOf(target);
+        if (i < 0) {
+            return false;
+        }
+        targets.remove(i);
+        System.arraycopy(rects, (i + 1) * RECT_SIZE, rects, i * RECT_SIZE,
+                (targets.size() - i) * RECT_SIZE);
+        return true;
+    }
+
+    /**
+     * Set new area of target
+     *
+     * @return false if there is no such target or new area is not rectangle on plane
+     */
+    public boolean update(T target, float[] coords, short[] indexes) {
+        int i = targets.indexOf(target);
+        if (i < 0 || !isRect(coords, indexes, z)) {
+            return false;
+        }
+        setRect(i, coords);
+        return true;
+    }
+
+    /**
+     * Find target under ray
+     *
+     * @param ray
+     * @return target or null
+     */
+    public T pick(PickRay ray) {
+        lastDistance = TriangleSet.NO_HIT;
+        if (targets.isEmpty()) {
+            return null;
+        }
+        float distance = ray.intersectPlaneZ(z);
+        if (distance == TriangleSet.NO_HIT) {
+            return null;
+        }
+        ray.getPoint(distance, lastPoint);
+        lastPoint[2] = z;
+        float x = lastPoint[0];
+        float y = lastPoint[1];
+        for (int i = targets.size() - 1; i >= 0; i--) {
+            int offset = i * RECT_SIZE;
+            if (x >= rects[offset] && x <= rects[offset + 2] &&
+                    y >= rects[offset + 1] && y <= rects[offset + 3]) {
+                lastDistance = distance;
+                return targets.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Test one target, like {@link #pick} but miss is measured too.
+     * Point and distance of plane hit are kept for {@link #getLastPoint} even if rect is missed.
+     *
+     * @param target
+     * @param ray
+     * @return angle in radians between ray and the closest point of rect seen from ray origin,
+     * 0 if rect is hit, {@link TriangleSet#NO_HIT} if there is no such target or plane is missed
+     */
+    public float angleTo(T target, PickRay ray) {
+        lastDistance = TriangleSet.NO_HIT;
+        int i = targets.indexOf(target);
+        if (i < 0) {
+            return TriangleSet.NO_HIT;
+        }
+        float distance = ray.intersectPlaneZ(z);
+        if (distance == TriangleSet.NO_HIT) {
+            return TriangleSet.NO_HIT;
+        }
+        lastDistance = distance;
+        ray.getPoint(distance, lastPoint);
+        lastPoint[2] = z;
+        int offset = i * RECT_SIZE;
+        float dx = Math.max(0.0f, Math.max(rects[offset] - lastPoint[0], lastPoint[0] - rects[offset + 2]));
+        float dy = Math.max(0.0f, Math.max(rects[offset + 1] - lastPoint[1], lastPoint[1] - rects[offset + 3]));
+        if (dx == 0.0f && dy == 0.0f) {
+            return 0.0f;
+        }
+        return (float) Math.atan2(Math.sqrt(dx * dx + dy * dy), distance * ray.getDirectionLength());
+    }
+
+    /**
+     * @return distance of the last {@link #pick} hit or {@link TriangleSet#NO_HIT}
+     */
+    public float getLastDistance() {
+        return lastDistance;
+    }
+
+    /**
+     * Get point of the last {@link #pick} hit on plane
+     *
+     * @param point The float array that holds the result {x,y,z}.
+     */
+    public void getLastPoint(float[] point) {
+        point[0] = lastPoint[0];
+        point[1] = lastPoint[1];
+        point[2] = lastPoint[2];
+    }
+
+    private void setRect(int i, float[] coords) {
+        int offset = i * RECT_SIZE;
+        rects[offset] = Float.MAX_VALUE;
+        rects[offset + 1] = Float.MAX_VALUE;
+        rects[offset + 2] = -Float.MAX_VALUE;
+        rects[offset + 3] = -Float.MAX_VALUE;
+        for (int v = 0; v < coords.length; v += 3) {
+            rects[offset] = Math.min(rects[offset], coords[v]);
+            rects[offset + 1] = Math.min(rects[offset + 1], coords[v + 1]);
+            rects[offset + 2] = Math.max(rects[offset + 2], coords[v]);
+            rects[offset + 3] = Math.max(rects[offset + 3], coords[v + 1]);
+        }
+    }
+}
@@ -1,89 +1,46 @@
 package com.anton111111.vr.raypicking;
 
-import android.opengl.GLU;
-
-import java.util.ArrayList;
+import android.opengl.Matrix;
 
 
 public class RayPicking {
+
+    // Used on GL thread only
+    private static final float[] sTemp = new float[40];
+
     /**
-     * Do ray picking and return coords of hit
+     * Compute cursor ray in model space, like gluUnProject for near and far planes
+     * but with one matrix inversion.
      *
+     * @param ray             The ray that holds the result, it is reset if matrices can't be inverted
      * @param viewWidth
      * @param viewHeight
-     * @param rx
-     * @param ry
+     * @param rx              cursor x in window coords
+     * @param ry              cursor y in window coords
      * @param modelViewMatrix
      * @param projMatrix
-     * @param objectCoords
-     * @param objectIndexes
-     * @return return coord of intersection hit area or null if no intersection
      */
-    public static float[] rayPicking(int viewWidth, int viewHeight, float rx, float ry,
-                                     float[] modelViewMatrix, float[] projMatrix,
-                                     final float[] objectCoords, final short[] objectIndexes) {
-        int[] viewport = {0, 0, viewWidth, viewHeight};
-        float[] temp = new float[4];
-
-        GLU.gluUnProject(rx, ry, 0, modelViewMatrix, 0, projMatrix, 0, viewport, 0, temp, 0);
-        float[] near_xyz = new float[]{
-                temp[0] / temp[3],
-                temp[1] / temp[3],
-                temp[2] / temp[3]
-        };
-        GLU.gluUnProject(rx, ry, 1, modelViewMatrix, 0, projMatrix, 0, viewport, 0, temp, 0);
-        float[] far_xyz = new float[]{
-                temp[0] / temp[3],
-                temp[1] / temp[3],
-                temp[2] / temp[3]
-        };
-
-        int coordCount = objectCoords.length;
-        float[] convertedSquare = new float[coordCount];
-        for (int i = 0; i < coordCount; i = i + 3) {
-            convertedSquare[i] = objectCoords[i];
-            convertedSquare[i + 1] = objectCoords[i + 1];
-            convertedSquare[i + 2] = objectCoords[i + 2];
+    public static void unProject(PickRay ray, int viewWidth, int viewHeight, float rx, float ry,
+                                 float[] modelViewMatrix, float[] projMatrix) {
+        Matrix.multiplyMM(sTemp, 0, projMatrix, 0, modelViewMatrix, 0);
+        if (!Matrix.invertM(sTemp, 16, sTemp, 0)) {
+            ray.reset();
+            return;
         }
-
-
-        ArrayList<Triangle> triangles = new ArrayList<>();
-        for (int i = 0; i < objectIndexes.length; i = i + 3) {
-            int i1 = objectIndexes[i] * 3;
-            int i2 = objectIndexes[i + 1] * 3;
-            int i3 = objectIndexes[i + 2] * 3;
-            triangles.add(
-                    new Triangle(
-                            new float[]{
-                                    convertedSquare[i1],
-                                    convertedSquare[i1 + 1],
-                                    convertedSquare[i1 + 2]
-                            },
-                            new float[]{
-                                    convertedSquare[i2],
-                                    convertedSquare[i2 + 1],
-                                    convertedSquare[i2 + 2]
-                            },
-                            new float[]{
-                                    convertedSquare[i3],
-                                    convertedSquare[i3 + 1],
-                                    convertedSquare[i3 + 2]
-                            }
-                    )
-            );
-        }
-
-        for (Triangle t : triangles) {
-            float[] point = new float[3];
-
-            int intersects = Triangle.intersectRayAndTriangle(near_xyz, far_xyz, t, point);
-            if (intersects == 1 || intersects == 2) {
-                return new float[]{
-                        point[0], point[1], point[2]
-                };
-            }
+        // Normalized device coords of cursor on near plane, then on far plane
+        sTemp[32] = rx * 2.0f / viewWidth - 1.0f;
+        sTemp[33] = ry * 2.0f / viewHeight - 1.0f;
+        sTemp[34] = -1.0f;
+        sTemp[35] = 1.0f;
+        Matrix.multiplyMV(sTemp, 0, sTemp, 16, sTemp, 32);
+        sTemp[34] = 1.0f;
+        Matrix.multiplyMV(sTemp, 4, sTemp, 16, sTemp, 32);
+        if (sTemp[3] == 0.0f || sTemp[7] == 0.0f) {
+            ray.reset();
+            return;
         }
-        return null;
+        ray.set(sTemp[0] / sTemp[3], sTemp[1] / sTemp[3], sTemp[2] / sTemp[3],
+                sTemp[4] / sTemp[7], sTemp[5] / sTemp[7], sTemp[6] / sTemp[7]);
     }
 
 }
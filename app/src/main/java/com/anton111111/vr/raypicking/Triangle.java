@@ -4,6 +4,10 @@ import com.anton111111.vr.VectorUtil;
 
 import java.util.Arrays;
 
+/**
+ * @deprecated allocates vectors on every intersection, use {@link TriangleSet}
+ */
+@Deprecated
 public class Triangle {
     private static final float SMALL_NUM = 0.00000001f; // anything that avoids division overflow
 
@@ -0,0 +1,155 @@
+package com.anton111111.vr.raypicking;
+
+/**
+ * Triangles of selectable area prepared for ray intersection.
+ * <p>
+ * Every triangle is kept in one flat array as the first vertex, two edges and plane normal
+ * ({@link #STRIDE} floats), they are computed once when area is set, so intersection
+ * (Moller-Trumbore) works on primitives and allocates nothing.
+ * Degenerate triangles (zero normal) are never hit.
+ */
+public class TriangleSet {
+
+    public static final int V0_OFFSET = 0;
+    public static final int EDGE1_OFFSET = 3;
+    public static final int EDGE2_OFFSET = 6;
+    public static final int NORMAL_OFFSET = 9;
+    public static final int STRIDE = 12;
+
+    public static final float NO_HIT = -1.0f;
+
+    private static final float SMALL_NUM = 0.00000001f; // anything that avoids division overflow
+
+    private float[] triangles = new float[0];
+    private int count = 0;
+
+    public TriangleSet() {
+    }
+
+    public TriangleSet(float[] coords, short[] indexes) {
+        set(coords, indexes);
+    }
+
+    /**
+     * Set triangles, array is reused if count of triangles is not changed
+     *
+     * @param coords  {x, y, z} of vertices
+     * @param indexes three indexes of vertices per triangle
+     */
+    public void set(float[] coords, short[] indexes) {
+        if (indexes.length % 3 != 0) {
+            throw new IllegalArgumentException("Count of indexes must be multiple of three");
+        }
+        count = indexes.length / 3;
+        if (triangles.length != count * STRIDE) {
+            triangles = new float[count * STRIDE];
+        }
+        for (int i = 0; i < count; i++) {
+            int p0 = indexes[i * 3] * 3;
+            int p1 = indexes[i * 3 + 1] * 3;
+            int p2 = indexes[i * 3 + 2] * 3;
+            int offset = i * STRIDE;
+            float e1x = coords[p1] - coords[p0];
+            float e1y = coords[p1 + 1] - coords[p0 + 1];
+            float e1z = coords[p1 + 2] - coords[p0 + 2];
+            float e2x = coords[p2] - coords[p0];
+            float e2y = coords[p2 + 1] - coords[p0 + 1];
+            float e2z = coords[p2 + 2] - coords[p0 + 2];
+            triangles[offset + V0_OFFSET] = coords[p0];
+            triangles[offset + V0_OFFSET + 1] = coords[p0 + 1];
+            triangles[offset + V0_OFFSET + 2] = coords[p0 + 2];
+            triangles[offset + EDGE1_OFFSET] = e1x;
+            triangles[offset + EDGE1_OFFSET + 1] = e1y;
+            triangles[offset + EDGE1_OFFSET + 2] = e1z;
+            triangles[offset + EDGE2_OFFSET] = e2x;
+            triangles[offset + EDGE2_OFFSET + 1] = e2y;
+            triangles[offset + EDGE2_OFFSET + 2] = e2z;
+            triangles[offset + NORMAL_OFFSET] = e1y * e2z - e1z * e2y;
+            triangles[offset + NORMAL_OFFSET + 1] = e1z * e2x - e1x * e2z;
+            triangles[offset + NORMAL_OFFSET + 2] = e1x * e2y - e1y * e2x;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return flat triangles, {@link #STRIDE} floats per triangle
+     */
+    public float[] getTriangles() {
+        return triangles;
+    }
+
+    /**
+     * Intersect ray with all triangles
+     *
+     * @return distance to the nearest hit in ray direction lengths or {@link #NO_HIT}
+     */
+    public float intersect(float ox, float oy, float oz, float dx, float dy, float dz) {
+        float nearest = NO_HIT;
+        for (int i = 0; i < count; i++) {
+            float distance = intersect(triangles, i * STRIDE, ox, oy, oz, dx, dy, dz);
+            if (distance != NO_HIT && (nearest == NO_HIT || distance < nearest)) {
+                nearest = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Intersect ray origin + distance * direction (distance >= 0) with one triangle.
+     * Ray that lies in the triangle plane is a hit at distance 0 like in {@link Triangle}.
+     *
+     * @param triangles flat triangles
+     * @param offset    index of triangle start
+     * @return distance in ray direction lengths or {@link #NO_HIT}
+     */
+    public static float intersect(float[] triangles, int offset,
+                                  float ox, float oy, float oz,
+                                  float dx, float dy, float dz) {
+        float nx = triangles[offset + NORMAL_OFFSET];
+        float ny = triangles[offset + NORMAL_OFFSET + 1];
+        float nz = triangles[offset + NORMAL_OFFSET + 2];
+        if (nx == 0.0f && ny == 0.0f && nz == 0.0f) {
+            return NO_HIT;
+        }
+        float e1x = triangles[offset + EDGE1_OFFSET];
+        float e1y = triangles[offset + EDGE1_OFFSET + 1];
+        float e1z = triangles[offset + EDGE1_OFFSET + 2];
+        float e2x = triangles[offset + EDGE2_OFFSET];
+        float e2y = triangles[offset + EDGE2_OFFSET + 1];
+        float e2z = triangles[offset + EDGE2_OFFSET + 2];
+        // Vector from the first vertex to ray origin
+        float tx = ox - triangles[offset + V0_OFFSET];
+        float ty = oy - triangles[offset + V0_OFFSET + 1];
+        float tz = oz - triangles[offset + V0_OFFSET + 2];
+
+        // det = e1 . (d x e2) = -(n . d)
+        float det = -(nx * dx + ny * dy + nz * dz);
+        if (Math.abs(det) < SMALL_NUM) {
+            // Ray is parallel to triangle plane, it is a hit only if it lies in the plane
+            return (nx * tx + ny * ty + nz * tz) == 0.0f ? 0.0f : NO_HIT;
+        }
+        float invDet = 1.0f / det;
+
+        float px = dy * e2z - dz * e2y;
+        float py = dz * e2x - dx * e2z;
+        float pz = dx * e2y - dy * e2x;
+        float u = (tx * px + ty * py + tz * pz) * invDet;
+        if (u < 0.0f || u > 1.0f) {
+            return NO_HIT;
+        }
+
+        float qx = ty * e1z - tz * e1y;
+        float qy = tz * e1x - tx * e1z;
+        float qz = tx * e1y - ty * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0.0f || u + v > 1.0f) {
+            return NO_HIT;
+        }
+
+        float distance = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        return distance < 0.0f ? NO_HIT : distance;
+    }
+}
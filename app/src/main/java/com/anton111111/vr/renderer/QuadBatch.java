@@ -0,0 +1,482 @@
+package com.anton111111.vr.renderer;
+
+import android.opengl.GLES20;
+
+import com.anton111111.vr.GLStateCache;
+import com.anton111111.vr.buffer.GLBufferArena;
+import com.anton111111.vr.program.Program;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Batch of textured and colored quads drawn with one program from one dynamic vertex stream.
+ * <p>
+ * Vertex is position, texture coords and color, so widgets with different colors and textures
+ * share one stream. Quads are drawn in the order they are added. Neighbouring quads with the same
+ * texture are merged into one draw call. Colored quads use {@link #NO_TEXTURE} (1x1 white texture),
+ * so they merge with each other.
+ * <p>
+ * Usage: {@link #begin}, add quads, {@link #end} once per frame, then {@link #draw} for every eye.
+ * Vertices are in model space, so the same stream is used for both eyes with different MVP.
+ * Stream is uploaded only if it is changed since last frame.
+ * <p>
+ * Batch is used on GL thread only.
+ */
+public class QuadBatch {
+
+    public static final String ATTR_POSITION = "a_Position";
+    public static final String ATTR_TEXTURE_COORDS = "a_TexCoordinate";
+    public static final String ATTR_COLOR = "a_Color";
+    public static final String UNIFORM_MVP = "u_MVP";
+    public static final String UNIFORM_TEXTURE = "u_Texture";
+    public static final int ATTR_POSITION_INDEX = 0;
+    public static final int ATTR_TEXTURE_COORDS_INDEX = 1;
+    public static final int ATTR_COLOR_INDEX = 2;
+    public static final int UNIFORM_MVP_INDEX = 0;
+    public static final int UNIFORM_TEXTURE_INDEX = 1;
+
+    public static final List<String> ATTRS = Arrays.asList(
+            ATTR_POSITION,
+            ATTR_TEXTURE_COORDS,
+            ATTR_COLOR
+    );
+    public static final List<String> UNIFORMS = Arrays.asList(
+            UNIFORM_MVP,
+            UNIFORM_TEXTURE
+    );
+
+    /**
+     * Texture of colored quads
+     */
+    public static final int NO_TEXTURE = 0;
+    public static final float[] WHITE = new float[]{
+            1.0f, 1.0f, 1.0f, 1.0f
+    };
+    /**
+     * Texture rect {left, top, right, bottom} of whole texture
+     */
+    public static final float[] FULL_TEXTURE_RECT = new float[]{
+            0.0f, 0.0f, 1.0f, 1.0f
+    };
+
+    // x, y, z, u, v, r, g, b, a
+    public static final int VERTEX_SIZE = 9;
+    public static final int VERTEX_STRIDE = VERTEX_SIZE * GLBufferArena.FLOAT_SIZE;
+    public static final int QUAD_SIZE = VERTEX_SIZE * GLBufferArena.QUAD_VERTEX_COUNT;
+    public static final int QUAD_INDEXES_COUNT = GLBufferArena.QUAD_INDEXES.length;
+    // Indexes are unsigned short
+    public static final int MAX_QUADS = 65536 / GLBufferArena.QUAD_VERTEX_COUNT;
+
+    private static final int DEFAULT_CAPACITY = 64; // quads
+    private static final int TEXTURE_COORDS_OFFSET = 3 * GLBufferArena.FLOAT_SIZE;
+    private static final int COLOR_OFFSET = 5 * GLBufferArena.FLOAT_SIZE;
+
+    private final Backend gl;
+    private final GLStateCache stateCache;
+    private final Program program;
+
+    private float[] vertices;
+    private float[] uploadedVertices;
+    private int quadsCount = 0;
+    private int uploadedQuadsCount = 0;
+    private FloatBuffer stream;
+
+    // Draw commands: texture and range of quads
+    private int[] commandTextures;
+    private int[] commandFirstQuads;
+    private int[] commandQuadsCounts;
+    private int commandsCount = 0;
+
+    private int vertexBuffer = 0;
+    private int indexBuffer = 0;
+    private int indexBufferCapacity = 0;
+    private int whiteTexture = 0;
+    private boolean isBuilding = false;
+
+    private int drawCalls = 0;
+    private int uploadsCount = 0;
+
+    public QuadBatch(Backend gl, GLStateCache stateCache, Program program) {
+        this(gl, stateCache, program, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param gl
+     * @param stateCache
+     * @param program    program created with {@link #ATTRS} and {@link #UNIFORMS}
+     * @param capacity   initial capacity in quads
+     */
+    public QuadBatch(Backend gl, GLStateCache stateCache, Program program, int capacity) {
+        this.gl = gl;
+        this.stateCache = stateCache;
+        this.program = program;
+        capacity = Math.max(1, Math.min(capacity, MAX_QUADS));
+        vertices = new float[capacity * QUAD_SIZE];
+        uploadedVertices = new float[capacity * QUAD_SIZE];
+        commandTextures = new int[capacity];
+        commandFirstQuads = new int[capacity];
+        commandQuadsCounts = new int[capacity];
+    }
+
+    /**
+     * Count of quads in batch
+     *
+     * @return
+     */
+    public int getQuadsCount() {
+        return quadsCount;
+    }
+
+    /**
+     * Count of draw calls issued by every {@link #draw}
+     *
+     * @return
+     */
+    public int getCommandsCount() {
+        return commandsCount;
+    }
+
+    /**
+     * Count of draw calls issued since batch is created
+     *
+     * @return
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * Count of stream uploads since batch is created
+     *
+     * @return
+     */
+    public int getUploadsCount() {
+        return uploadsCount;
+    }
+
+    public int getCapacity() {
+        return commandTextures.length;
+    }
+
+    /**
+     * Start filling of batch. Quads of previous frame are dropped.
+     */
+    public void begin() {
+        quadsCount = 0;
+        commandsCount = 0;
+        isBuilding = true;
+    }
+
+    /**
+     * Add quad
+     *
+     * @param coords      4 vertices {x, y, z} in order: left bottom, right bottom, right top, left top
+     * @param texture     GL texture or {@link #NO_TEXTURE}
+     * @param textureRect {left, top, right, bottom} in texture coords
+     * @param color       rgba colors
+     * @param colorOffset offset of color in colors array
+     */
+    public void add(float[] coords, int texture, float[] textureRect, float[] color, int colorOffset) {
+        int offset = addQuad(texture);
+        for (int v = 0; v < GLBufferArena.QUAD_VERTEX_COUNT; v++) {
+            int i = offset + v * VERTEX_SIZE;
+            vertices[i] = coords[v * 3];
+            vertices[i + 1] = coords[v * 3 + 1];
+            vertices[i + 2] = coords[v * 3 + 2];
+        }
+        putTextureAndColor(offset, textureRect, color, colorOffset);
+    }
+
+    /**
+     * Add quad parallel to XY plane
+     *
+     * @param left
+     * @param bottom
+     * @param right
+     * @param top
+     * @param z
+     * @param texture     GL texture or {@link #NO_TEXTURE}
+     * @param textureRect {left, top, right, bottom} in texture coords
+     * @param color       rgba colors
+     * @param colorOffset offset of color in colors array
+     */
+    public void addRect(float left, float bottom, float right, float top, float z,
+                        int texture, float[] textureRect, float[] color, int colorOffset) {
+        int offset = addQuad(texture);
+        putPosition(offset, left, bottom, z);
+        putPosition(offset + VERTEX_SIZE, right, bottom, z);
+        putPosition(offset + VERTEX_SIZE * 2, right, top, z);
+        putPosition(offset + VERTEX_SIZE * 3, left, top, z);
+        putTextureAndColor(offset, textureRect, color, colorOffset);
+    }
+
+    /**
+     * Finish filling of batch. Stream is uploaded if it is changed.
+     */
+    public void end() {
+        isBuilding = false;
+        if (vertexBuffer == 0) {
+            vertexBuffer = gl.genBuffer();
+        }
+        ensureIndexBuffer();
+        if (quadsCount == 0 || !isChanged()) {
+            return;
+        }
+        int floatsCount = quadsCount * QUAD_SIZE;
+        System.arraycopy(vertices, 0, uploadedVertices, 0, floatsCount);
+        uploadedQuadsCount = quadsCount;
+        if (stream == null || stream.capacity() < vertices.length) {
+            stream = ByteBuffer.allocateDirect(vertices.length * GLBufferArena.FLOAT_SIZE)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+        stream.position(0);
+        stream.put(vertices, 0, floatsCount);
+        stream.position(0);
+        stateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer);
+        // New storage every time, driver doesn't wait for draws of previous frame
+        gl.bufferData(GLES20.GL_ARRAY_BUFFER, floatsCount * GLBufferArena.FLOAT_SIZE,
+                stream, GLES20.GL_DYNAMIC_DRAW);
+        uploadsCount++;
+    }
+
+    /**
+     * Draw batch
+     *
+     * @param modelViewProjection
+     */
+    public void draw(float[] modelViewProjection) {
+        if (isBuilding) {
+            throw new IllegalStateException("Batch is not finished, call end() before draw.");
+        }
+        if (commandsCount == 0) {
+            return;
+        }
+        stateCache.useProgram(program.getProgramId());
+        stateCache.setEnabledVertexAttribArrays(program.getShaderAttributeLocations().getAttrsMask());
+        stateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer);
+        stateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.vertexAttribPointer(program.getAttr(ATTR_POSITION_INDEX), 3, VERTEX_STRIDE, 0);
+        gl.vertexAttribPointer(program.getAttr(ATTR_TEXTURE_COORDS_INDEX), 2, VERTEX_STRIDE,
+                TEXTURE_COORDS_OFFSET);
+        gl.vertexAttribPointer(program.getAttr(ATTR_COLOR_INDEX), 4, VERTEX_STRIDE, COLOR_OFFSET);
+        gl.uniformMatrix4fv(program.getUniform(UNIFORM_MVP_INDEX), modelViewProjection);
+        gl.uniform1i(program.getUniform(UNIFORM_TEXTURE_INDEX), 0);
+
+        for (int i = 0; i < commandsCount; i++) {
+            int texture = commandTextures[i];
+            if (texture == NO_TEXTURE) {
+                texture = getWhiteTexture();
+            }
+            stateCache.bindTexture(0, GLES20.GL_TEXTURE_2D, texture);
+            gl.drawElements(commandQuadsCounts[i] * QUAD_INDEXES_COUNT,
+                    commandFirstQuads[i] * QUAD_INDEXES_COUNT * GLBufferArena.SHORT_SIZE);
+            drawCalls++;
+        }
+    }
+
+    /**
+     * Delete GL objects. They are created again on next {@link #end}.
+     */
+    public void release() {
+        if (vertexBuffer != 0) {
+            gl.deleteBuffer(vertexBuffer);
+            stateCache.onBufferDeleted(vertexBuffer);
+        }
+        if (indexBuffer != 0) {
+            gl.deleteBuffer(indexBuffer);
+            stateCache.onBufferDeleted(indexBuffer);
+        }
+        if (whiteTexture != 0) {
+            gl.deleteTexture(whiteTexture);
+            stateCache.onTextureDeleted(whiteTexture);
+        }
+        vertexBuffer = 0;
+        indexBuffer = 0;
+        indexBufferCapacity = 0;
+        whiteTexture = 0;
+        uploadedQuadsCount = 0;
+    }
+
+    /**
+     * Reserve quad and command for it
+     *
+     * @param texture
+     * @return offset of quad in vertices
+     */
+    private int addQuad(int texture) {
+        if (!isBuilding) {
+            throw new IllegalStateException("Call begin() before adding quads.");
+        }
+        if (quadsCount == getCapacity()) {
+            grow();
+        }
+        if (commandsCount > 0 && commandTextures[commandsCount - 1] == texture) {
+            commandQuadsCounts[commandsCount - 1]++;
+        } else {
+            commandTextures[commandsCount] = texture;
+            commandFirstQuads[commandsCount] = quadsCount;
+            commandQuadsCounts[commandsCount] = 1;
+            commandsCount++;
+        }
+        return quadsCount++ * QUAD_SIZE;
+    }
+
+    private void putPosition(int offset, float x, float y, float z) {
+        vertices[offset] = x;
+        vertices[offset + 1] = y;
+        vertices[offset + 2] = z;
+    }
+
+    private void putTextureAndColor(int offset, float[] textureRect, float[] color, int colorOffset) {
+        // Vertices order: left bottom, right bottom, right top, left top
+        putTextureCoords(offset, textureRect[0], textureRect[3]);
+        putTextureCoords(offset + VERTEX_SIZE, textureRect[2], textureRect[3]);
+        putTextureCoords(offset + VERTEX_SIZE * 2, textureRect[2], textureRect[1]);
+        putTextureCoords(offset + VERTEX_SIZE * 3, textureRect[0], textureRect[1]);
+        for (int v = 0; v < GLBufferArena.QUAD_VERTEX_COUNT; v++) {
+            System.arraycopy(color, colorOffset, vertices, offset + v * VERTEX_SIZE + 5, 4);
+        }
+    }
+
+    private void putTextureCoords(int offset, float u, float v) {
+        vertices[offset + 3] = u;
+        vertices[offset + 4] = v;
+    }
+
+    private boolean isChanged() {
+        if (quadsCount != uploadedQuadsCount) {
+            return true;
+        }
+        int floatsCount = quadsCount * QUAD_SIZE;
+        for (int i = 0; i < floatsCount; i++) {
+            if (vertices[i] != uploadedVertices[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void grow() {
+        int capacity = getCapacity();
+        if (capacity >= MAX_QUADS) {
+            throw new IllegalStateException("Batch is full: " + capacity + " quads.");
+        }
+        capacity = Math.min(capacity * 2, MAX_QUADS);
+        vertices = Arrays.copyOf(vertices, capacity * QUAD_SIZE);
+        uploadedVertices = Arrays.copyOf(uploadedVertices, capacity * QUAD_SIZE);
+        commandTextures = Arrays.copyOf(commandTextures, capacity);
+        commandFirstQuads = Arrays.copyOf(commandFirstQuads, capacity);
+        commandQuadsCounts = Arrays.copyOf(commandQuadsCounts, capacity);
+    }
+
+    /**
+     * Indexes of all quads that fit into batch: 0, 1, 2, 0, 2, 3, 4, 5, 6, 4, 6, 7...
+     */
+    private void ensureIndexBuffer() {
+        if (indexBuffer != 0 && indexBufferCapacity == getCapacity()) {
+            return;
+        }
+        if (indexBuffer == 0) {
+            indexBuffer = gl.genBuffer();
+        }
+        int capacity = getCapacity();
+        ShortBuffer indexes = ByteBuffer.allocateDirect(capacity * QUAD_INDEXES_COUNT * GLBufferArena.SHORT_SIZE)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+        for (int q = 0; q < capacity; q++) {
+            for (short index : GLBufferArena.QUAD_INDEXES) {
+                indexes.put((short) (q * GLBufferArena.QUAD_VERTEX_COUNT + index));
+            }
+        }
+        indexes.position(0);
+        stateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.bufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, capacity * QUAD_INDEXES_COUNT * GLBufferArena.SHORT_SIZE,
+                indexes, GLES20.GL_STATIC_DRAW);
+        indexBufferCapacity = capacity;
+    }
+
+    private int getWhiteTexture() {
+        if (whiteTexture == 0) {
+            whiteTexture = gl.createWhiteTexture();
+        }
+        return whiteTexture;
+    }
+
+
+    /**
+     * GL calls used by batch
+     */
+    public interface Backend extends GLBufferArena.Backend {
+        void deleteTexture(int texture);
+
+        /**
+         * Create 1x1 white texture for colored quads
+         *
+         * @return
+         */
+        int createWhiteTexture();
+
+        void vertexAttribPointer(int location, int size, int stride, int offset);
+
+        void uniformMatrix4fv(int location, float[] matrix);
+
+        void uniform1i(int location, int value);
+
+        /**
+         * Draw triangles with unsigned short indexes of bound element array buffer
+         *
+         * @param count
+         * @param offset offset in bytes
+         */
+        void drawElements(int count, int offset);
+    }
+
+    public static class GLES20Backend extends GLBufferArena.GLES20Backend implements Backend {
+
+        @Override
+        public void deleteTexture(int texture) {
+            GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+        }
+
+        @Override
+        public int createWhiteTexture() {
+            int[] textures = new int[1];
+            GLES20.glGenTextures(1, textures, 0);
+            ByteBuffer pixel = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder());
+            pixel.put(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff});
+            pixel.position(0);
+            GLStateCache.getInstance().bindTexture(0, GLES20.GL_TEXTURE_2D, textures[0]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixel);
+            return textures[0];
+        }
+
+        @Override
+        public void vertexAttribPointer(int location, int size, int stride, int offset) {
+            GLES20.glVertexAttribPointer(location, size, GLES20.GL_FLOAT, false, stride, offset);
+        }
+
+        @Override
+        public void uniformMatrix4fv(int location, float[] matrix) {
+            GLES20.glUniformMatrix4fv(location, 1, false, matrix, 0);
+        }
+
+        @Override
+        public void uniform1i(int location, int value) {
+            GLES20.glUniform1i(location, value);
+        }
+
+        @Override
+        public void drawElements(int count, int offset) {
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, count, GLES20.GL_UNSIGNED_SHORT, offset);
+        }
+    }
+}
@@ -3,14 +3,20 @@ package com.anton111111.vr.renderer;
 import android.content.Context;
 import android.opengl.Matrix;
 import android.os.Handler;
+import android.os.SystemClock;
 
 
 import com.anton111111.gvrvideoplayer.R;
 import com.anton111111.util.StringUtil;
 import com.google.vr.sdk.base.Eye;
+import com.anton111111.player.PlaybackState;
 import com.anton111111.player.VideoPlayer;
+import com.anton111111.vr.GLStateCache;
 import com.anton111111.vr.Quaternion;
-import com.anton111111.vr.raypicking.RayPicking;
+import com.anton111111.vr.ScratchMath;
+import com.anton111111.vr.program.ProgramHelper;
+import com.anton111111.vr.raypicking.PickRay;
+import com.anton111111.vr.raypicking.TriangleSet;
 import com.anton111111.vr.widgets.Cursor;
 import com.anton111111.vr.widgets.Icon;
 import com.anton111111.vr.widgets.IconsList;
@@ -69,7 +75,7 @@ public class VideoControllerRenderer {
     }
 
     private final Context context;
-    private float[] detectionAreaCoords;
+    private TriangleSet detectionArea;
     private boolean isForceShow = false;
     private VideoPlayer videoPlayer;
     private VideoControllerListener videoControllerListener;
@@ -81,11 +87,13 @@ public class VideoControllerRenderer {
     private IconsList iconsList;
     private Panel panel;
     private Cursor cursor;
+    private QuadBatch quadBatch;
     private int viewWidth;
     private int viewHeight;
     private Handler handler;
     private float[] viewMatrix;
     private float[] headTransformQuaternion = new float[]{0.0f, 0.0f, 0.0f, 1.0f};
+    private float[] gazeQuaternion;
 
     public EnumSet<Status> getStatus() {
         return status;
@@ -112,6 +120,16 @@ public class VideoControllerRenderer {
         this.headTransformQuaternion = headTransformQuaternion;
     }
 
+    /**
+     * Set head rotation for cursor ray picking, it may be filtered so selection doesn't jitter.
+     * Widgets are drawn by head transform anyway, so they follow head without lag.
+     *
+     * @param gazeQuaternion rotation or null to pick by head transform
+     */
+    public void setGazeQuaternion(float[] gazeQuaternion) {
+        this.gazeQuaternion = gazeQuaternion;
+    }
+
     public VideoControllerRenderer(Context context, Handler handler) {
         this.handler = handler;
         this.context = context;
@@ -130,8 +148,12 @@ public class VideoControllerRenderer {
     }
 
     private void init(Context context) {
+        quadBatch = new QuadBatch(new QuadBatch.GLES20Backend(), GLStateCache.getInstance(),
+                ProgramHelper.initQuadBatchProgram(context));
         initCursor(context);
         initPanel(context);
+        // All widgets lie on the layer above panel, they are picked in 2D
+        cursor.setPickPlaneZ(panel.getLeftBottomCornerCoords()[2] + LAYERS_MARGIN_Z);
         initDetectionArea();
         initIcons(context);
         initSeekBar(context);
@@ -156,7 +178,26 @@ public class VideoControllerRenderer {
                 }
                 long newPos = getPosFromPercents(progress);
                 if (newPos >= 0) {
-                    videoPlayer.getPlayer().seekTo(newPos);
+                    videoPlayer.postSeekTo(newPos);
+                }
+            }
+
+            @Override
+            public void onHover(float progress) {
+                if (videoPlayer == null || videoPlayer.getPlayer() == null) {
+                    return;
+                }
+                // Media at position is loaded while click timer runs
+                long pos = getPosFromPercents(progress);
+                if (pos >= 0) {
+                    videoPlayer.postPrefetch(pos);
+                }
+            }
+
+            @Override
+            public void onHoverOut() {
+                if (videoPlayer != null) {
+                    videoPlayer.postCancelPrefetch();
                 }
             }
         });
@@ -195,12 +236,13 @@ public class VideoControllerRenderer {
             float pWidth = panel.getWidth();
             float pHeight = panel.getHeight();
 
-            detectionAreaCoords = new float[]{
+            float[] detectionAreaCoords = new float[]{
                     pLBCCoords[0] - DETECTION_AREA_PADDING, pLBCCoords[1] - DETECTION_AREA_PADDING, pLBCCoords[2],
                     pLBCCoords[0] + pWidth + DETECTION_AREA_PADDING, pLBCCoords[1] - DETECTION_AREA_PADDING, pLBCCoords[2],
                     pLBCCoords[0] + pWidth + DETECTION_AREA_PADDING, pLBCCoords[1] + pHeight + DETECTION_AREA_PADDING, pLBCCoords[2],
                     pLBCCoords[0] - DETECTION_AREA_PADDING, pLBCCoords[1] + pHeight + DETECTION_AREA_PADDING, pLBCCoords[2],
             };
+            detectionArea = new TriangleSet(detectionAreaCoords, DETECTION_AREA_VERTEX_INDEXES);
         }
     }
 
@@ -271,6 +313,7 @@ public class VideoControllerRenderer {
                     }
                 });
         cursor.addSelectableObject(recenterIcon);
+        iconsList.buildAtlas();
     }
 
 
@@ -284,8 +327,8 @@ public class VideoControllerRenderer {
         }
 
 
-        if (!videoPlayer.getPlayer().isPlaying() ||
-                videoPlayer.getPlayer().isEnded()) {
+        PlaybackState state = videoPlayer.getPlaybackState();
+        if (!state.isPlaying() || state.isEnded()) {
             playPauseIcon.setHintIndex(1);
             playPauseIcon.setTextureIndex(1);
         } else {
@@ -296,14 +339,12 @@ public class VideoControllerRenderer {
     }
 
 
-    private void doRayPickingForDetectionArea(float[] modelViewMatrix, float[] projMatrix) {
-        if (cursor.getCursorX() < 0 || cursor.getCursorY() < 0) {
+    private void doRayPickingForDetectionArea(PickRay pickRay) {
+        if (!pickRay.isValid()) {
             return;
         }
         //Check is cursor over detection area
-        isForceShow = RayPicking.rayPicking(viewWidth, viewHeight,
-                cursor.getCursorX(), cursor.getCursorY(), modelViewMatrix, projMatrix,
-                detectionAreaCoords, DETECTION_AREA_VERTEX_INDEXES) != null;
+        isForceShow = pickRay.intersect(detectionArea) != TriangleSet.NO_HIT;
         if (isForceShow && !Status.isShow(status)) {
             show();
         } else if (!Status.isShow(status)) {
@@ -336,34 +377,63 @@ public class VideoControllerRenderer {
             status.remove(Status.NEED_RECALCULATE_ROTATE);
         }
 
-        float[] projectionMatrix = eye.getPerspective(Z_NEAR, Z_FAR);
-        float[] modelMatrix = new float[16];
-        float[] modelViewMatrix = new float[16];
-        float[] modelViewProjectionMatrix = new float[16];
-        Matrix.setIdentityM(modelMatrix, 0);
-        Quaternion.rotateM(modelMatrix, 0, headTransformQuaternion);
-        Quaternion.rotateM(modelMatrix, 0, panelCorrectionQuaternion);
-
-        Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-        Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
-
-        if (eye.getType() <= 1) {
-            doRayPickingForDetectionArea(modelViewMatrix, projectionMatrix);
-            if (!Status.isShow(status)) {
-                return;
+        ScratchMath scratch = ScratchMath.getInstance();
+        scratch.begin();
+        try {
+            float[] projectionMatrix = scratch.matrix();
+            float[] modelMatrix = scratch.matrix();
+            float[] modelViewMatrix = scratch.matrix();
+            float[] modelViewProjectionMatrix = scratch.matrix();
+            eye.getPerspective(Z_NEAR, Z_FAR, projectionMatrix, 0);
+            Matrix.setIdentityM(modelMatrix, 0);
+            Quaternion.rotateM(modelMatrix, 0, headTransformQuaternion);
+            Quaternion.rotateM(modelMatrix, 0, panelCorrectionQuaternion);
+
+            Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
+            Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
+
+            if (eye.getType() <= 1) {
+                // One ray per frame for detection area and all widgets, they share model view
+                float[] pickModelViewMatrix = modelViewMatrix;
+                if (gazeQuaternion != null) {
+                    pickModelViewMatrix = scratch.matrix();
+                    Matrix.setIdentityM(modelMatrix, 0);
+                    Quaternion.rotateM(modelMatrix, 0, gazeQuaternion);
+                    Quaternion.rotateM(modelMatrix, 0, panelCorrectionQuaternion);
+                    Matrix.multiplyMM(pickModelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
+                }
+                PickRay pickRay = cursor.updatePickRay(pickModelViewMatrix, projectionMatrix);
+                doRayPickingForDetectionArea(pickRay);
+                if (!Status.isShow(status)) {
+                    return;
+                }
+                cursor.lookUpSelectedObject();
+                updatePausePlayBtn();
+                updateProgress();
+                fillBatch();
             }
-            cursor.lookUpSelectedObject(modelViewMatrix, projectionMatrix);
-            updatePausePlayBtn();
-            updateProgress();
-        }
 
-        panel.render(modelViewProjectionMatrix);
-        iconsList.render(modelViewProjectionMatrix);
-        seekBar.render(modelViewProjectionMatrix);
-        cursor.render(eye, viewMatrix);
+            // Batch is filled once per frame in model space, the other eye draws it with own MVP
+            quadBatch.draw(modelViewProjectionMatrix);
+            cursor.render(eye, viewMatrix);
+        } finally {
+            scratch.end();
+        }
     }
 
 
+    /**
+     * Put all widgets except cursor into batch.
+     * Order is the draw order: panel is under icons and seek bar.
+     */
+    private void fillBatch() {
+        quadBatch.begin();
+        panel.render(quadBatch);
+        iconsList.render(quadBatch);
+        seekBar.render(quadBatch);
+        quadBatch.end();
+    }
+
     private void calculateDefaultCorrection() {
         Quaternion.fromEulerAngles(panelDefaultQuaternion, (float) Math.toRadians(DEGREE_TO_SHOW_PANEL), 0.0f, 0.0f);
         panelCorrectionQuaternion = panelDefaultQuaternion.clone();
@@ -378,8 +448,10 @@ public class VideoControllerRenderer {
             seekBar.setProgress(0);
             return;
         }
-        long position = videoPlayer.getPlayer().getCurrentPosition();
-        long duration = videoPlayer.getPlayer().getDuration();
+        // Snapshot published by player, it is extrapolated to this frame
+        PlaybackState state = videoPlayer.getPlaybackState();
+        long position = state.getPosition(SystemClock.elapsedRealtime());
+        long duration = state.getDuration();
         if (duration <= 1) {
             seekBar.setProgress(0);
             return;
@@ -393,9 +465,9 @@ public class VideoControllerRenderer {
         } else {
             seekBar.setProgress(0);
         }
-        seekBar.setSecondaryProgress(videoPlayer.getPlayer().getBufferPercentage());
-        seekBar.setTimeStr(StringUtil.millisecondsToString((int) position),
-                StringUtil.millisecondsToString((int) duration));
+        seekBar.setSecondaryProgress(state.getBufferPercentage());
+        seekBar.setCachedRanges(state.getCachedRanges());
+        seekBar.setTime(position, duration);
     }
 
     public void onTouch() {
@@ -429,7 +501,7 @@ public class VideoControllerRenderer {
             return -1;
         }
         if (videoPlayer.getPlayer() != null) {
-            long duration = videoPlayer.getPlayer().getDuration();
+            long duration = videoPlayer.getPlaybackState().getDuration();
             if (duration <= 1) {
                 return -1;
             }
@@ -445,13 +517,15 @@ public class VideoControllerRenderer {
         if (videoPlayer == null || videoPlayer.getPlayer() == null) {
             return;
         }
-        if (videoPlayer.getPlayer().isPlaying()) {
-            videoPlayer.getPlayer().pause();
-        } else if (videoPlayer.getPlayer().isEnded()) {
-            videoPlayer.getPlayer().seekTo(0);
-            videoPlayer.getPlayer().start();
+        PlaybackState state = videoPlayer.getPlaybackState();
+        // Commands are executed on player thread, GL thread doesn't wait for them
+        if (state.isPlaying()) {
+            videoPlayer.postPause();
+        } else if (state.isEnded()) {
+            videoPlayer.postSeekTo(0);
+            videoPlayer.postStart();
         } else {
-            videoPlayer.getPlayer().start();
+            videoPlayer.postStart();
         }
     }
 
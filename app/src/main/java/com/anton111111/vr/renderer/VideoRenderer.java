@@ -6,25 +6,41 @@ import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
-import com.anton111111.gvrvideoplayer.R;
 import com.google.vr.sdk.base.Eye;
 import com.anton111111.vr.Quaternion;
+import com.anton111111.vr.ScratchMath;
 import com.anton111111.vr.VideoFormatsSettings;
 import com.anton111111.vr.GLHelper;
+import com.anton111111.vr.GLStateCache;
+import com.anton111111.vr.mesh.SphereMesh;
+import com.anton111111.vr.program.Program;
+import com.anton111111.vr.program.VideoProgramCache;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
-import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Created by Anton Potekhin (Anton.Potekhin@gmail.com) on 04.12.17.
  */
 public class VideoRenderer implements SurfaceTexture.OnFrameAvailableListener {
 
+    /**
+     * Cube geometry, texture coords are calculated in vr_video_fragment for every pixel
+     */
+    public static final int PROJECTION_MODE_SHADER = 1;
+    /**
+     * Sphere geometry with precomputed texture coords (see {@link SphereMesh})
+     */
+    public static final int PROJECTION_MODE_MESH = 2;
+
     private static final float Z_NEAR = 0.1f;
     private static final float Z_FAR = 100.0f;
+    private static final int FLOAT_SIZE = 4;
+    private static final int SHORT_SIZE = 2;
 
 
     private static final float[] VERTEX_COORDS = new float[]{
@@ -77,12 +93,20 @@ public class VideoRenderer implements SurfaceTexture.OnFrameAvailableListener {
     };
     private final Context context;
 
-    private FloatBuffer vertexBuffer;
-    private ShortBuffer vertexIndexesBuffer;
+    // Geometry is uploaded to VBO/IBO once, it is not copied to driver every draw
+    private int vertexBuffer;
+    private int vertexIndexesBuffer;
+    private HashMap<String, FloatBuffer> meshVertices = new HashMap<>();
+    private ShortBuffer meshVertexIndexes;
+    private int meshVertexBuffer;
+    private String meshVertexBufferFormat;
+    private int meshVertexIndexesBuffer;
+    private int meshVertexIndexesCount;
+    private int projectionMode = PROJECTION_MODE_MESH;
     private int[] textures;
     private SurfaceTexture videoTextureSurface;
-    private int program;
-    private GLHelper.ShaderAttributesLocations programmAttrLoc;
+    private VideoProgramCache programCache = new VideoProgramCache();
+    private Program program;
     private String videoFormat = VideoFormatsSettings.VIDEO_FORMAT_3D_180_SIDE_BY_SIDE;
     private boolean isVideoFrameAvailable = true;
 
@@ -99,6 +123,27 @@ public class VideoRenderer implements SurfaceTexture.OnFrameAvailableListener {
         return videoTextureSurface;
     }
 
+    public int getProjectionMode() {
+        return projectionMode;
+    }
+
+    /**
+     * Set projection mode
+     *
+     * @param projectionMode PROJECTION_MODE_SHADER or PROJECTION_MODE_MESH
+     */
+    public void setProjectionMode(int projectionMode) {
+        if (this.projectionMode == projectionMode) {
+            return;
+        }
+        this.projectionMode = projectionMode;
+        isVideoFormatChanged = true;
+    }
+
+    public boolean isMeshProjection() {
+        return projectionMode == PROJECTION_MODE_MESH;
+    }
+
 
     public VideoRenderer(Context context, String videoFormat) {
         this.videoFormat = videoFormat;
@@ -107,19 +152,23 @@ public class VideoRenderer implements SurfaceTexture.OnFrameAvailableListener {
     }
 
     private void init(Context context) {
-        ByteBuffer bbcv = ByteBuffer.allocateDirect(VERTEX_COORDS.length * 4);
-        ByteBuffer order = bbcv.order(ByteOrder.nativeOrder());
-        vertexBuffer = bbcv.asFloatBuffer();
-        vertexBuffer.put(VERTEX_COORDS);
-        vertexBuffer.position(0);
-
-        ByteBuffer bbSVIB = ByteBuffer.allocateDirect(VERTEX_INDEXES.length * 2);
+        ByteBuffer bbcv = ByteBuffer.allocateDirect(VERTEX_COORDS.length * FLOAT_SIZE);
+        bbcv.order(ByteOrder.nativeOrder());
+        FloatBuffer vertices = bbcv.asFloatBuffer();
+        vertices.put(VERTEX_COORDS);
+        vertices.position(0);
+        vertexBuffer = createBuffer(GLES20.GL_ARRAY_BUFFER, VERTEX_COORDS.length * FLOAT_SIZE, vertices);
+
+        ByteBuffer bbSVIB = ByteBuffer.allocateDirect(VERTEX_INDEXES.length * SHORT_SIZE);
         bbSVIB.order(ByteOrder.nativeOrder());
-        vertexIndexesBuffer = bbSVIB.asShortBuffer();
-        vertexIndexesBuffer.put(VERTEX_INDEXES);
-        vertexIndexesBuffer.position(0);
+        ShortBuffer indexes = bbSVIB.asShortBuffer();
+        indexes.put(VERTEX_INDEXES);
+        indexes.position(0);
+        vertexIndexesBuffer = createBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, VERTEX_INDEXES.length * SHORT_SIZE,
+                indexes);
 
-        createProgram(context);
+        programCache.precompile(context, isMeshProjection());
+        selectProgram(context);
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         textures = new int[1];
@@ -134,26 +183,84 @@ public class VideoRenderer implements SurfaceTexture.OnFrameAvailableListener {
         videoTextureSurface.setOnFrameAvailableListener(this);
     }
 
-    private void createProgram(Context context) {
+    /**
+     * Prepare sphere for current video format. Sphere is built once per format
+     * and covers only the horizontal FOV of format. VBO holds sphere of current format only,
+     * it is uploaded again when format is changed.
+     */
+    private void prepareMesh() {
+        if (meshVertexBuffer != 0 && videoFormat.equals(meshVertexBufferFormat)) {
+            return;
+        }
 
-        program = GLHelper.createProgram(context, R.raw.vr_video_vertex,
-                VideoFormatsSettings.getFragmentId(videoFormat));
+        FloatBuffer vertices = meshVertices.get(videoFormat);
+        if (vertices == null) {
+            SphereMesh mesh = SphereMesh.create(VideoFormatsSettings.getFov(videoFormat),
+                    VideoFormatsSettings.getStereoType(videoFormat));
+
+            float[] meshVertexCoords = mesh.getVertices();
+            ByteBuffer bbcv = ByteBuffer.allocateDirect(meshVertexCoords.length * FLOAT_SIZE);
+            bbcv.order(ByteOrder.nativeOrder());
+            vertices = bbcv.asFloatBuffer();
+            vertices.put(meshVertexCoords);
+            vertices.position(0);
+            meshVertices.put(videoFormat, vertices);
+
+            // Indexes depend only on tessellation so they are shared by all formats
+            if (meshVertexIndexes == null) {
+                short[] indexes = mesh.getVertexIndexes();
+                ByteBuffer bbSVIB = ByteBuffer.allocateDirect(indexes.length * SHORT_SIZE);
+                bbSVIB.order(ByteOrder.nativeOrder());
+                meshVertexIndexes = bbSVIB.asShortBuffer();
+                meshVertexIndexes.put(indexes);
+                meshVertexIndexes.position(0);
+                meshVertexIndexesCount = indexes.length;
+            }
+        }
+
+        deleteBuffer(meshVertexBuffer);
+        meshVertexBuffer = createBuffer(GLES20.GL_ARRAY_BUFFER, vertices.capacity() * FLOAT_SIZE, vertices);
+        meshVertexBufferFormat = videoFormat;
+        if (meshVertexIndexesBuffer == 0) {
+            meshVertexIndexesBuffer = createBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER,
+                    meshVertexIndexesCount * SHORT_SIZE, meshVertexIndexes);
+        }
+    }
 
-        programmAttrLoc = GLHelper.getShaderAttributeLocations(program,
-                new ArrayList<String>() {{
-                    add("a_Position"); //vertexBuffer coords
-                }},
-                new ArrayList<String>() {{
-                    add("u_MVP");
-                    add("u_TTM");
-                    add("u_Texture");
-                    add("u_TextureCordOffset");
-                    add("u_Fov");
-                    add("u_StereoType");
-                }}
-        );
+    /**
+     * Create static buffer with data, it stays bound
+     *
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+     * @param size   in bytes
+     * @param data
+     * @return
+     */
+    private static int createBuffer(int target, int size, Buffer data) {
+        int[] buffers = new int[1];
+        GLES20.glGenBuffers(1, buffers, 0);
+        GLStateCache.getInstance().bindBuffer(target, buffers[0]);
+        GLES20.glBufferData(target, size, data, GLES20.GL_STATIC_DRAW);
+        GLHelper.checkGLError("VideoRenderer createBuffer");
+        return buffers[0];
+    }
+
+    private static void deleteBuffer(int buffer) {
+        if (buffer == 0) {
+            return;
+        }
+        GLES20.glDeleteBuffers(1, new int[]{buffer}, 0);
+        GLStateCache.getInstance().onBufferDeleted(buffer);
+    }
 
-        GLHelper.checkGLError("VideoRenderer create program");
+    /**
+     * Select program (and mesh) for current video format and projection mode.
+     * Programs are taken from cache so it doesn't compile shaders after init.
+     */
+    private void selectProgram(Context context) {
+        if (isMeshProjection()) {
+            prepareMesh();
+        }
+        program = programCache.get(context, videoFormat, isMeshProjection());
     }
 
 
@@ -161,13 +268,15 @@ public class VideoRenderer implements SurfaceTexture.OnFrameAvailableListener {
         this.headTransformQuaternion = headTransformQuaternion;
 
         if (isVideoFormatChanged) {
-            createProgram(context);
+            selectProgram(context);
             isVideoFormatChanged = false;
         }
 
         synchronized (this) {
             if (isVideoFrameAvailable) {
                 videoTextureSurface.updateTexImage();
+                // updateTexImage binds video texture to active unit
+                GLStateCache.getInstance().invalidateTextures();
                 videoTextureSurface.getTransformMatrix(textureTransformMatrix);
                 isVideoFrameAvailable = false;
             }
@@ -175,55 +284,94 @@ public class VideoRenderer implements SurfaceTexture.OnFrameAvailableListener {
     }
 
     public void render(Eye eye) {
+        ScratchMath scratch = ScratchMath.getInstance();
+        scratch.begin();
+        try {
+            float[] projectionMatrix = scratch.matrix();
+            float[] modelMatrix = scratch.matrix();
+            float[] modelViewMatrix = scratch.matrix();
+            float[] modelViewProjection = scratch.matrix();
+            eye.getPerspective(Z_NEAR, Z_FAR, projectionMatrix, 0);
+            Matrix.setIdentityM(modelMatrix, 0);
+            Quaternion.rotateM(modelMatrix, 0, headTransformQuaternion);
+            Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
+            Matrix.multiplyMM(modelViewProjection, 0, projectionMatrix, 0, modelViewMatrix, 0);
+
+            if (isMeshProjection()) {
+                renderMesh(eye, modelViewProjection);
+            } else {
+                renderCube(eye, modelViewProjection);
+            }
+        } finally {
+            scratch.end();
+        }
+    }
+
+    private void renderCube(Eye eye, float[] modelViewProjection) {
 
-        float[] projectionMatrix = eye.getPerspective(Z_NEAR, Z_FAR);
-        float[] modelMatrix = new float[16];
-        float[] modelViewMatrix = new float[16];
-        float[] modelViewProjection = new float[16];
-        Matrix.setIdentityM(modelMatrix, 0);
-        Quaternion.rotateM(modelMatrix, 0, headTransformQuaternion);
-        Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-        Matrix.multiplyMM(modelViewProjection, 0, projectionMatrix, 0, modelViewMatrix, 0);
-
-        GLES20.glUseProgram(program);
-        GLES20.glEnableVertexAttribArray(programmAttrLoc.getAttr("a_Position"));
-        GLES20.glVertexAttribPointer(programmAttrLoc.getAttr("a_Position"),
-                3, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-        GLES20.glUniformMatrix4fv(programmAttrLoc.getUniform("u_MVP"),
+        GLStateCache stateCache = GLStateCache.getInstance();
+        stateCache.useProgram(program.getProgramId());
+        stateCache.setEnabledVertexAttribArrays(program.getShaderAttributeLocations().getAttrsMask());
+        stateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer);
+        stateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, vertexIndexesBuffer);
+        GLES20.glVertexAttribPointer(program.getAttr(VideoProgramCache.ATTR_POSITION_INDEX),
+                3, GLES20.GL_FLOAT, false, 0, 0);
+        GLES20.glUniformMatrix4fv(program.getUniform(VideoProgramCache.UNIFORM_MVP_INDEX),
                 1, false, modelViewProjection, 0);
 
-        GLES20.glUniformMatrix4fv(programmAttrLoc.getUniform("u_TTM"),
+        GLES20.glUniformMatrix4fv(program.getUniform(VideoProgramCache.UNIFORM_TTM_INDEX),
                 1, false, textureTransformMatrix, 0);
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textures[0]);
+        stateCache.bindTexture(0, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textures[0]);
 
-        GLES20.glUniform1i(programmAttrLoc.getUniform("u_Texture"), 0);
+        GLES20.glUniform1i(program.getUniform(VideoProgramCache.UNIFORM_TEXTURE_INDEX), 0);
 
-        if (programmAttrLoc.getUniform("u_TextureCordOffset") >= 0) {
-            GLES20.glUniform1f(programmAttrLoc.getUniform("u_TextureCordOffset"),
+        if (program.getUniform(VideoProgramCache.UNIFORM_TEXTURE_CORD_OFFSET_INDEX) >= 0) {
+            GLES20.glUniform1f(program.getUniform(VideoProgramCache.UNIFORM_TEXTURE_CORD_OFFSET_INDEX),
                     (eye.getType() <= 1) ? 0.0f : 0.5f);
         }
 
-        if (programmAttrLoc.getUniform("u_Fov") >= 0) {
-            GLES20.glUniform1f(programmAttrLoc.getUniform("u_Fov"),
-                    VideoFormatsSettings.getFov(videoFormat));
-        }
-
-        if (programmAttrLoc.getUniform("u_StereoType") >= 0) {
-            GLES20.glUniform1i(programmAttrLoc.getUniform("u_StereoType"),
-                    VideoFormatsSettings.getStereoType(videoFormat));
-        }
-
         GLES20.glDrawElements(GLES20.GL_TRIANGLES,
                 VERTEX_INDEXES.length,
                 GLES20.GL_UNSIGNED_SHORT,
-                vertexIndexesBuffer);
+                0);
+
+        GLHelper.checkDrawGLError("VideoRenderer render");
+
+    }
 
-        GLES20.glDisableVertexAttribArray(programmAttrLoc.getAttr("a_Position"));
+    private void renderMesh(Eye eye, float[] modelViewProjection) {
+        int positionAttr = program.getAttr(VideoProgramCache.ATTR_POSITION_INDEX);
+        int textureCoordsAttr = program.getAttr(VideoProgramCache.ATTR_TEXTURE_COORDS_INDEX);
+
+        GLStateCache stateCache = GLStateCache.getInstance();
+        stateCache.useProgram(program.getProgramId());
+        stateCache.setEnabledVertexAttribArrays(program.getShaderAttributeLocations().getAttrsMask());
+        stateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, meshVertexBuffer);
+        stateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, meshVertexIndexesBuffer);
+
+        GLES20.glVertexAttribPointer(positionAttr, SphereMesh.COORDS_PER_VERTEX,
+                GLES20.GL_FLOAT, false, SphereMesh.VERTEX_STRIDE, SphereMesh.POSITION_OFFSET * FLOAT_SIZE);
+        GLES20.glVertexAttribPointer(textureCoordsAttr, SphereMesh.TEXTURE_COORDS_PER_VERTEX,
+                GLES20.GL_FLOAT, false, SphereMesh.VERTEX_STRIDE,
+                ((eye.getType() <= 1) ?
+                        SphereMesh.LEFT_EYE_TEXTURE_COORDS_OFFSET :
+                        SphereMesh.RIGHT_EYE_TEXTURE_COORDS_OFFSET) * FLOAT_SIZE);
+
+        GLES20.glUniformMatrix4fv(program.getUniform(VideoProgramCache.UNIFORM_MVP_INDEX),
+                1, false, modelViewProjection, 0);
+        GLES20.glUniformMatrix4fv(program.getUniform(VideoProgramCache.UNIFORM_TTM_INDEX),
+                1, false, textureTransformMatrix, 0);
+
+        stateCache.bindTexture(0, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textures[0]);
+        GLES20.glUniform1i(program.getUniform(VideoProgramCache.UNIFORM_TEXTURE_INDEX), 0);
 
-        GLHelper.checkGLError("VideoRenderer render");
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES,
+                meshVertexIndexesCount,
+                GLES20.GL_UNSIGNED_SHORT,
+                0);
 
+        GLHelper.checkDrawGLError("VideoRenderer renderMesh");
     }
 
     public void changeVideoFormat(String videoFormat) {
@@ -232,6 +380,17 @@ public class VideoRenderer implements SurfaceTexture.OnFrameAvailableListener {
     }
 
     public void onRendererShutdown() {
+        programCache.release();
+        program = null;
+        deleteBuffer(vertexBuffer);
+        deleteBuffer(vertexIndexesBuffer);
+        deleteBuffer(meshVertexBuffer);
+        deleteBuffer(meshVertexIndexesBuffer);
+        vertexBuffer = 0;
+        vertexIndexesBuffer = 0;
+        meshVertexBuffer = 0;
+        meshVertexBufferFormat = null;
+        meshVertexIndexesBuffer = 0;
         if (textures != null) {
             GLES20.glDeleteTextures(1, textures, 0);
             textures = null;
@@ -0,0 +1,133 @@
+package com.anton111111.vr.text;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import com.anton111111.vr.GLHelper;
+import com.anton111111.vr.GLStateCache;
+
+import java.util.HashMap;
+
+/**
+ * Rasterizer of glyphs with {@link Paint} into ARGB bitmap.
+ * <p>
+ * Glyphs are white with glow, text color is applied as vertex color, so one atlas is shared
+ * by all texts with the same font size and glow.
+ */
+public class BitmapGlyphRasterizer implements GlyphAtlas.Rasterizer {
+
+    private static final float GLOW_WIDTH = 4.0f;
+    // Glow stroke is drawn around outline, cells don't overlap with it
+    private static final int CELL_PADDING = (int) Math.ceil(GLOW_WIDTH) + 1;
+
+    private static HashMap<String, GlyphAtlas> atlases = new HashMap<>();
+
+    private final Paint paint = new Paint();
+    private final Paint.FontMetrics fontMetrics;
+    private final int glowColor;
+    private Bitmap bitmap;
+    private Canvas canvas;
+    private final char[] chars = new char[1];
+
+    /**
+     * Get shared atlas for font, its size fits all printable ASCII glyphs of font
+     *
+     * @param fontPixelSize
+     * @param glowColor
+     * @return
+     */
+    public static GlyphAtlas getAtlas(float fontPixelSize, int glowColor) {
+        String key = fontPixelSize + ":" + glowColor;
+        GlyphAtlas atlas = atlases.get(key);
+        if (atlas == null) {
+            BitmapGlyphRasterizer rasterizer = new BitmapGlyphRasterizer(fontPixelSize, glowColor);
+            int size = GlyphAtlas.findSize(rasterizer, GLHelper.getMaxTextureSize());
+            if (size < 0) {
+                throw new IllegalStateException("Glyphs of font " + fontPixelSize + " don't fit into texture.");
+            }
+            rasterizer.createBitmap(size);
+            atlas = new GlyphAtlas(rasterizer, size);
+            atlases.put(key, atlas);
+        }
+        return atlas;
+    }
+
+    /**
+     * Forget atlases. Use it when GL context is lost, textures are gone with context.
+     */
+    public static void clean() {
+        atlases = new HashMap<>();
+    }
+
+    /**
+     * Call {@link #createBitmap} before glyphs are drawn
+     *
+     * @param fontPixelSize
+     * @param glowColor
+     */
+    public BitmapGlyphRasterizer(float fontPixelSize, int glowColor) {
+        this.glowColor = glowColor;
+        paint.setAntiAlias(true);
+        paint.setTextSize(fontPixelSize);
+        paint.setTextAlign(Paint.Align.LEFT);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeWidth(GLOW_WIDTH);
+        fontMetrics = paint.getFontMetrics();
+    }
+
+    /**
+     * Create atlas image
+     *
+     * @param size size of square image in pixels
+     */
+    public void createBitmap(int size) {
+        bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0);
+        canvas = new Canvas(bitmap);
+    }
+
+    @Override
+    public float getAdvance(char c) {
+        chars[0] = c;
+        return paint.measureText(chars, 0, 1);
+    }
+
+    @Override
+    public int getCellHeight() {
+        return (int) Math.ceil(fontMetrics.descent - fontMetrics.ascent) + CELL_PADDING * 2;
+    }
+
+    @Override
+    public int getCellPadding() {
+        return CELL_PADDING;
+    }
+
+    @Override
+    public void draw(char c, int x, int y) {
+        chars[0] = c;
+        float baseline = y + CELL_PADDING - fontMetrics.ascent;
+        //Glow
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setColor(glowColor);
+        canvas.drawText(chars, 0, 1, x + CELL_PADDING, baseline, paint);
+        //Glyph
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(Color.WHITE);
+        canvas.drawText(chars, 0, 1, x + CELL_PADDING, baseline, paint);
+    }
+
+    @Override
+    public int upload(int texture) {
+        if (texture == 0) {
+            return GLHelper.loadTexture(bitmap);
+        }
+        GLStateCache.getInstance().bindTexture(0, GLES20.GL_TEXTURE_2D, texture);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+        GLHelper.checkGLError("BitmapGlyphRasterizer upload");
+        return texture;
+    }
+}
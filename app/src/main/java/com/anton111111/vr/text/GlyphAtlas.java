@@ -0,0 +1,255 @@
+package com.anton111111.vr.text;
+
+import com.anton111111.vr.texture.AtlasPacker;
+
+import java.util.HashMap;
+
+/**
+ * Glyphs of one font packed into one texture.
+ * <p>
+ * Every glyph is rasterized once into cell of the same height (line height and padding for glow)
+ * and is drawn as a textured quad, so changing of text only changes quads.
+ * Printable ASCII is rasterized when atlas is created, other chars on first use.
+ * Texture is uploaded by {@link #getTexture} if new glyphs are added.
+ * <p>
+ * Atlas is used on GL thread only.
+ */
+public class GlyphAtlas {
+
+    public static final char FIRST_PRINTABLE = ' ';
+    public static final char LAST_PRINTABLE = '~';
+    public static final char REPLACEMENT = '?';
+    public static final int PRINTABLE_COUNT = LAST_PRINTABLE - FIRST_PRINTABLE + 1;
+
+    private static final int PADDING = 1;
+
+    private final Rasterizer rasterizer;
+    private final AtlasPacker packer;
+    private final int size;
+    private final Glyph[] printableGlyphs = new Glyph[LAST_PRINTABLE + 1];
+    private final HashMap<Character, Glyph> glyphs = new HashMap<>();
+    private boolean isDirty = false;
+    private int texture = 0;
+    private int uploadsCount = 0;
+
+    /**
+     * @param rasterizer
+     * @param size       size of square texture in pixels
+     */
+    public GlyphAtlas(Rasterizer rasterizer, int size) {
+        this.rasterizer = rasterizer;
+        this.size = size;
+        this.packer = new AtlasPacker(size, size, PADDING);
+        for (char c = FIRST_PRINTABLE; c <= LAST_PRINTABLE; c++) {
+            getGlyph(c);
+        }
+    }
+
+    /**
+     * Find the smallest texture size that fits cells of all printable ASCII glyphs
+     *
+     * @param rasterizer
+     * @param maxSize    max texture size
+     * @return size or -1 if cells don't fit into max size
+     */
+    public static int findSize(Rasterizer rasterizer, int maxSize) {
+        int[] widths = new int[PRINTABLE_COUNT];
+        int[] heights = new int[PRINTABLE_COUNT];
+        for (int i = 0; i < PRINTABLE_COUNT; i++) {
+            widths[i] = getCellWidth(rasterizer, rasterizer.getAdvance((char) (FIRST_PRINTABLE + i)));
+            heights[i] = rasterizer.getCellHeight();
+        }
+        return AtlasPacker.findSize(widths, heights, PADDING, maxSize);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Height of glyph cell in pixels
+     *
+     * @return
+     */
+    public int getCellHeight() {
+        return rasterizer.getCellHeight();
+    }
+
+    /**
+     * Padding of glyph cell in pixels
+     *
+     * @return
+     */
+    public int getCellPadding() {
+        return rasterizer.getCellPadding();
+    }
+
+    /**
+     * Count of texture uploads since atlas is created
+     *
+     * @return
+     */
+    public int getUploadsCount() {
+        return uploadsCount;
+    }
+
+    public boolean isDirty() {
+        return isDirty;
+    }
+
+    /**
+     * Get texture, new glyphs are uploaded before
+     *
+     * @return
+     */
+    public int getTexture() {
+        if (isDirty) {
+            texture = rasterizer.upload(texture);
+            uploadsCount++;
+            isDirty = false;
+        }
+        return texture;
+    }
+
+    /**
+     * Get glyph, it is rasterized if it is needed.
+     * {@link #REPLACEMENT} glyph is returned if there is no space for new glyph.
+     *
+     * @param c
+     * @return
+     */
+    public Glyph getGlyph(char c) {
+        Glyph glyph = c < printableGlyphs.length ? printableGlyphs[c] : glyphs.get(c);
+        if (glyph != null) {
+            return glyph;
+        }
+        glyph = rasterize(c);
+        if (glyph == null) {
+            if (c == REPLACEMENT) {
+                throw new IllegalStateException("Glyph atlas " + size + "x" + size + " is too small for font.");
+            }
+            return getGlyph(REPLACEMENT);
+        }
+        if (c < printableGlyphs.length) {
+            printableGlyphs[c] = glyph;
+        } else {
+            glyphs.put(c, glyph);
+        }
+        return glyph;
+    }
+
+    /**
+     * Width of text in pixels, cells of the first and the last glyph are counted with padding.
+     *
+     * @param text
+     * @return
+     */
+    public float measure(CharSequence text) {
+        if (text.length() == 0) {
+            return 0.0f;
+        }
+        float width = rasterizer.getCellPadding() * 2.0f;
+        for (int i = 0; i < text.length(); i++) {
+            width += getGlyph(text.charAt(i)).getAdvance();
+        }
+        return width;
+    }
+
+    private Glyph rasterize(char c) {
+        float advance = rasterizer.getAdvance(c);
+        int cellWidth = getCellWidth(rasterizer, advance);
+        int cellHeight = rasterizer.getCellHeight();
+        int[] position = packer.pack(cellWidth, cellHeight);
+        if (position == null) {
+            return null;
+        }
+        rasterizer.draw(c, position[0], position[1]);
+        isDirty = true;
+        return new Glyph(advance, cellWidth, new float[]{
+                (float) position[0] / size,
+                (float) position[1] / size,
+                (float) (position[0] + cellWidth) / size,
+                (float) (position[1] + cellHeight) / size
+        });
+    }
+
+    private static int getCellWidth(Rasterizer rasterizer, float advance) {
+        return (int) Math.ceil(advance) + rasterizer.getCellPadding() * 2;
+    }
+
+
+    public static class Glyph {
+        private final float advance;
+        private final int cellWidth;
+        private final float[] textureRect;
+
+        public Glyph(float advance, int cellWidth, float[] textureRect) {
+            this.advance = advance;
+            this.cellWidth = cellWidth;
+            this.textureRect = textureRect;
+        }
+
+        /**
+         * Distance to the next glyph in pixels
+         *
+         * @return
+         */
+        public float getAdvance() {
+            return advance;
+        }
+
+        /**
+         * Width of cell in pixels with padding on both sides
+         *
+         * @return
+         */
+        public int getCellWidth() {
+            return cellWidth;
+        }
+
+        /**
+         * @return {left, top, right, bottom} in texture coords
+         */
+        public float[] getTextureRect() {
+            return textureRect;
+        }
+    }
+
+    /**
+     * Draws glyphs into atlas image and uploads it
+     */
+    public interface Rasterizer {
+        /**
+         * @param c
+         * @return advance of glyph in pixels
+         */
+        float getAdvance(char c);
+
+        /**
+         * @return height of glyph cell in pixels with padding
+         */
+        int getCellHeight();
+
+        /**
+         * @return padding around glyph in pixels, space for glow
+         */
+        int getCellPadding();
+
+        /**
+         * Draw glyph cell
+         *
+         * @param c
+         * @param x left of cell in pixels
+         * @param y top of cell in pixels
+         */
+        void draw(char c, int x, int y);
+
+        /**
+         * Upload atlas image
+         *
+         * @param texture texture to update or 0 to create new one
+         * @return texture
+         */
+        int upload(int texture);
+    }
+}
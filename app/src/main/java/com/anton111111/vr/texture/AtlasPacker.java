@@ -0,0 +1,135 @@
+package com.anton111111.vr.texture;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Shelf packer of rects into texture atlas.
+ * <p>
+ * Rects are placed left to right on horizontal shelves. Shelf height is the height of the
+ * highest rect on it, new shelf is opened above when rect doesn't fit into width.
+ * Packing rects sorted by height (see {@link #packAll}) keeps shelves dense.
+ * Every rect has at least padding pixels around it, so linear filtering doesn't bleed
+ * neighbours into it.
+ */
+public class AtlasPacker {
+
+    public static final int MIN_SIZE = 64;
+
+    private final int width;
+    private final int height;
+    private final int padding;
+    private int shelfX;
+    private int shelfY;
+    private int shelfHeight;
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public AtlasPacker(int width, int height, int padding) {
+        if (width <= 0 || height <= 0 || padding < 0) {
+            throw new IllegalArgumentException("Wrong atlas size " + width + "x" + height +
+                    " or padding " + padding);
+        }
+        this.width = width;
+        this.height = height;
+        this.padding = padding;
+        reset();
+    }
+
+    /**
+     * Forget all packed rects
+     */
+    public void reset() {
+        shelfX = padding;
+        shelfY = padding;
+        shelfHeight = 0;
+    }
+
+    /**
+     * Place rect
+     *
+     * @param w
+     * @param h
+     * @return {x, y} of left top corner or null if rect doesn't fit
+     */
+    public int[] pack(int w, int h) {
+        if (w <= 0 || h <= 0) {
+            throw new IllegalArgumentException("Wrong rect size " + w + "x" + h);
+        }
+        int x = shelfX;
+        int y = shelfY;
+        int rowHeight = shelfHeight;
+        if (x + w + padding > width) {
+            // Open new shelf
+            y += rowHeight + padding;
+            x = padding;
+            rowHeight = 0;
+        }
+        if (x + w + padding > width || y + h + padding > height) {
+            // State is not changed, smaller rect may fit
+            return null;
+        }
+        shelfX = x + w + padding;
+        shelfY = y;
+        shelfHeight = Math.max(rowHeight, h);
+        return new int[]{x, y};
+    }
+
+    /**
+     * Pack rects from the highest to the lowest
+     *
+     * @param widths
+     * @param heights
+     * @param size    size of square atlas
+     * @param padding
+     * @return {x, y} of every rect in order of widths or null if rects don't fit
+     */
+    public static int[][] packAll(int[] widths, final int[] heights, int size, int padding) {
+        if (widths.length != heights.length) {
+            throw new IllegalArgumentException("Count of widths and heights must be the same");
+        }
+        Integer[] order = new Integer[widths.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return heights[b] - heights[a];
+            }
+        });
+        AtlasPacker packer = new AtlasPacker(size, size, padding);
+        int[][] positions = new int[widths.length][];
+        for (int i : order) {
+            positions[i] = packer.pack(widths[i], heights[i]);
+            if (positions[i] == null) {
+                return null;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Find the smallest power of two square atlas that fits all rects
+     *
+     * @param widths
+     * @param heights
+     * @param padding
+     * @param maxSize max texture size
+     * @return size or -1 if rects don't fit into max size
+     */
+    public static int findSize(int[] widths, int[] heights, int padding, int maxSize) {
+        for (int size = MIN_SIZE; size <= maxSize; size *= 2) {
+            if (packAll(widths, heights, size, padding) != null) {
+                return size;
+            }
+        }
+        return -1;
+    }
+}
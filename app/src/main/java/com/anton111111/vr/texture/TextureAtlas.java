@@ -0,0 +1,145 @@
+package com.anton111111.vr.texture;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.opengl.GLES20;
+
+import com.anton111111.vr.GLHelper;
+import com.anton111111.vr.GLStateCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Images packed into one texture.
+ * <p>
+ * Images are collected with {@link #add}, {@link #build} packs them with {@link AtlasPacker}
+ * and uploads one texture. Quads of atlas images are drawn with the same texture and differ
+ * only by texture rect, so switching image doesn't bind other texture.
+ * <p>
+ * Must be built on GL thread.
+ */
+public class TextureAtlas {
+
+    private static final int PADDING = 2;
+
+    private List<Bitmap> bitmaps = new ArrayList<>();
+    private float[][] textureRects = new float[0][];
+    private int texture = 0;
+    private int size = 0;
+
+    public boolean isBuilt() {
+        return texture != 0;
+    }
+
+    public int getTexture() {
+        return texture;
+    }
+
+    /**
+     * Size of atlas texture in pixels
+     *
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getCount() {
+        return isBuilt() ? textureRects.length : bitmaps.size();
+    }
+
+    /**
+     * Add drawable resource
+     *
+     * @param context
+     * @param resourceId
+     * @return index of image in atlas
+     */
+    public int add(Context context, int resourceId) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;   // No pre-scaling
+        return add(BitmapFactory.decodeResource(context.getResources(), resourceId, options));
+    }
+
+    /**
+     * Add bitmap. Bitmap is recycled by {@link #build}.
+     *
+     * @param bitmap
+     * @return index of image in atlas
+     */
+    public int add(Bitmap bitmap) {
+        if (isBuilt()) {
+            throw new IllegalStateException("Atlas is already built.");
+        }
+        bitmaps.add(bitmap);
+        return bitmaps.size() - 1;
+    }
+
+    /**
+     * Get texture rect of image
+     *
+     * @param index index of image returned by {@link #add}
+     * @return {left, top, right, bottom} in texture coords
+     */
+    public float[] getTextureRect(int index) {
+        if (!isBuilt()) {
+            throw new IllegalStateException("Atlas is not built.");
+        }
+        return textureRects[index];
+    }
+
+    /**
+     * Pack images into texture and upload it
+     */
+    public void build() {
+        if (isBuilt()) {
+            return;
+        }
+        int count = bitmaps.size();
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            widths[i] = bitmaps.get(i).getWidth();
+            heights[i] = bitmaps.get(i).getHeight();
+        }
+        size = AtlasPacker.findSize(widths, heights, PADDING, GLHelper.getMaxTextureSize());
+        if (size < 0) {
+            throw new RuntimeException("Images don't fit into texture atlas.");
+        }
+        int[][] positions = AtlasPacker.packAll(widths, heights, size, PADDING);
+
+        Bitmap atlas = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        atlas.eraseColor(0);
+        Canvas canvas = new Canvas(atlas);
+        textureRects = new float[count][];
+        for (int i = 0; i < count; i++) {
+            int x = positions[i][0];
+            int y = positions[i][1];
+            canvas.drawBitmap(bitmaps.get(i), x, y, null);
+            textureRects[i] = new float[]{
+                    (float) x / size,
+                    (float) y / size,
+                    (float) (x + widths[i]) / size,
+                    (float) (y + heights[i]) / size
+            };
+            bitmaps.get(i).recycle();
+        }
+        bitmaps.clear();
+        texture = GLHelper.loadTexture(atlas);
+        atlas.recycle();
+    }
+
+    /**
+     * Delete texture
+     */
+    public void release() {
+        if (texture != 0) {
+            GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+            GLStateCache.getInstance().onTextureDeleted(texture);
+            texture = 0;
+        }
+    }
+}
@@ -8,18 +8,18 @@ import android.opengl.Matrix;
 
 import com.google.vr.sdk.base.Eye;
 import com.anton111111.vr.GLHelper;
+import com.anton111111.vr.GLStateCache;
+import com.anton111111.vr.ScratchMath;
+import com.anton111111.vr.buffer.GLBufferArena;
 import com.anton111111.vr.program.Program;
 import com.anton111111.vr.program.ProgramHelper;
+import com.anton111111.vr.raypicking.PickRay;
+import com.anton111111.vr.raypicking.PickTargets;
 import com.anton111111.vr.raypicking.RayPicking;
+import com.anton111111.vr.renderer.QuadBatch;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
-import java.util.List;
 
 
 public class Cursor {
@@ -49,9 +49,10 @@ public class Cursor {
 
     private static final float CURSOR_Z = -3.0f;
 
-    private static final short[] CURSOR_VERTICES_INDEXES = new short[]{
-            0, 1, 2, 0, 2, 3
-    };
+    /**
+     * Angle outside of selected object where it is still selected
+     */
+    public static final float DEFAULT_SELECTION_HYSTERESIS_DEGREES = 0.5f;
 
 
     private static final float CURSOR_COLOR[] = {
@@ -84,21 +85,24 @@ public class Cursor {
     }
 
     private EnumSet<Status> status = Status.none();
-    private final FloatBuffer cursorVerticesBuffer;
-    private final ShortBuffer verticesIndexesBuffer;
+    private final GLBufferArena.Region cursorVerticesRegion;
     private final float[] coords;
     private final float[] cursorCenterCoords;
     private final float[] progressCoords;
-    private final FloatBuffer progressVerticesBuffer;
+    private final GLBufferArena.Region progressVerticesRegion;
     private float cursorX = -1;
     private float cursorY = -1;
     private int viewWidth = -1;
     private int viewHeight = -1;
+    private final int[] viewport = new int[4];
     private float cursorSize = CURSOR_SIZE;
-    private List<SelectableObject> selectableObjects = new ArrayList<>();
+    private final PickTargets<SelectableObject> selectableObjects = new PickTargets<>();
+    private final PickRay pickRay = new PickRay();
+    private final float[] hitPoint = new float[3];
     private SelectableObjectWrapper selectableObjectWrapper;
     private float progressPercents = 0;
     private Text cursorText;
+    private final QuadBatch textBatch;
     private long animationTimer = System.currentTimeMillis();
 
 
@@ -121,9 +125,49 @@ public class Cursor {
         this.selectableObjectWrapper = selectableObjectWrapper;
     }
 
+    /**
+     * Set plane z = const of panel widgets in model space, selectable objects that are
+     * axis aligned rectangles on it are picked in 2D. Set it before objects are added.
+     *
+     * @param z
+     */
+    public void setPickPlaneZ(float z) {
+        selectableObjects.setPlaneZ(z);
+    }
+
+    /**
+     * Set angle outside of selected object where it is still selected, so selection doesn't
+     * flicker on object edges
+     *
+     * @param degrees
+     */
+    public void setSelectionHysteresis(float degrees) {
+        selectableObjects.setHysteresis((float) Math.toRadians(degrees));
+    }
+
+    /**
+     * @return count of objects not tested in the last lookup because selected object is hit
+     */
+    public int getLastSkippedHitTestsCount() {
+        return selectableObjects.getLastSkippedHitTestsCount();
+    }
+
+    /**
+     * @return count of skipped tests since cursor is created
+     */
+    public long getSkippedHitTestsCount() {
+        return selectableObjects.getSkippedHitTestsCount();
+    }
+
+    /**
+     * Add object to ray picking, triangles of its selectable area are built here
+     *
+     * @param object
+     */
     public void addSelectableObject(SelectableObject object) {
         if (!selectableObjects.contains(object)) {
-            selectableObjects.add(object);
+            selectableObjects.add(object,
+                    object.getSelectableAreaCoords(), object.getSelectableAreaVertexIndexes());
         }
     }
 
@@ -131,6 +175,16 @@ public class Cursor {
         selectableObjects.remove(object);
     }
 
+    /**
+     * Rebuild triangles of object selectable area, call it when area is changed (object moves)
+     *
+     * @param object
+     */
+    public void updateSelectableObject(SelectableObject object) {
+        selectableObjects.update(object,
+                object.getSelectableAreaCoords(), object.getSelectableAreaVertexIndexes());
+    }
+
     public float getCursorX() {
         return cursorX;
     }
@@ -153,6 +207,7 @@ public class Cursor {
     public Cursor(Context context, int viewWidth, int viewHeight) {
         this.viewWidth = viewWidth;
         this.viewHeight = viewHeight;
+        setSelectionHysteresis(DEFAULT_SELECTION_HYSTERESIS_DEGREES);
 
         float halfSize = CURSOR_EXPANDED_SIZE / 2.0f;
         coords = new float[]{
@@ -175,11 +230,8 @@ public class Cursor {
                         0.0f, PROGRESS_CIRCLE_SIZE / 2.0f + CURSOR_TEXT_MARGIN, CURSOR_Z
                 });
 
-        ByteBuffer bbcv = ByteBuffer.allocateDirect(coords.length * 4);
-        bbcv.order(ByteOrder.nativeOrder());
-        cursorVerticesBuffer = bbcv.asFloatBuffer();
-        cursorVerticesBuffer.put(coords);
-        cursorVerticesBuffer.position(0);
+        GLBufferArena arena = GLBufferArena.getInstance();
+        cursorVerticesRegion = arena.allocate(coords);
 
 
         halfSize = PROGRESS_CIRCLE_SIZE / 2.0f;
@@ -190,17 +242,10 @@ public class Cursor {
                 0.0f - halfSize, 0.0f + halfSize, CURSOR_Z
         };
 
-        bbcv = ByteBuffer.allocateDirect(progressCoords.length * 4);
-        bbcv.order(ByteOrder.nativeOrder());
-        progressVerticesBuffer = bbcv.asFloatBuffer();
-        progressVerticesBuffer.put(progressCoords);
-        progressVerticesBuffer.position(0);
+        progressVerticesRegion = arena.allocate(progressCoords);
 
-        ByteBuffer bbSVIB = ByteBuffer.allocateDirect(CURSOR_VERTICES_INDEXES.length * 2);
-        bbSVIB.order(ByteOrder.nativeOrder());
-        verticesIndexesBuffer = bbSVIB.asShortBuffer();
-        verticesIndexesBuffer.put(CURSOR_VERTICES_INDEXES);
-        verticesIndexesBuffer.position(0);
+        textBatch = new QuadBatch(new QuadBatch.GLES20Backend(), GLStateCache.getInstance(),
+                ProgramHelper.initQuadBatchProgram(context));
 
         ProgramHelper.initCircleColoredProgram(context);
         ProgramHelper.initProgressCircleProgram(context);
@@ -231,35 +276,42 @@ public class Cursor {
             updateProgressPercents();
         }
 
+        GLStateCache stateCache = GLStateCache.getInstance();
         // Change depth func so our HUD is always rendered atop
-        GLES20.glDepthFunc(GLES20.GL_ALWAYS);
+        stateCache.depthFunc(GLES20.GL_ALWAYS);
         // Disable depth writes
-        GLES20.glDepthMask(false);
-
-        //Prepare modelViewProjectionMatrix
-        float[] projectionMatrix = eye.getPerspective(Z_NEAR, Z_FAR);
-        float[] modelMatrix = new float[16];
-        float[] modelViewMatrix = new float[16];
-        float[] modelViewProjectionMatrix = new float[16];
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-        Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
-
-        renderCursor(modelViewProjectionMatrix);
-
-        if (cursorText.getText() != null && !cursorText.getText().isEmpty()) {
-            cursorText.render(modelViewProjectionMatrix);
-        }
+        stateCache.depthMask(false);
+
+        //Prepare modelViewProjectionMatrix, model matrix is identity
+        ScratchMath scratch = ScratchMath.getInstance();
+        scratch.begin();
+        try {
+            float[] projectionMatrix = scratch.matrix();
+            float[] modelViewProjectionMatrix = scratch.matrix();
+            eye.getPerspective(Z_NEAR, Z_FAR, projectionMatrix, 0);
+            Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+
+            renderCursor(modelViewProjectionMatrix);
+
+            if (cursorText.getText() != null && !cursorText.getText().isEmpty()) {
+                textBatch.begin();
+                cursorText.render(textBatch);
+                textBatch.end();
+                textBatch.draw(modelViewProjectionMatrix);
+            }
 
-        if (progressPercents > 0) {
-            renderProgress(modelViewProjectionMatrix, progressPercents);
+            if (progressPercents > 0) {
+                renderProgress(modelViewProjectionMatrix, progressPercents);
+            }
+        } finally {
+            scratch.end();
         }
 
         // Restore depth func an depth write
-        GLES20.glDepthFunc(GLES20.GL_LEQUAL);
-        GLES20.glDepthMask(true);
+        stateCache.depthFunc(GLES20.GL_LEQUAL);
+        stateCache.depthMask(true);
 
-        GLHelper.checkGLError("Cursor renderCursor");
+        GLHelper.checkDrawGLError("Cursor renderCursor");
     }
 
     private void renderProgress(float[] modelViewProjectionMatrix, float progress) {
@@ -268,30 +320,31 @@ public class Cursor {
         }
 
         Program program = ProgramHelper.getInstance().useProgram(ProgramHelper.PROGRAM_PROGRESS_CIRCLE);
+        GLBufferArena.getInstance().bind();
 
-        GLES20.glVertexAttribPointer(program.getAttr(ProgramHelper.PROGRESS_CIRCLE_ATTR_POSITION),
-                3, GLES20.GL_FLOAT, false, 12, progressVerticesBuffer);
+        GLES20.glVertexAttribPointer(program.getAttr(ProgramHelper.PROGRESS_CIRCLE_ATTR_POSITION_INDEX),
+                3, GLES20.GL_FLOAT, false, 12, progressVerticesRegion.getByteOffset());
 
-        GLES20.glUniform3fv(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_CENTER),
+        GLES20.glUniform3fv(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_CENTER_INDEX),
                 1, cursorCenterCoords, 0);
 
-        GLES20.glUniform4fv(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_COLOR),
+        GLES20.glUniform4fv(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_COLOR_INDEX),
                 1, CURSOR_COLOR, 0);
 
-        GLES20.glUniform1f(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_RADIUS),
+        GLES20.glUniform1f(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_RADIUS_INDEX),
                 PROGRESS_CIRCLE_SIZE / 2.0f);
-        GLES20.glUniform1f(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_THICKNESS),
+        GLES20.glUniform1f(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_THICKNESS_INDEX),
                 PROGRESS_CIRCLE_THICKNESS);
-        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_MVP),
+        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_MVP_INDEX),
                 1, false, modelViewProjectionMatrix, 0);
 
-        GLES20.glUniform1f(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_PERCENT),
+        GLES20.glUniform1f(program.getUniform(ProgramHelper.PROGRESS_CIRCLE_UNIFORM_PERCENT_INDEX),
                 progress);
 
         GLES20.glDrawElements(GLES20.GL_TRIANGLES,
-                CURSOR_VERTICES_INDEXES.length,
+                GLBufferArena.QUAD_INDEXES.length,
                 GLES20.GL_UNSIGNED_SHORT,
-                verticesIndexesBuffer);
+                0);
     }
 
     private void renderCursor(float[] modelViewProjectionMatrix) {
@@ -319,28 +372,29 @@ public class Cursor {
         }
 
         Program program = ProgramHelper.getInstance().useProgram(ProgramHelper.PROGRAM_CIRCLE_COLORED);
+        GLBufferArena.getInstance().bind();
 
-        GLES20.glVertexAttribPointer(program.getAttr(ProgramHelper.CIRCLE_COLORED_ATTR_POSITION),
-                3, GLES20.GL_FLOAT, false, 12, cursorVerticesBuffer);
+        GLES20.glVertexAttribPointer(program.getAttr(ProgramHelper.CIRCLE_COLORED_ATTR_POSITION_INDEX),
+                3, GLES20.GL_FLOAT, false, 12, cursorVerticesRegion.getByteOffset());
 
-        GLES20.glUniform3fv(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_CENTER),
+        GLES20.glUniform3fv(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_CENTER_INDEX),
                 1, cursorCenterCoords, 0);
 
-        GLES20.glUniform4fv(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_COLOR),
+        GLES20.glUniform4fv(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_COLOR_INDEX),
                 1, CURSOR_COLOR, 0);
 
-        GLES20.glUniform1f(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_RADIUS),
+        GLES20.glUniform1f(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_RADIUS_INDEX),
                 cursorSize / 2.0f);
-        GLES20.glUniform1f(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_THICKNESS),
+        GLES20.glUniform1f(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_THICKNESS_INDEX),
                 CURSOR_THICKNESS);
-        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_MVP),
+        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.CIRCLE_COLORED_UNIFORM_MVP_INDEX),
                 1, false, modelViewProjectionMatrix, 0);
 
 
         GLES20.glDrawElements(GLES20.GL_TRIANGLES,
-                CURSOR_VERTICES_INDEXES.length,
+                GLBufferArena.QUAD_INDEXES.length,
                 GLES20.GL_UNSIGNED_SHORT,
-                verticesIndexesBuffer);
+                0);
     }
 
     /**
@@ -355,22 +409,26 @@ public class Cursor {
             return;
         }
 
-        float[] projectionMatrix = eye.getPerspective(Z_NEAR, Z_FAR);
-        float[] modelMatrix = new float[16];
-        float[] modelViewMatrix = new float[16];
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-        int[] viewport = {0, 0, viewWidth, viewHeight};
-
-        float[] screenCoords = new float[3];
-        GLU.gluProject(cursorCenterCoords[0], cursorCenterCoords[1], cursorCenterCoords[2],
-                modelViewMatrix, 0,
-                projectionMatrix, 0,
-                viewport, 0,
-                screenCoords, 0
-        );
-        cursorX = screenCoords[0];
-        cursorY = screenCoords[1];
+        ScratchMath scratch = ScratchMath.getInstance();
+        scratch.begin();
+        try {
+            // Model matrix is identity, model view is view
+            float[] projectionMatrix = scratch.matrix();
+            float[] screenCoords = scratch.vector();
+            eye.getPerspective(Z_NEAR, Z_FAR, projectionMatrix, 0);
+            viewport[2] = viewWidth;
+            viewport[3] = viewHeight;
+            GLU.gluProject(cursorCenterCoords[0], cursorCenterCoords[1], cursorCenterCoords[2],
+                    viewMatrix, 0,
+                    projectionMatrix, 0,
+                    viewport, 0,
+                    screenCoords, 0
+            );
+            cursorX = screenCoords[0];
+            cursorY = screenCoords[1];
+        } finally {
+            scratch.end();
+        }
     }
 
     /**
@@ -388,24 +446,40 @@ public class Cursor {
     }
 
     /**
-     * Do ray picking to lookup object selected with cursor
+     * Compute cursor ray for this frame, it is shared by all pick targets
      *
-     * @return number os found objects
+     * @param modelViewMatrix model view of pick targets
+     * @param projMatrix
+     * @return ray, it is not valid if cursor position is unknown
      */
-    public boolean lookUpSelectedObject(float[] modelViewMatrix, float[] projMatrix) {
+    public PickRay updatePickRay(float[] modelViewMatrix, float[] projMatrix) {
         if (cursorX < 0 || cursorY < 0) {
-            return false;
+            pickRay.reset();
+        } else {
+            RayPicking.unProject(pickRay, viewWidth, viewHeight, cursorX, cursorY,
+                    modelViewMatrix, projMatrix);
         }
+        return pickRay;
+    }
 
-        for (SelectableObject sObj : selectableObjects) {
-            float[] intersectPoint = RayPicking.rayPicking(viewWidth, viewHeight, cursorX, cursorY,
-                    modelViewMatrix, projMatrix,
-                    sObj.getSelectableAreaCoords(), sObj.getSelectableAreaVertexIndexes());
+    public PickRay getPickRay() {
+        return pickRay;
+    }
 
-            if (intersectPoint == null) {
-                continue;
-            }
+    /**
+     * Lookup object selected with cursor by ray of this frame (see {@link #updatePickRay})
+     *
+     * @return true if object is found
+     */
+    public boolean lookUpSelectedObject() {
+        if (!pickRay.isValid()) {
+            return false;
+        }
 
+        // Object selected in previous frame is tested first, the closest to eye one otherwise
+        SelectableObject selected = selectableObjectWrapper != null ? selectableObjectWrapper.getObject() : null;
+        SelectableObject sObj = selectableObjects.pick(pickRay, selected, hitPoint);
+        if (sObj != null) {
             if (selectableObjectWrapper == null ||
                     !selectableObjectWrapper.isContainObject(sObj)) {
                 if (selectableObjectWrapper != null) {
@@ -415,7 +489,7 @@ public class Cursor {
                 sObj.onCursorOver(this);
                 Status.startExpandAnimation(status);
             }
-            sObj.onCursorMoveOver(this, intersectPoint);
+            sObj.onCursorMoveOver(this, hitPoint);
             return true;
         }
 
@@ -521,7 +595,7 @@ public class Cursor {
          * On cursor move over object
          *
          * @param cursor
-         * @param coords {x,y,z} in world space
+         * @param coords {x,y,z} in world space, array is reused by cursor
          * @return
          */
         void onCursorMoveOver(Cursor cursor, float[] coords);
@@ -2,16 +2,9 @@ package com.anton111111.vr.widgets;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.opengl.GLES20;
 
-import com.anton111111.vr.GLHelper;
-import com.anton111111.vr.program.Program;
-import com.anton111111.vr.program.ProgramHelper;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.anton111111.vr.renderer.QuadBatch;
+import com.anton111111.vr.texture.TextureAtlas;
 
 /**
  * Created by Anton Potekhin (Anton.Potekhin@gmail.com) on 08.12.17.
@@ -27,21 +20,13 @@ public class Icon implements Cursor.SelectableObject {
             0, 1, 2, 0, 2, 3
     };
 
-    private static final float TEXTURE_COORDS[] = {
-            0.0f, 1.0f,
-            1.0f, 1.0f,
-            1.0f, 0.0f,
-            0.0f, 0.0f};
-
     private final float[] iconCoords;
     private final Runnable callback;
     private Text[] hints;
     private int hintIndex = 0;
-    private int[] texture;
+    private final TextureAtlas atlas;
+    private int[] atlasIndexes;
     private int textureIndex = 0;
-    private FloatBuffer iconVerticesBuffer;
-    private ShortBuffer iconsVerticesIndexesBuffer;
-    private FloatBuffer iconsTextureBuffer;
     private boolean isSelected;
 
     public float[] getIconCoords() {
@@ -60,19 +45,33 @@ public class Icon implements Cursor.SelectableObject {
         this.hintIndex = hintIndex;
     }
 
+    /**
+     * Switch icon image. Image is the rect of the same atlas texture, so nothing is rebound.
+     *
+     * @param textureIndex index of image passed to constructor
+     */
     public void setTextureIndex(int textureIndex) {
-        if (textureIndex > texture.length - 1) {
-            throw new ArrayIndexOutOfBoundsException("Wrong texture index offset: " + textureIndex + " size: " + texture.length);
+        if (textureIndex > atlasIndexes.length - 1) {
+            throw new ArrayIndexOutOfBoundsException("Wrong texture index offset: " + textureIndex + " size: " + atlasIndexes.length);
         }
         this.textureIndex = textureIndex;
     }
 
-    public Icon(Context context, String hint, int texture, float[] iconCoords, Runnable callback) {
-        this(context, new String[]{hint}, new int[]{texture}, iconCoords, callback);
+    public Icon(Context context, String hint, TextureAtlas atlas, int atlasIndex, float[] iconCoords, Runnable callback) {
+        this(context, new String[]{hint}, atlas, new int[]{atlasIndex}, iconCoords, callback);
     }
 
-    public Icon(Context context, String[] hints, int[] textures, float[] iconCoords, Runnable callback) {
-        this.texture = textures;
+    /**
+     * @param context
+     * @param hints
+     * @param atlas        atlas with icon images
+     * @param atlasIndexes indexes of icon images in atlas
+     * @param iconCoords
+     * @param callback
+     */
+    public Icon(Context context, String[] hints, TextureAtlas atlas, int[] atlasIndexes, float[] iconCoords, Runnable callback) {
+        this.atlas = atlas;
+        this.atlasIndexes = atlasIndexes;
         this.iconCoords = iconCoords;
         this.callback = callback;
 
@@ -98,59 +97,21 @@ public class Icon implements Cursor.SelectableObject {
                             _x, _y, iconCoords[11]
                     });
         }
-        prepareBuffers();
-        ProgramHelper.initShapeTexturedProgram(context);
-    }
-
-    private void prepareBuffers() {
-        ByteBuffer bbcv = ByteBuffer.allocateDirect(iconCoords.length * 4);
-        bbcv.order(ByteOrder.nativeOrder());
-        iconVerticesBuffer = bbcv.asFloatBuffer();
-        iconVerticesBuffer.put(iconCoords);
-        iconVerticesBuffer.position(0);
-
-        ByteBuffer bbSVI = ByteBuffer.allocateDirect(VERTEX_INDEXES.length * 2);
-        bbSVI.order(ByteOrder.nativeOrder());
-        iconsVerticesIndexesBuffer = bbSVI.asShortBuffer();
-        iconsVerticesIndexesBuffer.put(VERTEX_INDEXES);
-        iconsVerticesIndexesBuffer.position(0);
-
-        ByteBuffer byteBuf = ByteBuffer.allocateDirect(TEXTURE_COORDS.length * 4);
-        byteBuf.order(ByteOrder.nativeOrder());
-        iconsTextureBuffer = byteBuf.asFloatBuffer();
-        iconsTextureBuffer.put(TEXTURE_COORDS);
-        iconsTextureBuffer.position(0);
     }
 
 
-    public void render(float[] modelViewProjection) {
-        Program program = ProgramHelper.getInstance().useProgram(ProgramHelper.PROGRAM_SHAPE_TEXTURED);
-
-        GLES20.glVertexAttribPointer(program.getAttr(ProgramHelper.SHAPE_TEXTURED_ATTR_TEXTURE_COORDS),
-                2, GLES20.GL_FLOAT, false, 0, iconsTextureBuffer);
-
-
-        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.SHAPE_TEXTURED_UNIFORM_MVP),
-                1, false, modelViewProjection, 0);
-
-        GLES20.glVertexAttribPointer(program.getAttr(ProgramHelper.SHAPE_TEXTURED_ATTR_POSITION),
-                3, GLES20.GL_FLOAT, false, 12, iconVerticesBuffer);
-
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[textureIndex]);
-        GLES20.glUniform1i(program.getUniform(ProgramHelper.SHAPE_TEXTURED_UNIFORM_TEXTURE), 0);
-
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES,
-                VERTEX_INDEXES.length,
-                GLES20.GL_UNSIGNED_SHORT,
-                iconsVerticesIndexesBuffer);
-
+    /**
+     * Put icon quad and hint of selected icon into batch
+     *
+     * @param batch
+     */
+    public void render(QuadBatch batch) {
+        batch.add(iconCoords, atlas.getTexture(), atlas.getTextureRect(atlasIndexes[textureIndex]),
+                QuadBatch.WHITE, 0);
 
         if (hints[hintIndex] != null && isSelected) {
-            hints[hintIndex].render(modelViewProjection);
+            hints[hintIndex].render(batch);
         }
-
-        GLHelper.checkGLError("Icon render");
     }
 
     @Override
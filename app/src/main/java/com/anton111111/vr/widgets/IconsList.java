@@ -3,7 +3,8 @@ package com.anton111111.vr.widgets;
 
 import android.content.Context;
 
-import com.anton111111.vr.GLHelper;
+import com.anton111111.vr.renderer.QuadBatch;
+import com.anton111111.vr.texture.TextureAtlas;
 
 import java.util.ArrayList;
 
@@ -13,6 +14,7 @@ public class IconsList extends ArrayList<Icon> {
     private static final float ICON_MARGIN = 0.01f;
 
     private float[] startCoords;
+    private final TextureAtlas atlas = new TextureAtlas();
 
 
     public static float getIconSize() {
@@ -63,13 +65,23 @@ public class IconsList extends ArrayList<Icon> {
         return add(context, new String[]{hint}, new int[]{drawableResource}, callback);
     }
 
+    /**
+     * Add icon. Drawables are put into atlas of list, call {@link #buildAtlas} after all icons are added.
+     *
+     * @param context
+     * @param hints
+     * @param drawableResources
+     * @param callback
+     * @return
+     */
     public Icon add(Context context, String[] hints, int[] drawableResources, Runnable callback) {
-        int[] textures = new int[drawableResources.length];
+        int[] atlasIndexes = new int[drawableResources.length];
         for (int i = 0; i < drawableResources.length; i++) {
-            textures[i] = GLHelper.loadTexture(context, drawableResources[i]);
+            atlasIndexes[i] = atlas.add(context, drawableResources[i]);
         }
         Icon icon = new Icon(context, hints,
-                textures,
+                atlas,
+                atlasIndexes,
                 getNextIconCoords(),
                 callback);
         if (super.add(icon)) {
@@ -91,12 +103,26 @@ public class IconsList extends ArrayList<Icon> {
     }
 
 
-    public void render(float[] modelViewProjection) {
-        for (Icon icon : this) {
-            icon.render(modelViewProjection);
-        }
+    /**
+     * Pack drawables of all icons into one texture
+     */
+    public void buildAtlas() {
+        atlas.build();
+    }
+
+    public TextureAtlas getAtlas() {
+        return atlas;
+    }
 
-        GLHelper.checkGLError("IconsList render");
+    /**
+     * Put icons into batch
+     *
+     * @param batch
+     */
+    public void render(QuadBatch batch) {
+        for (int i = 0; i < size(); i++) {
+            get(i).render(batch);
+        }
     }
 
 }
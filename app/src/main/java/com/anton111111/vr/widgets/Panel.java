@@ -2,16 +2,8 @@ package com.anton111111.vr.widgets;
 
 
 import android.content.Context;
-import android.opengl.GLES20;
 
-import com.anton111111.vr.GLHelper;
-import com.anton111111.vr.program.Program;
-import com.anton111111.vr.program.ProgramHelper;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.anton111111.vr.renderer.QuadBatch;
 
 public class Panel {
 
@@ -24,8 +16,6 @@ public class Panel {
 
     };
     private final float[] coords;
-    private final FloatBuffer verticesBuffer;
-    private final ShortBuffer verticesIndexesBuffer;
     private final float width;
     private final float height;
     private final float[] centerCoords;
@@ -74,42 +64,15 @@ public class Panel {
                 _x + width, _y + height, centerCoords[2],
                 _x, _y + height, centerCoords[2],
         };
-
-        ByteBuffer bbcv = ByteBuffer.allocateDirect(coords.length * 4);
-        bbcv.order(ByteOrder.nativeOrder());
-        verticesBuffer = bbcv.asFloatBuffer();
-        verticesBuffer.put(coords);
-        verticesBuffer.position(0);
-
-        ByteBuffer bbSVIB = ByteBuffer.allocateDirect(VERTEX_INDEXES.length * 2);
-        bbSVIB.order(ByteOrder.nativeOrder());
-        verticesIndexesBuffer = bbSVIB.asShortBuffer();
-        verticesIndexesBuffer.put(VERTEX_INDEXES);
-        verticesIndexesBuffer.position(0);
-
-        ProgramHelper.initShapeColoredProgram(context);
     }
 
 
-    public void render(float[] modelViewProjection) {
-        Program program = ProgramHelper.getInstance().useProgram(ProgramHelper.PROGRAM_SHAPE_COLORED);
-        GLES20.glVertexAttribPointer(
-                program.getAttr(ProgramHelper.SHAPE_COLORED_ATTR_POSITION), 3,
-                GLES20.GL_FLOAT, false,
-                12, verticesBuffer);
-
-
-        GLES20.glUniform4fv(program.getUniform(ProgramHelper.SHAPE_COLORED_UNIFORM_COLOR),
-                1, PANEL_COLOR, 0);
-
-        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.SHAPE_COLORED_UNIFORM_MVP),
-                1, false, modelViewProjection, 0);
-
-        // Draw the square
-        GLES20.glDrawElements(
-                GLES20.GL_TRIANGLES, 6,
-                GLES20.GL_UNSIGNED_SHORT, verticesIndexesBuffer);
-        // Disable vertex array
-        GLHelper.checkGLError("Panel renderPanel");
+    /**
+     * Put panel quad into batch
+     *
+     * @param batch
+     */
+    public void render(QuadBatch batch) {
+        batch.add(coords, QuadBatch.NO_TEXTURE, QuadBatch.FULL_TEXTURE_RECT, PANEL_COLOR, 0);
     }
 }
@@ -2,17 +2,9 @@ package com.anton111111.vr.widgets;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.opengl.GLES20;
 
-import com.anton111111.vr.GLHelper;
-import com.anton111111.vr.program.Program;
-import com.anton111111.vr.program.ProgramHelper;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.util.Arrays;
+import com.anton111111.util.StringUtil;
+import com.anton111111.vr.renderer.QuadBatch;
 
 public class SeekBar implements Cursor.SelectableObject {
 
@@ -31,7 +23,8 @@ public class SeekBar implements Cursor.SelectableObject {
     private static final float SEEKBAR_COLORS[] = {
             0.412f, 0.412f, 0.412f, 1.0f, //Background
             0.412f, 1.0f, 1.0f, 1.0f,  //Progress color
-            0.412f, 0.412f, 1.0f, 1.0f  //Secondary Progress color
+            0.412f, 0.412f, 1.0f, 1.0f,  //Secondary Progress color
+            0.55f, 0.55f, 0.7f, 1.0f  //Cached ranges color
     };
 
     private final float[] progressBarCoords;
@@ -43,13 +36,13 @@ public class SeekBar implements Cursor.SelectableObject {
     private final float width;
     private float progress = 0.0f;
     private float secondaryProgress = 0.0f;
+    private float[] cachedRanges = new float[0];
     private float cursorProgress = -1.0f;
-    private final FloatBuffer verticesBuffer;
-    private final ShortBuffer verticesIndexesBuffer;
-    private FloatBuffer verticesProgressBuffer;
-    private FloatBuffer verticesSecondaryProgressBuffer;
     private final Text timer;
     private String timeStr = "00:00/00:00";
+    private final StringBuilder timeStrBuilder = new StringBuilder();
+    private long timeSeconds = -1;
+    private long durationSeconds = -1;
     private SeekBarListener seekBarListener;
     private CursorProgressFormater cursorProgressFormater;
 
@@ -68,12 +61,44 @@ public class SeekBar implements Cursor.SelectableObject {
 
     public void setTimeStr(String curTimeStr, String fullTimeStr) {
         this.timeStr = curTimeStr + "/" + fullTimeStr;
+        timeSeconds = -1;
+        durationSeconds = -1;
+    }
+
+    /**
+     * Set time of timer. Timer text is changed only if seconds are changed,
+     * so calling it every frame allocates nothing.
+     *
+     * @param timeMs
+     * @param durationMs
+     */
+    public void setTime(long timeMs, long durationMs) {
+        long _timeSeconds = timeMs / 1000;
+        long _durationSeconds = durationMs / 1000;
+        if (_timeSeconds == timeSeconds && _durationSeconds == durationSeconds) {
+            return;
+        }
+        timeSeconds = _timeSeconds;
+        durationSeconds = _durationSeconds;
+        timeStrBuilder.setLength(0);
+        StringUtil.appendTime(timeStrBuilder, timeMs).append('/');
+        StringUtil.appendTime(timeStrBuilder, durationMs);
+        timeStr = timeStrBuilder.toString();
     }
 
     public void setSecondaryProgress(float secondaryProgress) {
         this.secondaryProgress = secondaryProgress;
     }
 
+    /**
+     * Set ranges of media cached on disk, they are drawn under secondary progress
+     *
+     * @param cachedRanges {start, end} in percents of every range, array is not copied
+     */
+    public void setCachedRanges(float[] cachedRanges) {
+        this.cachedRanges = cachedRanges;
+    }
+
     public void setProgress(float progress) {
         this.progress = progress;
     }
@@ -127,130 +152,61 @@ public class SeekBar implements Cursor.SelectableObject {
                 startCoords[0], _y + progressHeight, startCoords[2],
         };
 
-        ByteBuffer bbcv = ByteBuffer.allocateDirect(progressBarCoords.length * 4);
-        bbcv.order(ByteOrder.nativeOrder());
-        verticesBuffer = bbcv.asFloatBuffer();
-        verticesBuffer.put(progressBarCoords);
-        verticesBuffer.position(0);
-
-        ByteBuffer bbSVIB = ByteBuffer.allocateDirect(VERTEX_INDEXES.length * 2);
-        bbSVIB.order(ByteOrder.nativeOrder());
-        verticesIndexesBuffer = bbSVIB.asShortBuffer();
-        verticesIndexesBuffer.put(VERTEX_INDEXES);
-        verticesIndexesBuffer.position(0);
-
-        ProgramHelper.initShapeColoredProgram(context);
-
         this.width = progressWidth;
         this.height = clickAreaHeight + TIMER_HEIGHT + TIMER_MARGIN;
     }
 
-    private void prepareProgressBuffer() {
-        float[] coords = Arrays.copyOf(this.progressBarCoords, this.progressBarCoords.length);
-        float _x = Double.valueOf((double) coords[0] + (double) progressWidth * (double) progress / 100.0d).floatValue();
-        coords[3] = _x;
-        coords[6] = _x;
-        ByteBuffer bbcv = ByteBuffer.allocateDirect(coords.length * 4);
-        bbcv.order(ByteOrder.nativeOrder());
-        verticesProgressBuffer = bbcv.asFloatBuffer();
-        verticesProgressBuffer.put(coords);
-        verticesProgressBuffer.position(0);
-    }
-
-    private void prepareSecondaryProgressBuffer() {
-        float[] coords = Arrays.copyOf(this.progressBarCoords, this.progressBarCoords.length);
-        float _x = Double.valueOf((double) coords[0] + (double) progressWidth * (double) secondaryProgress / 100.0d).floatValue();
-        coords[3] = _x;
-        coords[6] = _x;
-        ByteBuffer bbcv = ByteBuffer.allocateDirect(coords.length * 4);
-        bbcv.order(ByteOrder.nativeOrder());
-        verticesSecondaryProgressBuffer = bbcv.asFloatBuffer();
-        verticesSecondaryProgressBuffer.put(coords);
-        verticesSecondaryProgressBuffer.position(0);
-    }
-
-    public void render(float[] modelViewProjection) {
-        renderBackground(modelViewProjection);
+    /**
+     * Put background, cached ranges, secondary progress, progress and timer into batch
+     *
+     * @param batch
+     */
+    public void render(QuadBatch batch) {
+        batch.add(progressBarCoords, QuadBatch.NO_TEXTURE, QuadBatch.FULL_TEXTURE_RECT, SEEKBAR_COLORS, 0);
+        for (int i = 0; i + 1 < cachedRanges.length; i += 2) {
+            renderRange(batch, cachedRanges[i], cachedRanges[i + 1], 12);
+        }
         if (secondaryProgress > 0) {
-            prepareSecondaryProgressBuffer();
-            renderSecondaryProgress(modelViewProjection);
+            renderProgress(batch, secondaryProgress, 8);
         }
         if (progress > 0) {
-            prepareProgressBuffer();
-            renderProgress(modelViewProjection);
+            renderProgress(batch, progress, 4);
         }
 
         if (timer != null) {
             timer.setText(timeStr);
-            timer.render(modelViewProjection);
+            timer.render(batch);
         }
-
-    }
-
-    private void renderProgress(float[] modelViewProjection) {
-        Program program = ProgramHelper.getInstance().useProgram(ProgramHelper.PROGRAM_SHAPE_COLORED);
-        GLES20.glVertexAttribPointer(
-                program.getAttr(ProgramHelper.SHAPE_COLORED_ATTR_POSITION), 3,
-                GLES20.GL_FLOAT, false,
-                12, verticesProgressBuffer);
-
-
-        GLES20.glUniform4fv(program.getUniform(ProgramHelper.SHAPE_COLORED_UNIFORM_COLOR),
-                1, SEEKBAR_COLORS, 4);
-
-        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.SHAPE_COLORED_UNIFORM_MVP),
-                1, false, modelViewProjection, 0);
-
-        // Draw the square
-        GLES20.glDrawElements(
-                GLES20.GL_TRIANGLES, 6,
-                GLES20.GL_UNSIGNED_SHORT, verticesIndexesBuffer);
-        // Disable vertex array
-        GLHelper.checkGLError("renderProgress renderPanel");
     }
 
-    private void renderSecondaryProgress(float[] modelViewProjection) {
-        Program program = ProgramHelper.getInstance().useProgram(ProgramHelper.PROGRAM_SHAPE_COLORED);
-        GLES20.glVertexAttribPointer(
-                program.getAttr(ProgramHelper.SHAPE_COLORED_ATTR_POSITION), 3,
-                GLES20.GL_FLOAT, false,
-                12, verticesSecondaryProgressBuffer);
-
-
-        GLES20.glUniform4fv(program.getUniform(ProgramHelper.SHAPE_COLORED_UNIFORM_COLOR),
-                1, SEEKBAR_COLORS, 8);
-
-        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.SHAPE_COLORED_UNIFORM_MVP),
-                1, false, modelViewProjection, 0);
-
-        // Draw the square
-        GLES20.glDrawElements(
-                GLES20.GL_TRIANGLES, 6,
-                GLES20.GL_UNSIGNED_SHORT, verticesIndexesBuffer);
-        // Disable vertex array
-        GLHelper.checkGLError("renderProgress renderPanel");
+    /**
+     * Put progress bar filled to percent into batch
+     *
+     * @param batch
+     * @param percent
+     * @param colorOffset offset of color in {@link #SEEKBAR_COLORS}
+     */
+    private void renderProgress(QuadBatch batch, float percent, int colorOffset) {
+        renderRange(batch, 0.0f, percent, colorOffset);
     }
 
-    private void renderBackground(float[] modelViewProjection) {
-        Program program = ProgramHelper.getInstance().useProgram(ProgramHelper.PROGRAM_SHAPE_COLORED);
-        GLES20.glVertexAttribPointer(
-                program.getAttr(ProgramHelper.SHAPE_COLORED_ATTR_POSITION), 3,
-                GLES20.GL_FLOAT, false,
-                12, verticesBuffer);
-
-
-        GLES20.glUniform4fv(program.getUniform(ProgramHelper.SHAPE_COLORED_UNIFORM_COLOR),
-                1, SEEKBAR_COLORS, 0);
-
-        GLES20.glUniformMatrix4fv(program.getUniform(ProgramHelper.SHAPE_COLORED_UNIFORM_MVP),
-                1, false, modelViewProjection, 0);
-
-        // Draw the square
-        GLES20.glDrawElements(
-                GLES20.GL_TRIANGLES, 6,
-                GLES20.GL_UNSIGNED_SHORT, verticesIndexesBuffer);
-        // Disable vertex array
-        GLHelper.checkGLError("renderBackground renderPanel");
+    /**
+     * Put part of progress bar between percents into batch
+     *
+     * @param batch
+     * @param start
+     * @param end
+     * @param colorOffset offset of color in {@link #SEEKBAR_COLORS}
+     */
+    private void renderRange(QuadBatch batch, float start, float end, int colorOffset) {
+        float left = progressBarCoords[0] + progressWidth * Math.max(start, 0.0f) / 100.0f;
+        float right = progressBarCoords[0] + progressWidth * Math.min(end, 100.0f) / 100.0f;
+        if (right <= left) {
+            return;
+        }
+        batch.addRect(left, progressBarCoords[1], right, progressBarCoords[7],
+                progressBarCoords[2], QuadBatch.NO_TEXTURE, QuadBatch.FULL_TEXTURE_RECT,
+                SEEKBAR_COLORS, colorOffset);
     }
 
     /**
@@ -294,8 +250,12 @@ public class SeekBar implements Cursor.SelectableObject {
                 cursor.setCursorText(cursorProgressFormater.format(p));
 
             }
+            if (seekBarListener != null) {
+                seekBarListener.onHover(p);
+            }
             return;
         }
+        // Smaller moves are coalesced, they don't restart click timer and prefetch
         if (Math.abs(cursorProgress - p) < MIN_CURSOR_STEP) {
             return;
         }
@@ -304,6 +264,9 @@ public class SeekBar implements Cursor.SelectableObject {
             cursor.setCursorText(cursorProgressFormater.format(p));
 
         }
+        if (seekBarListener != null) {
+            seekBarListener.onHover(p);
+        }
         cursor.cancelClickTimer(Cursor.CLICK_TIMEOUT, Cursor.CLICK_TIMER_DELAY);
     }
 
@@ -311,6 +274,9 @@ public class SeekBar implements Cursor.SelectableObject {
     public void onCursorOut(Cursor cursor) {
         cursorProgress = -1.0f;
         cursor.setCursorText("");
+        if (seekBarListener != null) {
+            seekBarListener.onHoverOut();
+        }
     }
 
     @Override
@@ -323,6 +289,15 @@ public class SeekBar implements Cursor.SelectableObject {
 
     public interface SeekBarListener {
         void onClick(float progress);
+
+        /**
+         * Cursor dwells on progress, click on it may follow
+         *
+         * @param progress
+         */
+        void onHover(float progress);
+
+        void onHoverOut();
     }
 
     public interface CursorProgressFormater {
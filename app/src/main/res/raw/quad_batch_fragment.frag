@@ -0,0 +1,9 @@
+precision mediump float;
+
+uniform sampler2D u_Texture;
+varying vec2 v_TexCoordinate;
+varying vec4 v_Color;
+
+void main() {
+    gl_FragColor = texture2D(u_Texture, v_TexCoordinate) * v_Color;
+}
\ No newline at end of file
@@ -0,0 +1,13 @@
+uniform mat4 u_MVP;
+attribute vec4 a_Position;
+attribute vec2 a_TexCoordinate;
+attribute vec4 a_Color;
+
+varying vec2 v_TexCoordinate;
+varying vec4 v_Color;
+
+void main() {
+   gl_Position = u_MVP * a_Position;
+   v_TexCoordinate = a_TexCoordinate;
+   v_Color = a_Color;
+}
\ No newline at end of file
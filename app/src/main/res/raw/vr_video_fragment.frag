@@ -3,12 +3,18 @@ precision highp float;
 
 #define M_PI 3.1415926535897932384626433832795
 
+// STEREO_TYPE, FOV and PARTIAL_FOV are defined for every video format by VideoProgramCache
+#ifndef STEREO_TYPE
+#define STEREO_TYPE 0
+#endif
+#ifndef FOV
+#define FOV (2.0 * M_PI)
+#endif
+
 varying vec3 v_Position;
 
 uniform samplerExternalOES u_Texture;
-uniform float u_Fov;
 uniform float u_TextureCordOffset;
-uniform int u_StereoType;
 uniform mat4 u_TTM;
 
 void main() {
@@ -17,19 +23,20 @@ void main() {
 	vAngle = M_PI - vAngle;
 	float hAngle = atan(v_Position.x, -v_Position.z);
 
-	float maxRotateAngle = u_Fov / 2.0;
-	if (abs(hAngle) > maxRotateAngle){
-       	discard;
-    } else {
-	    float X = (maxRotateAngle + hAngle) / u_Fov;
-	    float Y = vAngle / M_PI;
-        if (u_StereoType == 1) {
-            X = (X / 2.0) + u_TextureCordOffset;
-        } else if (u_StereoType == 2) {
-            Y = (Y / 2.0) + u_TextureCordOffset;
-        }
+	float maxRotateAngle = FOV / 2.0;
+#ifdef PARTIAL_FOV
+	if (abs(hAngle) > maxRotateAngle) {
+		discard;
+	}
+#endif
+	float X = (maxRotateAngle + hAngle) / FOV;
+	float Y = vAngle / M_PI;
+#if STEREO_TYPE == 1
+	X = (X / 2.0) + u_TextureCordOffset;
+#elif STEREO_TYPE == 2
+	Y = (Y / 2.0) + u_TextureCordOffset;
+#endif
 
-        vec2 uv = (u_TTM * vec4(X, Y, 0.0, 1.0)).xy;
-        gl_FragColor = texture2D(u_Texture, uv);
-    }
+	vec2 uv = (u_TTM * vec4(X, Y, 0.0, 1.0)).xy;
+	gl_FragColor = texture2D(u_Texture, uv);
 }
@@ -0,0 +1,11 @@
+uniform mat4 u_MVP;
+uniform mat4 u_TTM;
+attribute vec4 a_Position;
+attribute vec2 a_TexCoordinate;
+
+varying vec2 v_TexCoordinate;
+
+void main() {
+   v_TexCoordinate = (u_TTM * vec4(a_TexCoordinate, 0.0, 1.0)).xy;
+   gl_Position = u_MVP * a_Position;
+}
@@ -0,0 +1,41 @@
+package com.anton111111.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CachedRangesTest {
+
+    @Test
+    public void mergesAdjacentAndOverlappingSpans() {
+        long[] spans = new long[]{
+                0, 100,
+                100, 150,
+                500, 100,
+                550, 100,
+                900, 100
+        };
+        float[] ranges = CachedRanges.toPercents(spans, 5, 1000);
+        assertArrayEquals(new float[]{0.0f, 25.0f, 50.0f, 65.0f, 90.0f, 100.0f}, ranges, 0.0001f);
+    }
+
+    @Test
+    public void sortsSpans() {
+        long[] spans = new long[]{
+                900, 100,
+                0, 100,
+                50, 20
+        };
+        float[] ranges = CachedRanges.toPercents(spans, 3, 1000);
+        assertArrayEquals(new float[]{0.0f, 10.0f, 90.0f, 100.0f}, ranges, 0.0001f);
+    }
+
+    @Test
+    public void returnsNothingWithoutSpansOrLength() {
+        assertEquals(0, CachedRanges.toPercents(new long[]{0, 100}, 0, 1000).length);
+        assertEquals(0, CachedRanges.toPercents(new long[]{0, 100}, 1, 0).length);
+        // Only count spans are used
+        assertArrayEquals(new float[]{0.0f, 10.0f},
+                CachedRanges.toPercents(new long[]{0, 100, 500, 100}, 1, 1000), 0.0001f);
+    }
+}
@@ -0,0 +1,92 @@
+package com.anton111111.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConnectionCountControllerTest {
+
+    private static final long WINDOW_NANOS = 500000000L;
+    private static final long STEP_NANOS = 10000000L;
+    private static final float MB = 1024 * 1024;
+
+    /**
+     * Load by link where every connection gets perConnection bytes per second up to linkLimit
+     *
+     * @return count of windows at expected count of connections
+     */
+    private static int simulate(ConnectionCountController controller, long startNanos, long durationNanos,
+                                float perConnection, float linkLimit, int expected) {
+        int windows = controller.getWindowsCount();
+        int expectedWindows = 0;
+        for (long now = startNanos; now < startNanos + durationNanos; now += STEP_NANOS) {
+            float throughput = Math.min(linkLimit, perConnection * controller.getConnections());
+            controller.onBytesLoaded((long) (throughput * STEP_NANOS / 1000000000L), now);
+            if (controller.getWindowsCount() != windows) {
+                windows = controller.getWindowsCount();
+                if (controller.getConnections() == expected) {
+                    expectedWindows++;
+                }
+            }
+        }
+        return expectedWindows;
+    }
+
+    @Test
+    public void addsConnectionsWhileThroughputGrows() {
+        ConnectionCountController controller = new ConnectionCountController(1, 8, 2, WINDOW_NANOS);
+        // 4 MB/s per connection, link is saturated by 5 connections
+        int atExpected = simulate(controller, 0, 60 * 1000000000L, 4 * MB, 20 * MB, 5);
+        int windows = controller.getWindowsCount();
+        // Most of time at 5, 6 is probed sometimes and removed
+        assertTrue(atExpected > windows * 3 / 4);
+        assertEquals(20 * MB, controller.getThroughput(), MB);
+    }
+
+    @Test
+    public void keepsRange() {
+        ConnectionCountController controller = new ConnectionCountController(2, 3, 1, WINDOW_NANOS);
+        assertEquals(2, controller.getConnections());
+        simulate(controller, 0, 30 * 1000000000L, 4 * MB, 100 * MB, 3);
+        assertEquals(3, controller.getConnections());
+
+        controller = new ConnectionCountController(2, 3, 5, WINDOW_NANOS);
+        assertEquals(3, controller.getConnections());
+        // The first window may not decrease count below min
+        controller = new ConnectionCountController(2, 3, 2, WINDOW_NANOS);
+        simulate(controller, 0, 30 * 1000000000L, 4 * MB, 4 * MB, 2);
+        assertEquals(2, controller.getConnections());
+    }
+
+    @Test
+    public void adaptsToChangedLink() {
+        ConnectionCountController controller = new ConnectionCountController(1, 8, 1, WINDOW_NANOS);
+        long duration = 60 * 1000000000L;
+        simulate(controller, 0, duration, 4 * MB, 8 * MB, 2);
+        assertEquals(2, controller.getConnections());
+        // Link gets faster, count is probed up
+        int atExpected = simulate(controller, duration, duration, 4 * MB, 24 * MB, 6);
+        assertTrue(atExpected > 0);
+        assertTrue(controller.getConnections() >= 6);
+    }
+
+    @Test
+    public void ignoresWindowsWhenBufferIsFull() {
+        ConnectionCountController controller = new ConnectionCountController(1, 8, 3, WINDOW_NANOS);
+        long now = 0;
+        for (int i = 0; i < 100; i++) {
+            controller.onBytesLoaded(1024, now);
+            now += STEP_NANOS;
+            // Player doesn't read, nothing is loaded for a long time
+            controller.onBufferFull();
+            now += 10 * WINDOW_NANOS;
+        }
+        assertEquals(0, controller.getWindowsCount());
+        assertEquals(3, controller.getConnections());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWrongRange() {
+        new ConnectionCountController(3, 2, 2, WINDOW_NANOS);
+    }
+}
@@ -0,0 +1,34 @@
+package com.anton111111.player;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ContentRangeTest {
+
+    @Test
+    public void parsesTotalLength() {
+        assertEquals(4096, ContentRange.parseTotalLength("bytes 0-1023/4096"));
+        assertEquals(8000000000L, ContentRange.parseTotalLength(" bytes 1048576-2097151/8000000000 "));
+        assertEquals(ContentRange.UNKNOWN_LENGTH, ContentRange.parseTotalLength("bytes 0-1023/*"));
+        assertEquals(ContentRange.UNKNOWN_LENGTH, ContentRange.parseTotalLength("bytes */4096x"));
+        assertEquals(ContentRange.UNKNOWN_LENGTH, ContentRange.parseTotalLength("items 0-1/2"));
+        assertEquals(ContentRange.UNKNOWN_LENGTH, ContentRange.parseTotalLength(null));
+    }
+
+    @Test
+    public void findsHeaderIgnoringCase() {
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put(null, Collections.singletonList("HTTP/1.1 206 Partial Content"));
+        headers.put("Content-Length", Collections.singletonList("1024"));
+        assertNull(ContentRange.find(headers));
+        headers.put("content-range", Arrays.asList("bytes 0-1023/4096"));
+        assertEquals("bytes 0-1023/4096", ContentRange.find(headers));
+    }
+}
@@ -0,0 +1,65 @@
+package com.anton111111.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MediaCacheStatsTest {
+
+    @Test
+    public void computesHitRatio() {
+        MediaCacheStats stats = new MediaCacheStats();
+        assertEquals(0.0f, stats.getHitRatio(), 0.0f);
+
+        // The first watch downloads everything
+        stats.onDownloaded(1000);
+        stats.onRead(1000);
+        assertEquals(0.0f, stats.getHitRatio(), 0.0f);
+        assertEquals(0, stats.getSavedBytes());
+
+        // Seek back reads from cache
+        stats.onRead(1000);
+        assertEquals(0.5f, stats.getHitRatio(), 0.0001f);
+        assertEquals(1000, stats.getSavedBytes());
+        assertEquals(2000, stats.getReadBytes());
+        assertEquals(1000, stats.getDownloadedBytes());
+
+        stats.reset();
+        assertEquals(0, stats.getReadBytes());
+        assertEquals(0, stats.getDownloadedBytes());
+    }
+
+    @Test
+    public void doesNotSaveMoreThanRead() {
+        MediaCacheStats stats = new MediaCacheStats();
+        // Loader downloads bytes ahead of player reads
+        stats.onDownloaded(5000);
+        stats.onRead(1000);
+        assertEquals(0, stats.getSavedBytes());
+        assertEquals(0.0f, stats.getHitRatio(), 0.0f);
+    }
+
+    @Test
+    public void prefetchedRangeReadByPlayerIsHit() {
+        MediaCacheStats stats = new MediaCacheStats();
+        // Prefetch downloads range, its reads are not counted
+        stats.onPrefetchDownloaded(4000);
+        assertEquals(0, stats.getReadBytes());
+        assertEquals(0, stats.getDownloadedBytes());
+
+        // Player seeks into the range and reads it from cache
+        stats.onRead(4000);
+        assertEquals(4000, stats.getSavedBytes());
+        assertEquals(1.0f, stats.getHitRatio(), 0.0f);
+
+        // Then it reads past the range from network
+        stats.onDownloaded(4000);
+        stats.onRead(4000);
+        assertEquals(4000, stats.getSavedBytes());
+        assertEquals(0.5f, stats.getHitRatio(), 0.0001f);
+        assertEquals(4000, stats.getPrefetchDownloadedBytes());
+
+        stats.reset();
+        assertEquals(0, stats.getPrefetchDownloadedBytes());
+    }
+}
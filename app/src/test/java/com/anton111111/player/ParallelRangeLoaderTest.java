@@ -0,0 +1,301 @@
+package com.anton111111.player;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ParallelRangeLoaderTest {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNKS = 8;
+    private static final long WINDOW_NANOS = 50000000L;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] media(int size) {
+        byte[] media = new byte[size];
+        new Random(42).nextBytes(media);
+        return media;
+    }
+
+    private static byte[] readAll(ParallelRangeLoader loader, int length) throws IOException {
+        byte[] result = new byte[length];
+        int offset = 0;
+        while (true) {
+            int read = loader.read(result, offset, Math.min(10000, Math.max(1, result.length - offset)));
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+        assertEquals(length, offset);
+        return result;
+    }
+
+    private static ConnectionCountController fixedConnections(int connections) {
+        return new ConnectionCountController(connections, connections, connections, WINDOW_NANOS);
+    }
+
+    @Test
+    public void readsRangeInOrder() throws IOException {
+        byte[] media = media(CHUNK_SIZE * 20 + 123);
+        // Reads are throttled, so loads of chunks overlap
+        FakeSourceFactory factory = new FakeSourceFactory(media, 1);
+        ParallelRangeLoader loader = new ParallelRangeLoader(executor, fixedConnections(4), new ParallelRangeStats(),
+                CHUNK_SIZE, MAX_CHUNKS);
+
+        loader.start(factory, 0, media.length, null);
+        assertArrayEquals(media, readAll(loader, media.length));
+        assertEquals(-1, loader.read(new byte[1], 0, 1));
+
+        // Seek into middle of chunk, range ends before media
+        loader.start(factory, 1000, media.length - 5000, null);
+        assertArrayEquals(Arrays.copyOfRange(media, 1000, media.length - 5000),
+                readAll(loader, media.length - 6000));
+        loader.close();
+        assertTrue(factory.maxOpenedCount.get() > 1);
+        // Next load may open before finished or cancelled one closes its connection
+        assertTrue(factory.maxOpenedCount.get() <= 2 * 4);
+    }
+
+    @Test
+    public void boundsMemory() throws Exception {
+        byte[] media = media(CHUNK_SIZE * 50);
+        FakeSourceFactory factory = new FakeSourceFactory(media, 0);
+        ParallelRangeLoader loader = new ParallelRangeLoader(executor, fixedConnections(4), new ParallelRangeStats(),
+                CHUNK_SIZE, MAX_CHUNKS);
+        loader.start(factory, 0, media.length, null);
+        byte[] buffer = new byte[100];
+        assertEquals(100, loader.read(buffer, 0, buffer.length));
+        // Reader is slow, loads stop when ring is full. Ring is full when its chunks are loaded,
+        // loader would have opened next chunk before the last of them was loaded then
+        assertTrue(factory.loadedRanges.tryAcquire(MAX_CHUNKS, 10, TimeUnit.SECONDS));
+        assertEquals(MAX_CHUNKS, factory.totalOpenedCount.get());
+        assertEquals((MAX_CHUNKS - 1) * CHUNK_SIZE, factory.maxOpenedPosition.get());
+        assertEquals(MAX_CHUNKS * CHUNK_SIZE, loader.getAllocatedBytes());
+        assertEquals(media.length - 100, readAll(loader, media.length - 100).length);
+        assertTrue(loader.getAllocatedBytes() <= MAX_CHUNKS * CHUNK_SIZE);
+        loader.close();
+    }
+
+    @Test
+    public void reusesBuffersOfPool() throws IOException {
+        byte[] media = media(CHUNK_SIZE * 20);
+        FakeSourceFactory factory = new FakeSourceFactory(media, 0);
+        ChunkBufferPool pool = new ChunkBufferPool(CHUNK_SIZE, MAX_CHUNKS);
+        ParallelRangeLoader loader = new ParallelRangeLoader(executor, fixedConnections(4), new ParallelRangeStats(),
+                pool, MAX_CHUNKS);
+        loader.start(factory, 0, media.length, null);
+        assertArrayEquals(media, readAll(loader, media.length));
+        loader.close();
+        long allocatedCount = pool.getAllocatedCount();
+        assertTrue(allocatedCount <= MAX_CHUNKS);
+
+        // Source after seek gets buffers of closed one
+        ParallelRangeLoader nextLoader = new ParallelRangeLoader(executor, fixedConnections(4),
+                new ParallelRangeStats(), pool, MAX_CHUNKS);
+        nextLoader.start(factory, CHUNK_SIZE * 10, media.length, null);
+        assertArrayEquals(Arrays.copyOfRange(media, CHUNK_SIZE * 10, media.length),
+                readAll(nextLoader, media.length - CHUNK_SIZE * 10));
+        nextLoader.close();
+        assertEquals(allocatedCount, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void usesOpenedSourceForFirstChunk() throws IOException {
+        byte[] media = media(CHUNK_SIZE * 3);
+        FakeSourceFactory factory = new FakeSourceFactory(media, 0);
+        ParallelRangeLoader loader = new ParallelRangeLoader(executor, fixedConnections(2), new ParallelRangeStats(),
+                CHUNK_SIZE, MAX_CHUNKS);
+        FakeSource opened = new FakeSource(factory);
+        opened.open(0, CHUNK_SIZE);
+        factory.openedCount.set(0);
+
+        loader.start(factory, 0, media.length, opened);
+        assertArrayEquals(media, readAll(loader, media.length));
+        // Two other chunks are loaded by new sources
+        assertEquals(2, factory.totalOpenedCount.get() - 1);
+        assertTrue(opened.isClosed);
+        loader.close();
+    }
+
+    @Test
+    public void retriesFailedChunk() throws IOException {
+        byte[] media = media(CHUNK_SIZE * 10);
+        FakeSourceFactory factory = new FakeSourceFactory(media, 0);
+        factory.failuresLeft.set(2);
+        ParallelRangeStats stats = new ParallelRangeStats();
+        ParallelRangeLoader loader = new ParallelRangeLoader(executor, fixedConnections(1), stats,
+                CHUNK_SIZE, MAX_CHUNKS);
+        loader.start(factory, 0, media.length, null);
+        assertArrayEquals(media, readAll(loader, media.length));
+        assertEquals(2, stats.getRetriesCount());
+        loader.close();
+    }
+
+    @Test
+    public void throwsWhenRetriesAreOver() throws IOException {
+        byte[] media = media(CHUNK_SIZE * 2);
+        FakeSourceFactory factory = new FakeSourceFactory(media, 0);
+        factory.failuresLeft.set(Integer.MAX_VALUE);
+        ParallelRangeLoader loader = new ParallelRangeLoader(executor, fixedConnections(1), new ParallelRangeStats(),
+                CHUNK_SIZE, MAX_CHUNKS);
+        loader.start(factory, 0, media.length, null);
+        try {
+            readAll(loader, media.length);
+            fail("Error of load is not thrown");
+        } catch (IOException e) {
+            // Expected
+        }
+        loader.close();
+    }
+
+    @Test
+    public void loadsChunksOfThrottledLinkAtOnce() throws IOException {
+        // Every connection gets about 16 KB per 2 ms, chunk is loaded for about 8 ms
+        byte[] media = media(CHUNK_SIZE * 32);
+        FakeSourceFactory factory = new FakeSourceFactory(media, 2);
+        ParallelRangeStats stats = new ParallelRangeStats();
+        ParallelRangeLoader loader = new ParallelRangeLoader(executor, fixedConnections(4), stats,
+                CHUNK_SIZE, MAX_CHUNKS);
+        loader.start(factory, 0, media.length, null);
+        assertArrayEquals(media, readAll(loader, media.length));
+        loader.close();
+        // Every chunk is loaded by one connection, loads of chunks overlap
+        assertEquals(32, factory.totalOpenedCount.get());
+        assertEquals(0, stats.getRetriesCount());
+        // Next load may open before finished one closes its connection
+        assertTrue(factory.maxOpenedCount.get() >= 4);
+        assertTrue(factory.maxOpenedCount.get() <= 2 * 4);
+        assertTrue(stats.getStallsCount() > 0);
+    }
+
+    @Test
+    public void addsConnectionsToThrottledLink() throws IOException {
+        byte[] media = media(CHUNK_SIZE * 64);
+        FakeSourceFactory factory = new FakeSourceFactory(media, 2);
+        ConnectionCountController controller = new ConnectionCountController(1, 4, 1, WINDOW_NANOS);
+        ParallelRangeLoader loader = new ParallelRangeLoader(executor, controller, new ParallelRangeStats(),
+                CHUNK_SIZE, MAX_CHUNKS);
+        loader.start(factory, 0, media.length, null);
+        assertArrayEquals(media, readAll(loader, media.length));
+        loader.close();
+        assertTrue(controller.getConnections() > 1);
+        assertTrue(factory.maxOpenedCount.get() > 1);
+    }
+
+
+    private static class FakeSourceFactory implements ParallelRangeLoader.RangeSourceFactory {
+
+        final byte[] media;
+        final long readDelayMillis;
+        final AtomicInteger openedCount = new AtomicInteger();
+        final AtomicInteger maxOpenedCount = new AtomicInteger();
+        final AtomicInteger totalOpenedCount = new AtomicInteger();
+        final AtomicInteger maxOpenedPosition = new AtomicInteger();
+        final AtomicInteger failuresLeft = new AtomicInteger();
+        // Permit is released when source has read its whole range
+        final Semaphore loadedRanges = new Semaphore(0);
+
+        FakeSourceFactory(byte[] media, long readDelayMillis) {
+            this.media = media;
+            this.readDelayMillis = readDelayMillis;
+        }
+
+        @Override
+        public ParallelRangeLoader.RangeSource createRangeSource() {
+            return new FakeSource(this);
+        }
+    }
+
+    private static class FakeSource implements ParallelRangeLoader.RangeSource {
+
+        private static final int READ_SIZE = 16 * 1024;
+
+        private final FakeSourceFactory factory;
+        private int position;
+        private int end;
+        private boolean isOpened = false;
+        private boolean hasRead = false;
+        boolean isClosed = false;
+
+        FakeSource(FakeSourceFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public long open(long position, long length) throws IOException {
+            if (isOpened) {
+                // Opened before loader got it
+                return end - this.position;
+            }
+            isOpened = true;
+            this.position = (int) position;
+            this.end = (int) Math.min(factory.media.length, position + length);
+            int opened = factory.openedCount.incrementAndGet();
+            factory.totalOpenedCount.incrementAndGet();
+            while (true) {
+                int max = factory.maxOpenedCount.get();
+                if (opened <= max || factory.maxOpenedCount.compareAndSet(max, opened)) {
+                    break;
+                }
+            }
+            while (true) {
+                int max = factory.maxOpenedPosition.get();
+                if (position <= max || factory.maxOpenedPosition.compareAndSet(max, (int) position)) {
+                    break;
+                }
+            }
+            return end - position;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            if (factory.readDelayMillis > 0) {
+                try {
+                    Thread.sleep(factory.readDelayMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            // Connection is reset after the first read, loader reads from the first missed byte again
+            if (hasRead && factory.failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("Connection reset");
+            }
+            hasRead = true;
+            int count = Math.min(READ_SIZE, Math.min(length, end - position));
+            System.arraycopy(factory.media, position, buffer, offset, count);
+            position += count;
+            if (position == end) {
+                factory.loadedRanges.release();
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            if (isOpened && !isClosed) {
+                factory.openedCount.decrementAndGet();
+            }
+            isClosed = true;
+        }
+    }
+}
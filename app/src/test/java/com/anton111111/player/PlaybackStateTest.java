@@ -0,0 +1,55 @@
+package com.anton111111.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackStateTest {
+
+    private static final long TIMESTAMP = 100000L;
+
+    @Test
+    public void extrapolatesPositionWhilePlaying() {
+        PlaybackState state = new PlaybackState(10000, 40000, 60000, true, true, false, 1.0f, TIMESTAMP);
+        assertEquals(10000, state.getPosition());
+        assertEquals(10000, state.getPosition(TIMESTAMP));
+        assertEquals(10250, state.getPosition(TIMESTAMP + 250));
+        // Clock read before snapshot doesn't move position back
+        assertEquals(10000, state.getPosition(TIMESTAMP - 50));
+
+        PlaybackState fast = new PlaybackState(10000, 40000, 60000, true, true, false, 2.0f, TIMESTAMP);
+        assertEquals(10500, fast.getPosition(TIMESTAMP + 250));
+    }
+
+    @Test
+    public void keepsPositionWhenNotAdvancing() {
+        PlaybackState paused = new PlaybackState(10000, 40000, 60000, false, false, false, 1.0f, TIMESTAMP);
+        assertEquals(10000, paused.getPosition(TIMESTAMP + 5000));
+        // Plays but buffers
+        PlaybackState buffering = new PlaybackState(10000, 10000, 60000, true, false, false, 1.0f, TIMESTAMP);
+        assertEquals(10000, buffering.getPosition(TIMESTAMP + 5000));
+    }
+
+    @Test
+    public void stopsAtBufferedPositionAndDuration() {
+        PlaybackState state = new PlaybackState(10000, 12000, 60000, true, true, false, 1.0f, TIMESTAMP);
+        assertEquals(12000, state.getPosition(TIMESTAMP + 5000));
+
+        PlaybackState nearEnd = new PlaybackState(59000, 60000, 60000, true, true, false, 1.0f, TIMESTAMP);
+        assertEquals(60000, nearEnd.getPosition(TIMESTAMP + 5000));
+
+        // Duration is unknown for live streams
+        PlaybackState live = new PlaybackState(10000, 30000, 0, true, true, false, 1.0f, TIMESTAMP);
+        assertEquals(15000, live.getPosition(TIMESTAMP + 5000));
+    }
+
+    @Test
+    public void computesBufferPercentage() {
+        assertEquals(50, new PlaybackState(0, 30000, 60000, true, true, false, 1.0f, TIMESTAMP).getBufferPercentage());
+        assertEquals(100, new PlaybackState(0, 61000, 60000, true, true, false, 1.0f, TIMESTAMP).getBufferPercentage());
+        assertEquals(0, new PlaybackState(0, 30000, 0, true, true, false, 1.0f, TIMESTAMP).getBufferPercentage());
+        assertEquals(0, PlaybackState.EMPTY.getBufferPercentage());
+        assertFalse(PlaybackState.EMPTY.isPlaying());
+        assertEquals(0, PlaybackState.EMPTY.getPosition(TIMESTAMP));
+    }
+}
@@ -0,0 +1,271 @@
+package com.anton111111.player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlayerCommandQueueTest {
+
+    /**
+     * Player which records executed commands
+     */
+    private static class RecordingPlayer implements MediaPlayerControl {
+
+        final List<String> commands = new ArrayList<>();
+        final List<Long> seeks = new ArrayList<>();
+        // Updated as SeekPrefetcher of player does
+        final SeekPrefetchStats stats = new SeekPrefetchStats();
+
+        @Override
+        public void start() {
+            commands.add("start");
+        }
+
+        @Override
+        public void pause() {
+            commands.add("pause");
+        }
+
+        @Override
+        public void seekTo(long pos) {
+            commands.add("seek " + pos);
+            seeks.add(pos);
+            stats.onSeek(pos);
+        }
+
+        @Override
+        public void prefetch(long pos) {
+            commands.add("prefetch " + pos);
+            stats.onPrefetchStarted(pos);
+        }
+
+        @Override
+        public void cancelPrefetch() {
+            commands.add("cancel prefetch");
+            stats.onPrefetchCancelled();
+        }
+
+        @Override
+        public long getDuration() {
+            return 0;
+        }
+
+        @Override
+        public long getCurrentPosition() {
+            return 0;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return false;
+        }
+
+        @Override
+        public boolean isEnded() {
+            return false;
+        }
+
+        @Override
+        public int getBufferPercentage() {
+            return 0;
+        }
+
+        @Override
+        public boolean canPause() {
+            return true;
+        }
+
+        @Override
+        public boolean canSeekBackward() {
+            return true;
+        }
+
+        @Override
+        public boolean canSeekForward() {
+            return true;
+        }
+
+        @Override
+        public int getAudioSessionId() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void coalescesPendingCommands() {
+        PlayerCommandQueue queue = new PlayerCommandQueue(16);
+        RecordingPlayer player = new RecordingPlayer();
+        queue.offer(PlayerCommandQueue.COMMAND_SEEK, 1000);
+        queue.offer(PlayerCommandQueue.COMMAND_PAUSE, 0);
+        queue.offer(PlayerCommandQueue.COMMAND_SEEK, 2000);
+        queue.offer(PlayerCommandQueue.COMMAND_SEEK, 3000);
+        queue.offer(PlayerCommandQueue.COMMAND_START, 0);
+        assertEquals(5, queue.size());
+
+        assertEquals(2, queue.drain(player));
+        assertEquals(0, queue.size());
+        // Seek goes first, then the last playback command
+        assertEquals("[seek 3000, start]", player.commands.toString());
+        assertEquals(2, queue.getExecutedCount());
+        assertEquals(3, queue.getCoalescedCount());
+        assertTrue(queue.getLastLatencyNanos() >= 0);
+        assertTrue(queue.getMaxLatencyNanos() >= queue.getLastLatencyNanos());
+
+        assertEquals(0, queue.drain(player));
+        queue.offer(PlayerCommandQueue.COMMAND_PAUSE, 0);
+        assertEquals(1, queue.drain(player));
+        assertEquals("[seek 3000, start, pause]", player.commands.toString());
+    }
+
+    @Test
+    public void coalescesPrefetches() {
+        PlayerCommandQueue queue = new PlayerCommandQueue(16);
+        RecordingPlayer player = new RecordingPlayer();
+        queue.offer(PlayerCommandQueue.COMMAND_PREFETCH, 1000);
+        queue.offer(PlayerCommandQueue.COMMAND_PREFETCH, 2000);
+        queue.offer(PlayerCommandQueue.COMMAND_SEEK, 2000);
+        queue.offer(PlayerCommandQueue.COMMAND_PREFETCH, 3000);
+        assertEquals(2, queue.drain(player));
+        // Prefetch is offered after seek
+        assertEquals("[seek 2000, prefetch 3000]", player.commands.toString());
+
+        queue.offer(PlayerCommandQueue.COMMAND_PREFETCH, 4000);
+        queue.offer(PlayerCommandQueue.COMMAND_CANCEL_PREFETCH, 0);
+        assertEquals(1, queue.drain(player));
+        assertEquals("[seek 2000, prefetch 3000, cancel prefetch]", player.commands.toString());
+    }
+
+    @Test
+    public void keepsOrderOfSeekAndPrefetchCancel() {
+        PlayerCommandQueue queue = new PlayerCommandQueue(16);
+        RecordingPlayer player = new RecordingPlayer();
+        queue.offer(PlayerCommandQueue.COMMAND_PREFETCH, 30000);
+        queue.drain(player);
+
+        // Dwell click seeks to prefetched position, then cursor leaves seek bar
+        queue.offer(PlayerCommandQueue.COMMAND_SEEK, 30000);
+        queue.offer(PlayerCommandQueue.COMMAND_CANCEL_PREFETCH, 0);
+        assertEquals(2, queue.drain(player));
+        assertEquals("[prefetch 30000, seek 30000, cancel prefetch]", player.commands.toString());
+        // Seek used prefetch, cancel after it is not a miss
+        assertEquals(1, player.stats.getSeeksCount());
+        assertEquals(1, player.stats.getPartialHitsCount());
+        assertEquals(0, player.stats.getCancelledCount());
+
+        // Cursor leaves seek bar before click
+        queue.offer(PlayerCommandQueue.COMMAND_PREFETCH, 60000);
+        queue.drain(player);
+        queue.offer(PlayerCommandQueue.COMMAND_CANCEL_PREFETCH, 0);
+        queue.offer(PlayerCommandQueue.COMMAND_SEEK, 60000);
+        assertEquals(2, queue.drain(player));
+        assertEquals("cancel prefetch", player.commands.get(player.commands.size() - 2));
+        assertEquals("seek 60000", player.commands.get(player.commands.size() - 1));
+        assertEquals(1, player.stats.getCancelledCount());
+        assertEquals(1, player.stats.getPartialHitsCount());
+    }
+
+    @Test
+    public void dropsPlaybackCommandsWhenFull() {
+        PlayerCommandQueue queue = new PlayerCommandQueue(4);
+        RecordingPlayer player = new RecordingPlayer();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(PlayerCommandQueue.COMMAND_PAUSE, 0));
+        }
+        assertFalse(queue.offer(PlayerCommandQueue.COMMAND_START, 0));
+        assertEquals(1, queue.getDroppedCount());
+        queue.drain(player);
+        // Slots are free again, ring wraps
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(PlayerCommandQueue.COMMAND_PAUSE, 0));
+        }
+        assertTrue(queue.offer(PlayerCommandQueue.COMMAND_START, 0));
+        queue.drain(player);
+        assertEquals("[pause, start]", player.commands.toString());
+    }
+
+    @Test
+    public void neverDropsLatestSeekAndPrefetch() {
+        PlayerCommandQueue queue = new PlayerCommandQueue(4);
+        RecordingPlayer player = new RecordingPlayer();
+        for (int i = 0; i < 4; i++) {
+            queue.offer(PlayerCommandQueue.COMMAND_START, 0);
+        }
+        // Ring is full, seeks and prefetches don't use it
+        for (int i = 1; i <= 100; i++) {
+            assertTrue(queue.offer(PlayerCommandQueue.COMMAND_PREFETCH, i * 10));
+            assertTrue(queue.offer(PlayerCommandQueue.COMMAND_SEEK, i));
+        }
+        assertEquals(204, queue.size());
+        assertEquals(3, queue.drain(player));
+        assertEquals("[prefetch 1000, seek 100, start]", player.commands.toString());
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(201, queue.getCoalescedCount());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void schedulesOneDrainForManyCommands() {
+        PlayerCommandQueue queue = new PlayerCommandQueue(16);
+        assertTrue(queue.scheduleDrain());
+        assertFalse(queue.scheduleDrain());
+        queue.drain(new RecordingPlayer());
+        assertTrue(queue.scheduleDrain());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownCommand() {
+        new PlayerCommandQueue(16).offer(42, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityNotPowerOfTwo() {
+        new PlayerCommandQueue(10);
+    }
+
+    @Test
+    public void deliversLatestSeekAcrossThreads() throws InterruptedException {
+        final PlayerCommandQueue queue = new PlayerCommandQueue(8);
+        final RecordingPlayer player = new RecordingPlayer();
+        final int count = 200000;
+        final boolean[] isDone = new boolean[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    boolean isLast;
+                    synchronized (isDone) {
+                        isLast = isDone[0];
+                    }
+                    queue.drain(player);
+                    if (isLast) {
+                        queue.drain(player);
+                        return;
+                    }
+                }
+            }
+        });
+        consumer.start();
+        for (long position = 1; position <= count; position++) {
+            assertTrue(queue.offer(PlayerCommandQueue.COMMAND_SEEK, position));
+        }
+        while (queue.size() > 0) {
+            Thread.yield();
+        }
+        synchronized (isDone) {
+            isDone[0] = true;
+        }
+        consumer.join();
+
+        assertEquals(count, queue.getExecutedCount() + queue.getCoalescedCount());
+        long previous = 0;
+        for (long position : player.seeks) {
+            // Published seeks are never torn or reordered
+            assertTrue(position > previous);
+            previous = position;
+        }
+        assertEquals(count, previous);
+    }
+}
@@ -0,0 +1,62 @@
+package com.anton111111.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SeekPrefetchStatsTest {
+
+    @Test
+    public void countsSeekToPrefetchedPosition() {
+        SeekPrefetchStats stats = new SeekPrefetchStats();
+        stats.onPrefetchStarted(30000);
+        stats.onPrefetchCompleted(30000);
+        assertTrue(stats.onSeek(30000));
+
+        stats.onPrefetchStarted(60000);
+        assertTrue(stats.onSeek(60000 + SeekPrefetchStats.HIT_TOLERANCE_MS));
+
+        assertEquals(2, stats.getRequestedCount());
+        assertEquals(1, stats.getCompletedCount());
+        assertEquals(2, stats.getSeeksCount());
+        assertEquals(1, stats.getCompleteHitsCount());
+        assertEquals(1, stats.getPartialHitsCount());
+        assertEquals(0, stats.getCancelledCount());
+    }
+
+    @Test
+    public void countsMissesAndCancels() {
+        SeekPrefetchStats stats = new SeekPrefetchStats();
+        assertFalse(stats.onSeek(1000));
+
+        stats.onPrefetchStarted(30000);
+        assertFalse(stats.onSeek(50000));
+        // Prefetch is done by seek
+        assertFalse(stats.onSeek(30000));
+
+        stats.onPrefetchStarted(30000);
+        stats.onPrefetchCancelled();
+        assertFalse(stats.onSeek(30000));
+
+        // Completed prefetch is not counted as cancelled
+        stats.onPrefetchStarted(40000);
+        stats.onPrefetchCompleted(40000);
+        stats.onPrefetchCancelled();
+
+        assertEquals(3, stats.getRequestedCount());
+        assertEquals(1, stats.getCancelledCount());
+        assertEquals(4, stats.getSeeksCount());
+        assertEquals(0, stats.getCompleteHitsCount() + stats.getPartialHitsCount());
+    }
+
+    @Test
+    public void ignoresCompletionOfReplacedPrefetch() {
+        SeekPrefetchStats stats = new SeekPrefetchStats();
+        stats.onPrefetchStarted(30000);
+        stats.onPrefetchStarted(32000);
+        stats.onPrefetchCompleted(30000);
+        assertEquals(0, stats.getCompletedCount());
+        assertTrue(stats.onSeek(32000));
+        assertEquals(1, stats.getPartialHitsCount());
+    }
+}
@@ -0,0 +1,34 @@
+package com.anton111111.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SeekPrefetcherTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void startsWindowBeforeOffsetOfPosition() {
+        // Offset of the middle of media is the middle of content
+        long[] window = SeekPrefetcher.getWindow(100 * MB, 30000, 60000);
+        assertEquals(50 * MB - SeekPrefetcher.PREFETCH_BYTES_BEFORE, window[0]);
+        assertEquals(SeekPrefetcher.PREFETCH_BYTES, window[1]);
+    }
+
+    @Test
+    public void clampsWindowToContent() {
+        long[] window = SeekPrefetcher.getWindow(100 * MB, 0, 60000);
+        assertEquals(0, window[0]);
+        assertEquals(SeekPrefetcher.PREFETCH_BYTES, window[1]);
+
+        window = SeekPrefetcher.getWindow(100 * MB, 60000, 60000);
+        assertEquals(100 * MB - SeekPrefetcher.PREFETCH_BYTES_BEFORE, window[0]);
+        assertEquals(SeekPrefetcher.PREFETCH_BYTES_BEFORE, window[1]);
+
+        // Media is shorter than window
+        window = SeekPrefetcher.getWindow(MB, 15000, 60000);
+        assertEquals(0, window[0]);
+        assertEquals(MB, window[1]);
+    }
+}
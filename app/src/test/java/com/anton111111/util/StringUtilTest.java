@@ -0,0 +1,40 @@
+package com.anton111111.util;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class StringUtilTest {
+
+    @Test
+    public void appendsTimeLikeFormatter() {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+        try {
+            long[] times = new long[]{0, 999, 1000, 59999, 60000, 61500, 3599999, 3600000, 36000000 + 61000};
+            StringBuilder sb = new StringBuilder();
+            for (long time : times) {
+                sb.setLength(0);
+                assertEquals(StringUtil.millisecondsToString((int) time),
+                        StringUtil.appendTime(sb, time).toString());
+            }
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void appendsToBuilder() {
+        StringBuilder sb = new StringBuilder();
+        StringUtil.appendTime(sb, 65000).append('/');
+        StringUtil.appendTime(sb, 3725000);
+        assertEquals("01:05/1:02:05", sb.toString());
+    }
+
+    @Test
+    public void clampsNegativeTime() {
+        assertEquals("00:00", StringUtil.appendTime(new StringBuilder(), -5000).toString());
+    }
+}
@@ -0,0 +1,131 @@
+package com.anton111111.vr;
+
+import android.opengl.GLES20;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GLHelperTest {
+
+    private static final int GL_INVALID_OPERATION = 0x0502;
+    private static final int GL_OUT_OF_MEMORY = 0x0505;
+
+    @After
+    public void tearDown() {
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_PER_FRAME);
+        GLHelper.setErrorBackend(null);
+    }
+
+    @Test
+    public void drawErrorsAreCheckedOnlyPerCall() {
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_NONE);
+        assertFalse(GLHelper.isDrawGLErrorChecked());
+        assertFalse(GLHelper.isFrameGLErrorChecked());
+
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_PER_FRAME);
+        assertFalse(GLHelper.isDrawGLErrorChecked());
+        assertTrue(GLHelper.isFrameGLErrorChecked());
+
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_PER_CALL);
+        assertTrue(GLHelper.isDrawGLErrorChecked());
+        assertTrue(GLHelper.isFrameGLErrorChecked());
+        assertEquals(GLHelper.GL_ERROR_CHECK_PER_CALL, GLHelper.getGLErrorCheckPolicy());
+    }
+
+    @Test
+    public void drawChecksAreSkippedWithoutGL() {
+        // glGetError is not available in unit tests, skipped check doesn't call it
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_NONE);
+        GLHelper.checkDrawGLError("draw");
+        GLHelper.checkFrameGLError("frame");
+
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_PER_FRAME);
+        GLHelper.checkDrawGLError("draw");
+    }
+
+    @Test
+    public void perCallPolicyThrowsWithLabel() {
+        FakeErrorBackend errors = new FakeErrorBackend(GL_INVALID_OPERATION);
+        GLHelper.setErrorBackend(errors);
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_PER_CALL);
+        try {
+            GLHelper.checkDrawGLError("VideoRenderer render");
+            fail("GL error is not thrown");
+        } catch (RuntimeException e) {
+            assertEquals("VideoRenderer render: glError " + GL_INVALID_OPERATION, e.getMessage());
+        }
+        assertEquals(1, errors.logged.size());
+    }
+
+    @Test
+    public void perFramePolicyLogsAndContinues() {
+        FakeErrorBackend errors = new FakeErrorBackend(GL_INVALID_OPERATION, GL_OUT_OF_MEMORY);
+        GLHelper.setErrorBackend(errors);
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_PER_FRAME);
+
+        GLHelper.checkDrawGLError("draw");
+        assertEquals(0, errors.getErrorCount);
+
+        GLHelper.checkFrameGLError("frame");
+        assertEquals(2, errors.logged.size());
+        assertEquals("frame: glError " + GL_INVALID_OPERATION, errors.logged.get(0));
+        assertEquals("frame: glError " + GL_OUT_OF_MEMORY, errors.logged.get(1));
+        // Error flags are cleared
+        assertTrue(errors.errors.isEmpty());
+    }
+
+    @Test
+    public void disabledPolicyNeverPollsErrors() {
+        FakeErrorBackend errors = new FakeErrorBackend(GL_INVALID_OPERATION);
+        GLHelper.setErrorBackend(errors);
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_NONE);
+
+        GLHelper.checkDrawGLError("draw");
+        GLHelper.checkFrameGLError("frame");
+        assertEquals(0, errors.getErrorCount);
+        assertTrue(errors.logged.isEmpty());
+    }
+
+    @Test
+    public void setupErrorsAreCheckedWithAnyPolicy() {
+        FakeErrorBackend errors = new FakeErrorBackend(GL_OUT_OF_MEMORY);
+        GLHelper.setErrorBackend(errors);
+        GLHelper.setGLErrorCheckPolicy(GLHelper.GL_ERROR_CHECK_NONE);
+        try {
+            GLHelper.checkGLError("upload");
+            fail("GL error is not thrown");
+        } catch (RuntimeException e) {
+            assertEquals("upload: glError " + GL_OUT_OF_MEMORY, e.getMessage());
+        }
+    }
+
+    private static class FakeErrorBackend implements GLHelper.ErrorBackend {
+        final ArrayDeque<Integer> errors = new ArrayDeque<>();
+        final List<String> logged = new ArrayList<>();
+        int getErrorCount = 0;
+
+        FakeErrorBackend(int... errors) {
+            for (int error : errors) {
+                this.errors.addLast(error);
+            }
+        }
+
+        @Override
+        public int getError() {
+            getErrorCount++;
+            Integer error = errors.pollFirst();
+            return (error != null) ? error : GLES20.GL_NO_ERROR;
+        }
+
+        @Override
+        public void logError(String message) {
+            logged.add(message);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.anton111111.vr;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GLStateCacheTest {
+
+    @Test
+    public void skipsUseOfCurrentProgram() {
+        RecordingBackend gl = new RecordingBackend();
+        GLStateCache cache = new GLStateCache(gl);
+
+        cache.useProgram(3);
+        cache.useProgram(3);
+        cache.useProgram(4);
+        cache.useProgram(4);
+
+        assertEquals(2, gl.calls.size());
+        assertEquals("useProgram 3", gl.calls.get(0));
+        assertEquals("useProgram 4", gl.calls.get(1));
+        assertEquals(2, cache.getSavedCalls());
+        assertEquals(2, cache.getIssuedCalls());
+        assertEquals(4, cache.getProgram());
+    }
+
+    @Test
+    public void bindsBufferPerTarget() {
+        RecordingBackend gl = new RecordingBackend();
+        GLStateCache cache = new GLStateCache(gl);
+
+        cache.bindBuffer(GLES20.GL_ARRAY_BUFFER, 2);
+        cache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 2);
+        cache.bindBuffer(GLES20.GL_ARRAY_BUFFER, 2);
+        assertEquals(2, gl.calls.size());
+
+        cache.onBufferDeleted(2);
+        cache.bindBuffer(GLES20.GL_ARRAY_BUFFER, 2);
+        cache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        assertEquals(4, gl.calls.size());
+        assertEquals("bindBuffer " + GLES20.GL_ELEMENT_ARRAY_BUFFER + " 0", gl.calls.get(3));
+    }
+
+    @Test
+    public void bindsTexturePerUnitAndTarget() {
+        RecordingBackend gl = new RecordingBackend();
+        GLStateCache cache = new GLStateCache(gl);
+
+        cache.bindTexture(0, GLES20.GL_TEXTURE_2D, 5);
+        cache.bindTexture(0, GLES20.GL_TEXTURE_2D, 5);
+        assertEquals(2, gl.calls.size());
+
+        // Other target of the same unit is separate binding, unit is already active
+        cache.bindTexture(0, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 5);
+        assertEquals(3, gl.calls.size());
+        assertEquals("bindTexture " + GLES11Ext.GL_TEXTURE_EXTERNAL_OES + " 5", gl.calls.get(2));
+
+        cache.bindTexture(1, GLES20.GL_TEXTURE_2D, 5);
+        assertEquals("activeTexture " + (GLES20.GL_TEXTURE0 + 1), gl.calls.get(3));
+        assertEquals(5, gl.calls.size());
+
+        // Binding of unit 0 is still known
+        cache.bindTexture(0, GLES20.GL_TEXTURE_2D, 5);
+        assertEquals(5, gl.calls.size());
+    }
+
+    @Test
+    public void rebindsDeletedTexture() {
+        RecordingBackend gl = new RecordingBackend();
+        GLStateCache cache = new GLStateCache(gl);
+
+        cache.bindTexture(0, GLES20.GL_TEXTURE_2D, 5);
+        cache.onTextureDeleted(5);
+        cache.bindTexture(0, GLES20.GL_TEXTURE_2D, 5);
+        assertEquals("bindTexture " + GLES20.GL_TEXTURE_2D + " 5", gl.calls.get(gl.calls.size() - 1));
+        assertEquals(3, gl.calls.size());
+
+        cache.invalidateTextures();
+        cache.bindTexture(0, GLES20.GL_TEXTURE_2D, 5);
+        assertEquals(5, gl.calls.size());
+    }
+
+    @Test
+    public void changesOnlyDifferentVertexAttribArrays() {
+        RecordingBackend gl = new RecordingBackend();
+        GLStateCache cache = new GLStateCache(gl);
+
+        // State is unknown, so every array is set
+        cache.setEnabledVertexAttribArrays(0x3);
+        assertEquals(gl.maxVertexAttribs, gl.calls.size());
+
+        gl.calls.clear();
+        cache.setEnabledVertexAttribArrays(0x3);
+        assertTrue(gl.calls.isEmpty());
+
+        cache.setEnabledVertexAttribArrays(0x1);
+        assertEquals(1, gl.calls.size());
+        assertEquals("disableVertexAttribArray 1", gl.calls.get(0));
+
+        cache.setEnabledVertexAttribArrays(0x5);
+        assertEquals(2, gl.calls.size());
+        assertEquals("enableVertexAttribArray 2", gl.calls.get(1));
+    }
+
+    @Test
+    public void tracksVertexAttribLocationsOfGL() {
+        RecordingBackend gl = new RecordingBackend();
+        gl.maxVertexAttribs = 16;
+        GLStateCache cache = new GLStateCache(gl);
+
+        cache.setEnabledVertexAttribArrays(1 << 12);
+        assertEquals(16, gl.calls.size());
+        assertEquals("enableVertexAttribArray 12", gl.calls.get(12));
+
+        gl.calls.clear();
+        cache.setEnabledVertexAttribArrays(1 << 15);
+        assertEquals(2, gl.calls.size());
+        assertEquals("disableVertexAttribArray 12", gl.calls.get(0));
+        assertEquals("enableVertexAttribArray 15", gl.calls.get(1));
+    }
+
+    @Test
+    public void tracksAllBitsOfMask() {
+        RecordingBackend gl = new RecordingBackend();
+        gl.maxVertexAttribs = 64;
+        GLStateCache cache = new GLStateCache(gl);
+
+        assertEquals(GLStateCache.MAX_TRACKED_VERTEX_ATTRIBS, cache.getMaxVertexAttribs());
+        cache.setEnabledVertexAttribArrays(1 << 31);
+        assertEquals(GLStateCache.MAX_TRACKED_VERTEX_ATTRIBS, gl.calls.size());
+        assertEquals("enableVertexAttribArray 31", gl.calls.get(31));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUntrackedVertexAttribLocation() {
+        RecordingBackend gl = new RecordingBackend();
+        new GLStateCache(gl).setEnabledVertexAttribArrays(1 << gl.maxVertexAttribs);
+    }
+
+    @Test
+    public void skipsSameBlendAndDepthState() {
+        RecordingBackend gl = new RecordingBackend();
+        GLStateCache cache = new GLStateCache(gl);
+
+        for (int eye = 0; eye < 2; eye++) {
+            cache.setDepthTest(true);
+            cache.setBlend(true);
+            cache.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+            cache.depthFunc(GLES20.GL_ALWAYS);
+            cache.depthMask(false);
+            cache.depthFunc(GLES20.GL_LEQUAL);
+            cache.depthMask(true);
+        }
+
+        // The second eye sets only depth state that is changed by HUD of the first one
+        assertEquals(11, gl.calls.size());
+        assertEquals(3, cache.getSavedCalls());
+    }
+
+    @Test
+    public void beginFrameKeepsCountersAndForgetsState() {
+        RecordingBackend gl = new RecordingBackend();
+        GLStateCache cache = new GLStateCache(gl);
+
+        cache.useProgram(1);
+        cache.useProgram(1);
+        cache.beginFrame();
+
+        assertEquals(1, cache.getLastFrameSavedCalls());
+        assertEquals(1, cache.getLastFrameIssuedCalls());
+        assertEquals(0, cache.getSavedCalls());
+
+        cache.useProgram(1);
+        assertEquals(2, gl.calls.size());
+    }
+
+    @Test
+    public void beginFrameKeepsStateUntouchedByDistortion() {
+        RecordingBackend gl = new RecordingBackend();
+        GLStateCache cache = new GLStateCache(gl);
+        cache.setEnabledVertexAttribArrays(0x3);
+        cache.bindTexture(1, GLES20.GL_TEXTURE_2D, 5);
+        cache.bindTexture(0, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 6);
+        cache.bindBuffer(GLES20.GL_ARRAY_BUFFER, 2);
+        cache.setBlend(true);
+        cache.beginFrame();
+        gl.calls.clear();
+
+        cache.setEnabledVertexAttribArrays(0x3);
+        cache.bindTexture(1, GLES20.GL_TEXTURE_2D, 5);
+        assertTrue(gl.calls.isEmpty());
+
+        // Distortion pass uses unit 0, buffers and blend
+        cache.bindTexture(0, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 6);
+        cache.bindBuffer(GLES20.GL_ARRAY_BUFFER, 2);
+        cache.setBlend(true);
+        assertEquals(4, gl.calls.size());
+        assertEquals("activeTexture " + GLES20.GL_TEXTURE0, gl.calls.get(0));
+        assertEquals("bindTexture " + GLES11Ext.GL_TEXTURE_EXTERNAL_OES + " 6", gl.calls.get(1));
+    }
+
+    private static class RecordingBackend implements GLStateCache.Backend {
+        final List<String> calls = new ArrayList<>();
+        int maxVertexAttribs = 8;
+
+        @Override
+        public void useProgram(int program) {
+            calls.add("useProgram " + program);
+        }
+
+        @Override
+        public void activeTexture(int texture) {
+            calls.add("activeTexture " + texture);
+        }
+
+        @Override
+        public void bindTexture(int target, int texture) {
+            calls.add("bindTexture " + target + " " + texture);
+        }
+
+        @Override
+        public void bindBuffer(int target, int buffer) {
+            calls.add("bindBuffer " + target + " " + buffer);
+        }
+
+        @Override
+        public void enableVertexAttribArray(int index) {
+            calls.add("enableVertexAttribArray " + index);
+        }
+
+        @Override
+        public void disableVertexAttribArray(int index) {
+            calls.add("disableVertexAttribArray " + index);
+        }
+
+        @Override
+        public void enable(int cap) {
+            calls.add("enable " + cap);
+        }
+
+        @Override
+        public void disable(int cap) {
+            calls.add("disable " + cap);
+        }
+
+        @Override
+        public void blendFunc(int src, int dst) {
+            calls.add("blendFunc " + src + " " + dst);
+        }
+
+        @Override
+        public void depthFunc(int func) {
+            calls.add("depthFunc " + func);
+        }
+
+        @Override
+        public void depthMask(boolean flag) {
+            calls.add("depthMask " + flag);
+        }
+
+        @Override
+        public int getMaxVertexAttribs() {
+            return maxVertexAttribs;
+        }
+    }
+}
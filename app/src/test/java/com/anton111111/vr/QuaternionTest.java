@@ -0,0 +1,157 @@
+package com.anton111111.vr;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuaternionTest {
+
+    private static final float[] AXIS_Z = new float[]{0.0f, 0.0f, 1.0f};
+
+    /**
+     * Angle of rotation from a to b, it is taken from sin, acos of dot is too coarse for small angles
+     */
+    public static float angleBetween(float[] a, float[] b) {
+        float[] inverse = new float[4];
+        float[] delta = new float[4];
+        Quaternion.inverse(inverse, a);
+        Quaternion.multiplyQQ(delta, b, inverse);
+        float sin = (float) Math.sqrt(delta[0] * delta[0] + delta[1] * delta[1] + delta[2] * delta[2]);
+        return 2.0f * (float) Math.atan2(sin, Math.abs(delta[3]));
+    }
+
+    private static float[] random(Random random) {
+        float[] q = new float[]{random.nextFloat() - 0.5f, random.nextFloat() - 0.5f,
+                random.nextFloat() - 0.5f, random.nextFloat() - 0.5f};
+        Quaternion.normalizeLocal(q);
+        return q;
+    }
+
+    private static void multiplyMM(float[] result, float[] lhs, float[] rhs) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                float sum = 0.0f;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[k * 4 + j] * rhs[i * 4 + k];
+                }
+                result[i * 4 + j] = sum;
+            }
+        }
+    }
+
+    @Test
+    public void multipliesLikeMatrices() {
+        Random random = new Random(1);
+        float[] product = new float[4];
+        float[] lhsMatrix = new float[16];
+        float[] rhsMatrix = new float[16];
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < 1000; i++) {
+            float[] lhs = random(random);
+            float[] rhs = random(random);
+            Quaternion.multiplyQQ(product, lhs, rhs);
+            Quaternion.toMatrix(lhsMatrix, lhs);
+            Quaternion.toMatrix(rhsMatrix, rhs);
+            // toMatrix writes rotation transposed, so product of matrices is in reverse order
+            multiplyMM(expected, rhsMatrix, lhsMatrix);
+            Quaternion.toMatrix(actual, product);
+            assertArrayEquals(expected, actual, 0.0001f);
+            assertEquals(1.0f, Quaternion.norm(product), 0.0001f);
+        }
+    }
+
+    @Test
+    public void multipliesInPlace() {
+        Random random = new Random(2);
+        float[] q = random(random);
+        float[] inverse = new float[4];
+        Quaternion.inverse(inverse, q);
+        Quaternion.multiplyQQ(q, q, inverse);
+        assertArrayEquals(new float[]{0.0f, 0.0f, 0.0f, 1.0f}, q, 0.0001f);
+    }
+
+    @Test
+    public void slerpsWithConstantSpeed() {
+        float[] from = new float[4];
+        float[] to = new float[4];
+        float[] expected = new float[4];
+        float[] result = new float[4];
+        Quaternion.fromNormalAxisDegreeAngle(from, 10.0f, AXIS_Z);
+        Quaternion.fromNormalAxisDegreeAngle(to, 130.0f, AXIS_Z);
+
+        for (float t = -0.5f; t <= 1.5f; t += 0.125f) {
+            Quaternion.slerp(result, from, to, t);
+            Quaternion.fromNormalAxisDegreeAngle(expected, 10.0f + 120.0f * t, AXIS_Z);
+            assertEquals(0.0f, angleBetween(expected, result), 0.0005f);
+            assertEquals(1.0f, Quaternion.norm(result), 0.0001f);
+        }
+
+        // Negated quaternion is the same rotation, arc must still be the short one
+        for (int i = 0; i < 4; i++) {
+            to[i] = -to[i];
+        }
+        Quaternion.slerp(result, from, to, 0.5f);
+        Quaternion.fromNormalAxisDegreeAngle(expected, 70.0f, AXIS_Z);
+        assertEquals(0.0f, angleBetween(expected, result), 0.0005f);
+    }
+
+    @Test
+    public void slerpsEqualRotations() {
+        float[] q = new float[4];
+        float[] result = new float[4];
+        Quaternion.fromNormalAxisDegreeAngle(q, 33.0f, AXIS_Z);
+        Quaternion.slerp(result, q, q, 0.3f);
+        assertArrayEquals(q, result, 0.00001f);
+    }
+
+    @Test
+    public void nlerpsCloseToSlerpForSmallAngles() {
+        Random random = new Random(3);
+        float[] to = new float[4];
+        float[] delta = new float[4];
+        float[] slerp = new float[4];
+        float[] nlerp = new float[4];
+        for (int i = 0; i < 1000; i++) {
+            float[] from = random(random);
+            Quaternion.fromAngularVelocity(delta, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f,
+                    random.nextFloat() - 0.5f, 0.1f);
+            Quaternion.multiplyQQ(to, delta, from);
+            float t = random.nextFloat();
+            Quaternion.slerp(slerp, from, to, t);
+            Quaternion.nlerp(nlerp, from, to, t);
+            assertEquals(0.0f, angleBetween(slerp, nlerp), 0.001f);
+        }
+    }
+
+    @Test
+    public void convertsAngularVelocity() {
+        float[] q = new float[4];
+        float[] expected = new float[4];
+        float[] velocity = new float[3];
+        // 90 degrees per second about z for half a second
+        Quaternion.fromAngularVelocity(q, 0.0f, 0.0f, (float) Math.PI / 2.0f, 0.5f);
+        Quaternion.fromNormalAxisDegreeAngle(expected, 45.0f, AXIS_Z);
+        assertArrayEquals(expected, q, 0.00001f);
+
+        Quaternion.toAngularVelocity(velocity, q, 0.5f);
+        assertArrayEquals(new float[]{0.0f, 0.0f, (float) Math.PI / 2.0f}, velocity, 0.0001f);
+
+        Random random = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            float wx = (random.nextFloat() - 0.5f) * 10.0f;
+            float wy = (random.nextFloat() - 0.5f) * 10.0f;
+            float wz = (random.nextFloat() - 0.5f) * 10.0f;
+            Quaternion.fromAngularVelocity(q, wx, wy, wz, 0.1f);
+            Quaternion.toAngularVelocity(velocity, q, 0.1f);
+            assertArrayEquals(new float[]{wx, wy, wz}, velocity, 0.001f);
+        }
+
+        Quaternion.fromAngularVelocity(q, 0.0f, 0.0f, 0.0f, 1.0f);
+        assertArrayEquals(new float[]{0.0f, 0.0f, 0.0f, 1.0f}, q, 0.0f);
+        Quaternion.toAngularVelocity(velocity, q, 1.0f);
+        assertArrayEquals(new float[]{0.0f, 0.0f, 0.0f}, velocity, 0.0f);
+    }
+}
@@ -0,0 +1,220 @@
+package com.anton111111.vr;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class ScratchMathTest {
+
+    private static final int WARM_UP_FRAMES = 20000;
+    private static final int MEASURED_FRAMES = 10000;
+
+    @Test
+    public void reusesArraysAfterScopeEnd() {
+        ScratchMath scratch = new ScratchMath();
+
+        scratch.begin();
+        float[] m1 = scratch.matrix();
+        float[] m2 = scratch.matrix();
+        float[] q = scratch.quaternion();
+        assertNotSame(m1, m2);
+        assertEquals(ScratchMath.MATRIX_SIZE, m1.length);
+        assertEquals(ScratchMath.QUATERNION_SIZE, q.length);
+        assertEquals(ScratchMath.VECTOR_SIZE, scratch.vector().length);
+        scratch.end();
+
+        scratch.begin();
+        assertSame(m1, scratch.matrix());
+        assertSame(m2, scratch.matrix());
+        assertSame(q, scratch.quaternion());
+        scratch.end();
+    }
+
+    @Test
+    public void nestedScopesDoNotShareArrays() {
+        ScratchMath scratch = new ScratchMath();
+
+        scratch.begin();
+        float[] outer = scratch.matrix();
+        scratch.begin();
+        float[] inner = scratch.matrix();
+        assertNotSame(outer, inner);
+        scratch.end();
+        assertSame(inner, scratch.matrix());
+        scratch.end();
+        assertEquals(0, scratch.getScopesDepth());
+    }
+
+    @Test
+    public void growsPool() {
+        ScratchMath scratch = new ScratchMath();
+        scratch.begin();
+        float[][] taken = new float[100][];
+        for (int i = 0; i < taken.length; i++) {
+            taken[i] = scratch.matrix();
+            for (int j = 0; j < i; j++) {
+                assertNotSame(taken[j], taken[i]);
+            }
+        }
+        scratch.end();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsOutOfScope() {
+        new ScratchMath().matrix();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsOnEndWithoutBegin() {
+        new ScratchMath().end();
+    }
+
+    @Test
+    public void rotatesMatrixLikeMultiplicationToRotationMatrix() {
+        float[] quaternion = new float[4];
+        Quaternion.fromEulerAngles(quaternion, 0.3f, -1.2f, 0.7f);
+        float[] m = new float[20];
+        for (int i = 0; i < m.length; i++) {
+            m[i] = i * 0.5f - 3.0f;
+        }
+        float[] source = new float[16];
+        System.arraycopy(m, 4, source, 0, 16);
+        float[] rotation = new float[16];
+        Quaternion.toMatrix(rotation, quaternion);
+        float[] expected = new float[16];
+        multiplyMM(expected, source, rotation);
+
+        Quaternion.rotateM(m, 4, quaternion);
+
+        for (int i = 0; i < 16; i++) {
+            assertEquals(expected[i], m[4 + i], 0.0001f);
+        }
+        assertEquals(-3.0f, m[0], 0.0f);
+    }
+
+    @Test
+    public void vectorVariantsWithResultMatchAllocating() {
+        float[] u = new float[]{1.0f, -2.0f, 3.5f};
+        float[] v = new float[]{0.5f, 4.0f, -1.0f};
+        float[] result = new float[3];
+
+        VectorUtil.minus(result, u, v);
+        assertArrayEquals(VectorUtil.minus(u, v), result, 0.0f);
+        VectorUtil.addition(result, u, v);
+        assertArrayEquals(VectorUtil.addition(u, v), result, 0.0f);
+        VectorUtil.scalarProduct(result, 2.5f, u);
+        assertArrayEquals(VectorUtil.scalarProduct(2.5f, u), result, 0.0f);
+        float[] cross = VectorUtil.crossProduct(u, v);
+        // Result may be argument
+        VectorUtil.crossProduct(u, u, v);
+        assertArrayEquals(cross, u, 0.0f);
+    }
+
+    @Test
+    public void frameMathDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        ScratchMath scratch = new ScratchMath();
+        Frame frame = new Frame();
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame.render(scratch, i);
+        }
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            frame.render(scratch, i);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Frame loop allocated " + allocated + " bytes", allocated < MEASURED_FRAMES);
+        assertTrue(frame.checksum != 0.0f);
+    }
+
+
+    /**
+     * Math of one frame like renderers do for both eyes: head rotation with panel correction,
+     * model view projection, cursor vectors.
+     */
+    private static class Frame {
+        final float[] headQuaternion = new float[]{0.0f, 0.0f, 0.0f, 1.0f};
+        final float[] correctionQuaternion = new float[]{0.0f, 0.0f, 0.0f, 1.0f};
+        final float[] viewMatrix = new float[16];
+        final float[] projectionMatrix = new float[16];
+        final float[] eulerAngles = new float[3];
+        float checksum = 0.0f;
+
+        Frame() {
+            for (int i = 0; i < 16; i++) {
+                viewMatrix[i] = (i % 5 == 0) ? 1.0f : 0.01f * i;
+                projectionMatrix[i] = (i % 5 == 0) ? 1.5f : 0.0f;
+            }
+        }
+
+        void render(ScratchMath scratch, int frameIndex) {
+            Quaternion.fromEulerAngles(headQuaternion, 0.001f * frameIndex, 0.002f * frameIndex, 0.0f);
+            Quaternion.toEulerAngle(headQuaternion, eulerAngles);
+            Quaternion.inverse(correctionQuaternion, headQuaternion);
+            for (int eye = 1; eye <= 2; eye++) {
+                scratch.begin();
+                try {
+                    float[] modelMatrix = scratch.matrix();
+                    float[] modelViewMatrix = scratch.matrix();
+                    float[] modelViewProjection = scratch.matrix();
+                    float[] quaternion = scratch.quaternion();
+                    setIdentityM(modelMatrix);
+                    Quaternion.multiplyQQ(quaternion, headQuaternion, correctionQuaternion);
+                    Quaternion.rotateM(modelMatrix, 0, headQuaternion);
+                    Quaternion.rotateM(modelMatrix, 0, quaternion);
+                    multiplyMM(modelViewMatrix, viewMatrix, modelMatrix);
+                    multiplyMM(modelViewProjection, projectionMatrix, modelViewMatrix);
+
+                    scratch.begin();
+                    float[] near = scratch.vector();
+                    float[] far = scratch.vector();
+                    float[] dir = scratch.vector();
+                    near[0] = modelViewProjection[0];
+                    near[1] = modelViewProjection[5];
+                    near[2] = modelViewProjection[10];
+                    far[0] = modelViewProjection[12];
+                    far[1] = modelViewProjection[13];
+                    far[2] = -modelViewProjection[14];
+                    VectorUtil.minus(dir, far, near);
+                    VectorUtil.crossProduct(dir, dir, near);
+                    VectorUtil.scalarProduct(dir, 0.5f, dir);
+                    VectorUtil.addition(dir, dir, far);
+                    checksum += VectorUtil.dot(dir, near) + eulerAngles[eye];
+                    scratch.end();
+                } finally {
+                    scratch.end();
+                }
+            }
+        }
+    }
+
+    private static void setIdentityM(float[] m) {
+        for (int i = 0; i < 16; i++) {
+            m[i] = (i % 5 == 0) ? 1.0f : 0.0f;
+        }
+    }
+
+    // Column major like android.opengl.Matrix.multiplyMM, it is not available on JVM
+    private static void multiplyMM(float[] result, float[] lhs, float[] rhs) {
+        for (int c = 0; c < 4; c++) {
+            for (int r = 0; r < 4; r++) {
+                float sum = 0.0f;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[k * 4 + r] * rhs[c * 4 + k];
+                }
+                result[c * 4 + r] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.anton111111.vr.buffer;
+
+import android.opengl.GLES20;
+
+import com.anton111111.vr.GLStateCache;
+
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GLBufferArenaTest {
+
+    private static final float[] QUAD = new float[]{
+            -1.0f, -1.0f, 0.0f,
+            1.0f, -1.0f, 0.0f,
+            1.0f, 1.0f, 0.0f,
+            -1.0f, 1.0f, 0.0f
+    };
+
+    @Test
+    public void firstBindUploadsEverything() {
+        RecordingBackend gl = new RecordingBackend();
+        GLBufferArena arena = new GLBufferArena(gl, new GLStateCache(gl), 64);
+
+        GLBufferArena.Region region = arena.allocate(QUAD);
+        assertEquals(0, region.getOffset());
+        assertEquals(12, region.getSize());
+        assertTrue(arena.isDirty());
+
+        arena.bind();
+        assertFalse(arena.isDirty());
+        assertEquals("bufferData " + GLES20.GL_ARRAY_BUFFER + " " + 64 * GLBufferArena.FLOAT_SIZE,
+                gl.uploads.get(0));
+        assertEquals("bufferData " + GLES20.GL_ELEMENT_ARRAY_BUFFER + " " +
+                        GLBufferArena.QUAD_INDEXES.length * GLBufferArena.SHORT_SIZE,
+                gl.uploads.get(1));
+        assertEquals(2, gl.uploads.size());
+    }
+
+    @Test
+    public void unchangedDataIsNotUploaded() {
+        RecordingBackend gl = new RecordingBackend();
+        GLBufferArena arena = new GLBufferArena(gl, new GLStateCache(gl), 64);
+        GLBufferArena.Region region = arena.allocate(QUAD);
+        arena.bind();
+        int uploadedBytes = arena.getUploadedBytes();
+
+        region.set(QUAD.clone());
+        region.set(0, QUAD[0]);
+        arena.bind();
+
+        assertFalse(arena.isDirty());
+        assertEquals(2, gl.uploads.size());
+        assertEquals(uploadedBytes, arena.getUploadedBytes());
+    }
+
+    @Test
+    public void changedRangeIsUploaded() {
+        RecordingBackend gl = new RecordingBackend();
+        GLBufferArena arena = new GLBufferArena(gl, new GLStateCache(gl), 64);
+        arena.allocate(QUAD);
+        GLBufferArena.Region region = arena.allocate(QUAD);
+        arena.bind();
+
+        float[] changed = QUAD.clone();
+        changed[3] = 0.5f;
+        changed[6] = 0.5f;
+        region.set(changed);
+        assertTrue(arena.isDirty());
+        arena.bind();
+
+        // Only floats 3..6 of second region
+        assertEquals("bufferSubData " + GLES20.GL_ARRAY_BUFFER + " " +
+                        (12 + 3) * GLBufferArena.FLOAT_SIZE + " " + 4 * GLBufferArena.FLOAT_SIZE,
+                gl.uploads.get(2));
+        assertEquals(0.5f, region.get(3), 0.0f);
+        assertEquals(3, gl.uploads.size());
+    }
+
+    @Test
+    public void grownArenaIsUploadedAgain() {
+        RecordingBackend gl = new RecordingBackend();
+        GLBufferArena arena = new GLBufferArena(gl, new GLStateCache(gl), 16);
+        GLBufferArena.Region first = arena.allocate(QUAD);
+        arena.bind();
+
+        GLBufferArena.Region second = arena.allocate(QUAD);
+        assertEquals(12, second.getOffset());
+        assertEquals(24, arena.getSize());
+        arena.bind();
+
+        assertEquals("bufferData " + GLES20.GL_ARRAY_BUFFER + " " + 32 * GLBufferArena.FLOAT_SIZE,
+                gl.uploads.get(2));
+        // Data of first region is kept
+        for (int i = 0; i < QUAD.length; i++) {
+            assertEquals(QUAD[i], first.get(i), 0.0f);
+        }
+    }
+
+    @Test
+    public void quadTextureCoordsAreShared() {
+        RecordingBackend gl = new RecordingBackend();
+        GLBufferArena arena = new GLBufferArena(gl, new GLStateCache(gl), 64);
+
+        GLBufferArena.Region coords = arena.getQuadTextureCoords();
+        assertSame(coords, arena.getQuadTextureCoords());
+        assertEquals(GLBufferArena.QUAD_TEXTURE_COORDS.length, arena.getSize());
+    }
+
+    @Test
+    public void buffersAreCreatedAndBoundOnce() {
+        RecordingBackend gl = new RecordingBackend();
+        GLBufferArena arena = new GLBufferArena(gl, new GLStateCache(gl), 64);
+        arena.allocate(QUAD);
+
+        arena.bind();
+        arena.bind();
+        arena.bind();
+
+        assertEquals(2, gl.generated);
+        assertEquals(2, gl.binds);
+
+        arena.release();
+        assertEquals(2, gl.deleted);
+        arena.bind();
+        assertEquals(4, gl.generated);
+        assertEquals(4, gl.binds);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setOfWrongSizeFails() {
+        RecordingBackend gl = new RecordingBackend();
+        GLBufferArena arena = new GLBufferArena(gl, new GLStateCache(gl), 64);
+        arena.allocate(QUAD).set(new float[3]);
+    }
+
+
+    private static class RecordingBackend implements GLBufferArena.Backend, GLStateCache.Backend {
+        final List<String> uploads = new ArrayList<>();
+        int generated = 0;
+        int deleted = 0;
+        int binds = 0;
+
+        @Override
+        public int genBuffer() {
+            return ++generated;
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            deleted++;
+        }
+
+        @Override
+        public void bufferData(int target, int size, Buffer data, int usage) {
+            uploads.add("bufferData " + target + " " + size);
+        }
+
+        @Override
+        public void bufferSubData(int target, int offset, int size, Buffer data) {
+            assertEquals(offset / GLBufferArena.FLOAT_SIZE, data.position());
+            uploads.add("bufferSubData " + target + " " + offset + " " + size);
+        }
+
+        @Override
+        public void bindBuffer(int target, int buffer) {
+            binds++;
+        }
+
+        @Override
+        public void useProgram(int program) {
+        }
+
+        @Override
+        public void activeTexture(int texture) {
+        }
+
+        @Override
+        public void bindTexture(int target, int texture) {
+        }
+
+        @Override
+        public void enableVertexAttribArray(int index) {
+        }
+
+        @Override
+        public void disableVertexAttribArray(int index) {
+        }
+
+        @Override
+        public void enable(int cap) {
+        }
+
+        @Override
+        public void disable(int cap) {
+        }
+
+        @Override
+        public void blendFunc(int src, int dst) {
+        }
+
+        @Override
+        public void depthFunc(int func) {
+        }
+
+        @Override
+        public void depthMask(boolean flag) {
+        }
+
+        @Override
+        public int getMaxVertexAttribs() {
+            return 8;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.anton111111.vr.mesh;
+
+import com.anton111111.vr.VideoFormatsSettings;
+import com.anton111111.vr.raypicking.Triangle;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SphereMeshTest {
+
+    private static final float EPSILON = 0.0005f;
+    private static final float FULL_FOV = (float) (Math.PI * 2.0d);
+    private static final String[] PARTIAL_FOV_FORMATS = new String[]{
+            VideoFormatsSettings.VIDEO_FORMAT_3D_180_SIDE_BY_SIDE,
+            VideoFormatsSettings.VIDEO_FORMAT_3D_180_OVER_BY_UNDER,
+            VideoFormatsSettings.VIDEO_FORMAT_2D_180,
+            VideoFormatsSettings.VIDEO_FORMAT_3D_270_SIDE_BY_SIDE
+    };
+
+    @Test
+    public void buildsExpectedTopology() {
+        SphereMesh mesh = SphereMesh.create(1.0f, 8, 16, FULL_FOV, VideoFormatsSettings.STEREO_TYPE_MONO);
+        assertEquals(9 * 17, mesh.getVertexCount());
+        assertEquals(9 * 17 * SphereMesh.VERTEX_SIZE, mesh.getVertices().length);
+        assertEquals(8 * 16 * 6, mesh.getVertexIndexes().length);
+        for (short index : mesh.getVertexIndexes()) {
+            assertTrue((index & 0xFFFF) < mesh.getVertexCount());
+        }
+    }
+
+    @Test
+    public void verticesLieOnSphere() {
+        SphereMesh mesh = SphereMesh.create(2.5f, 16, 32, FULL_FOV, VideoFormatsSettings.STEREO_TYPE_MONO);
+        float[] v = mesh.getVertices();
+        for (int i = 0; i < v.length; i += SphereMesh.VERTEX_SIZE) {
+            double length = Math.sqrt(v[i] * v[i] + v[i + 1] * v[i + 1] + v[i + 2] * v[i + 2]);
+            assertEquals(2.5d, length, EPSILON);
+        }
+    }
+
+    @Test
+    public void monoTextureCoordsMatchShader() {
+        assertMatchesShader(VideoFormatsSettings.STEREO_TYPE_MONO);
+    }
+
+    @Test
+    public void sideBySideTextureCoordsMatchShader() {
+        assertMatchesShader(VideoFormatsSettings.STEREO_TYPE_SIDE_BY_SIDE);
+    }
+
+    @Test
+    public void overUnderTextureCoordsMatchShader() {
+        assertMatchesShader(VideoFormatsSettings.STEREO_TYPE_OVER_UNDER);
+    }
+
+    @Test
+    public void partialFovMeshHasNoDiscardedVertices() {
+        float[] uv = new float[2];
+        for (String format : PARTIAL_FOV_FORMATS) {
+            float fov = VideoFormatsSettings.getFov(format);
+            int stereoType = VideoFormatsSettings.getStereoType(format);
+            SphereMesh mesh = SphereMesh.create(1.0f, 16, 32, fov, stereoType);
+            float[] v = mesh.getVertices();
+            double minAngle = Double.MAX_VALUE;
+            double maxAngle = -Double.MAX_VALUE;
+            for (int i = 0; i < v.length; i += SphereMesh.VERTEX_SIZE) {
+                for (int c = SphereMesh.LEFT_EYE_TEXTURE_COORDS_OFFSET; c < SphereMesh.VERTEX_SIZE; c++) {
+                    assertTrue(format, v[i + c] >= -EPSILON && v[i + c] <= 1.0f + EPSILON);
+                }
+                if (Math.abs(Math.abs(v[i + 1]) - 1.0f) < EPSILON) {
+                    continue;
+                }
+                double hAngle = SphereMesh.horizontalAngle(v[i], v[i + 2]);
+                minAngle = Math.min(minAngle, hAngle);
+                maxAngle = Math.max(maxAngle, hAngle);
+
+                // Same result as shader for every vertex, i.e. nothing would be discarded
+                assertTrue(format, SphereMesh.referenceTextureCoords(
+                        v[i], v[i + 1], v[i + 2], fov + EPSILON, stereoType, 0.0f, uv));
+            }
+            assertEquals(format, -fov / 2.0f, minAngle, EPSILON);
+            assertEquals(format, fov / 2.0f, maxAngle, EPSILON);
+        }
+    }
+
+    @Test
+    public void partialFovMeshCoversExactlyFov() {
+        Random random = new Random(42);
+        for (String format : PARTIAL_FOV_FORMATS) {
+            float fov = VideoFormatsSettings.getFov(format);
+            int sectors = 32;
+            SphereMesh mesh = SphereMesh.create(1.0f, 16, sectors, fov,
+                    VideoFormatsSettings.getStereoType(format));
+            Triangle[] triangles = toTriangles(mesh);
+            double sectorAngle = fov / sectors;
+
+            for (int i = 0; i < 500; i++) {
+                // Keep away from poles and FOV borders where rays hit triangle edges
+                double vAngle = 0.2d + random.nextDouble() * (Math.PI - 0.4d);
+                double inside = (random.nextDouble() * 2.0d - 1.0d) * (fov / 2.0d - sectorAngle);
+                assertTrue(format + " must cover " + Math.toDegrees(inside),
+                        isHit(triangles, inside, vAngle));
+
+                double outside = fov / 2.0d + sectorAngle +
+                        random.nextDouble() * (Math.PI - fov / 2.0d - 2.0d * sectorAngle);
+                if (outside < Math.PI) {
+                    assertFalse(format + " must not cover " + Math.toDegrees(outside),
+                            isHit(triangles, outside, vAngle));
+                    assertFalse(format + " must not cover " + Math.toDegrees(-outside),
+                            isHit(triangles, -outside, vAngle));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyVertices() {
+        SphereMesh.create(1.0f, 512, 512, FULL_FOV, VideoFormatsSettings.STEREO_TYPE_MONO);
+    }
+
+    private void assertMatchesShader(int stereoType) {
+        SphereMesh mesh = SphereMesh.create(1.0f, 32, 64, FULL_FOV, stereoType);
+        float[] v = mesh.getVertices();
+        float[] uv = new float[2];
+        int checked = 0;
+        for (int i = 0; i < v.length; i += SphereMesh.VERTEX_SIZE) {
+            float x = v[i];
+            float y = v[i + 1];
+            float z = v[i + 2];
+            // atan is undefined on poles and wraps on the back seam, shader interpolates
+            // over them so there is nothing to compare there
+            if (Math.abs(Math.abs(y) - 1.0f) < EPSILON || (z > 0 && Math.abs(x) < EPSILON)) {
+                continue;
+            }
+
+            assertTrue(SphereMesh.referenceTextureCoords(x, y, z, FULL_FOV, stereoType, 0.0f, uv));
+            assertEquals(uv[0], v[i + SphereMesh.LEFT_EYE_TEXTURE_COORDS_OFFSET], EPSILON);
+            assertEquals(uv[1], v[i + SphereMesh.LEFT_EYE_TEXTURE_COORDS_OFFSET + 1], EPSILON);
+
+            assertTrue(SphereMesh.referenceTextureCoords(x, y, z, FULL_FOV, stereoType, 0.5f, uv));
+            if (stereoType == VideoFormatsSettings.STEREO_TYPE_MONO) {
+                assertEquals(v[i + SphereMesh.LEFT_EYE_TEXTURE_COORDS_OFFSET],
+                        v[i + SphereMesh.RIGHT_EYE_TEXTURE_COORDS_OFFSET], 0.0f);
+            } else {
+                assertEquals(uv[0], v[i + SphereMesh.RIGHT_EYE_TEXTURE_COORDS_OFFSET], EPSILON);
+                assertEquals(uv[1], v[i + SphereMesh.RIGHT_EYE_TEXTURE_COORDS_OFFSET + 1], EPSILON);
+            }
+            checked++;
+        }
+        assertTrue(checked > 0);
+    }
+
+    private static Triangle[] toTriangles(SphereMesh mesh) {
+        float[] v = mesh.getVertices();
+        short[] indexes = mesh.getVertexIndexes();
+        Triangle[] triangles = new Triangle[indexes.length / 3];
+        for (int i = 0; i < indexes.length; i += 3) {
+            triangles[i / 3] = new Triangle(
+                    position(v, indexes[i]), position(v, indexes[i + 1]), position(v, indexes[i + 2]));
+        }
+        return triangles;
+    }
+
+    private static float[] position(float[] vertices, short index) {
+        int i = (index & 0xFFFF) * SphereMesh.VERTEX_SIZE;
+        return new float[]{vertices[i], vertices[i + 1], vertices[i + 2]};
+    }
+
+    private static boolean isHit(Triangle[] triangles, double hAngle, double vAngle) {
+        float sinTheta = (float) Math.sin(vAngle);
+        float[] origin = new float[]{0.0f, 0.0f, 0.0f};
+        float[] direction = new float[]{
+                (float) (sinTheta * Math.sin(hAngle)),
+                (float) -Math.cos(vAngle),
+                (float) (-sinTheta * Math.cos(hAngle))
+        };
+        float[] point = new float[3];
+        for (Triangle t : triangles) {
+            if (Triangle.intersectRayAndTriangle(direction, origin, t, point) == 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
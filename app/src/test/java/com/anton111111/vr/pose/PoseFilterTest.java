@@ -0,0 +1,125 @@
+package com.anton111111.vr.pose;
+
+import com.anton111111.vr.Quaternion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.anton111111.vr.QuaternionTest.angleBetween;
+import static org.junit.Assert.*;
+
+public class PoseFilterTest {
+
+    private static final long FRAME_NANOS = 16666667L;
+    private static final long TIME_CONSTANT_NANOS = 50000000L;
+
+    @Test
+    public void passesSamplesWithoutTimeConstant() {
+        PoseFilter filter = new PoseFilter(0L);
+        float[] sample = new float[4];
+        float[] result = new float[4];
+        Random random = new Random(6);
+        for (int frame = 0; frame < 10; frame++) {
+            Quaternion.fromEulerAngles(sample, random.nextFloat(), random.nextFloat(), random.nextFloat());
+            filter.filter(result, sample, frame * FRAME_NANOS);
+            assertArrayEquals(sample, result, 0.0f);
+        }
+    }
+
+    @Test
+    public void reducesJitter() {
+        PoseFilter filter = new PoseFilter(TIME_CONSTANT_NANOS);
+        Random random = new Random(7);
+        float[] steady = new float[4];
+        float[] sample = new float[4];
+        float[] noise = new float[4];
+        float[] result = new float[4];
+        Quaternion.fromEulerAngles(steady, 0.2f, 1.0f, 0.0f);
+        filter.filter(result, steady, 0L);
+        double rawError = 0.0;
+        double filteredError = 0.0;
+        for (int frame = 1; frame < 600; frame++) {
+            Quaternion.fromAngularVelocity(noise, (float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian(), 0.002f);
+            Quaternion.multiplyQQ(sample, noise, steady);
+            filter.filter(result, sample, frame * FRAME_NANOS);
+            rawError += angleBetween(steady, sample);
+            filteredError += angleBetween(steady, result);
+        }
+        assertTrue(filteredError < rawError / 2.0);
+    }
+
+    @Test
+    public void followsStepIndependentlyOfFrameRate() {
+        float[] from = new float[4];
+        float[] to = new float[4];
+        Quaternion.fromEulerAngles(from, 0.0f, 0.0f, 0.0f);
+        Quaternion.fromEulerAngles(to, 0.0f, 0.5f, 0.0f);
+        float[] at100 = stepResponse(from, to, 10000000L);
+        float[] at200 = stepResponse(from, to, 5000000L);
+        assertEquals(0.0f, angleBetween(at100, at200), 0.0001f);
+        // After one time constant about 63% of the way is passed
+        float passed = angleBetween(from, at100) / 0.5f;
+        assertEquals(1.0f - Math.exp(-1.0), passed, 0.02f);
+    }
+
+    private static float[] stepResponse(float[] from, float[] to, long frameNanos) {
+        PoseFilter filter = new PoseFilter(TIME_CONSTANT_NANOS);
+        float[] result = new float[4];
+        filter.filter(result, from, 0L);
+        for (long time = frameNanos; time <= TIME_CONSTANT_NANOS; time += frameNanos) {
+            filter.filter(result, to, time);
+        }
+        return result;
+    }
+
+    @Test
+    public void filtersOnlyJitterBelowMaxDeviation() {
+        float maxDeviation = (float) Math.toRadians(0.5);
+        PoseFilter filter = new PoseFilter(TIME_CONSTANT_NANOS, maxDeviation);
+        float[] sample = new float[4];
+        float[] result = new float[4];
+        Quaternion.fromEulerAngles(sample, 0.0f, 0.0f, 0.0f);
+        filter.filter(result, sample, 0L);
+
+        // Fast turn, filtered rotation lags by max deviation only
+        for (int frame = 1; frame < 30; frame++) {
+            Quaternion.fromEulerAngles(sample, 0.0f, frame * 0.05f, 0.0f);
+            filter.filter(result, sample, frame * FRAME_NANOS);
+            assertEquals(maxDeviation, angleBetween(sample, result), 0.0001f);
+        }
+
+        // Tremor within max deviation is filtered as usual
+        float[] steady = sample.clone();
+        float[] noise = new float[4];
+        Random random = new Random(8);
+        double rawError = 0.0;
+        double filteredError = 0.0;
+        for (int frame = 30; frame < 600; frame++) {
+            Quaternion.fromAngularVelocity(noise, (float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian(), 0.001f);
+            Quaternion.multiplyQQ(sample, noise, steady);
+            filter.filter(result, sample, frame * FRAME_NANOS);
+            assertTrue(angleBetween(sample, result) <= maxDeviation + 0.0001f);
+            if (frame >= 60) {
+                rawError += angleBetween(steady, sample);
+                filteredError += angleBetween(steady, result);
+            }
+        }
+        assertTrue(filteredError < rawError / 2.0);
+    }
+
+    @Test
+    public void restartsAfterReset() {
+        PoseFilter filter = new PoseFilter(TIME_CONSTANT_NANOS);
+        float[] sample = new float[4];
+        float[] result = new float[4];
+        Quaternion.fromEulerAngles(sample, 0.0f, 0.0f, 0.0f);
+        filter.filter(result, sample, 0L);
+        filter.reset();
+        Quaternion.fromEulerAngles(sample, 0.0f, 1.0f, 0.0f);
+        filter.filter(result, sample, FRAME_NANOS);
+        assertArrayEquals(sample, result, 0.0f);
+    }
+}
@@ -0,0 +1,144 @@
+package com.anton111111.vr.pose;
+
+import com.anton111111.vr.Quaternion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.anton111111.vr.QuaternionTest.angleBetween;
+import static org.junit.Assert.*;
+
+public class PosePredictorTest {
+
+    private static final long FRAME_NANOS = 16666667L;
+    private static final long LATENCY_NANOS = 20000000L;
+
+    /**
+     * Head turns about tilted axis with constant speed from base orientation
+     */
+    private static void constantTurn(float[] result, long timeNanos) {
+        float[] base = new float[4];
+        float[] turn = new float[4];
+        Quaternion.fromEulerAngles(base, 0.3f, -0.2f, 0.1f);
+        // About 170 degrees per second
+        Quaternion.fromAngularVelocity(turn, 0.5f, 2.8f, 0.3f, timeNanos / 1e9f);
+        Quaternion.multiplyQQ(result, turn, base);
+    }
+
+    /**
+     * Yaw and pitch swing like a look around
+     */
+    private static void lookAround(float[] result, long timeNanos) {
+        double t = timeNanos / 1e9;
+        Quaternion.fromEulerAngles(result, 0.3f * (float) Math.sin(2.0 * t),
+                1.2f * (float) Math.sin(1.3 * t), 0.0f);
+    }
+
+    @Test
+    public void predictsNothingWithoutSamples() {
+        PosePredictor predictor = new PosePredictor();
+        float[] result = new float[]{1.0f, 2.0f, 3.0f, 4.0f};
+        assertFalse(predictor.predict(result, 0L));
+        assertArrayEquals(new float[]{1.0f, 2.0f, 3.0f, 4.0f}, result, 0.0f);
+
+        float[] sample = new float[4];
+        constantTurn(sample, 0L);
+        predictor.addSample(sample, 0L);
+        assertTrue(predictor.predict(result, LATENCY_NANOS));
+        assertEquals(0.0f, angleBetween(sample, result), 0.0001f);
+    }
+
+    @Test
+    public void predictsConstantTurnExactly() {
+        PosePredictor predictor = new PosePredictor();
+        float[] sample = new float[4];
+        float[] expected = new float[4];
+        float[] predicted = new float[4];
+        float[] velocity = new float[3];
+        for (int frame = 0; frame < 30; frame++) {
+            long time = frame * FRAME_NANOS;
+            constantTurn(sample, time);
+            predictor.addSample(sample, time);
+            if (frame == 0) {
+                continue;
+            }
+            predictor.getAngularVelocity(velocity);
+            assertArrayEquals(new float[]{0.5f, 2.8f, 0.3f}, velocity, 0.005f);
+
+            assertTrue(predictor.predict(predicted, time + LATENCY_NANOS));
+            constantTurn(expected, time + LATENCY_NANOS);
+            assertEquals(0.0f, angleBetween(expected, predicted), 0.0005f);
+        }
+        assertEquals(PosePredictor.DEFAULT_SAMPLES_COUNT, predictor.getSamplesCount());
+    }
+
+    @Test
+    public void limitsPrediction() {
+        PosePredictor predictor = new PosePredictor(2);
+        float[] sample = new float[4];
+        float[] expected = new float[4];
+        float[] predicted = new float[4];
+        constantTurn(sample, 0L);
+        predictor.addSample(sample, 0L);
+        constantTurn(sample, FRAME_NANOS);
+        predictor.addSample(sample, FRAME_NANOS);
+
+        predictor.predict(predicted, FRAME_NANOS + 1000000000L);
+        constantTurn(expected, FRAME_NANOS + PosePredictor.MAX_PREDICTION_NANOS);
+        assertEquals(0.0f, angleBetween(expected, predicted), 0.0005f);
+
+        // Time before sample doesn't rotate back
+        predictor.predict(predicted, 0L);
+        assertEquals(0.0f, angleBetween(sample, predicted), 0.0001f);
+    }
+
+    @Test
+    public void replacesSampleWithSameTime() {
+        PosePredictor predictor = new PosePredictor();
+        float[] sample = new float[4];
+        float[] velocity = new float[3];
+        constantTurn(sample, 0L);
+        predictor.addSample(sample, 0L);
+        constantTurn(sample, FRAME_NANOS);
+        predictor.addSample(sample, FRAME_NANOS);
+        predictor.addSample(sample, FRAME_NANOS);
+        assertEquals(2, predictor.getSamplesCount());
+        predictor.getAngularVelocity(velocity);
+        assertArrayEquals(new float[]{0.5f, 2.8f, 0.3f}, velocity, 0.005f);
+
+        predictor.reset();
+        assertEquals(0, predictor.getSamplesCount());
+        predictor.getAngularVelocity(velocity);
+        assertArrayEquals(new float[]{0.0f, 0.0f, 0.0f}, velocity, 0.0f);
+    }
+
+    @Test
+    public void reducesLatencyErrorOfNoisyTrace() {
+        Random random = new Random(5);
+        PosePredictor predictor = new PosePredictor();
+        float[] sample = new float[4];
+        float[] noise = new float[4];
+        float[] truth = new float[4];
+        float[] predicted = new float[4];
+        double predictedError = 0.0;
+        double sampledError = 0.0;
+        int frames = 600;
+        for (int frame = 0; frame < frames; frame++) {
+            // Frame starts with jitter of sensor timing
+            long time = frame * FRAME_NANOS + (long) (random.nextGaussian() * 500000.0);
+            lookAround(sample, time);
+            // Sensor noise is about 0.05 degree
+            Quaternion.fromAngularVelocity(noise, (float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian(), 0.0005f);
+            Quaternion.multiplyQQ(sample, noise, sample);
+            predictor.addSample(sample, time);
+
+            predictor.predict(predicted, time + LATENCY_NANOS);
+            lookAround(truth, time + LATENCY_NANOS);
+            predictedError += angleBetween(truth, predicted);
+            sampledError += angleBetween(truth, sample);
+        }
+        assertTrue(predictedError < sampledError / 3.0);
+    }
+}
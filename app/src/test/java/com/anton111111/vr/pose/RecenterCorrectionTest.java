@@ -0,0 +1,104 @@
+package com.anton111111.vr.pose;
+
+import com.anton111111.vr.Quaternion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.anton111111.vr.QuaternionTest.angleBetween;
+import static org.junit.Assert.*;
+
+public class RecenterCorrectionTest {
+
+    private static void randomPose(float[] quaternion, Random random) {
+        // Roll is kept away from +-90 degrees where Euler angles are singular
+        Quaternion.fromEulerAngles(quaternion, (random.nextFloat() - 0.5f) * 6.0f,
+                (random.nextFloat() - 0.5f) * 6.0f, (random.nextFloat() - 0.5f) * 2.4f);
+    }
+
+    /**
+     * Correction by Euler angles every frame like it was done before
+     */
+    private static void correctByEulerAngles(float[] quaternion, float pitchCorrection) {
+        float[] eulerAngles = new float[3];
+        Quaternion.toEulerAngle(quaternion, eulerAngles);
+        eulerAngles[0] = eulerAngles[0] - pitchCorrection;
+        Quaternion.fromEulerAngles(quaternion, eulerAngles[0], eulerAngles[1], eulerAngles[2]);
+    }
+
+    @Test
+    public void correctsPitchLikeEulerAngles() {
+        Random random = new Random(8);
+        RecenterCorrection correction = new RecenterCorrection();
+        float[] recenterPose = new float[4];
+        float[] pose = new float[4];
+        float[] expected = new float[4];
+        float[] eulerAngles = new float[3];
+        for (int i = 0; i < 200; i++) {
+            randomPose(recenterPose, random);
+            correction.recenterPitch(recenterPose);
+            Quaternion.toEulerAngle(recenterPose, eulerAngles);
+            float pitchCorrection = eulerAngles[0];
+            for (int j = 0; j < 50; j++) {
+                randomPose(pose, random);
+                System.arraycopy(pose, 0, expected, 0, 4);
+                correctByEulerAngles(expected, pitchCorrection);
+                correction.apply(pose, pose);
+                assertEquals(0.0f, angleBetween(expected, pose), 0.0005f);
+            }
+        }
+    }
+
+    @Test
+    public void removesPitchAtRecenter() {
+        RecenterCorrection correction = new RecenterCorrection();
+        float[] pose = new float[4];
+        float[] result = new float[4];
+        float[] eulerAngles = new float[3];
+        Quaternion.fromEulerAngles(pose, 0.4f, 0.7f, 0.2f);
+        correction.recenterPitch(pose);
+        correction.apply(result, pose);
+        Quaternion.toEulerAngle(result, eulerAngles);
+        assertArrayEquals(new float[]{0.0f, 0.7f, 0.2f}, eulerAngles, 0.0001f);
+    }
+
+    @Test
+    public void removesYawOnly() {
+        RecenterCorrection correction = new RecenterCorrection();
+        float[] pose = new float[4];
+        float[] result = new float[4];
+        float[] turn = new float[4];
+        float[] eulerAngles = new float[3];
+        Quaternion.fromEulerAngles(pose, 0.4f, 0.7f, 0.2f);
+        correction.recenterYaw(pose);
+        correction.apply(result, pose);
+        Quaternion.toEulerAngle(result, eulerAngles);
+        assertArrayEquals(new float[]{0.4f, 0.0f, 0.2f}, eulerAngles, 0.0001f);
+
+        // Head turns further about vertical axis, turn is kept
+        Quaternion.fromNormalAxisRadianAngle(turn, 0.3f, new float[]{0.0f, 1.0f, 0.0f});
+        Quaternion.multiplyQQ(pose, turn, pose);
+        correction.apply(result, pose);
+        Quaternion.toEulerAngle(result, eulerAngles);
+        assertArrayEquals(new float[]{0.4f, 0.3f, 0.2f}, eulerAngles, 0.0001f);
+    }
+
+    @Test
+    public void passesRotationWithoutRecenter() {
+        RecenterCorrection correction = new RecenterCorrection();
+        assertTrue(correction.isIdentity());
+        float[] pose = new float[4];
+        float[] result = new float[4];
+        Quaternion.fromEulerAngles(pose, 0.4f, 0.7f, 0.2f);
+        correction.apply(result, pose);
+        assertArrayEquals(pose, result, 0.0f);
+
+        correction.recenterPitch(pose);
+        correction.recenterYaw(pose);
+        assertFalse(correction.isIdentity());
+        correction.reset();
+        correction.apply(result, pose);
+        assertArrayEquals(pose, result, 0.0f);
+    }
+}
@@ -0,0 +1,241 @@
+package com.anton111111.vr.program;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgramBinaryCacheTest {
+
+    private static final String DRIVER = "Vendor|Renderer|OpenGL ES 3.2";
+    private static final String VERTEX = "attribute vec4 a_Position;\nvoid main() { gl_Position = a_Position; }\n";
+    private static final String FRAGMENT = "precision mediump float;\nvoid main() { gl_FragColor = vec4(1.0); }\n";
+
+    @Test
+    public void keyDependsOnSources() {
+        String key = ProgramBinaryCache.getKey(VERTEX, FRAGMENT);
+        assertEquals(key, ProgramBinaryCache.getKey(VERTEX, FRAGMENT));
+        assertEquals(40, key.length());
+        assertNotEquals(key, ProgramBinaryCache.getKey(VERTEX, FRAGMENT + "\n"));
+        assertNotEquals(ProgramBinaryCache.getKey("ab", "c"), ProgramBinaryCache.getKey("a", "bc"));
+    }
+
+    @Test
+    public void returnsStoredBinary() {
+        MemoryStorage storage = new MemoryStorage();
+        ProgramBinaryCache cache = new TestCache(storage, 1024, DRIVER, 1);
+        String key = ProgramBinaryCache.getKey(VERTEX, FRAGMENT);
+
+        assertNull(cache.get(key));
+        cache.put(key, 0x1234, new byte[]{1, 2, 3});
+
+        ProgramBinaryCache.ProgramBinary binary = new TestCache(storage, 1024, DRIVER, 1).get(key);
+        assertNotNull(binary);
+        assertEquals(0x1234, binary.getFormat());
+        assertArrayEquals(new byte[]{1, 2, 3}, binary.getBinary());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void savesOnFirstStartAndLoadsOnNext() {
+        MemoryStorage storage = new MemoryStorage();
+        String key = ProgramBinaryCache.getKey(VERTEX, FRAGMENT);
+
+        // First start compiles program and saves its binary
+        ProgramBinaryCache first = new TestCache(storage, 1024, DRIVER, 1);
+        assertNull(first.get(key));
+        first.put(key, 1, new byte[]{1, 2, 3});
+        assertEquals(0, first.getHits());
+        assertEquals(1, first.getMisses());
+        assertEquals(1, first.getSaves());
+
+        // Next start links program from binary
+        ProgramBinaryCache next = new TestCache(storage, 1024, DRIVER, 1);
+        assertNotNull(next.get(key));
+        next.onBinaryAccepted();
+        assertEquals(1, next.getHits());
+        assertEquals(0, next.getMisses());
+        assertEquals(0, next.getSaves());
+    }
+
+    @Test
+    public void countsRejectedBinaryAsMiss() {
+        MemoryStorage storage = new MemoryStorage();
+        ProgramBinaryCache cache = new TestCache(storage, 1024, DRIVER, 1);
+        String key = ProgramBinaryCache.getKey(VERTEX, FRAGMENT);
+        cache.put(key, 1, new byte[]{1, 2, 3});
+
+        assertNotNull(cache.get(key));
+        cache.onBinaryRejected(key);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertTrue(storage.list().isEmpty());
+    }
+
+    @Test
+    public void dropsEntryOfOtherDriver() {
+        MemoryStorage storage = new MemoryStorage();
+        String key = ProgramBinaryCache.getKey(VERTEX, FRAGMENT);
+        new TestCache(storage, 1024, DRIVER, 1).put(key, 1, new byte[]{1});
+
+        ProgramBinaryCache cache = new TestCache(storage, 1024, DRIVER + ".1", 1);
+        assertNull(cache.get(key));
+        assertEquals(1, cache.getMisses());
+        assertTrue(storage.list().isEmpty());
+    }
+
+    @Test
+    public void dropsEntryOfOtherAppVersion() {
+        MemoryStorage storage = new MemoryStorage();
+        String key = ProgramBinaryCache.getKey(VERTEX, FRAGMENT);
+        new TestCache(storage, 1024, DRIVER, 1).put(key, 1, new byte[]{1});
+
+        assertNull(new TestCache(storage, 1024, DRIVER, 2).get(key));
+        assertTrue(storage.list().isEmpty());
+    }
+
+    @Test
+    public void dropsCorruptedEntry() {
+        MemoryStorage storage = new MemoryStorage();
+        String key = ProgramBinaryCache.getKey(VERTEX, FRAGMENT);
+        ProgramBinaryCache cache = new TestCache(storage, 1024, DRIVER, 1);
+        cache.put(key, 1, new byte[]{1, 2, 3, 4});
+
+        byte[] data = storage.data.get(key);
+        data[data.length - 1] ^= 0xFF;
+        assertNull(cache.get(key));
+
+        cache.put(key, 1, new byte[]{1, 2, 3, 4});
+        storage.data.put(key, new byte[]{1, 2});
+        assertNull(cache.get(key));
+        assertTrue(storage.list().isEmpty());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        MemoryStorage storage = new MemoryStorage();
+        ProgramBinaryCache cache = new TestCache(storage, 1200, DRIVER, 1);
+        byte[] binary = new byte[300];
+
+        cache.put("a", 1, binary);
+        cache.put("b", 1, binary);
+        cache.put("c", 1, binary);
+        assertEquals(3, storage.list().size());
+
+        // "a" is used, so "b" is the oldest one now
+        assertNotNull(cache.get("a"));
+        cache.put("d", 1, binary);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertTrue(cache.getSize() <= 1200);
+    }
+
+    @Test
+    public void skipsBinaryBiggerThanCache() {
+        MemoryStorage storage = new MemoryStorage();
+        ProgramBinaryCache cache = new TestCache(storage, 100, DRIVER, 1);
+        cache.put("a", 1, new byte[200]);
+        assertTrue(storage.list().isEmpty());
+        assertEquals(0, cache.getSaves());
+    }
+
+    @Test
+    public void worksWithFileStorage() throws IOException {
+        File dir = File.createTempFile("program_binaries", "");
+        assertTrue(dir.delete());
+        try {
+            String key = ProgramBinaryCache.getKey(VERTEX, FRAGMENT);
+            new ProgramBinaryCache(new FileProgramBinaryStorage(dir), 1024, DRIVER, 1)
+                    .put(key, 7, new byte[]{9, 8, 7});
+
+            ProgramBinaryCache cache = new ProgramBinaryCache(new FileProgramBinaryStorage(dir), 1024, DRIVER, 1);
+            ProgramBinaryCache.ProgramBinary binary = cache.get(key);
+            assertNotNull(binary);
+            assertEquals(7, binary.getFormat());
+            assertArrayEquals(new byte[]{9, 8, 7}, binary.getBinary());
+            // Hit is counted when driver accepts binary
+            assertEquals(0, cache.getHits());
+            cache.onBinaryAccepted();
+            assertEquals(1, cache.getHits());
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private static void assertNotEquals(String a, String b) {
+        assertFalse(a.equals(b));
+    }
+
+    /**
+     * Cache with clock that ticks on every call, so access order is strict
+     */
+    private static class TestCache extends ProgramBinaryCache {
+        private static long time = 0;
+
+        TestCache(Storage storage, long maxSizeBytes, String driver, int appVersion) {
+            super(storage, maxSizeBytes, driver, appVersion);
+        }
+
+        @Override
+        protected long now() {
+            return ++time;
+        }
+    }
+
+    private static class MemoryStorage implements ProgramBinaryCache.Storage {
+        final HashMap<String, byte[]> data = new HashMap<>();
+        final HashMap<String, Long> accessTimes = new HashMap<>();
+
+        @Override
+        public byte[] read(String name) {
+            return data.get(name);
+        }
+
+        @Override
+        public void write(String name, byte[] bytes) {
+            data.put(name, bytes.clone());
+        }
+
+        @Override
+        public void delete(String name) {
+            data.remove(name);
+            accessTimes.remove(name);
+        }
+
+        @Override
+        public List<String> list() {
+            return new ArrayList<>(data.keySet());
+        }
+
+        @Override
+        public long getSize(String name) {
+            byte[] bytes = data.get(name);
+            return (bytes == null) ? 0 : bytes.length;
+        }
+
+        @Override
+        public long getLastAccessTime(String name) {
+            Long time = accessTimes.get(name);
+            return (time == null) ? 0 : time;
+        }
+
+        @Override
+        public void setLastAccessTime(String name, long time) {
+            accessTimes.put(name, time);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.anton111111.vr.program;
+
+import com.anton111111.vr.renderer.QuadBatch;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShaderAttributesLocationsTest {
+
+    private static final List<String> ATTRS = VideoProgramCache.ATTRS;
+    private static final List<String> UNIFORMS = VideoProgramCache.UNIFORMS;
+
+    @Test
+    public void indexAndNameLookupsMatch() {
+        ShaderAttributesLocations locations = new ShaderAttributesLocations(
+                ATTRS, new int[]{3, -1}, UNIFORMS, new int[]{7, 8, 9, -1});
+
+        assertEquals(2, locations.getAttrsCount());
+        assertEquals(4, locations.getUniformsCount());
+        assertEquals(3, locations.getAttr(VideoProgramCache.ATTR_POSITION_INDEX));
+        assertEquals(-1, locations.getAttr(VideoProgramCache.ATTR_TEXTURE_COORDS_INDEX));
+        for (int i = 0; i < ATTRS.size(); i++) {
+            assertEquals(locations.getAttr(i), locations.getAttr(ATTRS.get(i)));
+            assertEquals(i, locations.getAttrIndex(ATTRS.get(i)));
+        }
+        for (int i = 0; i < UNIFORMS.size(); i++) {
+            assertEquals(locations.getUniform(i), locations.getUniform(UNIFORMS.get(i)));
+            assertEquals(i, locations.getUniformIndex(UNIFORMS.get(i)));
+        }
+        assertEquals(9, locations.getUniform(VideoProgramCache.UNIFORM_TEXTURE_INDEX));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownNameThrows() {
+        new ShaderAttributesLocations(ATTRS, new int[]{0, 1}, UNIFORMS, new int[]{0, 1, 2, 3})
+                .getUniform("u_Unknown");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void countOfLocationsMustMatchNames() {
+        new ShaderAttributesLocations(ATTRS, new int[]{0}, UNIFORMS, new int[]{0, 1, 2, 3});
+    }
+
+    @Test
+    public void productionIndexesMatchNames() {
+        assertIndex(VideoProgramCache.ATTRS, VideoProgramCache.ATTR_POSITION, VideoProgramCache.ATTR_POSITION_INDEX);
+        assertIndex(VideoProgramCache.ATTRS, VideoProgramCache.ATTR_TEXTURE_COORDS,
+                VideoProgramCache.ATTR_TEXTURE_COORDS_INDEX);
+        assertIndex(VideoProgramCache.UNIFORMS, VideoProgramCache.UNIFORM_MVP, VideoProgramCache.UNIFORM_MVP_INDEX);
+        assertIndex(VideoProgramCache.UNIFORMS, VideoProgramCache.UNIFORM_TTM, VideoProgramCache.UNIFORM_TTM_INDEX);
+        assertIndex(VideoProgramCache.UNIFORMS, VideoProgramCache.UNIFORM_TEXTURE,
+                VideoProgramCache.UNIFORM_TEXTURE_INDEX);
+        assertIndex(VideoProgramCache.UNIFORMS, VideoProgramCache.UNIFORM_TEXTURE_CORD_OFFSET,
+                VideoProgramCache.UNIFORM_TEXTURE_CORD_OFFSET_INDEX);
+
+        assertIndex(QuadBatch.ATTRS, QuadBatch.ATTR_POSITION, QuadBatch.ATTR_POSITION_INDEX);
+        assertIndex(QuadBatch.ATTRS, QuadBatch.ATTR_TEXTURE_COORDS, QuadBatch.ATTR_TEXTURE_COORDS_INDEX);
+        assertIndex(QuadBatch.ATTRS, QuadBatch.ATTR_COLOR, QuadBatch.ATTR_COLOR_INDEX);
+        assertIndex(QuadBatch.UNIFORMS, QuadBatch.UNIFORM_MVP, QuadBatch.UNIFORM_MVP_INDEX);
+        assertIndex(QuadBatch.UNIFORMS, QuadBatch.UNIFORM_TEXTURE, QuadBatch.UNIFORM_TEXTURE_INDEX);
+
+        assertIndex(ProgramHelper.SHAPE_COLORED_ATTRS, ProgramHelper.SHAPE_COLORED_ATTR_POSITION,
+                ProgramHelper.SHAPE_COLORED_ATTR_POSITION_INDEX);
+        assertIndex(ProgramHelper.SHAPE_COLORED_UNIFORMS, ProgramHelper.SHAPE_COLORED_UNIFORM_MVP,
+                ProgramHelper.SHAPE_COLORED_UNIFORM_MVP_INDEX);
+        assertIndex(ProgramHelper.SHAPE_COLORED_UNIFORMS, ProgramHelper.SHAPE_COLORED_UNIFORM_COLOR,
+                ProgramHelper.SHAPE_COLORED_UNIFORM_COLOR_INDEX);
+
+        assertIndex(ProgramHelper.SHAPE_TEXTURED_ATTRS, ProgramHelper.SHAPE_TEXTURED_ATTR_POSITION,
+                ProgramHelper.SHAPE_TEXTURED_ATTR_POSITION_INDEX);
+        assertIndex(ProgramHelper.SHAPE_TEXTURED_ATTRS, ProgramHelper.SHAPE_TEXTURED_ATTR_TEXTURE_COORDS,
+                ProgramHelper.SHAPE_TEXTURED_ATTR_TEXTURE_COORDS_INDEX);
+        assertIndex(ProgramHelper.SHAPE_TEXTURED_UNIFORMS, ProgramHelper.SHAPE_TEXTURED_UNIFORM_MVP,
+                ProgramHelper.SHAPE_TEXTURED_UNIFORM_MVP_INDEX);
+        assertIndex(ProgramHelper.SHAPE_TEXTURED_UNIFORMS, ProgramHelper.SHAPE_TEXTURED_UNIFORM_TEXTURE,
+                ProgramHelper.SHAPE_TEXTURED_UNIFORM_TEXTURE_INDEX);
+
+        assertIndex(ProgramHelper.CIRCLE_COLORED_ATTRS, ProgramHelper.CIRCLE_COLORED_ATTR_POSITION,
+                ProgramHelper.CIRCLE_COLORED_ATTR_POSITION_INDEX);
+        assertIndex(ProgramHelper.CIRCLE_COLORED_UNIFORMS, ProgramHelper.CIRCLE_COLORED_UNIFORM_MVP,
+                ProgramHelper.CIRCLE_COLORED_UNIFORM_MVP_INDEX);
+        assertIndex(ProgramHelper.CIRCLE_COLORED_UNIFORMS, ProgramHelper.CIRCLE_COLORED_UNIFORM_COLOR,
+                ProgramHelper.CIRCLE_COLORED_UNIFORM_COLOR_INDEX);
+        assertIndex(ProgramHelper.CIRCLE_COLORED_UNIFORMS, ProgramHelper.CIRCLE_COLORED_UNIFORM_RADIUS,
+                ProgramHelper.CIRCLE_COLORED_UNIFORM_RADIUS_INDEX);
+        assertIndex(ProgramHelper.CIRCLE_COLORED_UNIFORMS, ProgramHelper.CIRCLE_COLORED_UNIFORM_THICKNESS,
+                ProgramHelper.CIRCLE_COLORED_UNIFORM_THICKNESS_INDEX);
+        assertIndex(ProgramHelper.CIRCLE_COLORED_UNIFORMS, ProgramHelper.CIRCLE_COLORED_UNIFORM_CENTER,
+                ProgramHelper.CIRCLE_COLORED_UNIFORM_CENTER_INDEX);
+
+        assertIndex(ProgramHelper.PROGRESS_CIRCLE_ATTRS, ProgramHelper.PROGRESS_CIRCLE_ATTR_POSITION,
+                ProgramHelper.PROGRESS_CIRCLE_ATTR_POSITION_INDEX);
+        assertIndex(ProgramHelper.PROGRESS_CIRCLE_UNIFORMS, ProgramHelper.PROGRESS_CIRCLE_UNIFORM_MVP,
+                ProgramHelper.PROGRESS_CIRCLE_UNIFORM_MVP_INDEX);
+        assertIndex(ProgramHelper.PROGRESS_CIRCLE_UNIFORMS, ProgramHelper.PROGRESS_CIRCLE_UNIFORM_COLOR,
+                ProgramHelper.PROGRESS_CIRCLE_UNIFORM_COLOR_INDEX);
+        assertIndex(ProgramHelper.PROGRESS_CIRCLE_UNIFORMS, ProgramHelper.PROGRESS_CIRCLE_UNIFORM_RADIUS,
+                ProgramHelper.PROGRESS_CIRCLE_UNIFORM_RADIUS_INDEX);
+        assertIndex(ProgramHelper.PROGRESS_CIRCLE_UNIFORMS, ProgramHelper.PROGRESS_CIRCLE_UNIFORM_THICKNESS,
+                ProgramHelper.PROGRESS_CIRCLE_UNIFORM_THICKNESS_INDEX);
+        assertIndex(ProgramHelper.PROGRESS_CIRCLE_UNIFORMS, ProgramHelper.PROGRESS_CIRCLE_UNIFORM_PERCENT,
+                ProgramHelper.PROGRESS_CIRCLE_UNIFORM_PERCENT_INDEX);
+        assertIndex(ProgramHelper.PROGRESS_CIRCLE_UNIFORMS, ProgramHelper.PROGRESS_CIRCLE_UNIFORM_CENTER,
+                ProgramHelper.PROGRESS_CIRCLE_UNIFORM_CENTER_INDEX);
+    }
+
+    private static void assertIndex(List<String> names, String name, int index) {
+        assertEquals(name, index, names.indexOf(name));
+    }
+}
@@ -0,0 +1,162 @@
+package com.anton111111.vr.raypicking;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PickBvhTest {
+
+    private static final short[] QUAD_INDEXES = new short[]{0, 1, 2, 0, 2, 3};
+    private static final float TILE_SIZE = 0.9f;
+    private static final float PANEL_Z = -3.0f;
+
+    private static float[] quad(float left, float bottom, float size, float z) {
+        return new float[]{
+                left, bottom, z,
+                left + size, bottom, z,
+                left + size, bottom + size, z,
+                left, bottom + size, z
+        };
+    }
+
+    private static PickRay rayTo(float x, float y) {
+        PickRay ray = new PickRay();
+        ray.set(0.0f, 0.0f, 0.0f, x * 10.0f, y * 10.0f, PANEL_Z * 10.0f);
+        return ray;
+    }
+
+    @Test
+    public void picksNothingInEmptyTree() {
+        PickBvh<String> bvh = new PickBvh<>();
+        assertNull(bvh.pick(rayTo(0.0f, 0.0f)));
+        assertEquals(TriangleSet.NO_HIT, bvh.getLastDistance(), 0.0f);
+        assertEquals(0, bvh.getHeight());
+    }
+
+    @Test
+    public void picksFrontMostTarget() {
+        PickBvh<String> bvh = new PickBvh<>();
+        bvh.insert("back", quad(-1.0f, -1.0f, 2.0f, -4.0f), QUAD_INDEXES);
+        bvh.insert("front", quad(-0.5f, -0.5f, 1.0f, -2.0f), QUAD_INDEXES);
+        bvh.insert("aside", quad(3.0f, 3.0f, 1.0f, -2.0f), QUAD_INDEXES);
+
+        PickRay ray = new PickRay();
+        ray.set(0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -10.0f);
+        assertEquals("front", bvh.pick(ray));
+        assertEquals(0.2f, bvh.getLastDistance(), 0.0001f);
+
+        ray.set(0.8f, 0.8f, 0.0f, 0.8f, 0.8f, -10.0f);
+        assertEquals("back", bvh.pick(ray));
+
+        ray.set(1.5f, 0.0f, 0.0f, 1.5f, 0.0f, -10.0f);
+        assertNull(bvh.pick(ray));
+    }
+
+    @Test
+    public void removesTargets() {
+        PickBvh<String> bvh = new PickBvh<>();
+        bvh.insert("back", quad(-1.0f, -1.0f, 2.0f, -4.0f), QUAD_INDEXES);
+        bvh.insert("front", quad(-0.5f, -0.5f, 1.0f, -2.0f), QUAD_INDEXES);
+        PickRay ray = new PickRay();
+        ray.set(0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -10.0f);
+
+        assertTrue(bvh.remove("front"));
+        assertFalse(bvh.remove("front"));
+        assertEquals(1, bvh.size());
+        assertEquals("back", bvh.pick(ray));
+        assertTrue(bvh.remove("back"));
+        assertNull(bvh.pick(ray));
+        assertEquals(0, bvh.size());
+    }
+
+    @Test
+    public void refitsMovedTarget() {
+        PickBvh<String> bvh = new PickBvh<>();
+        for (int i = 0; i < 10; i++) {
+            bvh.insert("tile" + i, quad(i, 0.0f, TILE_SIZE, PANEL_Z), QUAD_INDEXES);
+        }
+        PickRay ray = new PickRay();
+        ray.set(20.5f, 5.5f, 0.0f, 20.5f, 5.5f, -10.0f);
+        assertNull(bvh.pick(ray));
+
+        // Move far out of bounds of all nodes
+        assertTrue(bvh.update("tile3", quad(20.0f, 5.0f, TILE_SIZE, PANEL_Z), QUAD_INDEXES));
+        assertEquals("tile3", bvh.pick(ray));
+        ray.set(3.5f, 0.5f, 0.0f, 3.5f, 0.5f, -10.0f);
+        assertNull(bvh.pick(ray));
+        assertFalse(bvh.update("unknown", quad(0.0f, 0.0f, 1.0f, PANEL_Z), QUAD_INDEXES));
+    }
+
+    @Test
+    public void picksLikeLinearScan() {
+        Random random = new Random(42);
+        PickBvh<Integer> bvh = new PickBvh<>();
+        List<TriangleSet> areas = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            float[] coords = quad(random.nextFloat() * 20.0f - 10.0f, random.nextFloat() * 20.0f - 10.0f,
+                    0.2f + random.nextFloat() * 2.0f, -2.0f - random.nextFloat() * 5.0f);
+            bvh.insert(i, coords, QUAD_INDEXES);
+            areas.add(new TriangleSet(coords, QUAD_INDEXES));
+        }
+        // Remove some to check tree after removing
+        for (int i = 0; i < 500; i += 7) {
+            bvh.remove(i);
+            areas.set(i, null);
+        }
+
+        int hits = 0;
+        for (int r = 0; r < 2000; r++) {
+            PickRay ray = rayTo(random.nextFloat() * 8.0f - 4.0f, random.nextFloat() * 8.0f - 4.0f);
+            Integer expected = null;
+            float best = Float.MAX_VALUE;
+            for (int i = 0; i < areas.size(); i++) {
+                if (areas.get(i) == null) {
+                    continue;
+                }
+                float distance = ray.intersect(areas.get(i));
+                if (distance != TriangleSet.NO_HIT && distance < best) {
+                    best = distance;
+                    expected = i;
+                }
+            }
+            Integer found = bvh.pick(ray);
+            if (expected == null) {
+                assertNull(found);
+            } else {
+                hits++;
+                assertNotNull(found);
+                // Different targets may be hit at the same distance
+                assertEquals(best, bvh.getLastDistance(), 0.0f);
+            }
+        }
+        assertTrue(hits > 100);
+    }
+
+    @Test
+    public void testsFewTargetsOfGalleryGrid() {
+        Random random = new Random(7);
+        for (int count = 10; count <= 10000; count *= 10) {
+            int columns = (int) Math.ceil(Math.sqrt(count));
+            // Panel of tiles in front of eye, whole grid is in view
+            float cell = 8.0f / columns;
+            PickBvh<Integer> bvh = new PickBvh<>();
+            for (int i = 0; i < count; i++) {
+                bvh.insert(i, quad(-4.0f + (i % columns) * cell, -4.0f + (i / columns) * cell,
+                        cell * TILE_SIZE, PANEL_Z), QUAD_INDEXES);
+            }
+            int maxTestedLeaves = 0;
+            for (int r = 0; r < 1000; r++) {
+                bvh.pick(rayTo(random.nextFloat() * 8.0f - 4.0f, random.nextFloat() * 8.0f - 4.0f));
+                maxTestedLeaves = Math.max(maxTestedLeaves, bvh.getLastTestedLeavesCount());
+            }
+            // Tiles don't overlap, ray tests triangles of a few targets only
+            assertTrue(maxTestedLeaves <= 4);
+            // Balanced tree, height is about log2 of count
+            assertTrue(bvh.getHeight() <= 2 * (32 - Integer.numberOfLeadingZeros(count)));
+        }
+    }
+}
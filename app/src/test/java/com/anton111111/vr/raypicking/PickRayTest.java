@@ -0,0 +1,84 @@
+package com.anton111111.vr.raypicking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PickRayTest {
+
+    private static final short[] QUAD_INDEXES = new short[]{0, 1, 2, 0, 2, 3};
+
+    private static TriangleSet quad(float left, float bottom, float size, float z) {
+        return new TriangleSet(new float[]{
+                left, bottom, z,
+                left + size, bottom, z,
+                left + size, bottom + size, z,
+                left, bottom + size, z
+        }, QUAD_INDEXES);
+    }
+
+    @Test
+    public void invalidRayHitsNothing() {
+        PickRay ray = new PickRay();
+        assertFalse(ray.isValid());
+        assertEquals(TriangleSet.NO_HIT, ray.intersect(quad(-1.0f, -1.0f, 2.0f, -2.0f)), 0.0f);
+
+        ray.set(0.0f, 0.0f, -0.1f, 0.0f, 0.0f, -100.0f);
+        assertTrue(ray.isValid());
+        ray.reset();
+        assertEquals(TriangleSet.NO_HIT, ray.intersect(quad(-1.0f, -1.0f, 2.0f, -2.0f)), 0.0f);
+    }
+
+    @Test
+    public void oneRayIsSharedByTargets() {
+        PickRay ray = new PickRay();
+        ray.set(0.5f, 0.5f, -0.1f, 0.5f, 0.5f, -100.0f);
+        TriangleSet front = quad(0.0f, 0.0f, 1.0f, -2.0f);
+        TriangleSet back = quad(0.0f, 0.0f, 1.0f, -3.0f);
+        TriangleSet aside = quad(2.0f, 0.0f, 1.0f, -2.0f);
+
+        float frontDistance = ray.intersect(front);
+        float backDistance = ray.intersect(back);
+        assertTrue(frontDistance != TriangleSet.NO_HIT);
+        assertTrue(backDistance != TriangleSet.NO_HIT);
+        assertEquals(TriangleSet.NO_HIT, ray.intersect(aside), 0.0f);
+        // Ray goes from near to far, front target is closer along it
+        assertTrue(frontDistance < backDistance);
+
+        float[] point = new float[3];
+        ray.getPoint(frontDistance, point);
+        assertArrayEquals(new float[]{0.5f, 0.5f, -2.0f}, point, 0.0001f);
+    }
+
+    @Test
+    public void intersectsBounds() {
+        PickRay ray = new PickRay();
+        ray.set(0.5f, 0.5f, 0.0f, 0.5f, 0.5f, -10.0f);
+
+        // Flat box like panel
+        assertEquals(0.2f, ray.intersectBounds(new float[]{0.0f, 0.0f, -2.0f, 1.0f, 1.0f, -2.0f},
+                Float.MAX_VALUE), 0.0001f);
+        assertEquals(0.1f, ray.intersectBounds(new float[]{0.0f, 0.0f, -3.0f, 1.0f, 1.0f, -1.0f},
+                Float.MAX_VALUE), 0.0001f);
+        assertEquals(0.0f, ray.intersectBounds(new float[]{0.0f, 0.0f, -3.0f, 1.0f, 1.0f, 1.0f},
+                Float.MAX_VALUE), 0.0f);
+        // Aside, behind origin and farther than max distance
+        assertEquals(TriangleSet.NO_HIT, ray.intersectBounds(
+                new float[]{2.0f, 0.0f, -3.0f, 3.0f, 1.0f, -1.0f}, Float.MAX_VALUE), 0.0f);
+        assertEquals(TriangleSet.NO_HIT, ray.intersectBounds(
+                new float[]{0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 2.0f}, Float.MAX_VALUE), 0.0f);
+        assertEquals(TriangleSet.NO_HIT, ray.intersectBounds(
+                new float[]{0.0f, 0.0f, -3.0f, 1.0f, 1.0f, -2.0f}, 0.1f), 0.0f);
+    }
+
+    @Test
+    public void intersectsPlane() {
+        PickRay ray = new PickRay();
+        ray.set(0.0f, 0.0f, 0.0f, 1.0f, 0.0f, -10.0f);
+
+        assertEquals(0.3f, ray.intersectPlaneZ(-3.0f), 0.0001f);
+        assertEquals(TriangleSet.NO_HIT, ray.intersectPlaneZ(1.0f), 0.0f);
+        ray.set(0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f);
+        assertEquals(TriangleSet.NO_HIT, ray.intersectPlaneZ(-3.0f), 0.0f);
+    }
+}
@@ -0,0 +1,149 @@
+package com.anton111111.vr.raypicking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PickTargetsTest {
+
+    private static final short[] QUAD_INDEXES = new short[]{0, 1, 2, 0, 2, 3};
+    private static final float PLANE_Z = -3.0f;
+
+    private static float[] quad(float left, float bottom, float width, float height, float z) {
+        return new float[]{
+                left, bottom, z,
+                left + width, bottom, z,
+                left + width, bottom + height, z,
+                left, bottom + height, z
+        };
+    }
+
+    private static PickTargets<String> panel() {
+        PickTargets<String> targets = new PickTargets<>();
+        targets.setPlaneZ(PLANE_Z);
+        for (int i = 0; i < 10; i++) {
+            targets.add("button" + i, quad(i, 0.0f, 0.9f, 0.9f, PLANE_Z), QUAD_INDEXES);
+        }
+        // Not a rectangle on plane, it goes to BVH
+        targets.add("sphere", quad(-2.0f, 0.0f, 1.0f, 1.0f, -5.0f), QUAD_INDEXES);
+        return targets;
+    }
+
+    private static void aimAt(PickRay ray, float x, float y) {
+        ray.set(0.0f, 0.0f, 0.0f, x * 10.0f, y * 10.0f, PLANE_Z * 10.0f);
+    }
+
+    @Test
+    public void testsSelectedTargetFirst() {
+        PickTargets<String> targets = panel();
+        assertEquals(11, targets.size());
+        PickRay ray = new PickRay();
+        float[] hitPoint = new float[3];
+
+        aimAt(ray, 3.5f, 0.5f);
+        assertEquals("button3", targets.pick(ray, null, hitPoint));
+        assertEquals(0, targets.getLastSkippedHitTestsCount());
+        assertArrayEquals(new float[]{3.5f, 0.5f, PLANE_Z}, hitPoint, 0.0001f);
+
+        aimAt(ray, 3.6f, 0.4f);
+        assertEquals("button3", targets.pick(ray, "button3", hitPoint));
+        // The other buttons are not tested, BVH is
+        assertEquals(9, targets.getLastSkippedHitTestsCount());
+        assertArrayEquals(new float[]{3.6f, 0.4f, PLANE_Z}, hitPoint, 0.0001f);
+
+        // Selected is missed, the others are tested
+        aimAt(ray, 5.5f, 0.5f);
+        assertEquals("button5", targets.pick(ray, "button3", hitPoint));
+        assertEquals(0, targets.getLastSkippedHitTestsCount());
+        assertEquals(9, targets.getSkippedHitTestsCount());
+
+        // Selected target in BVH is picked as usual
+        aimAt(ray, -1.5f * 3.0f / 5.0f, 0.5f * 3.0f / 5.0f);
+        assertEquals("sphere", targets.pick(ray, null, hitPoint));
+        assertEquals("sphere", targets.pick(ray, "sphere", hitPoint));
+        assertEquals(0, targets.getLastSkippedHitTestsCount());
+        assertEquals(-5.0f, hitPoint[2], 0.0001f);
+    }
+
+    @Test
+    public void closerBvhTargetWinsOverSelected() {
+        PickTargets<String> targets = panel();
+        targets.setHysteresis((float) Math.toRadians(2.0));
+        PickRay ray = new PickRay();
+        float[] hitPoint = new float[3];
+
+        // Popup in front of plane covers button3
+        aimAt(ray, 3.5f, 0.5f);
+        assertEquals("button3", targets.pick(ray, null, hitPoint));
+        targets.add("popup", quad(3.0f * 2.0f / 3.0f, 0.0f, 1.0f, 1.0f, -2.0f), QUAD_INDEXES);
+        assertEquals("popup", targets.pick(ray, "button3", hitPoint));
+        assertEquals(-2.0f, hitPoint[2], 0.0001f);
+
+        // Within hysteresis band of button3 but off popup, selection is kept
+        targets.update("popup", quad(1.0f, 0.0f, 1.0f, 1.0f, -2.0f), QUAD_INDEXES);
+        aimAt(ray, 3.92f, 0.5f);
+        assertEquals("button3", targets.pick(ray, "button3", hitPoint));
+        assertEquals(PLANE_Z, hitPoint[2], 0.0001f);
+
+        // Selected target in BVH behind popup
+        targets.update("popup", quad(-2.0f * 2.0f / 5.0f, 0.0f, 1.0f, 1.0f, -2.0f), QUAD_INDEXES);
+        aimAt(ray, -1.5f * 3.0f / 5.0f, 0.5f * 3.0f / 5.0f);
+        assertEquals("popup", targets.pick(ray, "sphere", hitPoint));
+        assertEquals(-2.0f, hitPoint[2], 0.0001f);
+    }
+
+    @Test
+    public void keepsSelectionWithinHysteresis() {
+        PickTargets<String> targets = panel();
+        targets.setHysteresis((float) Math.toRadians(2.0));
+        PickRay ray = new PickRay();
+        float[] hitPoint = new float[3];
+
+        // Gap between buttons, 0.02 outside of button3 edge is about 0.2 degrees at distance 5
+        aimAt(ray, 3.92f, 0.5f);
+        assertNull(targets.pick(ray, null, hitPoint));
+        assertEquals("button3", targets.pick(ray, "button3", hitPoint));
+        assertArrayEquals(new float[]{3.92f, 0.5f, PLANE_Z}, hitPoint, 0.0001f);
+
+        // Over other button selected one is kept while within band
+        aimAt(ray, 4.02f, 0.5f);
+        assertEquals("button3", targets.pick(ray, "button3", hitPoint));
+        assertEquals("button4", targets.pick(ray, null, hitPoint));
+
+        // Far beyond band selection moves
+        aimAt(ray, 4.5f, 0.5f);
+        assertEquals("button4", targets.pick(ray, "button3", hitPoint));
+        aimAt(ray, 3.95f, 1.5f);
+        assertNull(targets.pick(ray, "button3", hitPoint));
+
+        targets.setHysteresis(0.0f);
+        aimAt(ray, 3.92f, 0.5f);
+        assertNull(targets.pick(ray, "button3", hitPoint));
+    }
+
+    @Test
+    public void movesTargetBetweenPlanarAndBvh() {
+        PickTargets<String> targets = panel();
+        PickRay ray = new PickRay();
+        float[] hitPoint = new float[3];
+
+        // Button leaves plane
+        assertTrue(targets.update("button3", quad(20.0f, 0.0f, 0.9f, 0.9f, -4.0f), QUAD_INDEXES));
+        aimAt(ray, 3.5f, 0.5f);
+        assertNull(targets.pick(ray, null, hitPoint));
+        aimAt(ray, 20.5f * 3.0f / 4.0f, 0.5f * 3.0f / 4.0f);
+        assertEquals("button3", targets.pick(ray, null, hitPoint));
+        assertEquals(-4.0f, hitPoint[2], 0.0001f);
+
+        // And returns
+        assertTrue(targets.update("button3", quad(3.0f, 0.0f, 0.9f, 0.9f, PLANE_Z), QUAD_INDEXES));
+        aimAt(ray, 3.5f, 0.5f);
+        assertEquals("button3", targets.pick(ray, null, hitPoint));
+        assertEquals(11, targets.size());
+
+        assertFalse(targets.update("unknown", quad(0.0f, 0.0f, 1.0f, 1.0f, PLANE_Z), QUAD_INDEXES));
+        assertTrue(targets.remove("button3"));
+        assertFalse(targets.contains("button3"));
+        assertEquals(10, targets.size());
+    }
+}
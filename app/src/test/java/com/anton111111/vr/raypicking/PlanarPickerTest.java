@@ -0,0 +1,120 @@
+package com.anton111111.vr.raypicking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PlanarPickerTest {
+
+    private static final short[] QUAD_INDEXES = new short[]{0, 1, 2, 0, 2, 3};
+    private static final float PLANE_Z = -2.9999f;
+
+    private static float[] quad(float left, float bottom, float width, float height, float z) {
+        return new float[]{
+                left, bottom, z,
+                left + width, bottom, z,
+                left + width, bottom + height, z,
+                left, bottom + height, z
+        };
+    }
+
+    @Test
+    public void detectsRectangles() {
+        assertTrue(PlanarPicker.isRect(quad(0.0f, 0.0f, 1.0f, 0.5f, PLANE_Z), QUAD_INDEXES, PLANE_Z));
+        // Other diagonal
+        assertTrue(PlanarPicker.isRect(quad(0.0f, 0.0f, 1.0f, 0.5f, PLANE_Z),
+                new short[]{0, 1, 3, 1, 2, 3}, PLANE_Z));
+        // Other plane
+        assertFalse(PlanarPicker.isRect(quad(0.0f, 0.0f, 1.0f, 0.5f, -3.0f), QUAD_INDEXES, PLANE_Z));
+        // Triangles share side, not diagonal
+        assertFalse(PlanarPicker.isRect(quad(0.0f, 0.0f, 1.0f, 0.5f, PLANE_Z),
+                new short[]{0, 1, 2, 0, 1, 3}, PLANE_Z));
+        // Rotated square
+        assertFalse(PlanarPicker.isRect(new float[]{
+                0.0f, -1.0f, PLANE_Z,
+                1.0f, 0.0f, PLANE_Z,
+                0.0f, 1.0f, PLANE_Z,
+                -1.0f, 0.0f, PLANE_Z}, QUAD_INDEXES, PLANE_Z));
+        assertFalse(PlanarPicker.isRect(new float[9], new short[]{0, 1, 2}, 0.0f));
+    }
+
+    @Test
+    public void picksRectangleUnderRay() {
+        PlanarPicker<String> picker = new PlanarPicker<>(PLANE_Z);
+        assertTrue(picker.add("play", quad(-1.0f, 0.0f, 0.5f, 0.5f, PLANE_Z), QUAD_INDEXES));
+        assertTrue(picker.add("seek", quad(-1.0f, -0.5f, 2.0f, 0.2f, PLANE_Z), QUAD_INDEXES));
+        assertFalse(picker.add("other", quad(-1.0f, 0.0f, 0.5f, 0.5f, -1.0f), QUAD_INDEXES));
+        assertEquals(2, picker.size());
+
+        PickRay ray = new PickRay();
+        ray.set(-0.75f, 0.25f, 0.0f, -0.75f, 0.25f, -10.0f);
+        assertEquals("play", picker.pick(ray));
+        float[] point = new float[3];
+        picker.getLastPoint(point);
+        assertArrayEquals(new float[]{-0.75f, 0.25f, PLANE_Z}, point, 0.0f);
+
+        ray.set(0.5f, -0.4f, 0.0f, 0.5f, -0.4f, -10.0f);
+        assertEquals("seek", picker.pick(ray));
+
+        ray.set(0.5f, 0.25f, 0.0f, 0.5f, 0.25f, -10.0f);
+        assertNull(picker.pick(ray));
+        assertEquals(TriangleSet.NO_HIT, picker.getLastDistance(), 0.0f);
+
+        assertTrue(picker.remove("play"));
+        ray.set(-0.75f, 0.25f, 0.0f, -0.75f, 0.25f, -10.0f);
+        assertNull(picker.pick(ray));
+        ray.set(0.5f, -0.4f, 0.0f, 0.5f, -0.4f, -10.0f);
+        assertEquals("seek", picker.pick(ray));
+    }
+
+    @Test
+    public void updatesMovedRectangle() {
+        PlanarPicker<String> picker = new PlanarPicker<>(PLANE_Z);
+        picker.add("icon", quad(0.0f, 0.0f, 0.5f, 0.5f, PLANE_Z), QUAD_INDEXES);
+        assertTrue(picker.update("icon", quad(2.0f, 0.0f, 0.5f, 0.5f, PLANE_Z), QUAD_INDEXES));
+
+        PickRay ray = new PickRay();
+        ray.set(2.25f, 0.25f, 0.0f, 2.25f, 0.25f, -10.0f);
+        assertEquals("icon", picker.pick(ray));
+        assertFalse(picker.update("unknown", quad(2.0f, 0.0f, 0.5f, 0.5f, PLANE_Z), QUAD_INDEXES));
+    }
+
+    @Test
+    public void hitsLikeTriangles() {
+        Random random = new Random(42);
+        float[] coords = quad(-1.0f, -0.3f, 2.0f, 0.1f, PLANE_Z);
+        TriangleSet triangles = new TriangleSet(coords, QUAD_INDEXES);
+        PlanarPicker<String> picker = new PlanarPicker<>(PLANE_Z);
+        picker.add("seek", coords, QUAD_INDEXES);
+        PickRay ray = new PickRay();
+        float[] expected = new float[3];
+        float[] point = new float[3];
+        int hits = 0;
+
+        for (int i = 0; i < 10000; i++) {
+            float x = random.nextFloat() * 3.0f - 1.5f;
+            float y = random.nextFloat() * 0.3f - 0.4f;
+            float eyeX = random.nextFloat() * 0.1f - 0.05f;
+            ray.set(eyeX, 0.0f, 0.0f,
+                    eyeX + (x - eyeX) * 30.0f, y * 30.0f, PLANE_Z * 30.0f);
+            float distance = ray.intersect(triangles);
+            String found = picker.pick(ray);
+            // Skip rays too close to rect border, triangles may round to other side
+            if (Math.abs(Math.abs(x) - 1.0f) < 0.0001f || Math.abs(y + 0.3f) < 0.0001f ||
+                    Math.abs(y + 0.2f) < 0.0001f) {
+                continue;
+            }
+            assertEquals(distance != TriangleSet.NO_HIT, found != null);
+            if (found != null) {
+                hits++;
+                ray.getPoint(distance, expected);
+                picker.getLastPoint(point);
+                // Same coords which seek bar gets from triangles
+                assertArrayEquals(expected, point, 0.00001f);
+            }
+        }
+        assertTrue(hits > 1000);
+    }
+}
@@ -0,0 +1,151 @@
+package com.anton111111.vr.raypicking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings("deprecation")
+public class TriangleSetTest {
+
+    private static final int RANDOM_CASES = 200000;
+    // Cases this close to triangle border may differ by rounding
+    private static final double BORDER_EPSILON = 0.0001;
+
+    private static final float[] QUAD_COORDS = new float[]{
+            -1.0f, -1.0f, -2.0f,
+            1.0f, -1.0f, -2.0f,
+            1.0f, 1.0f, -2.0f,
+            -1.0f, 1.0f, -2.0f
+    };
+    private static final short[] QUAD_INDEXES = new short[]{0, 1, 2, 0, 2, 3};
+
+    @Test
+    public void precomputesEdgesAndNormal() {
+        TriangleSet set = new TriangleSet(QUAD_COORDS, QUAD_INDEXES);
+
+        assertEquals(2, set.getCount());
+        float[] triangles = set.getTriangles();
+        assertEquals(2 * TriangleSet.STRIDE, triangles.length);
+        assertArrayEquals(new float[]{
+                        -1.0f, -1.0f, -2.0f,
+                        2.0f, 0.0f, 0.0f,
+                        2.0f, 2.0f, 0.0f,
+                        0.0f, 0.0f, 4.0f},
+                java.util.Arrays.copyOfRange(triangles, 0, TriangleSet.STRIDE), 0.0f);
+    }
+
+    @Test
+    public void findsDistanceToHit() {
+        TriangleSet set = new TriangleSet(QUAD_COORDS, QUAD_INDEXES);
+
+        assertEquals(2.0f, set.intersect(0.5f, 0.5f, 0.0f, 0.0f, 0.0f, -1.0f), 0.0001f);
+        assertEquals(0.5f, set.intersect(0.5f, -0.5f, 0.0f, 0.0f, 0.0f, -4.0f), 0.0001f);
+        // Miss aside and behind the origin
+        assertEquals(TriangleSet.NO_HIT, set.intersect(1.5f, 0.5f, 0.0f, 0.0f, 0.0f, -1.0f), 0.0f);
+        assertEquals(TriangleSet.NO_HIT, set.intersect(0.5f, 0.5f, 0.0f, 0.0f, 0.0f, 1.0f), 0.0f);
+    }
+
+    @Test
+    public void reusesArrayForSameCount() {
+        TriangleSet set = new TriangleSet(QUAD_COORDS, QUAD_INDEXES);
+        float[] triangles = set.getTriangles();
+        float[] moved = QUAD_COORDS.clone();
+        for (int i = 2; i < moved.length; i += 3) {
+            moved[i] = -4.0f;
+        }
+
+        set.set(moved, QUAD_INDEXES);
+
+        assertSame(triangles, set.getTriangles());
+        assertEquals(4.0f, set.intersect(0.5f, 0.5f, 0.0f, 0.0f, 0.0f, -1.0f), 0.0001f);
+    }
+
+    @Test
+    public void skipsDegenerateTriangle() {
+        float[] coords = new float[]{0.0f, 0.0f, -1.0f, 1.0f, 1.0f, -1.0f, 2.0f, 2.0f, -1.0f};
+        TriangleSet set = new TriangleSet(coords, new short[]{0, 1, 2});
+
+        assertEquals(TriangleSet.NO_HIT, set.intersect(1.0f, 1.0f, 0.0f, 0.0f, 0.0f, -1.0f), 0.0f);
+    }
+
+    @Test
+    public void hitsAndMissesLikeTriangle() {
+        Random random = new Random(42);
+        float[] coords = new float[9];
+        short[] indexes = new short[]{0, 1, 2};
+        TriangleSet set = new TriangleSet();
+        float[] point = new float[3];
+        int hits = 0;
+        int compared = 0;
+
+        for (int i = 0; i < RANDOM_CASES; i++) {
+            for (int j = 0; j < coords.length; j++) {
+                coords[j] = random.nextFloat() * 4.0f - 2.0f;
+            }
+            float[] near = randomPoint(random, 1.0f);
+            float[] far = randomPoint(random, 10.0f);
+            if (isNearBorder(coords, near, far)) {
+                continue;
+            }
+            set.set(coords, indexes);
+            Triangle triangle = new Triangle(
+                    new float[]{coords[0], coords[1], coords[2]},
+                    new float[]{coords[3], coords[4], coords[5]},
+                    new float[]{coords[6], coords[7], coords[8]});
+
+            int expected = Triangle.intersectRayAndTriangle(near, far, triangle, point);
+            float distance = set.intersect(far[0], far[1], far[2],
+                    near[0] - far[0], near[1] - far[1], near[2] - far[2]);
+
+            boolean isExpectedHit = expected == 1 || expected == 2;
+            assertEquals("Case " + i, isExpectedHit, distance != TriangleSet.NO_HIT);
+            if (expected == 1) {
+                hits++;
+                for (int k = 0; k < 3; k++) {
+                    float hit = far[k] + distance * (near[k] - far[k]);
+                    assertEquals("Case " + i, point[k], hit, 0.001f);
+                }
+            }
+            compared++;
+        }
+        // Both outcomes are covered
+        assertTrue(hits > compared / 100);
+        assertTrue(hits < compared - compared / 100);
+    }
+
+    private static float[] randomPoint(Random random, float scale) {
+        return new float[]{
+                (random.nextFloat() * 2.0f - 1.0f) * scale,
+                (random.nextFloat() * 2.0f - 1.0f) * scale,
+                (random.nextFloat() * 2.0f - 1.0f) * scale
+        };
+    }
+
+    /**
+     * Check in double precision if ray passes close to triangle border or is almost
+     * parallel to triangle, results of float kernels may differ there
+     */
+    private static boolean isNearBorder(float[] c, float[] near, float[] far) {
+        double e1x = c[3] - c[0], e1y = c[4] - c[1], e1z = c[5] - c[2];
+        double e2x = c[6] - c[0], e2y = c[7] - c[1], e2z = c[8] - c[2];
+        double dx = near[0] - far[0], dy = near[1] - far[1], dz = near[2] - far[2];
+        double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        double dLength = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double e1Length = Math.sqrt(e1x * e1x + e1y * e1y + e1z * e1z);
+        double e2Length = Math.sqrt(e2x * e2x + e2y * e2y + e2z * e2z);
+        if (Math.abs(det) < BORDER_EPSILON * dLength * e1Length * e2Length) {
+            return true;
+        }
+        double tx = far[0] - c[0], ty = far[1] - c[1], tz = far[2] - c[2];
+        double u = (tx * px + ty * py + tz * pz) / det;
+        double qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+        double v = (dx * qx + dy * qy + dz * qz) / det;
+        double t = (e2x * qx + e2y * qy + e2z * qz) / det;
+        return Math.abs(u) < BORDER_EPSILON || Math.abs(u - 1.0) < BORDER_EPSILON ||
+                Math.abs(v) < BORDER_EPSILON || Math.abs(u + v - 1.0) < BORDER_EPSILON ||
+                Math.abs(t) < BORDER_EPSILON;
+    }
+}
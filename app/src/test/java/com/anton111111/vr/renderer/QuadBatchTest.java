@@ -0,0 +1,257 @@
+package com.anton111111.vr.renderer;
+
+import android.opengl.GLES20;
+
+import com.anton111111.vr.GLStateCache;
+import com.anton111111.vr.program.Program;
+import com.anton111111.vr.program.ShaderAttributesLocations;
+
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QuadBatchTest {
+
+    private static final float[] QUAD = new float[]{
+            -1.0f, -1.0f, 0.0f,
+            1.0f, -1.0f, 0.0f,
+            1.0f, 1.0f, 0.0f,
+            -1.0f, 1.0f, 0.0f
+    };
+    private static final float[] COLORS = new float[]{
+            1.0f, 0.0f, 0.0f, 1.0f,
+            0.0f, 1.0f, 0.0f, 0.5f
+    };
+    private static final float[] MVP = new float[16];
+
+    @Test
+    public void mergesQuadsWithSameTexture() {
+        FakeBackend gl = new FakeBackend();
+        QuadBatch batch = createBatch(gl);
+
+        batch.begin();
+        batch.add(QUAD, QuadBatch.NO_TEXTURE, QuadBatch.FULL_TEXTURE_RECT, COLORS, 0);
+        batch.addRect(0.0f, 0.0f, 0.5f, 0.5f, 0.1f, QuadBatch.NO_TEXTURE, QuadBatch.FULL_TEXTURE_RECT, COLORS, 4);
+        batch.add(QUAD, 7, QuadBatch.FULL_TEXTURE_RECT, QuadBatch.WHITE, 0);
+        batch.add(QUAD, 7, QuadBatch.FULL_TEXTURE_RECT, QuadBatch.WHITE, 0);
+        batch.add(QUAD, QuadBatch.NO_TEXTURE, QuadBatch.FULL_TEXTURE_RECT, COLORS, 0);
+        batch.end();
+        batch.draw(MVP);
+
+        assertEquals(5, batch.getQuadsCount());
+        assertEquals(3, batch.getCommandsCount());
+        assertEquals(3, gl.draws.size());
+        // count of indexes and byte offset of first index
+        assertEquals("12 0", gl.draws.get(0));
+        assertEquals("12 24", gl.draws.get(1));
+        assertEquals("6 48", gl.draws.get(2));
+        assertEquals(1, gl.whiteTextures);
+    }
+
+    @Test
+    public void drawsBatchForEveryEyeWithOneUpload() {
+        FakeBackend gl = new FakeBackend();
+        QuadBatch batch = createBatch(gl);
+
+        batch.begin();
+        batch.add(QUAD, 3, QuadBatch.FULL_TEXTURE_RECT, QuadBatch.WHITE, 0);
+        batch.add(QUAD, 3, QuadBatch.FULL_TEXTURE_RECT, QuadBatch.WHITE, 0);
+        batch.end();
+        batch.draw(MVP);
+        batch.draw(MVP);
+
+        assertEquals(2, batch.getDrawCalls());
+        assertEquals(1, batch.getUploadsCount());
+    }
+
+    @Test
+    public void uploadsOnlyChangedStream() {
+        FakeBackend gl = new FakeBackend();
+        QuadBatch batch = createBatch(gl);
+
+        for (int i = 0; i < 3; i++) {
+            batch.begin();
+            batch.addRect(0.0f, 0.0f, 0.5f, 0.5f, 0.0f, QuadBatch.NO_TEXTURE, QuadBatch.FULL_TEXTURE_RECT, COLORS, 0);
+            batch.end();
+        }
+        assertEquals(1, batch.getUploadsCount());
+
+        batch.begin();
+        batch.addRect(0.0f, 0.0f, 0.6f, 0.5f, 0.0f, QuadBatch.NO_TEXTURE, QuadBatch.FULL_TEXTURE_RECT, COLORS, 0);
+        batch.end();
+        assertEquals(2, batch.getUploadsCount());
+    }
+
+    @Test
+    public void writesVertexAttributes() {
+        FakeBackend gl = new FakeBackend();
+        QuadBatch batch = createBatch(gl);
+
+        batch.begin();
+        batch.addRect(1.0f, 2.0f, 3.0f, 4.0f, 5.0f, 9, new float[]{0.25f, 0.5f, 0.75f, 1.0f}, COLORS, 4);
+        batch.end();
+
+        float[] v = gl.lastVertices;
+        assertEquals(QuadBatch.QUAD_SIZE, v.length);
+        // Left bottom: position, bottom left of texture rect, color
+        assertArrayEquals(new float[]{1.0f, 2.0f, 5.0f, 0.25f, 1.0f, 0.0f, 1.0f, 0.0f, 0.5f},
+                slice(v, 0), 0.0f);
+        // Right top
+        assertArrayEquals(new float[]{3.0f, 4.0f, 5.0f, 0.75f, 0.5f, 0.0f, 1.0f, 0.0f, 0.5f},
+                slice(v, 2), 0.0f);
+    }
+
+    @Test
+    public void growsAndRebuildsIndexes() {
+        FakeBackend gl = new FakeBackend();
+        QuadBatch batch = new QuadBatch(gl, new GLStateCache(gl), createProgram(), 2);
+
+        batch.begin();
+        for (int i = 0; i < 5; i++) {
+            batch.add(QUAD, i, QuadBatch.FULL_TEXTURE_RECT, QuadBatch.WHITE, 0);
+        }
+        batch.end();
+        batch.draw(MVP);
+
+        assertEquals(8, batch.getCapacity());
+        assertEquals(5, gl.draws.size());
+        assertEquals(8 * QuadBatch.QUAD_INDEXES_COUNT, gl.lastIndexesCount);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addWithoutBeginFails() {
+        FakeBackend gl = new FakeBackend();
+        createBatch(gl).add(QUAD, 1, QuadBatch.FULL_TEXTURE_RECT, QuadBatch.WHITE, 0);
+    }
+
+    private static float[] slice(float[] vertices, int vertex) {
+        float[] result = new float[QuadBatch.VERTEX_SIZE];
+        System.arraycopy(vertices, vertex * QuadBatch.VERTEX_SIZE, result, 0, QuadBatch.VERTEX_SIZE);
+        return result;
+    }
+
+    private static QuadBatch createBatch(FakeBackend gl) {
+        return new QuadBatch(gl, new GLStateCache(gl), createProgram());
+    }
+
+    private static Program createProgram() {
+        return new Program(1, new ShaderAttributesLocations(
+                QuadBatch.ATTRS, new int[]{0, 1, 2},
+                QuadBatch.UNIFORMS, new int[]{0, 1}));
+    }
+
+
+    private static class FakeBackend implements QuadBatch.Backend, GLStateCache.Backend {
+        final List<String> draws = new ArrayList<>();
+        int buffers = 0;
+        int whiteTextures = 0;
+        int lastIndexesCount = 0;
+        float[] lastVertices;
+
+        @Override
+        public int genBuffer() {
+            return ++buffers;
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+        }
+
+        @Override
+        public void bufferData(int target, int size, Buffer data, int usage) {
+            if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+                lastIndexesCount = size / 2;
+                return;
+            }
+            FloatBuffer floats = (FloatBuffer) data;
+            lastVertices = new float[size / 4];
+            floats.get(lastVertices);
+            floats.position(0);
+        }
+
+        @Override
+        public void bufferSubData(int target, int offset, int size, Buffer data) {
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+        }
+
+        @Override
+        public int createWhiteTexture() {
+            whiteTextures++;
+            return 100;
+        }
+
+        @Override
+        public void vertexAttribPointer(int location, int size, int stride, int offset) {
+        }
+
+        @Override
+        public void uniformMatrix4fv(int location, float[] matrix) {
+        }
+
+        @Override
+        public void uniform1i(int location, int value) {
+        }
+
+        @Override
+        public void drawElements(int count, int offset) {
+            draws.add(count + " " + offset);
+        }
+
+        @Override
+        public void useProgram(int program) {
+        }
+
+        @Override
+        public void activeTexture(int texture) {
+        }
+
+        @Override
+        public void bindTexture(int target, int texture) {
+        }
+
+        @Override
+        public void bindBuffer(int target, int buffer) {
+        }
+
+        @Override
+        public void enableVertexAttribArray(int index) {
+        }
+
+        @Override
+        public void disableVertexAttribArray(int index) {
+        }
+
+        @Override
+        public void enable(int cap) {
+        }
+
+        @Override
+        public void disable(int cap) {
+        }
+
+        @Override
+        public void blendFunc(int src, int dst) {
+        }
+
+        @Override
+        public void depthFunc(int func) {
+        }
+
+        @Override
+        public void depthMask(boolean flag) {
+        }
+
+        @Override
+        public int getMaxVertexAttribs() {
+            return 8;
+        }
+    }
+}
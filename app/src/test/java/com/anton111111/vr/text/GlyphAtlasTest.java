@@ -0,0 +1,154 @@
+package com.anton111111.vr.text;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GlyphAtlasTest {
+
+    @Test
+    public void rasterizesPrintableAsciiOnce() {
+        FakeRasterizer rasterizer = new FakeRasterizer(10.0f, 20, 2);
+        GlyphAtlas atlas = new GlyphAtlas(rasterizer, 512);
+
+        int printableCount = GlyphAtlas.LAST_PRINTABLE - GlyphAtlas.FIRST_PRINTABLE + 1;
+        assertEquals(printableCount, rasterizer.drawn.size());
+        assertTrue(atlas.isDirty());
+
+        atlas.getGlyph('0');
+        atlas.measure("00:12/01:30");
+        assertEquals(printableCount, rasterizer.drawn.size());
+    }
+
+    @Test
+    public void uploadsOnlyNewGlyphs() {
+        FakeRasterizer rasterizer = new FakeRasterizer(10.0f, 20, 2);
+        GlyphAtlas atlas = new GlyphAtlas(rasterizer, 512);
+
+        assertEquals(7, atlas.getTexture());
+        assertEquals(7, atlas.getTexture());
+        assertEquals(1, atlas.getUploadsCount());
+
+        // Changing text doesn't touch texture
+        atlas.measure("00:01");
+        atlas.measure("00:02");
+        atlas.getTexture();
+        assertEquals(1, atlas.getUploadsCount());
+
+        // Not ASCII glyph is rasterized on first use
+        atlas.getGlyph('\u00e9');
+        assertTrue(atlas.isDirty());
+        atlas.getTexture();
+        assertEquals(2, atlas.getUploadsCount());
+        assertEquals(7, rasterizer.lastUploadedTexture);
+    }
+
+    @Test
+    public void measuresTextWithPadding() {
+        FakeRasterizer rasterizer = new FakeRasterizer(10.0f, 20, 2);
+        GlyphAtlas atlas = new GlyphAtlas(rasterizer, 512);
+
+        assertEquals(0.0f, atlas.measure(""), 0.0f);
+        assertEquals(3 * 10.0f + 2 * 2, atlas.measure("abc"), 0.0001f);
+    }
+
+    @Test
+    public void glyphsDoNotShareTextureRects() {
+        FakeRasterizer rasterizer = new FakeRasterizer(10.0f, 20, 2);
+        GlyphAtlas atlas = new GlyphAtlas(rasterizer, 256);
+
+        GlyphAtlas.Glyph a = atlas.getGlyph('a');
+        GlyphAtlas.Glyph b = atlas.getGlyph('b');
+        assertSame(a, atlas.getGlyph('a'));
+        assertEquals(14, a.getCellWidth());
+        float[] ra = a.getTextureRect();
+        float[] rb = b.getTextureRect();
+        boolean isSeparated = ra[2] <= rb[0] || rb[2] <= ra[0] || ra[3] <= rb[1] || rb[3] <= ra[1];
+        assertTrue(isSeparated);
+        assertEquals(20.0f / 256.0f, ra[3] - ra[1], 0.0001f);
+    }
+
+    @Test
+    public void usesReplacementIfAtlasIsFull() {
+        FakeRasterizer rasterizer = new FakeRasterizer(10.0f, 20, 2);
+        // 256 / 15 * 256 / 21 = 17 * 12 = 204 cells
+        GlyphAtlas atlas = new GlyphAtlas(rasterizer, 256);
+
+        GlyphAtlas.Glyph replacement = atlas.getGlyph(GlyphAtlas.REPLACEMENT);
+        GlyphAtlas.Glyph last = null;
+        for (char c = '\u0400'; c < '\u0500'; c++) {
+            last = atlas.getGlyph(c);
+        }
+        assertSame(replacement, last);
+    }
+
+    @Test
+    public void fitsPrintableAsciiOfFont() {
+        // Proportions of Roboto: advance of wide glyph and line height, padding of glow
+        for (float fontSize = 16.0f; fontSize <= 96.0f; fontSize *= 1.5f) {
+            FakeRasterizer rasterizer = new FakeRasterizer(0.55f * fontSize,
+                    (int) Math.ceil(1.17f * fontSize) + 2 * 5, 5);
+            int size = GlyphAtlas.findSize(rasterizer, 4096);
+            assertTrue(size > 0);
+            GlyphAtlas atlas = new GlyphAtlas(rasterizer, size);
+
+            GlyphAtlas.Glyph replacement = atlas.getGlyph(GlyphAtlas.REPLACEMENT);
+            for (char c = GlyphAtlas.FIRST_PRINTABLE; c <= GlyphAtlas.LAST_PRINTABLE; c++) {
+                if (c != GlyphAtlas.REPLACEMENT) {
+                    assertNotSame("Glyph " + c + " of font " + fontSize, replacement, atlas.getGlyph(c));
+                }
+            }
+            // The smallest size is found
+            assertEquals(-1, GlyphAtlas.findSize(rasterizer, size / 2));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsIfAtlasIsTooSmallForFont() {
+        new GlyphAtlas(new FakeRasterizer(10.0f, 20, 2), 64);
+    }
+
+
+    private static class FakeRasterizer implements GlyphAtlas.Rasterizer {
+        final List<Character> drawn = new ArrayList<>();
+        final float advance;
+        final int cellHeight;
+        final int padding;
+        int lastUploadedTexture = -1;
+
+        FakeRasterizer(float advance, int cellHeight, int padding) {
+            this.advance = advance;
+            this.cellHeight = cellHeight;
+            this.padding = padding;
+        }
+
+        @Override
+        public float getAdvance(char c) {
+            return advance;
+        }
+
+        @Override
+        public int getCellHeight() {
+            return cellHeight;
+        }
+
+        @Override
+        public int getCellPadding() {
+            return padding;
+        }
+
+        @Override
+        public void draw(char c, int x, int y) {
+            drawn.add(c);
+        }
+
+        @Override
+        public int upload(int texture) {
+            lastUploadedTexture = texture;
+            return texture == 0 ? 7 : texture;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.anton111111.vr.texture;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AtlasPackerTest {
+
+    @Test
+    public void packsRowsOnShelves() {
+        AtlasPacker packer = new AtlasPacker(64, 64, 2);
+
+        assertArrayEquals(new int[]{2, 2}, packer.pack(20, 10));
+        assertArrayEquals(new int[]{24, 2}, packer.pack(20, 16));
+        // 46 + 20 + 2 > 64, new shelf above the highest rect
+        assertArrayEquals(new int[]{2, 20}, packer.pack(20, 10));
+    }
+
+    @Test
+    public void returnsNullIfRectDoesNotFit() {
+        AtlasPacker packer = new AtlasPacker(64, 64, 2);
+
+        assertNull(packer.pack(63, 10));
+        assertNotNull(packer.pack(60, 40));
+        assertNull(packer.pack(60, 40));
+        assertNotNull(packer.pack(60, 18));
+    }
+
+    @Test
+    public void packedRectsDoNotOverlap() {
+        Random random = new Random(42);
+        int count = 100;
+        int padding = 2;
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            widths[i] = 4 + random.nextInt(60);
+            heights[i] = 4 + random.nextInt(60);
+        }
+        int size = AtlasPacker.findSize(widths, heights, padding, 4096);
+        assertTrue(size > 0);
+        int[][] positions = AtlasPacker.packAll(widths, heights, size, padding);
+        assertNotNull(positions);
+
+        for (int i = 0; i < count; i++) {
+            int x = positions[i][0];
+            int y = positions[i][1];
+            assertTrue(x >= padding && y >= padding);
+            assertTrue(x + widths[i] + padding <= size);
+            assertTrue(y + heights[i] + padding <= size);
+            for (int j = i + 1; j < count; j++) {
+                boolean isSeparated = x + widths[i] + padding <= positions[j][0] ||
+                        positions[j][0] + widths[j] + padding <= x ||
+                        y + heights[i] + padding <= positions[j][1] ||
+                        positions[j][1] + heights[j] + padding <= y;
+                assertTrue("Rects " + i + " and " + j + " overlap", isSeparated);
+            }
+        }
+        // Smaller atlas is not enough
+        assertNull(AtlasPacker.packAll(widths, heights, size / 2, padding));
+    }
+
+    @Test
+    public void findsSmallestSize() {
+        // Three 96px icons of two states like the controller icons
+        int[] sizes = new int[]{96, 96, 96};
+        assertEquals(256, AtlasPacker.findSize(sizes, sizes, 2, 2048));
+        assertEquals(-1, AtlasPacker.findSize(new int[]{3000}, new int[]{10}, 2, 2048));
+        assertEquals(AtlasPacker.MIN_SIZE, AtlasPacker.findSize(new int[]{8}, new int[]{8}, 2, 2048));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRect() {
+        new AtlasPacker(64, 64, 2).pack(0, 10);
+    }
+}